@@ -0,0 +1,50 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Locates the fixtures of the benchmarks: the store checked in under
+ * docs/demo/store. The jmh task tells where it is by -DdemoStore.
+ */
+final class DemoStore {
+
+    static final String JOB_NAME = "myApple";
+    static final String LEFT = "20231210_213713";
+    static final String RIGHT = "20231210_213721";
+    static final String DIFF = "20231210_213728";
+
+    private DemoStore() {}
+
+    static Path root() {
+        return Paths.get(System.getProperty("demoStore", "docs/demo/store"));
+    }
+
+    static Path jobTimestampDir(String jobTimestamp) {
+        return root().resolve(JOB_NAME).resolve(jobTimestamp);
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
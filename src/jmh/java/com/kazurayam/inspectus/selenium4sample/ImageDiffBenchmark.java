@@ -0,0 +1,53 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diffing the PNG pairs recorded in the diff JobTimestamp of the demo store,
+ * one by one and in a ParallelDiffStage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImageDiffBenchmark {
+
+    private List<ParallelDiffStage.DiffPair> pairs;
+    private StripImageDiffer differ;
+    private Path rotatedLeft;
+    private Path rotatedRight;
+
+    @Setup
+    public void setup() throws IOException {
+        Path jobNameDir = DemoStore.root().resolve(DemoStore.JOB_NAME);
+        pairs = ParallelDiffStage.DiffPair.fromDiffIndex(jobNameDir, DemoStore.DIFF);
+        differ = new StripImageDiffer(Color.GRAY);
+        rotatedLeft = DemoStore.jobTimestampDir(DemoStore.LEFT)
+                .resolve("objects/615e7267146e307a390756a2bb0f8fbbf767a682.png");
+        rotatedRight = DemoStore.jobTimestampDir(DemoStore.RIGHT)
+                .resolve("objects/191586b67024f1620995238bb1fc5382647cd793.png");
+    }
+
+    @Benchmark
+    public StripImageDiffer.ImageDiffResult diffRotated() throws IOException {
+        return differ.diff(rotatedLeft, rotatedRight, null);
+    }
+
+    @Benchmark
+    public List<StripImageDiffer.ImageDiffResult> diffAllPairs() throws IOException {
+        return new ParallelDiffStage(ForkJoinPool.commonPool(),
+                Runtime.getRuntime().availableProcessors(), differ).diff(pairs);
+    }
+}
@@ -0,0 +1,49 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the index files of the demo store, line by line and file by file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IndexEntryBenchmark {
+
+    private List<String> lines;
+
+    @Setup
+    public void setup() throws IOException {
+        lines = Files.readAllLines(DemoStore.jobTimestampDir(DemoStore.LEFT)
+                .resolve(IndexEntry.INDEX_FILE_NAME), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void parseLines(Blackhole bh) {
+        for (String line : lines) {
+            bh.consume(IndexEntry.parse(line));
+        }
+    }
+
+    @Benchmark
+    public void readIndexFiles(Blackhole bh) throws IOException {
+        for (String ts : new String[]{DemoStore.LEFT, DemoStore.RIGHT, DemoStore.DIFF}) {
+            Path dir = DemoStore.jobTimestampDir(ts);
+            bh.consume(IndexEntry.readIndex(dir));
+        }
+    }
+}
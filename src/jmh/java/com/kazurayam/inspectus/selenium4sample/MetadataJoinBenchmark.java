@@ -0,0 +1,72 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MetadataJoin over synthetic index entries of a Production and a
+ * Development run, up to 100000 a side, which MetadataMatchingBenchmark's
+ * nestedLoop could not finish. The right side is shuffled and misses one
+ * entry in a hundred, the left side has one of its own in a hundred.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MetadataJoinBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private List<Map<String, String>> left;
+    private List<Map<String, String>> right;
+    private MetadataJoin join;
+
+    @Setup
+    public void setup() {
+        left = new ArrayList<>(size);
+        right = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (i % 100 != 7) {
+                left.add(entry("Production", "myadmin.kazurayam.com", i));
+            }
+            if (i % 100 != 3) {
+                right.add(entry("Development", "devadmin.kazurayam.com", i));
+            }
+        }
+        Collections.shuffle(right, new Random(1));
+        join = new MetadataJoin(MetadataJoin.DEMO_IGNORED);
+    }
+
+    @Benchmark
+    public MetadataJoin.Result<Map<String, String>> hashJoin() {
+        return join.join(left, right, join::canonicalKey);
+    }
+
+    private static Map<String, String> entry(String environment, String host, int i) {
+        Map<String, String> m = new TreeMap<>();
+        m.put("environment", environment);
+        m.put("URL.protocol", "https");
+        m.put("URL.host", host);
+        m.put("URL.port", "80");
+        m.put("URL.path", "/page" + i + ".html");
+        m.put("image-width", "1024");
+        m.put("image-height", String.valueOf(768 + i % 500));
+        m.put("step", String.format("%06d", i));
+        m.put("description", (i % 3 == 0) ? "top" : "detail");
+        return m;
+    }
+}
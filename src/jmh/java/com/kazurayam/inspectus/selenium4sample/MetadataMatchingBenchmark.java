@@ -0,0 +1,97 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pairing the left and the right materials of a TwinsDiff by their metadata,
+ * with the keys of AppleTwinsDiffTest ignored, then ordering the pairs by
+ * the "step" SortKey, over the demo index replicated to size entries:
+ * done as materialstore does it, every left entry against every right
+ * entry, and as a hash join by MetadataJoin.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetadataMatchingBenchmark {
+
+    static final Set<String> IGNORED = MetadataJoin.DEMO_IGNORED;
+
+    @Param({"4", "400", "4000"})
+    public int size;
+
+    private List<Map<String, String>> left;
+    private List<Map<String, String>> right;
+
+    @Setup
+    public void setup() throws IOException {
+        left = replicate(IndexEntry.readIndex(DemoStore.jobTimestampDir(DemoStore.LEFT)), size);
+        right = replicate(IndexEntry.readIndex(DemoStore.jobTimestampDir(DemoStore.RIGHT)), size);
+    }
+
+    @Benchmark
+    public List<Map<String, String>[]> nestedLoop() {
+        List<Map<String, String>[]> pairs = new ArrayList<>();
+        for (Map<String, String> l : left) {
+            Map<String, String> lKey = canonical(l);
+            for (Map<String, String> r : right) {
+                if (lKey.equals(canonical(r))) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, String>[] pair = new Map[]{l, r};
+                    pairs.add(pair);
+                    break;
+                }
+            }
+        }
+        pairs.sort(Comparator.comparing(p -> p[0].get("step")));
+        return pairs;
+    }
+
+    @Benchmark
+    public List<MetadataJoin.Pair<Map<String, String>>> hashJoin() {
+        MetadataJoin join = new MetadataJoin(IGNORED);
+        List<MetadataJoin.Pair<Map<String, String>>> pairs =
+                join.join(left, right, join::canonicalKey).getPairs();
+        pairs.sort(Comparator.comparing(p -> p.getLeft().get("step")));
+        return pairs;
+    }
+
+    static Map<String, String> canonical(Map<String, String> metadata) {
+        Map<String, String> m = new TreeMap<>(metadata);
+        m.keySet().removeAll(IGNORED);
+        return m;
+    }
+
+    /*
+     * copies of the entries, told apart by the "step"
+     */
+    static List<Map<String, String>> replicate(List<IndexEntry> entries, int size) {
+        List<Map<String, String>> list = new ArrayList<>(size);
+        for (int i = 0; list.size() < size; i++) {
+            for (IndexEntry e : entries) {
+                if (list.size() == size) {
+                    break;
+                }
+                Map<String, String> m = new TreeMap<>(e.getMetadata());
+                m.put("step", String.format("%s-%05d", m.get("step"), i));
+                list.add(m);
+            }
+        }
+        return list;
+    }
+}
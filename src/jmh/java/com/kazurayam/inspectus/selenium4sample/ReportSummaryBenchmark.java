@@ -0,0 +1,61 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering the timing summary of StepMetrics for 200 targets into a copy
+ * of the demo report. The report itself is rendered inside Inspectus.execute,
+ * which offers no entry point to benchmark on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReportSummaryBenchmark {
+
+    private Path dir;
+    private Path report;
+    private StepMetrics metrics;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("ReportSummaryBenchmark");
+        report = dir.resolve("myApple-20231210_213728.html");
+        Files.copy(DemoStore.root().resolve("myApple-20231210_213728.html"), report);
+        metrics = new StepMetrics();
+        for (int i = 0; i < 200; i++) {
+            String target = "example.com/page" + i;
+            metrics.record(StepMetrics.Phase.NAVIGATE, target, TimeUnit.MILLISECONDS.toNanos(100 + i));
+            metrics.record(StepMetrics.Phase.CAPTURE, target, TimeUnit.MILLISECONDS.toNanos(50 + i % 7));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        DemoStore.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public String summaryHtml() {
+        return metrics.summaryHtml();
+    }
+
+    /*
+     * replaces the summary injected by the previous invocation
+     */
+    @Benchmark
+    public void injectSummary() throws IOException {
+        metrics.injectSummary(report);
+    }
+}
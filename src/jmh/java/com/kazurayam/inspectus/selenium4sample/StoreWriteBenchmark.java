@@ -0,0 +1,63 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Store.write of a PNG of the demo store: SHA1, object file and index line.
+ * Every write carries a new "step" so that no two entries are the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoreWriteBenchmark {
+
+    private Path dir;
+    private Store store;
+    private JobName jobName;
+    private JobTimestamp jobTimestamp;
+    private byte[] png;
+    private int step;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("StoreWriteBenchmark");
+        store = Stores.newInstance(dir.resolve("store"));
+        jobName = new JobName("StoreWriteBenchmark");
+        jobTimestamp = JobTimestamp.now();
+        png = Files.readAllBytes(DemoStore.jobTimestampDir(DemoStore.LEFT)
+                .resolve("objects/615e7267146e307a390756a2bb0f8fbbf767a682.png"));
+        step = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        DemoStore.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Material write() throws MaterialstoreException {
+        Metadata metadata = Metadata.builder().put("step", String.valueOf(step++)).build();
+        return store.write(jobName, jobTimestamp, FileType.PNG, metadata, png);
+    }
+}
@@ -5,9 +5,11 @@ import com.kazurayam.inspectus.materialize.selenium.WebElementMaterializingFunct
 import com.kazurayam.inspectus.materialize.selenium.WebPageMaterializingFunctions;
 import com.kazurayam.materialstore.core.Material;
 import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
 import org.openqa.selenium.By;
 import org.openqa.selenium.WebDriver;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 abstract class AbstractMaterializingTest {
@@ -39,4 +41,26 @@ abstract class AbstractMaterializingTest {
         return functions.storeElementScreenshot.accept(driver, target, attributes, by);
     }
 
+    /**
+     * The Metadata which the functions above record for a Target: its URL,
+     * its attributes in the sitemap, and the attributes of the run.
+     */
+    static Metadata metadataOf(Target target, Map<String, String> attributes) {
+        return Metadata.builder(target.getUrl())
+                .putAll(target.getAttributes()).putAll(attributes).build();
+    }
+
+    /**
+     * The Metadata which storeElementScreenshot records, with the size of
+     * the image read from the IHDR of the PNG.
+     */
+    static Metadata metadataOf(Target target, Map<String, String> attributes, byte[] png) {
+        ByteBuffer ihdr = ByteBuffer.wrap(png);
+        return Metadata.builder(target.getUrl())
+                .putAll(target.getAttributes()).putAll(attributes)
+                .put("image-width", String.valueOf(ihdr.getInt(16)))
+                .put("image-height", String.valueOf(ihdr.getInt(20)))
+                .build();
+    }
+
 }
@@ -0,0 +1,293 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.inspectus.core.InspectusException;
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for a page until it is stable, instead of for a fixed ceiling.
+ *
+ * A page is stable when all of these hold:
+ * <ul>
+ *     <li>document.readyState is "complete"</li>
+ *     <li>the network has been idle for QUIET_MILLIS, i.e. no response of
+ *     the document or its resources ended since, as the Navigation and
+ *     Resource Timing buffers tell</li>
+ *     <li>the Handle's By finds an element</li>
+ * </ul>
+ * The page is polled with an exponential backoff. How long each URL took
+ * to become stable is learned as a moving average and kept across runs in
+ * a history file; it sets the first poll and the timeout of the next visit,
+ * so a slow page gets more time and a fast one fails fast. A visit which
+ * timed out counts with the time it waited.
+ *
+ * The implicit wait of the driver is set to zero while the page is polled,
+ * as every poll of an absent element would block otherwise, and set back
+ * afterwards.
+ */
+final class AdaptiveWait {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveWait.class);
+
+    static final long QUIET_MILLIS = 300;
+    static final long MIN_TIMEOUT_MILLIS = 5_000;
+    static final long DEFAULT_TIMEOUT_MILLIS = 10_000;
+    static final long MAX_TIMEOUT_MILLIS = 30_000;
+    private static final long FIRST_INTERVAL_MILLIS = 25;
+    private static final long MAX_INTERVAL_MILLIS = 400;
+    private static final double ALPHA = 0.3;
+    /* the time since the last response of the document or any of its resources ended */
+    private static final String STATE_SCRIPT =
+            "var last = 0;"
+            + "performance.getEntriesByType('navigation').concat("
+            + "  performance.getEntriesByType('resource')).forEach(function(e) {"
+            + "    last = Math.max(last, e.responseEnd, e.loadEventEnd || 0); });"
+            + "return [document.readyState, Math.round(performance.now() - last)];";
+
+    private final Path historyFile;
+    private final StepMetrics metrics;
+    private final Map<String, Double> typicalMillis = new ConcurrentHashMap<>();
+    private final Map<String, Long> waitedMillis = new ConcurrentHashMap<>();
+
+    AdaptiveWait(Path historyFile) throws IOException {
+        this(historyFile, StepMetrics.disabled());
+    }
+
+    /**
+     * @param metrics records the NAVIGATE and WAIT phases
+     */
+    AdaptiveWait(Path historyFile, StepMetrics metrics) throws IOException {
+        this.historyFile = historyFile;
+        this.metrics = metrics;
+        typicalMillis.putAll(load(historyFile));
+    }
+
+    /**
+     * The history lives in the build directory, out of reach of the
+     * cleanup of the test output, so that it outlives a run.
+     */
+    static AdaptiveWait forProject(Path projectDir) throws IOException {
+        return forProject(projectDir, StepMetrics.disabled());
+    }
+
+    static AdaptiveWait forProject(Path projectDir, StepMetrics metrics) throws IOException {
+        return new AdaptiveWait(projectDir.resolve("build/tmp/adaptiveWait/load-times.tsv"), metrics);
+    }
+
+    void navigateTo(WebDriver driver, URL url, By handle) throws InspectusException {
+        long started = System.nanoTime();
+        String target = StepMetrics.targetOf(url);
+        metrics.time(StepMetrics.Phase.NAVIGATE, target, () -> {
+            driver.navigate().to(url);
+            return null;
+        });
+        long waitStarted = System.nanoTime();
+        try {
+            waitUntilStable(driver, url.toExternalForm(), handle, started);
+        } finally {
+            metrics.record(StepMetrics.Phase.WAIT, target, System.nanoTime() - waitStarted);
+        }
+    }
+
+    /**
+     * Clicks an element which loads another page, then waits for that page.
+     */
+    void navigateByClick(WebDriver driver, By clickable, By handle) throws InspectusException {
+        String key = "click " + clickable + " on " + driver.getCurrentUrl();
+        long started = System.nanoTime();
+        metrics.time(StepMetrics.Phase.NAVIGATE, key, () -> {
+            driver.findElement(clickable).click();
+            return null;
+        });
+        long waitStarted = System.nanoTime();
+        try {
+            waitUntilStable(driver, key, handle, started);
+        } finally {
+            metrics.record(StepMetrics.Phase.WAIT, key, System.nanoTime() - waitStarted);
+        }
+    }
+
+    /**
+     * Waits for the current page after an action other than a navigation,
+     * e.g. submitting a form by the ENTER key.
+     *
+     * @param key names the action in the history and the report
+     */
+    void waitFor(WebDriver driver, String key, By handle) throws InspectusException {
+        long started = System.nanoTime();
+        try {
+            waitUntilStable(driver, key, handle, started);
+        } finally {
+            metrics.record(StepMetrics.Phase.WAIT, key, System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * @return how long the latest wait for the key took, or -1 if never waited
+     */
+    long getWaitedMillis(String key) {
+        return waitedMillis.getOrDefault(key, -1L);
+    }
+
+    /**
+     * @return the wait of every key in this run, slowest first
+     */
+    String report() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(waitedMillis.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        StringBuilder sb = new StringBuilder("waited for ").append(entries.size()).append(" pages");
+        long total = 0;
+        for (Map.Entry<String, Long> e : entries) {
+            sb.append(String.format("%n%8d ms  %s", e.getValue(), e.getKey()));
+            total += e.getValue();
+        }
+        return sb.append(String.format("%n%8d ms  in total", total)).toString();
+    }
+
+    /**
+     * Merges what was learned in this run into the history file and logs the report.
+     */
+    void save() throws IOException {
+        logger.info(report());
+        synchronized (AdaptiveWait.class) {
+            // another instance may have saved in the meantime
+            Map<String, Double> merged = new TreeMap<>(load(historyFile));
+            for (String key : waitedMillis.keySet()) {
+                Double typical = typicalMillis.get(key);
+                if (typical != null) {
+                    merged.put(key, typical);
+                }
+            }
+            Files.createDirectories(historyFile.getParent());
+            Path tmp = historyFile.resolveSibling(historyFile.getFileName() + ".tmp");
+            try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Double> e : merged.entrySet()) {
+                    bw.write(String.format("%s\t%.0f%n", e.getKey(), e.getValue()));
+                }
+            }
+            Files.move(tmp, historyFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void waitUntilStable(WebDriver driver, String key, By handle, long startedNanos)
+            throws InspectusException {
+        key = key.replace('\t', ' ');
+        Double typical = typicalMillis.get(key);
+        long timeout = (typical == null) ? DEFAULT_TIMEOUT_MILLIS
+                : Math.max(MIN_TIMEOUT_MILLIS, Math.min(MAX_TIMEOUT_MILLIS, (long) (typical * 4)));
+        if (typical != null) {
+            // no use polling a page long before it usually gets stable
+            sleep((long) (typical / 2) - elapsedMillis(startedNanos));
+        }
+        Duration implicitWait = driver.manage().timeouts().getImplicitWaitTimeout();
+        driver.manage().timeouts().implicitlyWait(Duration.ZERO);
+        try {
+            poll(driver, key, handle, startedNanos, timeout);
+        } finally {
+            driver.manage().timeouts().implicitlyWait(implicitWait);
+        }
+    }
+
+    private void poll(WebDriver driver, String key, By handle, long startedNanos, long timeout)
+            throws InspectusException {
+        long deadline = startedNanos + TimeUnit.MILLISECONDS.toNanos(timeout);
+        long interval = FIRST_INTERVAL_MILLIS;
+        String readyState = null;
+        long idleMillis = 0;
+        boolean present = false;
+        while (true) {
+            try {
+                List<?> state = (List<?>) ((JavascriptExecutor) driver).executeScript(STATE_SCRIPT);
+                readyState = String.valueOf(state.get(0));
+                idleMillis = ((Number) state.get(1)).longValue();
+                present = "complete".equals(readyState) && !driver.findElements(handle).isEmpty();
+            } catch (WebDriverException e) {
+                // the document was replaced under our feet; poll again
+                present = false;
+            }
+            long now = System.nanoTime();
+            if (present && idleMillis >= QUIET_MILLIS) {
+                break;
+            }
+            if (now >= deadline) {
+                // taken as a sample, so the next visit gets more time
+                record(key, elapsedMillis(startedNanos));
+                throw new InspectusException(String.format(
+                        "%s did not get stable in %d ms: readyState=%s, network idle for %d ms, handle %s %s",
+                        key, timeout, readyState, idleMillis, handle, present ? "found" : "not found"));
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - now) + 1;
+            if (present) {
+                // only the network is not idle yet
+                sleep(Math.min(QUIET_MILLIS - idleMillis, remaining));
+            } else {
+                sleep(Math.min(interval, remaining));
+                interval = Math.min(MAX_INTERVAL_MILLIS, interval * 2);
+            }
+        }
+        record(key, elapsedMillis(startedNanos));
+    }
+
+    private void record(String key, long waited) {
+        waitedMillis.put(key, waited);
+        typicalMillis.merge(key, (double) waited, (old, now) -> old + ALPHA * (now - old));
+    }
+
+    private static void sleep(long millis) throws InspectusException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InspectusException(e);
+        }
+    }
+
+    private static long elapsedMillis(long startedNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+    }
+
+    private static Map<String, Double> load(Path historyFile) throws IOException {
+        Map<String, Double> history = new TreeMap<>();
+        if (!Files.exists(historyFile)) {
+            return history;
+        }
+        try (BufferedReader br = Files.newBufferedReader(historyFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                if (tab > 0) {
+                    try {
+                        history.put(line.substring(0, tab), Double.parseDouble(line.substring(tab + 1)));
+                    } catch (NumberFormatException e) {
+                        logger.debug("ignored a broken line in " + historyFile + ": " + line);
+                    }
+                }
+            }
+        }
+        return history;
+    }
+}
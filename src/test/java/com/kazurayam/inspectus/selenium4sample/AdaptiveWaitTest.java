@@ -0,0 +1,93 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.inspectus.core.InspectusException;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Visit the pages of a LocalStaticSite which answers after a latency, and
+ * expect the waits to end soon after the pages got stable.
+ */
+public class AdaptiveWaitTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(AdaptiveWaitTest.class);
+    private static final int PAGE_COUNT = 3;
+    private static final long LATENCY_MILLIS = 500;
+    private static Path classOutputDir;
+    private static LocalStaticSite site;
+    private WebDriver driver;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+        BrowserSessions.setupDriverBinary();
+        site = new LocalStaticSite(PAGE_COUNT, LATENCY_MILLIS);
+    }
+
+    @AfterAll
+    static void tearDownClass() {
+        site.close();
+    }
+
+    @BeforeEach
+    public void setup() {
+        driver = BrowserSessions.acquire();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        BrowserSessions.release(driver);
+    }
+
+    @Test
+    void test_learns_load_times() throws IOException, InspectusException {
+        Path history = classOutputDir.resolve("load-times.tsv");
+        AdaptiveWait waits = new AdaptiveWait(history);
+        for (int i = 1; i <= PAGE_COUNT; i++) {
+            waits.navigateTo(driver, new URL(site.urlOf(i)), By.xpath("//footer"));
+            long waited = waits.getWaitedMillis(site.urlOf(i));
+            assertTrue(waited >= LATENCY_MILLIS, "waited " + waited + " ms");
+            assertTrue(waited < LATENCY_MILLIS + 2000, "waited " + waited + " ms");
+        }
+        waits.save();
+        assertEquals(PAGE_COUNT, Files.readAllLines(history).size());
+        // the 2nd run starts from what the 1st one learned
+        AdaptiveWait again = new AdaptiveWait(history);
+        again.navigateTo(driver, new URL(site.urlOf(1)), By.xpath("//footer"));
+        assertTrue(again.getWaitedMillis(site.urlOf(1)) >= LATENCY_MILLIS);
+    }
+
+    @Test
+    void test_absent_handle_times_out() throws IOException {
+        Path history = classOutputDir.resolve("absent.tsv");
+        AdaptiveWait waits = new AdaptiveWait(history);
+        long started = System.currentTimeMillis();
+        assertThrows(InspectusException.class, () ->
+                waits.navigateTo(driver, new URL(site.urlOf(1)), By.id("no-such-element")));
+        long elapsed = System.currentTimeMillis() - started;
+        assertTrue(elapsed < AdaptiveWait.DEFAULT_TIMEOUT_MILLIS + 2000, "took " + elapsed + " ms");
+        // the timeout is learned, so the next visit waits longer
+        waits.save();
+        List<String> lines = Files.readAllLines(history);
+        assertEquals(1, lines.size());
+        long typical = Long.parseLong(lines.get(0).split("\t")[1]);
+        assertTrue(typical >= AdaptiveWait.DEFAULT_TIMEOUT_MILLIS, lines.get(0));
+    }
+}
@@ -9,9 +9,8 @@ import com.kazurayam.inspectus.core.UncheckedInspectusException;
 import com.kazurayam.inspectus.fn.FnTwinsDiff;
 import com.kazurayam.inspectus.materialize.discovery.SitemapLoader;
 import com.kazurayam.inspectus.materialize.discovery.Target;
-import com.kazurayam.inspectus.materialize.selenium.WebDriverFormulas;
-import com.kazurayam.inspectus.materialize.selenium.WebElementMaterializingFunctions;
 import com.kazurayam.materialstore.core.DiffColor;
+import com.kazurayam.materialstore.core.FileType;
 import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.JobTimestamp;
 import com.kazurayam.materialstore.core.Material;
@@ -21,25 +20,21 @@ import com.kazurayam.materialstore.core.Store;
 import com.kazurayam.materialstore.core.Stores;
 import com.kazurayam.materialstore.core.metadata.IgnoreMetadataKeys;
 import com.kazurayam.unittest.TestOutputOrganizer;
-import io.github.bonigarcia.wdm.WebDriverManager;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.openqa.selenium.By;
-import org.openqa.selenium.Dimension;
-import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.OutputType;
 
 import java.awt.*;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.time.Duration;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiFunction;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -56,31 +51,30 @@ public class AppleTwinsDiffTest extends AbstractMaterializingTest {
     private static TestOutputOrganizer too =
             TestOutputOrganizerFactory.create(AppleTwinsDiffTest.class);
     private static Path classOutputDir;
+    private static AdaptiveWait waits;
     private static Path fixturesDir;
-    private WebDriver driver;
-    private WebDriverFormulas wdf;
+    private WebDriverPool pool;
 
     @BeforeAll
     static void setupClass() throws IOException {
         classOutputDir = too.cleanClassOutputDirectory();
+        waits = AdaptiveWait.forProject(too.getProjectDirectory());
         fixturesDir = too.getProjectDirectory().resolve("src/test/fixtures");
-        WebDriverManager.chromedriver().clearDriverCache().setup();
+        BrowserSessions.setupDriverBinary();
+    }
+
+    @AfterAll
+    static void tearDownClass() throws IOException {
+        waits.save();
     }
 
     @BeforeEach
     public void setup() {
-        ChromeOptions opt = new ChromeOptions();
-        opt.addArguments("headless");
-        opt.addArguments("--remote-allow-origins=*");
-        driver = new ChromeDriver(opt);
-        driver.manage().window().setSize(new Dimension(1024, 1000));
-        driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(5));
-        //
-        wdf = new WebDriverFormulas();
+        pool = new WebDriverPool(3);
     }
 
     @AfterEach
-    public void tearDown() { driver.quit(); }
+    public void tearDown() { pool.close(); }
 
     @Test
     public void test_performTwinsDiff() throws InspectusException {
@@ -110,8 +104,6 @@ public class AppleTwinsDiffTest extends AbstractMaterializingTest {
             Store store = parameters.getStore();
             JobName jobName = parameters.getJobName();
             JobTimestamp jobTimestamp = parameters.getJobTimestamp();
-            WebElementMaterializingFunctions functions =
-                    new WebElementMaterializingFunctions(store, jobName, jobTimestamp);
 
             assert parameters.getEnvironment() != Environment.NULL_OBJECT :
                     "parameters.getEnvironment() must not return null";
@@ -143,17 +135,25 @@ public class AppleTwinsDiffTest extends AbstractMaterializingTest {
                     throw new UncheckedInspectusException(
                             String.format("unknown Environment env=%s", env));
             }
-            // process the targets
-            for (int i = 0; i < targetList.size(); i++) {
-                Target target = targetList.get(i);
-                wdf.navigateTo(driver, target.getUrl(), target.getHandle().getBy(), 10);
-                Map<String, String> attributes = new HashMap<>();
-                attributes.put("environment", env.toString());
-                attributes.put("step", String.format("%02d", i + 1));
-                Material mt = storeElementScreenshot(functions, driver, target, By.cssSelector("img#apple"), attributes);
-                assertNotNull(mt);
+            // process the targets, spread over the browsers in the pool; each browser
+            // takes its screenshot on its own, while the writer stores them one by one
+            try (AsyncMaterialWriter writer = new AsyncMaterialWriter(store, jobName, jobTimestamp)) {
+                ParallelTargetMaterializer materializer = new ParallelTargetMaterializer(pool);
+                List<CompletableFuture<Material>> materials = materializer.materialize(targetList,
+                        Collections.singletonMap("environment", env.toString()),
+                        (driver, target, attributes) -> {
+                            waits.navigateTo(driver, target.getUrl(), target.getHandle().getBy());
+                            byte[] png = driver.findElement(By.cssSelector("img#apple"))
+                                    .getScreenshotAs(OutputType.BYTES);
+                            return writer.submit(FileType.PNG, metadataOf(target, attributes, png), png);
+                        });
+                // the report must not be compiled before all the materials are in the store
+                writer.flush();
+                for (CompletableFuture<Material> mt : materials) {
+                    assertNotNull(mt.join());
+                }
             }
-        } catch (MaterialstoreException | InspectusException e) {
+        } catch (InspectusException | MaterialstoreException e) {
             throw new UncheckedInspectusException(e);
         }
         return new Intermediates.Builder(intermediates).build();
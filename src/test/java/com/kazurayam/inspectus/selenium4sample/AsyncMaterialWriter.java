@@ -0,0 +1,295 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * Takes the writes into the Store off the browser's thread.
+ *
+ * The driver thread hands over what it has captured, raw, and goes on to
+ * the next Target at once. Background workers encode the payload, then
+ * write it into the Store, which hashes the bytes and appends to the index.
+ * At most queueCapacity payloads wait or are being written at a time; a
+ * further submit blocks the driver thread until one of them is done, so a
+ * slow disk cannot pile up screenshots in memory.
+ *
+ * flush() is the barrier to call before the report stage: it returns once
+ * every payload submitted so far is in the Store, and the MetadataIndex, if
+ * one was given, has indexed them. A payload is forgotten once it is
+ * written, and kept until flush() only if it failed, so the writer holds
+ * no more than queueCapacity payloads however many are submitted.
+ */
+class AsyncMaterialWriter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncMaterialWriter.class);
+
+    /**
+     * Turns a captured payload into the bytes of an object. Runs on a worker.
+     */
+    @FunctionalInterface
+    interface Encoder {
+        byte[] encode() throws IOException;
+    }
+
+    private final Store store;
+    private final JobName jobName;
+    private final JobTimestamp jobTimestamp;
+    private final StepMetrics metrics;
+    private final ExecutorService workers;
+    private final Semaphore slots;
+    private final Set<CompletableFuture<Material>> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger written = new AtomicInteger(0);
+    private final AtomicBoolean writtenSinceFlush = new AtomicBoolean(false);
+    private final LongAdder blockedNanos = new LongAdder();
+    private volatile MetadataIndex index;
+    private volatile ThumbnailMaker thumbnails;
+    private volatile PerceptualHash hashes;
+    private volatile ViewportSlices slices;
+
+    AsyncMaterialWriter(Store store, JobName jobName, JobTimestamp jobTimestamp) {
+        this(store, jobName, jobTimestamp, 2, 8);
+    }
+
+    AsyncMaterialWriter(Store store, JobName jobName, JobTimestamp jobTimestamp,
+                        int workerCount, int queueCapacity) {
+        this(store, jobName, jobTimestamp, workerCount, queueCapacity, StepMetrics.disabled());
+    }
+
+    /**
+     * @param metrics records the ENCODE, WRITE and DERIVE phases
+     */
+    AsyncMaterialWriter(Store store, JobName jobName, JobTimestamp jobTimestamp,
+                        int workerCount, int queueCapacity, StepMetrics metrics) {
+        if (workerCount < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "workerCount=%d and queueCapacity=%d must be >= 1", workerCount, queueCapacity));
+        }
+        this.store = store;
+        this.jobName = jobName;
+        this.jobTimestamp = jobTimestamp;
+        this.metrics = metrics;
+        AtomicInteger seq = new AtomicInteger(0);
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread t = new Thread(r, "AsyncMaterialWriter-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.slots = new Semaphore(queueCapacity);
+    }
+
+    /**
+     * Makes flush() update the MetadataIndex of the JobName with what was written.
+     */
+    void updateOnFlush(MetadataIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Makes the workers write the thumbnail of every PNG right after the PNG,
+     * while its bytes are at hand.
+     */
+    void thumbnailOnWrite(ThumbnailMaker thumbnails) {
+        this.thumbnails = thumbnails;
+    }
+
+    /**
+     * Makes the workers compute the PerceptualHash of every PNG right after the PNG.
+     */
+    void hashOnWrite(PerceptualHash hashes) {
+        this.hashes = hashes;
+    }
+
+    /**
+     * Makes the workers cut every PNG into ViewportSlices right after the PNG,
+     * under the name ViewportSlices.nameOf() makes of its metadata.
+     */
+    void sliceOnWrite(ViewportSlices slices) {
+        this.slices = slices;
+    }
+
+    /**
+     * @param bytes an already encoded object, e.g. the PNG which the browser returned
+     */
+    CompletableFuture<Material> submit(FileType fileType, Metadata metadata, byte[] bytes)
+            throws MaterialstoreException {
+        return submit(fileType, metadata, () -> bytes);
+    }
+
+    CompletableFuture<Material> submitText(FileType fileType, Metadata metadata, String text)
+            throws MaterialstoreException {
+        return submit(fileType, metadata, () -> text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The image is encoded into a PNG by the worker, not by the caller.
+     */
+    CompletableFuture<Material> submitImage(Metadata metadata, BufferedImage image)
+            throws MaterialstoreException {
+        return submit(FileType.PNG, metadata, () -> encodePng(image));
+    }
+
+    /**
+     * Blocks while queueCapacity payloads are in flight.
+     */
+    CompletableFuture<Material> submit(FileType fileType, Metadata metadata, Encoder encoder)
+            throws MaterialstoreException {
+        long started = System.nanoTime();
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MaterialstoreException(e);
+        }
+        blockedNanos.add(System.nanoTime() - started);
+        CompletableFuture<Material> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    String target = StepMetrics.targetOf(metadata);
+                    byte[] bytes = metrics.time(StepMetrics.Phase.ENCODE, target, encoder::encode);
+                    Material mt = metrics.time(StepMetrics.Phase.WRITE, target, () -> {
+                        synchronized (store) {
+                            return store.write(jobName, jobTimestamp, fileType, metadata, bytes);
+                        }
+                    });
+                    written.incrementAndGet();
+                    writtenSinceFlush.set(true);
+                    if ("png".equals(fileType.getExtension())) {
+                        metrics.time(StepMetrics.Phase.DERIVE, target, () -> {
+                            derive(mt, metadata, bytes);
+                            return null;
+                        });
+                    }
+                    return mt;
+                } catch (IOException | MaterialstoreException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    slots.release();
+                }
+            }, workers);
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+        pending.add(future);
+        future.thenRun(() -> pending.remove(future));
+        return future;
+    }
+
+    /*
+     * the thumbnail, the PerceptualHash and the slices of a PNG, each read
+     * from the bytes row by row, so no more than a few rows are decoded at a time
+     */
+    private void derive(Material mt, Metadata metadata, byte[] png) throws IOException {
+        ThumbnailMaker maker = thumbnails;
+        PerceptualHash table = hashes;
+        ViewportSlices sl = slices;
+        String id = mt.getID().toString();
+        if (maker != null) {
+            maker.make(id + ".png", png);
+        }
+        if (table != null) {
+            table.computeIfAbsent(id, png);
+        }
+        if (sl != null) {
+            sl.write(jobTimestamp.toString(), ViewportSlices.nameOf(metadata, id), png);
+        }
+    }
+
+    /**
+     * Waits until every payload submitted so far has been written.
+     *
+     * @throws MaterialstoreException the first failure among them, if any
+     */
+    void flush() throws MaterialstoreException {
+        List<CompletableFuture<Material>> batch = new ArrayList<>(pending);
+        Throwable failure = null;
+        for (CompletableFuture<Material> future : batch) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        pending.removeAll(batch);
+        if (failure instanceof MaterialstoreException) {
+            throw (MaterialstoreException) failure;
+        } else if (failure != null) {
+            throw new MaterialstoreException(failure);
+        }
+        if (writtenSinceFlush.getAndSet(false) && index != null) {
+            try {
+                index.refresh(jobTimestamp.toString());
+            } catch (IOException e) {
+                throw new MaterialstoreException(e);
+            }
+        }
+    }
+
+    int getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * @return how long the callers of submit waited for a free slot in total
+     */
+    long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum());
+    }
+
+    /**
+     * Flushes, then stops the workers.
+     */
+    @Override
+    public void close() throws MaterialstoreException {
+        try {
+            flush();
+        } finally {
+            workers.shutdown();
+            logger.debug(String.format("%d materials written, callers blocked for %d ms",
+                    getWrittenCount(), getBlockedMillis()));
+        }
+    }
+
+    private static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int width = image.getWidth();
+        int[] row = new int[width];
+        try (PngRowWriter writer = new PngRowWriter(baos, width, image.getHeight(),
+                Deflater.BEST_SPEED)) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                writer.writeRow(row);
+            }
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,101 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Write images through an AsyncMaterialWriter with a queue much shorter
+ * than the number of images, and expect all of them in the index after flush().
+ */
+public class AsyncMaterialWriterTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(AsyncMaterialWriterTest.class);
+    private static Path classOutputDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    void test_flush_waits_for_all() throws MaterialstoreException, IOException {
+        Store store = Stores.newInstance(classOutputDir.resolve("store"));
+        JobName jobName = new JobName("test_flush_waits_for_all");
+        JobTimestamp jobTimestamp = JobTimestamp.now();
+        int count = 12;
+        try (AsyncMaterialWriter writer = new AsyncMaterialWriter(store, jobName, jobTimestamp, 2, 2)) {
+            for (int i = 0; i < count; i++) {
+                Metadata metadata = Metadata.builder()
+                        .put("step", String.format("%02d", i + 1)).build();
+                writer.submitImage(metadata, paint(new Color(i * 20, 0, 255 - i * 20)));
+            }
+            writer.flush();
+            assertEquals(count, writer.getWrittenCount());
+        }
+        Path jobTimestampDir = store.getRoot().resolve(jobName.toString()).resolve(jobTimestamp.toString());
+        for (IndexEntry entry : IndexEntry.readIndex(jobTimestampDir)) {
+            assertTrue(Files.exists(entry.objectPath(jobTimestampDir)));
+        }
+        assertEquals(count, IndexEntry.readIndex(jobTimestampDir).size());
+    }
+
+    /*
+     * FnTwinsDiff writes the same steps of 2 environments into one JobTimestamp
+     */
+    @Test
+    void test_slices_of_each_environment() throws MaterialstoreException {
+        Store store = Stores.newInstance(classOutputDir.resolve("store"));
+        JobName jobName = new JobName("test_slices_of_each_environment");
+        JobTimestamp jobTimestamp = JobTimestamp.now();
+        ViewportSlices slices = new ViewportSlices(store.getRoot(), jobName.toString());
+        try (AsyncMaterialWriter writer = new AsyncMaterialWriter(store, jobName, jobTimestamp)) {
+            writer.sliceOnWrite(slices);
+            writer.submitImage(Metadata.builder().put("environment", "Production")
+                    .put("step", "01").build(), paint(Color.BLUE));
+            writer.submitImage(Metadata.builder().put("environment", "Development")
+                    .put("step", "01").build(), paint(Color.RED));
+        }
+        assertTrue(Files.exists(slices.manifestPath(jobTimestamp.toString(), "Production-01")));
+        assertTrue(Files.exists(slices.manifestPath(jobTimestamp.toString(), "Development-01")));
+    }
+
+    @Test
+    void test_failure_surfaces_at_flush() throws MaterialstoreException {
+        Store store = Stores.newInstance(classOutputDir.resolve("store"));
+        AsyncMaterialWriter writer = new AsyncMaterialWriter(store,
+                new JobName("test_failure_surfaces_at_flush"), JobTimestamp.now());
+        writer.submit(FileType.PNG, Metadata.builder().build(), () -> {
+            throw new IOException("encoder failed");
+        });
+        assertThrows(MaterialstoreException.class, writer::close);
+    }
+
+    private static BufferedImage paint(Color color) {
+        BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.dispose();
+        return image;
+    }
+}
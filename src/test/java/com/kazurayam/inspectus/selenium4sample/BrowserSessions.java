@@ -0,0 +1,192 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import io.github.bonigarcia.wdm.WebDriverManager;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.chromium.HasCdp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps headless browsers warm across test classes and jobs within a JVM.
+ *
+ * The driver binary is resolved by WebDriverManager only once per JVM.
+ * A released browser is reset (cookies, Web Storage, window size, timeouts)
+ * and parked; the next acquire() takes it instead of launching a new one.
+ * All browsers are quit by a shutdown hook, which also logs how long the
+ * cold launches and the warm reuses took.
+ */
+final class BrowserSessions {
+
+    private static final Logger logger = LoggerFactory.getLogger(BrowserSessions.class);
+
+    static final Dimension WINDOW_SIZE = new Dimension(1024, 1000);
+    /* AdaptiveWait sets it to zero while it polls a page */
+    static final Duration IMPLICIT_WAIT = Duration.ofSeconds(5);
+
+    private static final int MAX_IDLE = Integer.getInteger("browserSessions.maxIdle", 8);
+    private static final BlockingDeque<WebDriver> idle = new LinkedBlockingDeque<>();
+    private static final Set<WebDriver> live = ConcurrentHashMap.newKeySet();
+    private static final Latency cold = new Latency();
+    private static final Latency warm = new Latency();
+    private static volatile boolean driverBinaryResolved = false;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(
+                new Thread(BrowserSessions::shutdown, "BrowserSessions-shutdown"));
+    }
+
+    private BrowserSessions() {}
+
+    /**
+     * Resolves the chromedriver binary unless it has already been done in this JVM.
+     * The cache of WebDriverManager is kept, so a later JVM resolves it locally.
+     */
+    static void setupDriverBinary() {
+        if (!driverBinaryResolved) {
+            synchronized (BrowserSessions.class) {
+                if (!driverBinaryResolved) {
+                    long started = System.nanoTime();
+                    WebDriverManager.chromedriver().setup();
+                    driverBinaryResolved = true;
+                    logger.info(String.format("resolved chromedriver in %d ms",
+                            (System.nanoTime() - started) / 1_000_000));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a warm browser with a clean state if one is parked, otherwise a newly launched one
+     */
+    static WebDriver acquire() {
+        setupDriverBinary();
+        WebDriver driver;
+        while ((driver = idle.pollFirst()) != null) {
+            long started = System.nanoTime();
+            try {
+                reset(driver);
+                warm.record(System.nanoTime() - started);
+                return driver;
+            } catch (WebDriverException e) {
+                logger.warn("discarding a parked browser which failed to reset: " + e.getMessage());
+                discard(driver);
+            }
+        }
+        long started = System.nanoTime();
+        driver = launch();
+        cold.record(System.nanoTime() - started);
+        return driver;
+    }
+
+    /**
+     * Gives the browser back for reuse. The origin-bound state (Web Storage)
+     * is cleared now, while the browser is still on the page that created it.
+     */
+    static void release(WebDriver driver) {
+        if (driver == null || !live.contains(driver)) {
+            return;
+        }
+        try {
+            clearOriginState(driver);
+        } catch (WebDriverException e) {
+            logger.warn("discarding a browser which failed to clear its state: " + e.getMessage());
+            discard(driver);
+            return;
+        }
+        if (idle.size() < MAX_IDLE) {
+            idle.offerFirst(driver);
+        } else {
+            discard(driver);
+        }
+    }
+
+    static String latencySummary() {
+        return String.format("cold start: %s; warm reuse: %s", cold, warm);
+    }
+
+    private static WebDriver launch() {
+        ChromeOptions opt = new ChromeOptions();
+        opt.addArguments("headless");
+        opt.addArguments("--remote-allow-origins=*");
+        WebDriver driver = new ChromeDriver(opt);
+        driver.manage().window().setSize(WINDOW_SIZE);
+        driver.manage().timeouts().implicitlyWait(IMPLICIT_WAIT);
+        live.add(driver);
+        return driver;
+    }
+
+    private static void reset(WebDriver driver) {
+        if (driver instanceof HasCdp) {
+            // WebDriver can delete the cookies of the current domain only
+            ((HasCdp) driver).executeCdpCommand("Network.clearBrowserCookies",
+                    Collections.emptyMap());
+        }
+        driver.get("about:blank");
+        driver.manage().deleteAllCookies();
+        driver.manage().window().setSize(WINDOW_SIZE);
+        driver.manage().timeouts().implicitlyWait(IMPLICIT_WAIT);
+    }
+
+    private static void clearOriginState(WebDriver driver) {
+        if (driver instanceof JavascriptExecutor) {
+            ((JavascriptExecutor) driver).executeScript(
+                    "try { window.localStorage.clear(); window.sessionStorage.clear(); } catch (e) {}");
+        }
+    }
+
+    private static void discard(WebDriver driver) {
+        live.remove(driver);
+        try {
+            driver.quit();
+        } catch (WebDriverException e) {
+            logger.debug("ignored failure on quit: " + e.getMessage());
+        }
+    }
+
+    private static void shutdown() {
+        idle.clear();
+        for (WebDriver driver : live) {
+            discard(driver);
+        }
+        if (cold.count() > 0) {
+            logger.info(latencySummary());
+        }
+    }
+
+    /**
+     * Count and total of the durations of one kind of browser startup.
+     */
+    private static final class Latency {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        @Override
+        public String toString() {
+            long n = count.sum();
+            return n == 0 ? "none"
+                    : String.format("%d times, mean %d ms", n, totalNanos.sum() / n / 1_000_000);
+        }
+    }
+}
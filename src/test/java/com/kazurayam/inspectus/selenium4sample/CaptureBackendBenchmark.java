@@ -0,0 +1,103 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.inspectus.core.InspectusException;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the capture backends of CaptureSettings on tall pages of a
+ * LocalStaticSite: the time the driver thread spends on a screenshot, the
+ * time a ParallelPngEncoder then spends compressing it, and the bytes.
+ * Both backends must give a PNG of the same size.
+ *
+ * Excluded from the "test" task; run it by `gradle benchmark`.
+ */
+public class CaptureBackendBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(CaptureBackendBenchmark.class);
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(CaptureBackendBenchmark.class);
+    private static final int PAGE_COUNT = 10;
+    private static final int PARAGRAPHS = 400;
+    private static LocalStaticSite site;
+    private static AdaptiveWait waits;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        too.cleanClassOutputDirectory();
+        BrowserSessions.setupDriverBinary();
+        site = new LocalStaticSite(PAGE_COUNT, PARAGRAPHS, 0);
+        waits = AdaptiveWait.forProject(too.getProjectDirectory());
+    }
+
+    @AfterAll
+    static void tearDownClass() throws IOException {
+        site.close();
+        waits.save();
+    }
+
+    @Test
+    void benchmark_backends() throws IOException, InspectusException {
+        WebDriver driver = BrowserSessions.acquire();
+        try {
+            int[] webdriverSize = null;
+            for (String spec : new String[]{"backend=webdriver", "backend=cdp",
+                    "backend=cdp,compression=1", "backend=cdp,compression=6"}) {
+                CaptureSettings settings = CaptureSettings.parse(spec);
+                ParallelPngEncoder encoder = settings.newEncoder();
+                long captureNanos = 0;
+                long encodeNanos = 0;
+                long bytes = 0;
+                int[] size = null;
+                // the first round warms up the JIT and the browser
+                for (int round = 0; round < 2; round++) {
+                    captureNanos = 0;
+                    encodeNanos = 0;
+                    bytes = 0;
+                    for (int i = 1; i <= PAGE_COUNT; i++) {
+                        waits.navigateTo(driver, new URL(site.urlOf(i)), By.xpath("//footer"));
+                        long started = System.nanoTime();
+                        byte[] png = CaptureMask.NONE.capture(driver, settings).getPng();
+                        captureNanos += System.nanoTime() - started;
+                        started = System.nanoTime();
+                        if (encoder != null) {
+                            png = encoder.recompress(png);
+                        }
+                        encodeNanos += System.nanoTime() - started;
+                        bytes += png.length;
+                        size = sizeOf(png);
+                    }
+                }
+                if (webdriverSize == null) {
+                    webdriverSize = size;
+                }
+                assertEquals(webdriverSize[0], size[0], spec + ": width");
+                assertEquals(webdriverSize[1], size[1], spec + ": height");
+                logger.info(String.format("%s: %dx%d capture=%dms/page encode=%dms/page size=%dKB/page",
+                        spec, size[0], size[1],
+                        captureNanos / PAGE_COUNT / 1_000_000, encodeNanos / PAGE_COUNT / 1_000_000,
+                        bytes / PAGE_COUNT / 1024));
+            }
+        } finally {
+            BrowserSessions.release(driver);
+        }
+    }
+
+    private static int[] sizeOf(byte[] png) throws IOException {
+        try (PngRowReader reader = new PngRowReader(new ByteArrayInputStream(png))) {
+            return new int[]{reader.getWidth(), reader.getHeight()};
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.google.gson.stream.JsonReader;
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+/**
+ * The parts of a page which a screenshot should leave out, given per
+ * Target in the sitemap.json next to the "handle":
+ * <pre>
+ * {
+ *   "url": "${URL_PREFIX}/index.html",
+ *   "handle": "By.xpath: //img[@alt='umineko']",
+ *   "masks": ["By.cssSelector: .ad", "By.xpath: //time"],
+ *   "region": "By.cssSelector: main",
+ *   "attributes": {}
+ * }
+ * </pre>
+ * The elements which a mask selects, e.g. ads, dates and carousels, are
+ * painted over in MASK_COLOR, and the screenshot is cropped to the
+ * element which the region selects. The bytes of a page whose unmasked
+ * part did not change are therefore the same as before, so the object is
+ * stored once under the same SHA1 and the pair is not even decoded by the
+ * diff, and the pixels outside the region are neither stored nor compared.
+ *
+ * The elements are measured while EntirePageCapture holds the window at
+ * the height of the document, and the image is painted by the writer's
+ * worker, not on the driver thread.
+ */
+final class CaptureMask {
+
+    private static final Logger logger = LoggerFactory.getLogger(CaptureMask.class);
+
+    static final CaptureMask NONE = new CaptureMask(Collections.emptyList(), null);
+
+    static final int MASK_COLOR = 0xFF808080;
+
+    private static final Pattern HANDLE = Pattern.compile("By\\.(\\w+):\\s*(.+)", Pattern.DOTALL);
+
+    private final List<By> masks;
+    private final By region;
+
+    CaptureMask(List<By> masks, By region) {
+        this.masks = Collections.unmodifiableList(new ArrayList<>(masks));
+        this.region = region;
+    }
+
+    /**
+     * Reads the "masks" and "region" of the Targets of a sitemap.json,
+     * which SitemapLoader passes over.
+     *
+     * @param bindings as given to SitemapLoader, e.g. URL_PREFIX
+     * @return the CaptureMasks keyed by the URL of their Target; Targets
+     * without masks nor region are left out
+     */
+    static Map<String, CaptureMask> loadSitemap(Path sitemapJson, Map<String, String> bindings)
+            throws IOException {
+        Map<String, CaptureMask> result = new HashMap<>();
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(sitemapJson, StandardCharsets.UTF_8))) {
+            if (!StreamingSitemapLoader.seekTargetList(reader)) {
+                return result;
+            }
+            while (reader.hasNext()) {
+                String url = null;
+                List<By> masks = new ArrayList<>();
+                By region = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "url":
+                            url = StreamingSitemapLoader.bind(reader.nextString(), bindings);
+                            break;
+                        case "masks":
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                masks.add(parseHandle(reader.nextString()));
+                            }
+                            reader.endArray();
+                            break;
+                        case "region":
+                            region = parseHandle(reader.nextString());
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (url != null && (!masks.isEmpty() || region != null)) {
+                    result.put(url, new CaptureMask(masks, region));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param handle in the notation of sitemap.json, e.g. "By.xpath: //footer"
+     */
+    static By parseHandle(String handle) {
+        Matcher m = HANDLE.matcher(handle.trim());
+        if (!m.matches()) {
+            throw new IllegalArgumentException("not a handle: " + handle);
+        }
+        String value = m.group(2).trim();
+        switch (m.group(1)) {
+            case "xpath":
+                return By.xpath(value);
+            case "cssSelector":
+                return By.cssSelector(value);
+            case "id":
+                return By.id(value);
+            case "name":
+                return By.name(value);
+            case "className":
+                return By.className(value);
+            case "tagName":
+                return By.tagName(value);
+            case "linkText":
+                return By.linkText(value);
+            case "partialLinkText":
+                return By.partialLinkText(value);
+            default:
+                throw new IllegalArgumentException("unknown locator in handle: " + handle);
+        }
+    }
+
+    boolean isEmpty() {
+        return masks.isEmpty() && region == null;
+    }
+
+    List<By> getMasks() {
+        return masks;
+    }
+
+    /**
+     * @return the element to crop to, or null to keep the entire page
+     */
+    By getRegion() {
+        return region;
+    }
+
+    /**
+     * Takes an entire page screenshot, measuring the masked elements and
+     * the region just before.
+     */
+    Shot capture(WebDriver driver) {
+        return capture(driver, CaptureSettings.DEFAULT);
+    }
+
+    /**
+     * @param settings which backend takes the screenshot
+     */
+    Shot capture(WebDriver driver, CaptureSettings settings) {
+        boolean cdp = settings.getBackend() == CaptureSettings.Backend.CDP;
+        if (isEmpty()) {
+            return new Shot(cdp ? CdpCapture.capture(driver) : EntirePageCapture.capture(driver),
+                    Geometry.NONE);
+        }
+        AtomicReference<Geometry> geometry = new AtomicReference<>(Geometry.NONE);
+        Runnable measure = () -> geometry.set(measure(driver));
+        byte[] png = cdp ? CdpCapture.capture(driver, measure) : EntirePageCapture.capture(driver, measure);
+        return new Shot(png, geometry.get());
+    }
+
+    /**
+     * The page is loaded by now, so an element which is not there is not
+     * waited for: the implicit wait is off while the elements are looked up.
+     *
+     * @return where the elements are in the screenshot, in device pixels
+     */
+    Geometry measure(WebDriver driver) {
+        Duration implicitWait = driver.manage().timeouts().getImplicitWaitTimeout();
+        driver.manage().timeouts().implicitlyWait(Duration.ZERO);
+        try {
+            return locate(driver);
+        } finally {
+            driver.manage().timeouts().implicitlyWait(implicitWait);
+        }
+    }
+
+    private Geometry locate(WebDriver driver) {
+        double ratio = ((Number) ((JavascriptExecutor) driver).executeScript(
+                "return window.devicePixelRatio || 1;")).doubleValue();
+        List<Rectangle> boxes = new ArrayList<>();
+        for (By by : masks) {
+            for (WebElement e : driver.findElements(by)) {
+                Rectangle box = box(e, ratio);
+                if (!box.isEmpty()) {
+                    boxes.add(box);
+                }
+            }
+        }
+        Rectangle crop = null;
+        if (region != null) {
+            for (WebElement e : driver.findElements(region)) {
+                Rectangle box = box(e, ratio);
+                crop = (crop == null) ? box : crop.union(box);
+            }
+            if (crop == null || crop.isEmpty()) {
+                logger.warn(String.format("%s: region %s not found, the entire page is kept",
+                        driver.getCurrentUrl(), region));
+                crop = null;
+            }
+        }
+        return new Geometry(boxes, crop);
+    }
+
+    private static Rectangle box(WebElement e, double ratio) {
+        org.openqa.selenium.Rectangle r = e.getRect();
+        int x = (int) Math.floor(r.getX() * ratio);
+        int y = (int) Math.floor(r.getY() * ratio);
+        return new Rectangle(x, y,
+                (int) Math.ceil((r.getX() + r.getWidth()) * ratio) - x,
+                (int) Math.ceil((r.getY() + r.getHeight()) * ratio) - y);
+    }
+
+    @Override
+    public String toString() {
+        return "masks=" + masks + ", region=" + region;
+    }
+
+    /**
+     * Masks and crop in device pixels, measured on a page.
+     */
+    static final class Geometry {
+
+        static final Geometry NONE = new Geometry(Collections.emptyList(), null);
+
+        private final List<Rectangle> masks;
+        private final Rectangle region;
+
+        Geometry(List<Rectangle> masks, Rectangle region) {
+            this.masks = Collections.unmodifiableList(new ArrayList<>(masks));
+            this.region = region;
+        }
+
+        List<Rectangle> getMasks() {
+            return masks;
+        }
+
+        Rectangle getRegion() {
+            return region;
+        }
+
+        /**
+         * @return the PNG with the masks painted over and cropped to the
+         * region, or the PNG itself if there is nothing to do
+         */
+        byte[] apply(byte[] png) throws IOException {
+            if (masks.isEmpty() && region == null) {
+                return png;
+            }
+            try (PngRowReader reader = new PngRowReader(new ByteArrayInputStream(png))) {
+                return paint(reader.getWidth(), reader.getHeight(), (y, argb) -> reader.readRow(argb));
+            } catch (PngRowReader.UnsupportedPngException e) {
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+                if (image == null) {
+                    throw new IOException("not an image");
+                }
+                return paint(image.getWidth(), image.getHeight(), (y, argb) -> {
+                    image.getRGB(0, y, image.getWidth(), 1, argb, 0, image.getWidth());
+                    return true;
+                });
+            }
+        }
+
+        @FunctionalInterface
+        private interface Rows {
+            boolean read(int y, int[] argb) throws IOException;
+        }
+
+        private byte[] paint(int width, int height, Rows rows) throws IOException {
+            Rectangle bounds = new Rectangle(0, 0, width, height);
+            Rectangle crop = (region == null) ? bounds : region.intersection(bounds);
+            if (crop.isEmpty()) {
+                crop = bounds;
+            }
+            List<Rectangle> painted = new ArrayList<>();
+            for (Rectangle mask : masks) {
+                Rectangle m = mask.intersection(crop);
+                if (!m.isEmpty()) {
+                    painted.add(m);
+                }
+            }
+            int[] row = new int[width];
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (PngRowWriter writer = new PngRowWriter(baos, crop.width, crop.height, Deflater.BEST_SPEED)) {
+                int[] out = new int[crop.width];
+                for (int y = 0; y < crop.y + crop.height; y++) {
+                    if (!rows.read(y, row)) {
+                        throw new IOException("image ends at row " + y);
+                    }
+                    if (y < crop.y) {
+                        continue;
+                    }
+                    for (Rectangle m : painted) {
+                        if (y >= m.y && y < m.y + m.height) {
+                            Arrays.fill(row, m.x, m.x + m.width, MASK_COLOR);
+                        }
+                    }
+                    System.arraycopy(row, crop.x, out, 0, crop.width);
+                    writer.writeRow(out);
+                }
+            }
+            return baos.toByteArray();
+        }
+
+        @Override
+        public String toString() {
+            return "masks=" + masks + ", region=" + region;
+        }
+    }
+
+    /**
+     * A screenshot as the browser returned it, with the Geometry to apply
+     * to it later.
+     */
+    static final class Shot {
+        private final byte[] png;
+        private final Geometry geometry;
+
+        Shot(byte[] png, Geometry geometry) {
+            this.png = png;
+            this.geometry = geometry;
+        }
+
+        byte[] getPng() {
+            return png;
+        }
+
+        Geometry getGeometry() {
+            return geometry;
+        }
+
+        /**
+         * To be handed to AsyncMaterialWriter as an Encoder.
+         */
+        byte[] encode() throws IOException {
+            return geometry.apply(png);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Read the masks out of a sitemap.json, and paint them over made-up
+ * screenshots which differ only where the masks are.
+ */
+public class CaptureMaskTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(CaptureMaskTest.class);
+    private static Path classOutputDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    void test_loadSitemap() throws IOException {
+        Path sitemap = classOutputDir.resolve("sitemap.json");
+        Files.write(sitemap, ("{\"targetList\": [\n"
+                + "  {\"url\": \"${URL_PREFIX}/index.html\", \"handle\": \"By.xpath: //footer\",\n"
+                + "   \"masks\": [\"By.cssSelector: .ad\", \"By.xpath: //time\"],\n"
+                + "   \"region\": \"By.cssSelector: main\", \"attributes\": {}},\n"
+                + "  {\"url\": \"${URL_PREFIX}/about.html\", \"handle\": \"By.xpath: //footer\", \"attributes\": {}}\n"
+                + "]}").getBytes(StandardCharsets.UTF_8));
+        Map<String, CaptureMask> masks = CaptureMask.loadSitemap(sitemap,
+                Collections.singletonMap("URL_PREFIX", "http://myadmin.kazurayam.com"));
+        assertEquals(1, masks.size());
+        assertEquals("masks=[By.cssSelector: .ad, By.xpath: //time], region=By.cssSelector: main",
+                masks.get("http://myadmin.kazurayam.com/index.html").toString());
+        assertTrue(CaptureMask.NONE.isEmpty());
+    }
+
+    @Test
+    void test_parseHandle() {
+        assertEquals("By.xpath: //img[@id='apple']",
+                CaptureMask.parseHandle("By.xpath: //img[@id='apple']").toString());
+        assertEquals("By.id: apple", CaptureMask.parseHandle("By.id:apple").toString());
+        assertThrows(IllegalArgumentException.class, () -> CaptureMask.parseHandle("//footer"));
+        assertThrows(IllegalArgumentException.class, () -> CaptureMask.parseHandle("By.shadow: x"));
+    }
+
+    @Test
+    void test_apply_masks_volatile_areas() throws IOException {
+        CaptureMask.Geometry geometry = new CaptureMask.Geometry(
+                Collections.singletonList(new Rectangle(10, 20, 50, 10)), null);
+        byte[] monday = geometry.apply(page("Monday"));
+        byte[] tuesday = geometry.apply(page("Tuesday"));
+        // the same bytes, hence the same SHA1 in the store
+        assertArrayEquals(monday, tuesday);
+        BufferedImage masked = ImageIO.read(new ByteArrayInputStream(monday));
+        assertEquals(200, masked.getWidth());
+        assertEquals(100, masked.getHeight());
+        assertEquals(CaptureMask.MASK_COLOR, masked.getRGB(30, 25));
+        assertEquals(0xFFFFFFFF, masked.getRGB(5, 5));
+        assertFalse(Arrays.equals(page("Monday"), page("Tuesday")));
+    }
+
+    @Test
+    void test_apply_crops_to_region() throws IOException {
+        CaptureMask.Geometry geometry = new CaptureMask.Geometry(
+                Collections.singletonList(new Rectangle(0, 0, 500, 30)), new Rectangle(5, 10, 100, 500));
+        BufferedImage cropped = ImageIO.read(new ByteArrayInputStream(geometry.apply(page("Monday"))));
+        // clipped to the page
+        assertEquals(100, cropped.getWidth());
+        assertEquals(90, cropped.getHeight());
+        assertEquals(CaptureMask.MASK_COLOR, cropped.getRGB(0, 19));
+        assertEquals(0xFFFFFFFF, cropped.getRGB(0, 20));
+    }
+
+    @Test
+    void test_apply_nothing() throws IOException {
+        byte[] png = page("Monday");
+        assertSame(png, CaptureMask.Geometry.NONE.apply(png));
+    }
+
+    @Test
+    void test_diff_of_masked_pages() throws IOException {
+        CaptureMask.Geometry geometry = new CaptureMask.Geometry(
+                Collections.singletonList(new Rectangle(10, 20, 50, 10)), null);
+        Path left = classOutputDir.resolve("left.png");
+        Path right = classOutputDir.resolve("right.png");
+        Files.write(left, geometry.apply(page("Monday")));
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(page("Tuesday")));
+        image.setRGB(150, 80, 0xFF000000);
+        Files.write(right, geometry.apply(png(image)));
+        StripImageDiffer.ImageDiffResult result = new StripImageDiffer(Color.GRAY).diff(left, right, null);
+        assertEquals(1, result.getDiffPixels());
+    }
+
+    @Test
+    void test_stitch_tiles_of_a_tall_page() throws IOException {
+        // rows 0-99, then rows 100-199, then the last 60 rows, 40 of which are shot already
+        byte[] stitched = EntirePageCapture.stitch(
+                Arrays.asList(band(0, 100), band(100, 100), band(160, 60)),
+                Arrays.asList(0, 0, 40));
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(stitched));
+        assertEquals(50, image.getWidth());
+        assertEquals(220, image.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            assertEquals(y, image.getRGB(7, y) & 0xFFFFFF, "row " + y);
+        }
+        assertThrows(IOException.class, () -> EntirePageCapture.stitch(
+                Arrays.asList(band(0, 10), png(new BufferedImage(60, 10, BufferedImage.TYPE_INT_RGB))),
+                Arrays.asList(0, 0)));
+    }
+
+    /*
+     * a tile of a page whose rows are coloured by their y in the page
+     */
+    private static byte[] band(int top, int height) throws IOException {
+        BufferedImage image = new BufferedImage(50, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < 50; x++) {
+                image.setRGB(x, y, top + y);
+            }
+        }
+        return png(image);
+    }
+
+    /*
+     * a page with a date in it
+     */
+    private static byte[] page(String date) throws IOException {
+        BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 200, 100);
+        g.setColor(Color.BLACK);
+        g.fillRect(100, 50, 40, 40);
+        g.fillRect(12, 22, date.length() * 5, 6);
+        g.dispose();
+        return png(image);
+    }
+
+    private static byte[] png(BufferedImage image) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", baos);
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,105 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.inspectus.core.Parameters;
+
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * How the screenshots of a job are taken and encoded:
+ * <ul>
+ *     <li>backend: "webdriver", EntirePageCapture, which stretches the
+ *     window and calls getScreenshotAs; or "cdp", CdpCapture, which asks
+ *     Chrome for the whole page in one DevTools call</li>
+ *     <li>compression: -1 to keep the PNG as the browser encoded it, or 0
+ *     to 9 to encode it again off the driver thread by a ParallelPngEncoder</li>
+ * </ul>
+ * Inspectus' Parameters cannot carry settings of ours, so they are looked
+ * up by its JobName in the system properties, e.g.
+ * <pre>
+ * -Dinspectus.capture.MyAdmin=backend=cdp,compression=6
+ * -Dinspectus.capture=backend=cdp
+ * </pre>
+ * the first for one job, the second for any job without one of its own.
+ */
+final class CaptureSettings {
+
+    static final String PROPERTY = "inspectus.capture";
+
+    enum Backend { WEBDRIVER, CDP }
+
+    static final CaptureSettings DEFAULT = new CaptureSettings(Backend.WEBDRIVER, -1);
+
+    private final Backend backend;
+    private final int compressionLevel;
+
+    CaptureSettings(Backend backend, int compressionLevel) {
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            throw new IllegalArgumentException(
+                    "compression must be within -1 and 9 but was " + compressionLevel);
+        }
+        this.backend = backend;
+        this.compressionLevel = compressionLevel;
+    }
+
+    static CaptureSettings of(Parameters parameters) {
+        String spec = System.getProperty(PROPERTY + "." + parameters.getJobName());
+        if (spec == null) {
+            spec = System.getProperty(PROPERTY);
+        }
+        return spec == null ? DEFAULT : parse(spec);
+    }
+
+    /**
+     * @param spec comma separated key=value, e.g. "backend=cdp,compression=6"
+     */
+    static CaptureSettings parse(String spec) {
+        Backend backend = DEFAULT.backend;
+        int compressionLevel = DEFAULT.compressionLevel;
+        for (String pair : spec.split(",")) {
+            if (pair.trim().isEmpty()) {
+                continue;
+            }
+            String[] kv = pair.split("=", 2);
+            String key = kv[0].trim();
+            String value = kv.length == 2 ? kv[1].trim() : "";
+            try {
+                switch (key) {
+                    case "backend":
+                        backend = Backend.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "compression":
+                        compressionLevel = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(
+                                String.format("unknown key \"%s\" in %s=%s", key, PROPERTY, spec));
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(
+                        String.format("bad value of \"%s\" in %s=%s", key, PROPERTY, spec), e);
+            }
+        }
+        return new CaptureSettings(backend, compressionLevel);
+    }
+
+    Backend getBackend() {
+        return backend;
+    }
+
+    int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @return an encoder on the common pool, or null if the PNG is kept as it is
+     */
+    ParallelPngEncoder newEncoder() {
+        return compressionLevel < 0 ? null : new ParallelPngEncoder(ForkJoinPool.commonPool(), compressionLevel);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("backend=%s,compression=%d", backend.name().toLowerCase(Locale.ROOT), compressionLevel);
+    }
+}
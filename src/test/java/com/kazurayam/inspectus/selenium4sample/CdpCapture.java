@@ -0,0 +1,89 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chromium.HasCdp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Captures the entire page by the Chrome DevTools Protocol: one
+ * Page.captureScreenshot with captureBeyondViewport, clipped to the size
+ * of the document, instead of resizing the window to the document, taking
+ * the shot and resizing it back, which costs two relayouts of the page.
+ * Chrome is asked to optimizeForSpeed, i.e. to compress the PNG little;
+ * the CaptureSettings may have it compressed again by a ParallelPngEncoder
+ * off the driver thread.
+ *
+ * The PNG still comes base64 encoded over the DevTools connection, as
+ * CDP has no raw pixel format. Drivers other than Chromium's fall back to
+ * EntirePageCapture.
+ *
+ * A document taller than EntirePageCapture.MAX_HEIGHT is shot in bands
+ * of that height, which are stitched into one PNG.
+ */
+final class CdpCapture {
+
+    private static final Logger logger = LoggerFactory.getLogger(CdpCapture.class);
+
+    private CdpCapture() {}
+
+    static byte[] capture(WebDriver driver) {
+        return capture(driver, () -> {});
+    }
+
+    /**
+     * @param beforeShot runs right before the screenshot, e.g. to measure
+     *                   where elements are; the page is not scrolled
+     */
+    static byte[] capture(WebDriver driver, Runnable beforeShot) {
+        if (!(driver instanceof HasCdp)) {
+            return EntirePageCapture.capture(driver, beforeShot);
+        }
+        HasCdp cdp = (HasCdp) driver;
+        Map<String, Object> metrics = cdp.executeCdpCommand("Page.getLayoutMetrics", Collections.emptyMap());
+        Map<?, ?> content = (Map<?, ?>) metrics.get("cssContentSize");
+        double width = ((Number) content.get("width")).doubleValue();
+        double height = ((Number) content.get("height")).doubleValue();
+        beforeShot.run();
+        if (height <= EntirePageCapture.MAX_HEIGHT) {
+            return shoot(cdp, width, 0, height);
+        }
+        // Chrome cannot paint it in one go, so it is shot in bands
+        List<byte[]> tiles = new ArrayList<>();
+        for (double y = 0; y < height; y += EntirePageCapture.MAX_HEIGHT) {
+            tiles.add(shoot(cdp, width, y, Math.min(EntirePageCapture.MAX_HEIGHT, height - y)));
+        }
+        logger.info(String.format("%s: the document is %.0f pixels high, stitched from %d screenshots",
+                driver.getCurrentUrl(), height, tiles.size()));
+        try {
+            return EntirePageCapture.stitch(tiles, Collections.nCopies(tiles.size(), 0));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] shoot(HasCdp cdp, double width, double y, double height) {
+        Map<String, Object> clip = new HashMap<>();
+        clip.put("x", 0);
+        clip.put("y", y);
+        clip.put("width", width);
+        clip.put("height", height);
+        clip.put("scale", 1);
+        Map<String, Object> params = new HashMap<>();
+        params.put("format", "png");
+        params.put("captureBeyondViewport", true);
+        params.put("optimizeForSpeed", true);
+        params.put("clip", clip);
+        Map<String, Object> result = cdp.executeCdpCommand("Page.captureScreenshot", params);
+        return Base64.getDecoder().decode((String) result.get("data"));
+    }
+}
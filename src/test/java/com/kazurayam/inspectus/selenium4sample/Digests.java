@@ -0,0 +1,46 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA1 digests in the lower-case hex form that materialstore uses as object IDs.
+ */
+final class Digests {
+
+    private Digests() {}
+
+    static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String sha1Hex(byte[] bytes) {
+        return toHex(newSha1().digest(bytes));
+    }
+
+    static String sha1Hex(String text) {
+        return sha1Hex(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String sha1Hex(Path file) throws IOException {
+        MessageDigest md = newSha1();
+        md.update(MappedObjects.map(file));
+        return toHex(md.digest());
+    }
+
+    static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
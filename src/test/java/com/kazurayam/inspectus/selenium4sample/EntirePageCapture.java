@@ -0,0 +1,143 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Captures the entire page in a single screenshot by stretching the
+ * window to the height of the document, instead of scrolling and pasting
+ * viewports together. Returns the PNG bytes as the browser encoded them,
+ * so nothing is decoded nor encoded on the driver thread.
+ *
+ * A document taller than MAX_HEIGHT is the exception: the window is
+ * stretched to MAX_HEIGHT, the page is scrolled by that much between
+ * shots, and the shots are stitched into one PNG row by row. Elements with
+ * a fixed position then appear in every tile.
+ *
+ * Meant for headless browsers, where the window can be taller than the
+ * screen.
+ */
+final class EntirePageCapture {
+
+    private static final Logger logger = LoggerFactory.getLogger(EntirePageCapture.class);
+
+    /* the largest texture Chrome paints in one go */
+    static final int MAX_HEIGHT = 16384;
+
+    private EntirePageCapture() {}
+
+    static byte[] capture(WebDriver driver) {
+        return capture(driver, () -> {});
+    }
+
+    /**
+     * @param beforeShot runs while the window is stretched, right before the
+     *                   screenshot, e.g. to measure where elements are
+     */
+    static byte[] capture(WebDriver driver, Runnable beforeShot) {
+        JavascriptExecutor js = (JavascriptExecutor) driver;
+        Dimension original = driver.manage().window().getSize();
+        long documentHeight = ((Number) js.executeScript(
+                "return Math.max(document.body.scrollHeight, document.documentElement.scrollHeight);"))
+                .longValue();
+        long frameHeight = ((Number) js.executeScript(
+                "return window.outerHeight - window.innerHeight;")).longValue();
+        int height = (int) Math.min(MAX_HEIGHT, documentHeight + frameHeight);
+        boolean stretched = height > original.getHeight();
+        if (stretched) {
+            driver.manage().window().setSize(new Dimension(original.getWidth(), height));
+        }
+        try {
+            beforeShot.run();
+            if (documentHeight + frameHeight <= MAX_HEIGHT) {
+                return ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES);
+            }
+            return captureTiles(driver, documentHeight);
+        } finally {
+            if (stretched) {
+                driver.manage().window().setSize(original);
+            }
+        }
+    }
+
+    /*
+     * one shot per window height; the browser does not scroll past the end of
+     * the document, so the last shot overlaps the one before
+     */
+    private static byte[] captureTiles(WebDriver driver, long documentHeight) {
+        JavascriptExecutor js = (JavascriptExecutor) driver;
+        long viewport = ((Number) js.executeScript("return window.innerHeight;")).longValue();
+        double ratio = ((Number) js.executeScript("return window.devicePixelRatio || 1;")).doubleValue();
+        List<byte[]> tiles = new ArrayList<>();
+        List<Integer> overlaps = new ArrayList<>();
+        long covered = 0;
+        try {
+            while (covered < documentHeight) {
+                js.executeScript("window.scrollTo(0, arguments[0]);", covered);
+                long scrolled = ((Number) js.executeScript("return window.scrollY;")).longValue();
+                tiles.add(((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES));
+                overlaps.add((int) Math.round((covered - scrolled) * ratio));
+                covered = scrolled + viewport;
+            }
+        } finally {
+            js.executeScript("window.scrollTo(0, 0);");
+        }
+        logger.info(String.format("%s: the document is %d pixels high, stitched from %d screenshots",
+                driver.getCurrentUrl(), documentHeight, tiles.size()));
+        try {
+            return stitch(tiles, overlaps);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Puts PNG images of the same width one below the other.
+     *
+     * @param overlaps how many rows at the top of each tile to leave out,
+     *                 as the tile before has them already
+     */
+    static byte[] stitch(List<byte[]> tiles, List<Integer> overlaps) throws IOException {
+        int width = -1;
+        int height = 0;
+        for (int i = 0; i < tiles.size(); i++) {
+            try (PngRowReader reader = new PngRowReader(
+                    new MappedObjects.ByteBufferInputStream(ByteBuffer.wrap(tiles.get(i))))) {
+                if (width >= 0 && reader.getWidth() != width) {
+                    throw new IOException(String.format("tile %d is %d pixels wide, not %d",
+                            i, reader.getWidth(), width));
+                }
+                width = reader.getWidth();
+                height += Math.max(0, reader.getHeight() - overlaps.get(i));
+            }
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try (PngRowWriter writer = new PngRowWriter(png, width, height, Deflater.DEFAULT_COMPRESSION)) {
+            int[] row = new int[width];
+            for (int i = 0; i < tiles.size(); i++) {
+                try (PngRowReader reader = new PngRowReader(
+                    new MappedObjects.ByteBufferInputStream(ByteBuffer.wrap(tiles.get(i))))) {
+                    for (int y = 0; reader.readRow(row); y++) {
+                        if (y >= overlaps.get(i)) {
+                            writer.writeRow(row);
+                        }
+                    }
+                }
+            }
+        }
+        return png.toByteArray();
+    }
+}
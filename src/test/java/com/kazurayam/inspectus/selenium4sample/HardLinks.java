@@ -0,0 +1,73 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+/**
+ * Makes hard links for ObjectPool, StoreSync and ReportBundle, and tells
+ * apart the failures after which a copy does as well from those a copy
+ * would only hide.
+ *
+ * A link across filesystems (EXDEV), or on a filesystem without links,
+ * cannot be made at all, so the caller copies from then on. A file with
+ * as many links as the filesystem allows (EMLINK) is copied, and the next
+ * one is linked again. Anything else, e.g. a full disk, a denied access or
+ * a missing directory, is thrown, as a copy would fail as well or do the
+ * wrong thing. NIO reports EXDEV and EMLINK as a plain FileSystemException,
+ * so EXDEV is recognized by comparing the FileStores of the two paths and
+ * EMLINK by the reason, as the operating system words it.
+ */
+final class HardLinks {
+
+    enum Outcome {
+        /** the link is made */
+        LINKED,
+        /** the file could not be linked but the next one may be */
+        COPY_THIS,
+        /** no link can be made between these directories */
+        COPY_ALL
+    }
+
+    /* EMLINK on Unix, ERROR_TOO_MANY_LINKS on Windows */
+    private static final Pattern TOO_MANY_LINKS =
+            Pattern.compile("too many links|more links", Pattern.CASE_INSENSITIVE);
+    /* EOPNOTSUPP, ENOSYS */
+    private static final Pattern NOT_SUPPORTED =
+            Pattern.compile("not supported|not implemented", Pattern.CASE_INSENSITIVE);
+
+    private HardLinks() {}
+
+    /**
+     * @param link the link to create, which must not exist
+     * @param existing the file it is to share the content of
+     */
+    static Outcome link(Path link, Path existing) throws IOException {
+        try {
+            Files.createLink(link, existing);
+            return Outcome.LINKED;
+        } catch (UnsupportedOperationException e) {
+            return Outcome.COPY_ALL;
+        } catch (FileSystemException e) {
+            // subclasses such as AccessDeniedException and NoSuchFileException are thrown
+            if (e.getClass() != FileSystemException.class || Files.exists(link)) {
+                throw e;
+            }
+            String reason = e.getReason() != null ? e.getReason() : "";
+            if (!sameFileStore(link.toAbsolutePath().getParent(), existing)
+                    || NOT_SUPPORTED.matcher(reason).find()) {
+                return Outcome.COPY_ALL;
+            }
+            if (TOO_MANY_LINKS.matcher(reason).find()) {
+                return Outcome.COPY_THIS;
+            }
+            throw e;
+        }
+    }
+
+    private static boolean sameFileStore(Path dir, Path file) throws IOException {
+        return Files.getFileStore(dir).equals(Files.getFileStore(file));
+    }
+}
@@ -0,0 +1,220 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Compares two HTML sources as sequences of HtmlTokenizer tokens rather
+ * than as lines of text, so that a page re-indented, with its attributes
+ * reordered or with a fresh CSRF token comes out unchanged.
+ *
+ * Each token is kept as a 64-bit FNV-1a hash only, 8 bytes however long
+ * the token is. The common head and tail are cut off, then the edit
+ * distance of what remains, the number of tokens to insert and delete, is
+ * found by the O(ND) algorithm of Myers. That takes time in proportion to
+ * the size times the distance, and the search gives up once the distance
+ * passes maxEditDistance: a pair that different is reported as exceeded
+ * without spending the time to find out by how much.
+ *
+ * When the two objects have the same SHA1 ID nothing is read at all.
+ *
+ * It stands alone: the diffs in the reports are still made by Inspectus'
+ * FnTwinsDiff and FnChronosDiff, whose text differ cannot be replaced from
+ * outside.
+ */
+final class HtmlSourceDiffer {
+
+    static final int DEFAULT_MAX_EDIT_DISTANCE = 1000;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int maxEditDistance;
+
+    HtmlSourceDiffer() {
+        this(DEFAULT_MAX_EDIT_DISTANCE);
+    }
+
+    HtmlSourceDiffer(int maxEditDistance) {
+        if (maxEditDistance < 0) {
+            throw new IllegalArgumentException("maxEditDistance must be >= 0 but was " + maxEditDistance);
+        }
+        this.maxEditDistance = maxEditDistance;
+    }
+
+    /**
+     * @param left an object file, named &lt;sha1&gt;.html as in the store
+     * @param right an object file, named &lt;sha1&gt;.html as in the store
+     */
+    HtmlDiffResult diff(Path left, Path right) throws IOException {
+        if (idOf(left).equals(idOf(right))) {
+            return HtmlDiffResult.identical();
+        }
+        long[] l;
+        long[] r;
+        try (HtmlTokenizer tokens = HtmlTokenizer.open(left)) {
+            l = hashes(tokens);
+        }
+        try (HtmlTokenizer tokens = HtmlTokenizer.open(right)) {
+            r = hashes(tokens);
+        }
+        return compare(l, r);
+    }
+
+    HtmlDiffResult diff(Reader left, Reader right) throws IOException {
+        try (HtmlTokenizer l = new HtmlTokenizer(left); HtmlTokenizer r = new HtmlTokenizer(right)) {
+            return compare(hashes(l), hashes(r));
+        }
+    }
+
+    HtmlDiffResult compare(long[] left, long[] right) {
+        int head = 0;
+        int max = Math.min(left.length, right.length);
+        while (head < max && left[head] == right[head]) {
+            head++;
+        }
+        int tail = 0;
+        while (tail < max - head && left[left.length - 1 - tail] == right[right.length - 1 - tail]) {
+            tail++;
+        }
+        int distance = (head == max && left.length == right.length) ? 0
+                : editDistance(left, head, left.length - tail, right, head, right.length - tail,
+                maxEditDistance);
+        if (distance < 0) {
+            return new HtmlDiffResult(left.length, right.length, maxEditDistance + 1, true, head);
+        }
+        return new HtmlDiffResult(left.length, right.length, distance, false,
+                distance == 0 ? -1 : head);
+    }
+
+    /**
+     * The forward search of Myers, keeping only the furthest x reached on
+     * each diagonal k = x - y.
+     *
+     * @return the number of insertions and deletions to turn a[aFrom, aTo)
+     * into b[bFrom, bTo), or -1 if more than max
+     */
+    static int editDistance(long[] a, int aFrom, int aTo, long[] b, int bFrom, int bTo, int max) {
+        int n = aTo - aFrom;
+        int m = bTo - bFrom;
+        int limit = Math.min(max, n + m);
+        int offset = limit + 1;
+        int[] v = new int[2 * limit + 3];
+        for (int d = 0; d <= limit; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aFrom + x] == b[bFrom + y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return d;
+                }
+            }
+        }
+        return -1;
+    }
+
+    static long[] hashes(HtmlTokenizer tokens) {
+        long[] hashes = new long[1024];
+        int size = 0;
+        while (tokens.hasNext()) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            hashes[size++] = fnv1a(tokens.next());
+        }
+        return Arrays.copyOf(hashes, size);
+    }
+
+    static long fnv1a(String token) {
+        long h = FNV_OFFSET;
+        for (byte b : token.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    private static String idOf(Path objectFile) {
+        String name = objectFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * The outcome of comparing two HTML sources.
+     */
+    static final class HtmlDiffResult {
+        private final int leftTokens;
+        private final int rightTokens;
+        private final int distance;
+        private final boolean exceeded;
+        private final int firstDifference;
+
+        HtmlDiffResult(int leftTokens, int rightTokens, int distance, boolean exceeded,
+                       int firstDifference) {
+            this.leftTokens = leftTokens;
+            this.rightTokens = rightTokens;
+            this.distance = distance;
+            this.exceeded = exceeded;
+            this.firstDifference = firstDifference;
+        }
+
+        static HtmlDiffResult identical() {
+            return new HtmlDiffResult(0, 0, 0, false, -1);
+        }
+
+        /**
+         * @return the tokens inserted and deleted; if exceeded, maxEditDistance + 1
+         */
+        int getDistance() {
+            return distance;
+        }
+
+        /**
+         * @return true if the search gave up, the distance being more than maxEditDistance
+         */
+        boolean isExceeded() {
+            return exceeded;
+        }
+
+        /**
+         * @return the index of the first token that differs, or -1 if none does
+         */
+        int getFirstDifference() {
+            return firstDifference;
+        }
+
+        int getLeftTokens() {
+            return leftTokens;
+        }
+
+        int getRightTokens() {
+            return rightTokens;
+        }
+
+        /**
+         * @return the percentage of tokens inserted or deleted, 0.0 to 100.0;
+         * a lower bound if exceeded
+         */
+        double getDiffRatio() {
+            int total = leftTokens + rightTokens;
+            return total == 0 ? 0.0 : Math.min(100.0, distance * 100.0 / total);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d/%d tokens, distance %s%d, %.2f%%",
+                    leftTokens, rightTokens, exceeded ? ">=" : "", distance, getDiffRatio());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tokenize and diff HTML sources, small ones written here and generated
+ * pages of over 1MB with a minified script.
+ */
+public class HtmlSourceDifferTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(HtmlSourceDifferTest.class);
+    private static Path classOutputDir;
+
+    private static final String PAGE =
+            "<!DOCTYPE html>\n<html>\n<head>\n"
+                    + "  <meta name=\"csrf-token\" content=\"4f9a0c\">\n"
+                    + "  <script nonce=\"abc123\" src=\"/app.js?v=2&t=1700000000000\"></script>\n"
+                    + "</head>\n<body class=\"main\" id=\"top\">\n"
+                    + "  <!-- rendered at 2024-01-01T10:00:00Z -->\n"
+                    + "  <form><input type=\"hidden\" name=\"_csrf\" value=\"x1\"><input name=\"q\"></form>\n"
+                    + "  <p>Updated 2024-01-01 10:00:00</p>\n"
+                    + "  <p>Hello,\n     world</p>\n"
+                    + "</body>\n</html>\n";
+
+    private static final String SAME_PAGE =
+            "<!doctype html><html><head>"
+                    + "<META content='77be21' name='csrf-token'>"
+                    + "<script nonce=\"zzz999\" src=\"/app.js?v=2&t=1700000099999\"></script>"
+                    + "</head><body id=top class=main>"
+                    + "<form><input value=\"y2\" name=\"_csrf\" type=\"hidden\"><input name=\"q\"></form>"
+                    + "<p>Updated 2024-02-03 11:22:33</p>"
+                    + "<p>Hello, world</p>"
+                    + "</body></html>";
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    void test_tokens() throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (HtmlTokenizer t = new HtmlTokenizer(new StringReader(PAGE))) {
+            t.forEachRemaining(tokens::add);
+        }
+        assertEquals(Arrays.asList(
+                "<!doctype html>", "<html>", "<head>",
+                "<meta content=\"*\" name=\"csrf-token\">",
+                "<script src=\"/app.js?v=2&t=#time\">", "</script>",
+                "</head>", "<body class=\"main\" id=\"top\">",
+                "<form>", "<input name=\"_csrf\" type=\"hidden\" value=\"*\">", "<input name=\"q\">", "</form>",
+                "<p>", "Updated #time", "</p>",
+                "<p>", "Hello, world", "</p>",
+                "</body>", "</html>"), tokens);
+    }
+
+    @Test
+    void test_normalized_equal() throws IOException {
+        HtmlSourceDiffer.HtmlDiffResult result =
+                new HtmlSourceDiffer().diff(new StringReader(PAGE), new StringReader(SAME_PAGE));
+        assertEquals(0, result.getDistance(), result.toString());
+        assertEquals(-1, result.getFirstDifference());
+        assertEquals(0.0, result.getDiffRatio());
+    }
+
+    @Test
+    void test_inserted_paragraph() throws IOException {
+        String changed = PAGE.replace("<p>Hello,", "<p>New</p><p>Hello,");
+        HtmlSourceDiffer.HtmlDiffResult result =
+                new HtmlSourceDiffer().diff(new StringReader(PAGE), new StringReader(changed));
+        assertEquals(3, result.getDistance());
+        assertEquals(16, result.getFirstDifference());
+        assertFalse(result.isExceeded());
+    }
+
+    @Test
+    void test_comment_ending_with_dashes() throws IOException {
+        String left = "<body><!-- Banner ---><p>Sale</p><!----><p>A</p></body>";
+        String right = "<body><!-- Banner ---><p>Closed</p><!----><p>B</p></body>";
+        HtmlSourceDiffer.HtmlDiffResult result =
+                new HtmlSourceDiffer().diff(new StringReader(left), new StringReader(right));
+        assertEquals(8, result.getLeftTokens());
+        assertEquals(4, result.getDistance(), result.toString());
+    }
+
+    @Test
+    void test_epoch_only_where_a_time_is_known() throws IOException {
+        String left = "<p>SKU 1234567890</p><time data-timestamp=\"1700000000\">now</time>";
+        String right = "<p>SKU 1999999999</p><time data-timestamp=\"1700000099\">now</time>";
+        HtmlSourceDiffer.HtmlDiffResult result =
+                new HtmlSourceDiffer().diff(new StringReader(left), new StringReader(right));
+        // the SKU is a change, the data-timestamp is not
+        assertEquals(2, result.getDistance(), result.toString());
+        List<String> tokens = new ArrayList<>();
+        try (HtmlTokenizer t = new HtmlTokenizer(new StringReader(right))) {
+            t.forEachRemaining(tokens::add);
+        }
+        assertEquals(Arrays.asList("<p>", "SKU 1999999999", "</p>",
+                "<time data-timestamp=\"#time\">", "now", "</time>"), tokens);
+    }
+
+    @Test
+    void test_editDistance() {
+        long[] a = {1, 2, 3, 4, 5, 6};
+        long[] b = {1, 3, 4, 7, 5, 6, 8};
+        // delete 2, insert 7 and 8
+        assertEquals(3, HtmlSourceDiffer.editDistance(a, 0, a.length, b, 0, b.length, 10));
+        assertEquals(-1, HtmlSourceDiffer.editDistance(a, 0, a.length, b, 0, b.length, 2));
+        assertEquals(13, HtmlSourceDiffer.editDistance(a, 0, a.length, new long[]{9, 9, 9, 9, 9, 9, 9}, 0, 7, 20));
+    }
+
+    @Test
+    void test_large_pages() throws IOException {
+        Path left = classOutputDir.resolve("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa.html");
+        Path right = classOutputDir.resolve("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb.html");
+        Path unrelated = classOutputDir.resolve("cccccccccccccccccccccccccccccccccccccccc.html");
+        writePage(left, 20000, -1, "abc");
+        writePage(right, 20000, 12345, "def");
+        writeRows(unrelated);
+        assertTrue(Files.size(left) > 1024 * 1024);
+        HtmlSourceDiffer differ = new HtmlSourceDiffer(100);
+        long start = System.nanoTime();
+        HtmlSourceDiffer.HtmlDiffResult result = differ.diff(left, right);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        // one text token changed: a deletion and an insertion
+        assertEquals(2, result.getDistance(), result.toString());
+        assertTrue(result.getLeftTokens() > 100000);
+        assertTrue(millis < 10000, millis + "ms");
+        // every row differs: the search gives up
+        HtmlSourceDiffer.HtmlDiffResult exceeded = differ.diff(left, unrelated);
+        assertTrue(exceeded.isExceeded());
+        assertEquals(101, exceeded.getDistance());
+        assertEquals(0, differ.diff(left, left).getDistance());
+    }
+
+    /*
+     * a table of rows, with a minified script and a CSRF token that differ
+     * in every page
+     */
+    private static void writePage(Path file, int rows, int changedRow, String token) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("<html><head><meta name=\"csrf-token\" content=\"" + token + "\"><script>");
+            for (int i = 0; i < 2000; i++) {
+                w.write("function f" + i + "(a){return a+" + i + "};");
+            }
+            w.write("</script></head><body><table>\n");
+            for (int i = 0; i < rows; i++) {
+                w.write(String.format("  <tr class=\"row\"><td>%d</td><td>%s</td></tr>\n",
+                        i, i == changedRow ? "changed" : "item number " + i));
+            }
+            w.write("</table></body></html>\n");
+        }
+    }
+
+    private static void writeRows(Path file) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("<html><body><ul>\n");
+            for (int i = 0; i < 20000; i++) {
+                w.write("<li>" + i + "</li>\n");
+            }
+            w.write("</ul></body></html>\n");
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Reads an HTML source a token at a time: a start tag, an end tag or a run
+ * of text, each rendered as a normalized string, so that two sources which
+ * differ only in what does not matter to a reader give the same tokens.
+ * <ul>
+ *     <li>tag and attribute names are lower-cased, the attributes sorted
+ *     and their values quoted alike</li>
+ *     <li>runs of whitespace in text become one space; text that is only
+ *     whitespace, and comments, are dropped</li>
+ *     <li>"nonce" attributes are dropped, and the values of CSRF tokens,
+ *     i.e. attributes named like one, and the value/content of an input
+ *     or a meta named like one, are replaced by "*"</li>
+ *     <li>ISO 8601 timestamps are replaced by "#time" in text and
+ *     attribute values. Epoch seconds/milliseconds are replaced only where
+ *     they are known to be times: as the whole value of an attribute
+ *     named like one, e.g. data-timestamp, and as a cache-buster in a URL,
+ *     e.g. "app.js?t=1700000000000". Elsewhere a 10 or 13 digit number,
+ *     such as an SKU, is kept as it is</li>
+ * </ul>
+ * The body of a script or a style element is one token, however large, so
+ * a minified script comes out as one line of the diff, not thousands.
+ *
+ * Nothing but the current token is held in memory; a 1MB page is read
+ * through a 64KB buffer.
+ */
+final class HtmlTokenizer implements Iterator<String>, Closeable {
+
+    static final String MASK = "*";
+    static final String TIME = "#time";
+
+    private static final Pattern VOLATILE_NAME =
+            Pattern.compile("(?i).*(csrf|xsrf|authenticity_token|requestverificationtoken).*");
+    private static final Pattern TIMESTAMP = Pattern.compile(
+            "\\d{4}-\\d{2}-\\d{2}[T ]\\d{2}:\\d{2}(?::\\d{2}(?:\\.\\d+)?)?(?:Z|[+-]\\d{2}:?\\d{2})?");
+    private static final Pattern EPOCH = Pattern.compile("1\\d{9}(?:\\d{3})?");
+    private static final Pattern TIME_NAME =
+            Pattern.compile("(?i)(?:.*(?:time|date).*|ts|.*[-_]ts|.*[-_]at)");
+    private static final Pattern CACHE_BUSTER = Pattern.compile(
+            "([?&](?:t|ts|_|v|time|timestamp|cb)=)1\\d{9}(?:\\d{3})?(?![\\d])");
+
+    private final BufferedReader reader;
+    private final Deque<String> pending = new ArrayDeque<>(2);
+    private final StringBuilder sb = new StringBuilder();
+    private String rawTextElement;
+    private String next;
+
+    HtmlTokenizer(Reader reader) {
+        this.reader = (reader instanceof BufferedReader)
+                ? (BufferedReader) reader : new BufferedReader(reader, 64 * 1024);
+    }
+
+    static HtmlTokenizer open(Path file) throws IOException {
+        return new HtmlTokenizer(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readToken();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String t = next;
+        next = null;
+        return t;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private String readToken() throws IOException {
+        while (true) {
+            if (!pending.isEmpty()) {
+                return pending.poll();
+            }
+            if (rawTextElement != null) {
+                String name = rawTextElement;
+                rawTextElement = null;
+                String body = normalizeText(readRawText(name));
+                pending.add("</" + name + ">");
+                if (!body.isEmpty()) {
+                    return body;
+                }
+                continue;
+            }
+            int c = reader.read();
+            if (c == -1) {
+                return null;
+            }
+            String token = (c == '<') ? readMarkup() : readText((char) c);
+            if (token != null && !token.isEmpty()) {
+                return token;
+            }
+        }
+    }
+
+    /*
+     * after a '<'; returns null for what is dropped
+     */
+    private String readMarkup() throws IOException {
+        int c = reader.read();
+        if (c == '!') {
+            reader.mark(2);
+            if (reader.read() == '-' && reader.read() == '-') {
+                skipComment();
+                return null;
+            }
+            reader.reset();
+            return "<!" + normalizeText(readUntilClose()).toLowerCase(Locale.ROOT) + ">";
+        } else if (c == '?') {
+            readUntilClose();
+            return null;
+        } else if (c == '/') {
+            String rest = readUntilClose().trim();
+            int end = 0;
+            while (end < rest.length() && !Character.isWhitespace(rest.charAt(end))) {
+                end++;
+            }
+            return "</" + rest.substring(0, end).toLowerCase(Locale.ROOT) + ">";
+        } else if (c != -1 && Character.isLetter(c)) {
+            return readStartTag((char) c);
+        } else {
+            // a stray '<' is text
+            return c == -1 ? "<" : readText('<', (char) c);
+        }
+    }
+
+    private String readStartTag(char first) throws IOException {
+        String rest = (first + readUntilClose()).trim();
+        int i = 0;
+        while (i < rest.length() && !Character.isWhitespace(rest.charAt(i)) && rest.charAt(i) != '/') {
+            i++;
+        }
+        String name = rest.substring(0, i).toLowerCase(Locale.ROOT);
+        Map<String, String> attributes = new TreeMap<>();
+        boolean selfClosing = rest.endsWith("/");
+        while (i < rest.length()) {
+            char ch = rest.charAt(i);
+            if (Character.isWhitespace(ch) || ch == '/') {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < rest.length() && !Character.isWhitespace(rest.charAt(i))
+                    && rest.charAt(i) != '=' && rest.charAt(i) != '/') {
+                i++;
+            }
+            String attr = rest.substring(start, i).toLowerCase(Locale.ROOT);
+            while (i < rest.length() && Character.isWhitespace(rest.charAt(i))) {
+                i++;
+            }
+            String value = "";
+            if (i < rest.length() && rest.charAt(i) == '=') {
+                i++;
+                while (i < rest.length() && Character.isWhitespace(rest.charAt(i))) {
+                    i++;
+                }
+                if (i < rest.length() && (rest.charAt(i) == '"' || rest.charAt(i) == '\'')) {
+                    char quote = rest.charAt(i++);
+                    int end = rest.indexOf(quote, i);
+                    end = end < 0 ? rest.length() : end;
+                    value = rest.substring(i, end);
+                    i = end + 1;
+                } else {
+                    start = i;
+                    while (i < rest.length() && !Character.isWhitespace(rest.charAt(i))) {
+                        i++;
+                    }
+                    value = rest.substring(start, i);
+                }
+            }
+            attributes.putIfAbsent(attr, value);
+        }
+        normalizeAttributes(attributes);
+        StringBuilder token = new StringBuilder("<").append(name);
+        for (Map.Entry<String, String> e : attributes.entrySet()) {
+            token.append(' ').append(e.getKey()).append("=\"").append(e.getValue()).append('"');
+        }
+        if (!selfClosing && (name.equals("script") || name.equals("style"))) {
+            rawTextElement = name;
+        }
+        return token.append('>').toString();
+    }
+
+    static void normalizeAttributes(Map<String, String> attributes) {
+        attributes.remove("nonce");
+        boolean namedVolatile = false;
+        for (String key : new String[]{"name", "id", "property"}) {
+            String v = attributes.get(key);
+            if (v != null && VOLATILE_NAME.matcher(v).matches()) {
+                namedVolatile = true;
+            }
+        }
+        for (Map.Entry<String, String> e : attributes.entrySet()) {
+            if (VOLATILE_NAME.matcher(e.getKey()).matches()
+                    || (namedVolatile && (e.getKey().equals("value") || e.getKey().equals("content")))) {
+                e.setValue(MASK);
+            } else if (TIME_NAME.matcher(e.getKey()).matches() && EPOCH.matcher(e.getValue()).matches()) {
+                e.setValue(TIME);
+            } else {
+                e.setValue(maskTimestamps(e.getValue()));
+                if (e.getValue().contains("=1")) {
+                    e.setValue(CACHE_BUSTER.matcher(e.getValue()).replaceAll("$1" + TIME));
+                }
+            }
+        }
+    }
+
+    private String readText(char... first) throws IOException {
+        sb.setLength(0);
+        sb.append(first);
+        while (true) {
+            reader.mark(1);
+            int c = reader.read();
+            if (c == -1) {
+                break;
+            }
+            if (c == '<') {
+                reader.reset();
+                break;
+            }
+            sb.append((char) c);
+        }
+        return normalizeText(sb);
+    }
+
+    /*
+     * the body of a script or a style, up to its end tag, which is consumed
+     */
+    private String readRawText(String name) throws IOException {
+        sb.setLength(0);
+        String endTag = "</" + name;
+        int c;
+        while ((c = reader.read()) != -1) {
+            sb.append((char) c);
+            int from = sb.length() - endTag.length();
+            if (from >= 0 && Character.toLowerCase((char) c) == endTag.charAt(endTag.length() - 1)
+                    && sb.substring(from).toLowerCase(Locale.ROOT).equals(endTag)) {
+                sb.setLength(from);
+                readUntilClose();
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /*
+     * what comes before the next '>' outside quotes, which is consumed
+     */
+    private String readUntilClose() throws IOException {
+        StringBuilder s = new StringBuilder();
+        char quote = 0;
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = (char) c;
+            } else if (c == '>') {
+                break;
+            }
+            s.append((char) c);
+        }
+        return s.toString();
+    }
+
+    /*
+     * after "<!--", up to the "-->" which ends the comment, however many
+     * dashes come before its '>', e.g. "<!-- Banner --->"
+     */
+    private void skipComment() throws IOException {
+        int dashes = 0;
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '>' && dashes >= 2) {
+                return;
+            }
+            dashes = (c == '-') ? dashes + 1 : 0;
+        }
+    }
+
+    static String normalizeText(CharSequence text) {
+        StringBuilder out = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                space = out.length() > 0;
+            } else {
+                if (space) {
+                    out.append(' ');
+                    space = false;
+                }
+                out.append(ch);
+            }
+        }
+        return maskTimestamps(out.toString());
+    }
+
+    static String maskTimestamps(String s) {
+        // every ISO 8601 timestamp has a run of 4 digits; most text has none
+        int run = 0;
+        for (int i = 0; i < s.length() && run < 4; i++) {
+            run = Character.isDigit(s.charAt(i)) ? run + 1 : 0;
+        }
+        return run < 4 ? s : TIMESTAMP.matcher(s).replaceAll(TIME);
+    }
+}
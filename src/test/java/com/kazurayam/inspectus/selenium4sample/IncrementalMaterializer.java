@@ -0,0 +1,309 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.inspectus.core.InspectusException;
+import com.kazurayam.inspectus.materialize.discovery.Target;
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Skips the screenshot of a Target when its content has not changed since
+ * the previous run of the same JobName which materialized it.
+ *
+ * A cheap fingerprint is taken first: the HTTP ETag or Last-Modified of the
+ * URL (without even navigating), or else the SHA1 of the HTML source after
+ * navigation. When it equals the fingerprint recorded for the same URL and
+ * attributes, environment included, in the newest earlier run that has
+ * one, the object of that run is written into the current JobTimestamp
+ * as-is, with no capture and no PNG encoding. So in a twins job, where
+ * Production and Development take turns, the previous run of a Production
+ * Target is the previous Production run. Runs which the JobCatalog records
+ * as failed are passed over.
+ *
+ * Neither fingerprint covers what the page loads besides itself: the HTTP
+ * validators are those of the main document only, and the HTML source is
+ * the DOM without the stylesheets, images and fonts it refers to. A
+ * screenshot can therefore be reused though such a resource changed.
+ * PAGE_SOURCE at least sees what scripts rendered, so prefer it for
+ * screenshots, and use HTTP_VALIDATORS where the page is served as a whole.
+ *
+ * The fingerprints are recorded in the StoreSidecar, not in the metadata,
+ * so that they do not disturb the metadata matching of the diff stage.
+ */
+class IncrementalMaterializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalMaterializer.class);
+
+    enum Fingerprinting {
+        /** ETag or Last-Modified of the main document by a HEAD request, falling back to PAGE_SOURCE */
+        HTTP_VALIDATORS,
+        /** SHA1 of driver.getPageSource() after navigation */
+        PAGE_SOURCE
+    }
+
+    @FunctionalInterface
+    interface Navigation {
+        void navigate(WebDriver driver, Target target) throws InspectusException;
+    }
+
+    @FunctionalInterface
+    interface Capture {
+        Material capture(WebDriver driver, Target target, Map<String, String> attributes)
+                throws MaterialstoreException;
+    }
+
+    private final Store store;
+    private final JobName jobName;
+    private final JobTimestamp jobTimestamp;
+    private final Fingerprinting fingerprinting;
+    private final Path fingerprintsDir;
+    private final AtomicInteger reused = new AtomicInteger(0);
+    private final AtomicInteger captured = new AtomicInteger(0);
+    private Map<String, Record> previousRecords;
+
+    IncrementalMaterializer(Store store, JobName jobName, JobTimestamp jobTimestamp,
+                            Fingerprinting fingerprinting) {
+        this.store = store;
+        this.jobName = jobName;
+        this.jobTimestamp = jobTimestamp;
+        this.fingerprinting = fingerprinting;
+        this.fingerprintsDir = StoreSidecar.resolve(store.getRoot(), "fingerprints", jobName.toString());
+    }
+
+    /**
+     * Navigates to the Target and captures it, unless its fingerprint shows
+     * that the object of the previous run can be reused.
+     */
+    Material materialize(WebDriver driver, Target target, Map<String, String> attributes,
+                         Navigation navigation, Capture capture)
+            throws MaterialstoreException, InspectusException {
+        String key = keyOf(target, attributes);
+        Record prior = previousRecords().get(key);
+        String fingerprint = null;
+        if (fingerprinting == Fingerprinting.HTTP_VALIDATORS) {
+            fingerprint = httpValidators(target.getUrl());
+            if (fingerprint != null && prior != null && prior.fingerprint.equals(fingerprint)) {
+                Material mt = reuse(prior, attributes);
+                if (mt != null) {
+                    record(key, fingerprint, mt);
+                    return mt;
+                }
+            }
+        }
+        navigation.navigate(driver, target);
+        if (fingerprint == null) {
+            fingerprint = "source:" + Digests.sha1Hex(driver.getPageSource());
+            if (prior != null && prior.fingerprint.equals(fingerprint)) {
+                Material mt = reuse(prior, attributes);
+                if (mt != null) {
+                    record(key, fingerprint, mt);
+                    return mt;
+                }
+            }
+        }
+        Material mt = capture.capture(driver, target, attributes);
+        captured.incrementAndGet();
+        record(key, fingerprint, mt);
+        return mt;
+    }
+
+    int getReusedCount() {
+        return reused.get();
+    }
+
+    int getCapturedCount() {
+        return captured.get();
+    }
+
+    private Material reuse(Record prior, Map<String, String> attributes)
+            throws MaterialstoreException {
+        FileType fileType = fileTypeOf(prior.extension);
+        if (fileType == null) {
+            return null;
+        }
+        try {
+            Path object = prior.entry.objectPath(prior.jobTimestampDir);
+            if (!Files.exists(object)) {
+                return null;
+            }
+            Map<String, String> metadata = new LinkedHashMap<>(prior.entry.getMetadata());
+            metadata.putAll(attributes);
+            byte[] bytes = Files.readAllBytes(object);
+            Material mt;
+            synchronized (store) {
+                mt = store.write(jobName, jobTimestamp, fileType,
+                        Metadata.builder().putAll(metadata).build(), bytes);
+            }
+            reused.incrementAndGet();
+            return mt;
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    private synchronized void record(String key, String fingerprint, Material mt)
+            throws MaterialstoreException {
+        String line = String.join("\t", key, fingerprint,
+                mt.getID().toString(), mt.getFileType().getExtension()) + "\n";
+        try {
+            Files.createDirectories(fingerprintsDir);
+            Files.write(fingerprintsDir.resolve(jobTimestamp.toString() + ".tsv"),
+                    line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+    }
+
+    /*
+     * the newest fingerprint recorded before ours for each key, with the
+     * index entry of its object. The fingerprint files are read newest first
+     * until one adds no key, i.e. one run of every environment further back
+     * than the last; the index of each of them is parsed once.
+     */
+    private synchronized Map<String, Record> previousRecords() throws MaterialstoreException {
+        if (previousRecords != null) {
+            return previousRecords;
+        }
+        previousRecords = new HashMap<>();
+        if (!Files.isDirectory(fingerprintsDir)) {
+            return previousRecords;
+        }
+        String current = jobTimestamp.toString();
+        int files = 0;
+        try {
+            Set<String> failed = new HashSet<>();
+            for (JobCatalog.Run run : JobCatalog.open(store.getRoot()).history(jobName)) {
+                if (run.getStatus() == JobCatalog.Status.FAILED) {
+                    failed.add(run.getJobTimestamp());
+                } else {
+                    failed.remove(run.getJobTimestamp());
+                }
+            }
+            TreeSet<String> earlier = new TreeSet<>();
+            try (Stream<Path> list = Files.list(fingerprintsDir)) {
+                for (Path p : (Iterable<Path>) list::iterator) {
+                    String name = p.getFileName().toString();
+                    if (name.endsWith(".tsv")) {
+                        String ts = name.substring(0, name.length() - ".tsv".length());
+                        if (ts.compareTo(current) < 0 && !failed.contains(ts)) {
+                            earlier.add(ts);
+                        }
+                    }
+                }
+            }
+            for (String ts : earlier.descendingSet()) {
+                Path jobTimestampDir = store.getRoot().resolve(jobName.toString()).resolve(ts);
+                Map<String, IndexEntry> entries = new HashMap<>();
+                for (IndexEntry e : IndexEntry.readIndex(jobTimestampDir)) {
+                    entries.put(e.getId(), e);
+                }
+                int added = 0;
+                try (BufferedReader br = Files.newBufferedReader(
+                        fingerprintsDir.resolve(ts + ".tsv"), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = br.readLine()) != null) {
+                        String[] f = line.split("\t");
+                        IndexEntry entry = (f.length == 4) ? entries.get(f[2]) : null;
+                        if (entry != null && !previousRecords.containsKey(f[0])) {
+                            previousRecords.put(f[0], new Record(f[1], f[3], jobTimestampDir, entry));
+                            added++;
+                        }
+                    }
+                }
+                files++;
+                if (added == 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new MaterialstoreException(e);
+        }
+        logger.debug(String.format("%d fingerprints of %s loaded from %d runs",
+                previousRecords.size(), jobName, files));
+        return previousRecords;
+    }
+
+    private static String keyOf(Target target, Map<String, String> attributes) {
+        StringBuilder sb = new StringBuilder(target.getUrl().toExternalForm());
+        for (Map.Entry<String, String> e : new TreeMap<>(attributes).entrySet()) {
+            sb.append(' ').append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString().replace('\t', ' ');
+    }
+
+    private static String httpValidators(URL url) {
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestMethod("HEAD");
+            conn.setConnectTimeout(5000);
+            conn.setReadTimeout(5000);
+            if (conn.getResponseCode() / 100 != 2) {
+                return null;
+            }
+            String etag = conn.getHeaderField("ETag");
+            if (etag != null && !etag.startsWith("W/")) {
+                return "etag:" + etag;
+            }
+            String lastModified = conn.getHeaderField("Last-Modified");
+            return (lastModified != null) ? "last-modified:" + lastModified : null;
+        } catch (IOException | ClassCastException e) {
+            return null;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private static FileType fileTypeOf(String extension) {
+        switch (extension) {
+            case "png":
+                return FileType.PNG;
+            case "html":
+                return FileType.HTML;
+            default:
+                return null;
+        }
+    }
+
+    private static final class Record {
+        final String fingerprint;
+        final String extension;
+        final Path jobTimestampDir;
+        final IndexEntry entry;
+
+        Record(String fingerprint, String extension, Path jobTimestampDir, IndexEntry entry) {
+            this.fingerprint = fingerprint;
+            this.extension = extension;
+            this.jobTimestampDir = jobTimestampDir;
+            this.entry = entry;
+        }
+    }
+}
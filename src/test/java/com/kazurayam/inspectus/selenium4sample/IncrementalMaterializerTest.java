@@ -0,0 +1,117 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.inspectus.core.InspectusException;
+import com.kazurayam.inspectus.materialize.discovery.Handle;
+import com.kazurayam.inspectus.materialize.discovery.Target;
+import com.kazurayam.inspectus.materialize.selenium.WebPageMaterializingFunctions;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Visit the pages of a LocalStaticSite twice. The 2nd run should find the
+ * fingerprints unchanged and reuse all the objects of the 1st run.
+ */
+public class IncrementalMaterializerTest extends AbstractMaterializingTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(IncrementalMaterializerTest.class);
+    private static final int PAGE_COUNT = 5;
+    private static Path classOutputDir;
+    private static AdaptiveWait waits;
+    private static LocalStaticSite site;
+    private WebDriver driver;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+        waits = AdaptiveWait.forProject(too.getProjectDirectory());
+        BrowserSessions.setupDriverBinary();
+        site = new LocalStaticSite(PAGE_COUNT, 0);
+    }
+
+    @AfterAll
+    static void tearDownClass() throws IOException {
+        waits.save();
+        site.close();
+    }
+
+    @BeforeEach
+    public void setup() {
+        driver = BrowserSessions.acquire();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        BrowserSessions.release(driver);
+    }
+
+    @Test
+    void test_HTTP_VALIDATORS() throws Exception {
+        runTwice("HTTP_VALIDATORS", IncrementalMaterializer.Fingerprinting.HTTP_VALIDATORS);
+    }
+
+    @Test
+    void test_PAGE_SOURCE() throws Exception {
+        runTwice("PAGE_SOURCE", IncrementalMaterializer.Fingerprinting.PAGE_SOURCE);
+    }
+
+    private void runTwice(String name, IncrementalMaterializer.Fingerprinting fingerprinting)
+            throws Exception {
+        Store store = Stores.newInstance(classOutputDir.resolve("store"));
+        JobName jobName = new JobName(name);
+        JobTimestamp firstTimestamp = JobTimestamp.now();
+        IncrementalMaterializer first =
+                new IncrementalMaterializer(store, jobName, firstTimestamp, fingerprinting);
+        List<Material> firstMaterials = materialize(store, jobName, firstTimestamp, first);
+        assertEquals(PAGE_COUNT, first.getCapturedCount());
+        assertEquals(0, first.getReusedCount());
+        // JobTimestamp has the resolution of a second
+        Thread.sleep(1100);
+        JobTimestamp secondTimestamp = JobTimestamp.now();
+        IncrementalMaterializer second =
+                new IncrementalMaterializer(store, jobName, secondTimestamp, fingerprinting);
+        List<Material> secondMaterials = materialize(store, jobName, secondTimestamp, second);
+        assertEquals(0, second.getCapturedCount());
+        assertEquals(PAGE_COUNT, second.getReusedCount());
+        for (int i = 0; i < PAGE_COUNT; i++) {
+            assertEquals(firstMaterials.get(i).getID(), secondMaterials.get(i).getID());
+        }
+    }
+
+    private List<Material> materialize(Store store, JobName jobName, JobTimestamp jobTimestamp,
+                                       IncrementalMaterializer materializer)
+            throws MaterialstoreException, InspectusException {
+        WebPageMaterializingFunctions functions =
+                new WebPageMaterializingFunctions(store, jobName, jobTimestamp);
+        List<Material> materials = new ArrayList<>();
+        for (int i = 1; i <= PAGE_COUNT; i++) {
+            Target target = Target.builder(site.urlOf(i))
+                    .handle(new Handle(By.xpath("//footer"))).build();
+            materials.add(materializer.materialize(driver, target,
+                    Collections.singletonMap("step", String.format("%02d", i)),
+                    (drv, t) -> waits.navigateTo(drv, t.getUrl(), t.getHandle().getBy()),
+                    (drv, t, attributes) -> storeEntirePageScreenshot(functions, drv, t, attributes)));
+        }
+        return materials;
+    }
+}
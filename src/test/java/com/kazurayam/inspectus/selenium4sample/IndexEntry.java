@@ -0,0 +1,117 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A line of the "index" file in a JobTimestamp directory of the store:
+ * <pre>
+ * 5cd8ae1b89721741bf00a6ef29b421a3c06e310e	png	{"environment":"Production", "step":"03", ...}
+ * </pre>
+ * i.e. the object ID (SHA1 of the bytes), the file extension and a flat JSON
+ * map of metadata, separated by tabs. The object itself is found at
+ * objects/&lt;id&gt;.&lt;ext&gt; next to the index file.
+ */
+final class IndexEntry {
+
+    static final String INDEX_FILE_NAME = "index";
+    static final String OBJECTS_DIR_NAME = "objects";
+
+    private final String id;
+    private final String extension;
+    private final Map<String, String> metadata;
+    private final String line;
+
+    private IndexEntry(String id, String extension, Map<String, String> metadata, String line) {
+        this.id = id;
+        this.extension = extension;
+        this.metadata = Collections.unmodifiableMap(metadata);
+        this.line = line;
+    }
+
+    static IndexEntry parse(String line) {
+        String[] fields = line.split("\t", 3);
+        if (fields.length < 2) {
+            throw new IllegalArgumentException("not an index line: " + line);
+        }
+        Map<String, String> metadata = new LinkedHashMap<>();
+        if (fields.length == 3 && !fields[2].isEmpty()) {
+            try {
+                JsonObject json = JsonParser.parseString(fields[2]).getAsJsonObject();
+                for (Map.Entry<String, JsonElement> e : json.entrySet()) {
+                    metadata.put(e.getKey(),
+                            e.getValue().isJsonNull() ? "" : e.getValue().getAsString());
+                }
+            } catch (JsonParseException | IllegalStateException e) {
+                throw new IllegalArgumentException("malformed metadata in index line: " + line, e);
+            }
+        }
+        return new IndexEntry(fields[0], fields[1], metadata, line);
+    }
+
+    /**
+     * @return the entries of the index file in a JobTimestamp directory,
+     * or an empty list if the directory has no index yet
+     */
+    static List<IndexEntry> readIndex(Path jobTimestampDir) throws IOException {
+        Path indexFile = jobTimestampDir.resolve(INDEX_FILE_NAME);
+        List<IndexEntry> entries = new ArrayList<>();
+        if (!Files.exists(indexFile)) {
+            return entries;
+        }
+        try (BufferedReader br = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    entries.add(parse(line));
+                }
+            }
+        }
+        return entries;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getExtension() {
+        return extension;
+    }
+
+    Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return the line as it was read from the index file
+     */
+    String getLine() {
+        return line;
+    }
+
+    String getObjectFileName() {
+        return id + "." + extension;
+    }
+
+    Path objectPath(Path jobTimestampDir) {
+        return jobTimestampDir.resolve(OBJECTS_DIR_NAME).resolve(getObjectFileName());
+    }
+
+    @Override
+    public String toString() {
+        return line;
+    }
+}
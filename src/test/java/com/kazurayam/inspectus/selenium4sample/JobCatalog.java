@@ -0,0 +1,257 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.inspectus.core.InspectusException;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records the runs of the jobs which write into a store, so that the
+ * baseline of a ChronosDiff is known without listing and parsing the
+ * JobTimestamp directories.
+ *
+ * Every run appends a line to catalog/&lt;JobName&gt;/runs.log in the
+ * StoreSidecar when it starts, and another when it completed or failed. The
+ * newest completed run is also kept in a file of its own, latest-completed,
+ * which is replaced atomically; looking it up reads that one line, however
+ * many runs the log holds.
+ */
+final class JobCatalog {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobCatalog.class);
+
+    static final String LOG_FILE_NAME = "runs.log";
+    static final String LATEST_FILE_NAME = "latest-completed";
+
+    enum Status { STARTED, COMPLETED, FAILED }
+
+    /**
+     * A line of the log.
+     */
+    static final class Run {
+        private final String jobTimestamp;
+        private final Status status;
+        private final int materialCount;
+        private final Instant recordedAt;
+
+        Run(String jobTimestamp, Status status, int materialCount, Instant recordedAt) {
+            this.jobTimestamp = jobTimestamp;
+            this.status = status;
+            this.materialCount = materialCount;
+            this.recordedAt = recordedAt;
+        }
+
+        static Run parse(String line) {
+            String[] f = line.split("\t");
+            if (f.length != 4) {
+                throw new IllegalArgumentException("not a catalog line: " + line);
+            }
+            return new Run(f[0], Status.valueOf(f[1]), Integer.parseInt(f[2]), Instant.parse(f[3]));
+        }
+
+        String format() {
+            return jobTimestamp + "\t" + status + "\t" + materialCount + "\t" + recordedAt;
+        }
+
+        String getJobTimestamp() {
+            return jobTimestamp;
+        }
+
+        Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the number of entries in the index of the JobTimestamp
+         * when the run completed, 0 for the other statuses
+         */
+        int getMaterialCount() {
+            return materialCount;
+        }
+
+        Instant getRecordedAt() {
+            return recordedAt;
+        }
+
+        @Override
+        public String toString() {
+            return format();
+        }
+    }
+
+    private final Path storeRoot;
+    private final Map<String, Run> latest = new HashMap<>();
+
+    private JobCatalog(Path storeRoot) {
+        this.storeRoot = storeRoot;
+    }
+
+    static JobCatalog open(Path storeRoot) {
+        return new JobCatalog(storeRoot);
+    }
+
+    Path getCatalogDir(JobName jobName) {
+        return StoreSidecar.resolve(storeRoot, "catalog", jobName.toString());
+    }
+
+    synchronized void begin(JobName jobName, JobTimestamp jobTimestamp) throws IOException {
+        append(jobName, new Run(jobTimestamp.toString(), Status.STARTED, 0, Instant.now()));
+    }
+
+    /**
+     * Records a run as completed with the number of materials in its index.
+     * It becomes the latest completed run unless a newer one completed before.
+     */
+    synchronized Run complete(JobName jobName, JobTimestamp jobTimestamp) throws IOException {
+        Path dir = storeRoot.resolve(jobName.toString()).resolve(jobTimestamp.toString());
+        Run run = new Run(jobTimestamp.toString(), Status.COMPLETED,
+                IndexEntry.readIndex(dir).size(), Instant.now());
+        append(jobName, run);
+        Run before = latestCompleted(jobName);
+        if (before == null || before.jobTimestamp.compareTo(run.jobTimestamp) <= 0) {
+            writeLatest(jobName, run);
+        }
+        return run;
+    }
+
+    synchronized void fail(JobName jobName, JobTimestamp jobTimestamp) throws IOException {
+        append(jobName, new Run(jobTimestamp.toString(), Status.FAILED, 0, Instant.now()));
+    }
+
+    /**
+     * @return the newest run that completed, or null if none did
+     */
+    synchronized Run latestCompleted(JobName jobName) throws IOException {
+        Run run = latest.get(jobName.toString());
+        if (run == null) {
+            Path file = getCatalogDir(jobName).resolve(LATEST_FILE_NAME);
+            if (Files.exists(file)) {
+                run = Run.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+                latest.put(jobName.toString(), run);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Checks that there is a run to compare with, e.g. before a ChronosDiff
+     * launches a browser only to find out that there is none.
+     *
+     * @throws InspectusException if no run of the JobName completed with
+     * any material
+     */
+    Run requireBaseline(JobName jobName) throws InspectusException {
+        Run run;
+        try {
+            run = latestCompleted(jobName);
+        } catch (IOException e) {
+            throw new InspectusException(e);
+        }
+        if (run == null || run.materialCount == 0) {
+            throw new InspectusException(String.format(
+                    "no baseline of %s in %s: no run has completed yet", jobName, storeRoot));
+        }
+        return run;
+    }
+
+    /**
+     * @return the runs of a JobName in the order they were recorded
+     */
+    List<Run> history(JobName jobName) throws IOException {
+        Path file = getCatalogDir(jobName).resolve(LOG_FILE_NAME);
+        if (!Files.exists(file)) {
+            return Collections.emptyList();
+        }
+        List<Run> runs = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.isEmpty()) {
+                runs.add(Run.parse(line));
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Records the JobTimestamps already in the store as completed, for a
+     * store that was written before the catalog was kept. Those which hold
+     * nothing but diffs, as a TwinsDiff writes, are not runs to compare
+     * with and are left out; so are those the catalog records as completed
+     * already, so rebuilding twice records nothing the second time.
+     *
+     * @return the number of runs recorded
+     */
+    synchronized int rebuild(JobName jobName) throws IOException {
+        Path jobNameDir = storeRoot.resolve(jobName.toString());
+        if (!Files.isDirectory(jobNameDir)) {
+            return 0;
+        }
+        List<String> timestamps = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(jobNameDir, Files::isDirectory)) {
+            ds.forEach(p -> timestamps.add(p.getFileName().toString()));
+        }
+        Collections.sort(timestamps);
+        Set<String> completed = new HashSet<>();
+        for (Run run : history(jobName)) {
+            if (run.status == Status.COMPLETED) {
+                completed.add(run.jobTimestamp);
+            }
+        }
+        int count = 0;
+        for (String ts : timestamps) {
+            Path dir = jobNameDir.resolve(ts);
+            if (Files.exists(dir.resolve(IndexEntry.INDEX_FILE_NAME))
+                    && !completed.contains(ts) && !onlyDiffs(dir)) {
+                complete(jobName, JobTimestamp.create(ts));
+                count++;
+            }
+        }
+        logger.info(String.format("recorded %d runs of %s found in %s", count, jobName, storeRoot));
+        return count;
+    }
+
+    private static boolean onlyDiffs(Path jobTimestampDir) throws IOException {
+        List<IndexEntry> entries = IndexEntry.readIndex(jobTimestampDir);
+        for (IndexEntry e : entries) {
+            if (!"diff".equals(e.getMetadata().get("category"))) {
+                return false;
+            }
+        }
+        return !entries.isEmpty();
+    }
+
+    private void append(JobName jobName, Run run) throws IOException {
+        Path dir = Files.createDirectories(getCatalogDir(jobName));
+        try (BufferedWriter w = Files.newBufferedWriter(dir.resolve(LOG_FILE_NAME),
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            w.write(run.format());
+            w.write('\n');
+        }
+    }
+
+    private void writeLatest(JobName jobName, Run run) throws IOException {
+        Path dir = getCatalogDir(jobName);
+        Path tmp = dir.resolve(LATEST_FILE_NAME + ".tmp");
+        Files.write(tmp, (run.format() + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, dir.resolve(LATEST_FILE_NAME),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        latest.put(jobName.toString(), run);
+    }
+}
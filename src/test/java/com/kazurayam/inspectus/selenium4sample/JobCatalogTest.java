@@ -0,0 +1,79 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.inspectus.core.InspectusException;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Record runs in a catalog, and rebuild one from the demo store.
+ */
+public class JobCatalogTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(JobCatalogTest.class);
+    private static Path classOutputDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    void test_latestCompleted() throws IOException {
+        Path store = classOutputDir.resolve("test_latestCompleted");
+        JobName jobName = new JobName("myJob");
+        JobCatalog catalog = JobCatalog.open(store);
+        assertNull(catalog.latestCompleted(jobName));
+        assertThrows(InspectusException.class, () -> catalog.requireBaseline(jobName));
+
+        JobTimestamp first = JobTimestamp.create("20240101_000000");
+        JobTimestamp second = JobTimestamp.create("20240102_000000");
+        catalog.begin(jobName, first);
+        catalog.complete(jobName, first);
+        catalog.begin(jobName, second);
+        catalog.fail(jobName, second);
+        assertEquals("20240101_000000", catalog.latestCompleted(jobName).getJobTimestamp());
+        // a run which completes late does not replace a newer one
+        catalog.complete(jobName, second);
+        catalog.complete(jobName, first);
+        assertEquals("20240102_000000", catalog.latestCompleted(jobName).getJobTimestamp());
+        assertEquals(6, catalog.history(jobName).size());
+
+        // without index files the runs have no materials to compare with
+        JobCatalog reopened = JobCatalog.open(store);
+        assertEquals(JobCatalog.Status.COMPLETED, reopened.latestCompleted(jobName).getStatus());
+        assertThrows(InspectusException.class, () -> reopened.requireBaseline(jobName));
+    }
+
+    @Test
+    void test_rebuild() throws IOException, InspectusException {
+        Path store = classOutputDir.resolve("test_rebuild");
+        Path demo = too.getProjectDirectory().resolve("docs/demo/store/myApple");
+        for (String ts : Arrays.asList("20231210_213713", "20231210_213721", "20231210_213728")) {
+            Path dir = Files.createDirectories(store.resolve("myApple").resolve(ts));
+            Files.copy(demo.resolve(ts).resolve(IndexEntry.INDEX_FILE_NAME),
+                    dir.resolve(IndexEntry.INDEX_FILE_NAME));
+        }
+        JobCatalog catalog = JobCatalog.open(store);
+        // 20231210_213728 holds the diffs only
+        assertEquals(2, catalog.rebuild(new JobName("myApple")));
+        JobCatalog.Run baseline = catalog.requireBaseline(new JobName("myApple"));
+        assertEquals("20231210_213721", baseline.getJobTimestamp());
+        assertEquals(4, baseline.getMaterialCount());
+        // nothing is recorded twice
+        assertEquals(0, catalog.rebuild(new JobName("myApple")));
+        assertEquals(2, catalog.history(new JobName("myApple")).size());
+    }
+}
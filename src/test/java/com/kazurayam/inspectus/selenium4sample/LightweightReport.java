@@ -0,0 +1,259 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites a report of Inspectus so that it opens fast however many steps
+ * it has.
+ *
+ * Every &lt;img&gt; of an object is replaced by a thumbnail which the browser
+ * loads lazily, i.e. when it is scrolled or slid into view, and which links
+ * to the full-size image. Width classes such as "w-75" are dropped from the
+ * &lt;img&gt;, as they would stretch the thumbnail. Every &lt;iframe&gt; is loaded
+ * lazily too. A text diff larger than PAGE_BYTES, e.g. of the HTML sources,
+ * is cut into pages of PAGE_ROWS table rows in the StoreSidecar, and the
+ * iframe shows the first page, which links to the next one and to the
+ * whole diff.
+ *
+ * Rewriting a report twice changes nothing the second time.
+ */
+final class LightweightReport {
+
+    private static final Logger logger = LoggerFactory.getLogger(LightweightReport.class);
+
+    static final int PAGE_BYTES = 256 * 1024;
+    static final int PAGE_ROWS = 500;
+
+    private static final Pattern IMG = Pattern.compile("<img\\b([^>]*?)\\ssrc=\"([^\"]+\\.png)\"([^>]*)>");
+    private static final Pattern IFRAME = Pattern.compile("<iframe\\b([^>]*?)\\ssrc=\"([^\"]+)\"([^>]*)>");
+    private static final Pattern CLASS = Pattern.compile("\\sclass=\"([^\"]*)\"");
+    private static final Pattern WIDTH_CLASS = Pattern.compile("\\s*\\bw-(?:25|50|75|100|auto)\\b");
+    private static final Pattern REFERENCE = Pattern.compile("(\\s(?:src|href)=\")([^\"]+)\"");
+    private static final Pattern SCHEME = Pattern.compile("[A-Za-z][A-Za-z0-9+.-]*:");
+    private static final String LAZY = "loading=\"lazy\"";
+
+    private final Path storeRoot;
+
+    LightweightReport(Path storeRoot) {
+        this.storeRoot = storeRoot;
+    }
+
+    /**
+     * @return the number of images and iframes rewritten
+     */
+    int rewrite(Path reportHtml) throws IOException {
+        String html = new String(Files.readAllBytes(reportHtml), StandardCharsets.UTF_8);
+        Path reportDir = reportHtml.toAbsolutePath().getParent();
+        int[] count = {0};
+        html = replace(IMG, html, m -> {
+            if (m.group(0).contains(LAZY)) {
+                return null;
+            }
+            Path object = reportDir.resolve(m.group(2)).normalize();
+            if (!Files.exists(object)) {
+                return null;
+            }
+            Path thumbnail = new ThumbnailMaker(storeRoot, jobNameOf(object)).make(object);
+            count[0]++;
+            return "<a href=\"" + m.group(2) + "\" target=\"_blank\"><img" + withoutWidthClasses(m.group(1))
+                    + " " + LAZY + " src=\"" + relative(reportDir, thumbnail) + "\""
+                    + withoutWidthClasses(m.group(3)) + "></a>";
+        });
+        html = replace(IFRAME, html, m -> {
+            if (m.group(0).contains(LAZY)) {
+                return null;
+            }
+            String src = m.group(2);
+            Path object = reportDir.resolve(src).normalize();
+            if (Files.exists(object) && Files.size(object) > PAGE_BYTES) {
+                List<Path> pages = paginate(object);
+                if (pages.size() > 1) {
+                    src = relative(reportDir, pages.get(0));
+                }
+            }
+            count[0]++;
+            return "<iframe" + m.group(1) + " " + LAZY + " src=\"" + src + "\"" + m.group(3) + ">";
+        });
+        Path tmp = reportHtml.resolveSibling(reportHtml.getFileName() + ".tmp");
+        Files.write(tmp, html.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, reportHtml, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.debug(String.format("%s: %d images and iframes made lazy", reportHtml, count[0]));
+        return count[0];
+    }
+
+    /**
+     * Cuts an HTML document whose content is a table into pages of
+     * PAGE_ROWS rows, each with the markup before the first row and after
+     * the last one, and links between them.
+     *
+     * @return the pages, or the document alone if it has no more than PAGE_ROWS rows
+     */
+    List<Path> paginate(Path document) throws IOException {
+        String html = new String(Files.readAllBytes(document), StandardCharsets.UTF_8);
+        int first = html.indexOf("<tr");
+        int last = html.lastIndexOf("</tr>");
+        List<Path> pages = new ArrayList<>();
+        if (first < 0 || last < first) {
+            pages.add(document);
+            return pages;
+        }
+        Path dir = StoreSidecar.resolve(storeRoot, "pages", jobNameOf(document));
+        // the stylesheets and scripts of the document, as seen from the pages
+        String prefix = rebase(html.substring(0, first), document.getParent(), dir);
+        String suffix = rebase(html.substring(last + "</tr>".length()), document.getParent(), dir);
+        List<int[]> ranges = new ArrayList<>();
+        int start = first;
+        int rows = 0;
+        int pos = first;
+        while ((pos = html.indexOf("</tr>", pos)) >= 0 && pos <= last) {
+            pos += "</tr>".length();
+            if (++rows == PAGE_ROWS) {
+                ranges.add(new int[]{start, pos});
+                start = pos;
+                rows = 0;
+            }
+        }
+        if (start < last + "</tr>".length()) {
+            ranges.add(new int[]{start, last + "</tr>".length()});
+        }
+        if (ranges.size() <= 1) {
+            pages.add(document);
+            return pages;
+        }
+        Files.createDirectories(dir);
+        String name = document.getFileName().toString();
+        String base = name.substring(0, name.lastIndexOf('.'));
+        for (int i = 0; i < ranges.size(); i++) {
+            pages.add(dir.resolve(base + "-" + (i + 1) + ".html"));
+        }
+        for (int i = 0; i < ranges.size(); i++) {
+            String nav = navigation(pages, i, relative(dir, document));
+            String page = prefix + html.substring(ranges.get(i)[0], ranges.get(i)[1]) + suffix;
+            int body = page.lastIndexOf("</body>");
+            page = body >= 0 ? page.substring(0, body) + nav + page.substring(body) : page + nav;
+            Files.write(pages.get(i), page.getBytes(StandardCharsets.UTF_8));
+        }
+        return pages;
+    }
+
+    /**
+     * Deletes the pages of the documents which are gone, e.g. after the
+     * RetentionEngine dropped JobTimestamps.
+     *
+     * @param liveObjectFileNames the object files of the JobTimestamps left
+     * @return the number of pages deleted
+     */
+    int collectGarbage(String jobName, Set<String> liveObjectFileNames) throws IOException {
+        Path dir = StoreSidecar.resolve(storeRoot, "pages", jobName);
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        Set<String> live = new HashSet<>();
+        for (String name : liveObjectFileNames) {
+            live.add(name.substring(0, Math.max(0, name.lastIndexOf('.'))));
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*-*.html")) {
+            for (Path page : ds) {
+                // "<sha1>-<n>.html" is a page of the object "<sha1>.<ext>"
+                String name = page.getFileName().toString();
+                if (!live.contains(name.substring(0, name.lastIndexOf('-')))) {
+                    Files.delete(page);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private static String withoutWidthClasses(String attributes) {
+        Matcher m = CLASS.matcher(attributes);
+        if (!m.find()) {
+            return attributes;
+        }
+        String classes = WIDTH_CLASS.matcher(m.group(1)).replaceAll("").trim();
+        return attributes.substring(0, m.start(1)) + classes + attributes.substring(m.end(1));
+    }
+
+    /*
+     * the relative src and href of markup in "from", made relative to "to"
+     */
+    private static String rebase(String markup, Path from, Path to) throws IOException {
+        return replace(REFERENCE, markup, m -> {
+            String reference = m.group(2);
+            int end = reference.length();
+            for (char c : new char[]{'?', '#'}) {
+                if (reference.indexOf(c) >= 0) {
+                    end = Math.min(end, reference.indexOf(c));
+                }
+            }
+            String path = reference.substring(0, end);
+            if (path.isEmpty() || path.startsWith("/") || SCHEME.matcher(path).lookingAt()) {
+                return null;
+            }
+            return m.group(1) + relative(to, from.resolve(path)) + reference.substring(end) + "\"";
+        });
+    }
+
+    private static String navigation(List<Path> pages, int i, String whole) {
+        StringBuilder sb = new StringBuilder("<nav class=\"lightweight-pages\">");
+        if (i > 0) {
+            sb.append("<a href=\"").append(pages.get(i - 1).getFileName()).append("\">previous</a> ");
+        }
+        sb.append("page ").append(i + 1).append(" of ").append(pages.size());
+        if (i < pages.size() - 1) {
+            sb.append(" <a href=\"").append(pages.get(i + 1).getFileName()).append("\">next</a>");
+        }
+        sb.append(" <a href=\"").append(whole).append("\" target=\"_blank\">all</a></nav>\n");
+        return sb.toString();
+    }
+
+    /**
+     * store/myApple/20231210_213713/objects/x.png belongs to the JobName "myApple"
+     */
+    private String jobNameOf(Path object) {
+        Path rel = storeRoot.toAbsolutePath().normalize().relativize(object.toAbsolutePath().normalize());
+        return rel.getName(0).toString();
+    }
+
+    private static String relative(Path from, Path to) {
+        return from.toAbsolutePath().normalize().relativize(to.toAbsolutePath().normalize())
+                .toString().replace('\\', '/');
+    }
+
+    @FunctionalInterface
+    private interface Replacement {
+        /**
+         * @return the replacement, or null to leave the match as it is
+         */
+        String apply(Matcher m) throws IOException;
+    }
+
+    private static String replace(Pattern pattern, String html, Replacement replacement) throws IOException {
+        Matcher m = pattern.matcher(html);
+        StringBuilder sb = new StringBuilder(html.length());
+        int from = 0;
+        while (m.find()) {
+            String r = replacement.apply(m);
+            if (r != null) {
+                sb.append(html, from, m.start()).append(r);
+                from = m.end();
+            }
+        }
+        return sb.append(html, from, html.length()).toString();
+    }
+}
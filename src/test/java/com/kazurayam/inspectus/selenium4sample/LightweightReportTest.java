@@ -0,0 +1,122 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Rewrite a copy of the demo report, and paginate a made-up text diff.
+ */
+public class LightweightReportTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(LightweightReportTest.class);
+    private static final String REPORT = "myApple-20231210_213728.html";
+    private static Path classOutputDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    void test_thumbnails() throws IOException {
+        Path store = classOutputDir.resolve("store");
+        copyDirectory(too.getProjectDirectory().resolve("docs/demo/store"), store);
+        LightweightReport lightweight = new LightweightReport(store);
+        assertEquals(12, lightweight.rewrite(store.resolve(REPORT)));
+        // nothing more to do the second time
+        assertEquals(0, lightweight.rewrite(store.resolve(REPORT)));
+
+        String html = new String(Files.readAllBytes(store.resolve(REPORT)), StandardCharsets.UTF_8);
+        assertTrue(html.contains("<a href=\"myApple/20231210_213713/objects/615e7267146e307a390756a2bb0f8fbbf767a682.png\""
+                + " target=\"_blank\"><img class=\"img-fluid border d-block centered\" alt=\"left\" loading=\"lazy\""
+                + " src=\"../store-sidecar/thumbnails/myApple/615e7267146e307a390756a2bb0f8fbbf767a682.png\"></a>"));
+        Path thumbnails = new ThumbnailMaker(store, "myApple").getDir();
+        // 12 images, of 7 distinct objects
+        try (Stream<Path> files = Files.list(thumbnails)) {
+            assertEquals(7, files.count());
+        }
+        // narrower than WIDTH, so kept as it is
+        BufferedImage thumbnail = ImageIO.read(
+                thumbnails.resolve("615e7267146e307a390756a2bb0f8fbbf767a682.png").toFile());
+        assertEquals(200, thumbnail.getWidth());
+        assertEquals(199, thumbnail.getHeight());
+    }
+
+    @Test
+    void test_long_screenshot() throws IOException {
+        Path store = classOutputDir.resolve("long");
+        BufferedImage image = new BufferedImage(1200, 9000, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, x % 2 == 0 ? 0xFFFFFF : 0x000000);
+            }
+        }
+        // a red footer, far below what a preview of the top would show
+        for (int y = 8900; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0xFF0000);
+            }
+        }
+        Path png = Files.createDirectories(store.resolve("myJob/20240101_000000/objects")).resolve("aaaa.png");
+        ImageIO.write(image, "png", png.toFile());
+        Path thumbnail = new ThumbnailMaker(store, "myJob").make(png);
+        BufferedImage scaled = ImageIO.read(thumbnail.toFile());
+        assertEquals(ThumbnailMaker.WIDTH, scaled.getWidth());
+        assertEquals(ThumbnailMaker.MAX_HEIGHT, scaled.getHeight());
+        // black and white stripes 1 pixel wide average to grey
+        int grey = scaled.getRGB(10, 10) & 0xFF;
+        assertTrue(grey > 100 && grey < 155, "grey=" + grey);
+        assertEquals(0xFF0000, scaled.getRGB(10, ThumbnailMaker.MAX_HEIGHT - 1) & 0xFFFFFF);
+    }
+
+    @Test
+    void test_paginate() throws IOException {
+        Path store = classOutputDir.resolve("paged");
+        Path diff = Files.createDirectories(store.resolve("myJob/20240101_000000/objects")).resolve("bbbb.html");
+        StringBuilder sb = new StringBuilder("<html><head><link rel=\"stylesheet\" href=\"../../../style.css\">"
+                + "<link rel=\"stylesheet\" href=\"https://cdn.example.com/bootstrap.css\"></head><body><table><tbody>\n");
+        for (int i = 0; i < LightweightReport.PAGE_ROWS * 2 + 1; i++) {
+            sb.append("<tr><td>line ").append(i).append("</td></tr>\n");
+        }
+        sb.append("</tbody></table></body></html>\n");
+        Files.write(diff, sb.toString().getBytes(StandardCharsets.UTF_8));
+        List<Path> pages = new LightweightReport(store).paginate(diff);
+        assertEquals(3, pages.size());
+        String last = new String(Files.readAllBytes(pages.get(2)), StandardCharsets.UTF_8);
+        // the stylesheet beside the store, now as seen from the sidecar
+        assertTrue(last.startsWith("<html><head><link rel=\"stylesheet\" href=\"../../../paged/style.css\">"
+                + "<link rel=\"stylesheet\" href=\"https://cdn.example.com/bootstrap.css\"></head><body><table><tbody>\n"));
+        assertTrue(last.contains("<tr><td>line 1000</td></tr>\n</tbody>"));
+        assertFalse(last.contains("line 999<"));
+        assertTrue(last.contains("</tbody></table><nav class=\"lightweight-pages\">"
+                + "<a href=\"bbbb-2.html\">previous</a> page 3 of 3"));
+    }
+
+    private static void copyDirectory(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                Path dest = target.resolve(source.relativize(p).toString());
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(dest);
+                } else {
+                    Files.copy(p, dest);
+                }
+            }
+        }
+    }
+}
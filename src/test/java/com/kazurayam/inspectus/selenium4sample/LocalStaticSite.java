@@ -0,0 +1,114 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A static web site served on the loopback interface, so that benchmarks
+ * can run against something stable instead of the public demo sites.
+ *
+ * Serves "/page{n}.html" for n in 1..pageCount. Each page has a
+ * &lt;footer&gt; to be used as the Handle and a body of paragraphs tall
+ * enough to need scrolling. Every response is delayed by latencyMillis
+ * to stand in for the network. The pages never change, so they carry a
+ * strong ETag and a fixed Last-Modified, and HEAD requests are answered.
+ */
+class LocalStaticSite implements AutoCloseable {
+
+    private static final Pattern PAGE = Pattern.compile("/page(\\d+)\\.html");
+    private static final String LAST_MODIFIED = "Sun, 10 Dec 2023 12:00:00 GMT";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int pageCount;
+    private final int paragraphs;
+    private final long latencyMillis;
+
+    LocalStaticSite(int pageCount, long latencyMillis) throws IOException {
+        this(pageCount, 40, latencyMillis);
+    }
+
+    LocalStaticSite(int pageCount, int paragraphs, long latencyMillis) throws IOException {
+        this.pageCount = pageCount;
+        this.paragraphs = paragraphs;
+        this.latencyMillis = latencyMillis;
+        this.server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", this::handle);
+        this.executor = Executors.newCachedThreadPool();
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    String getUrlPrefix() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    String urlOf(int page) {
+        return String.format("%s/page%d.html", getUrlPrefix(), page);
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            Matcher m = PAGE.matcher(exchange.getRequestURI().getPath());
+            int page = m.matches() ? Integer.parseInt(m.group(1)) : -1;
+            if (page < 1 || page > pageCount) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            Thread.sleep(latencyMillis);
+            byte[] body = render(page).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+            exchange.getResponseHeaders().set("ETag", "\"page" + page + "-" + paragraphs + "\"");
+            exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.sendResponseHeaders(503, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String render(int page) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!doctype html>\n<html><head><meta charset=\"utf-8\">");
+        sb.append("<title>page ").append(page).append("</title></head>\n<body>\n");
+        sb.append("<h1>Page ").append(page).append("</h1>\n");
+        for (int i = 0; i < paragraphs; i++) {
+            sb.append("<p>Paragraph ").append(i + 1)
+                    .append(" of page ").append(page)
+                    .append(". Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p>\n");
+        }
+        sb.append("<footer>footer of page ").append(page).append("</footer>\n");
+        sb.append("</body></html>\n");
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
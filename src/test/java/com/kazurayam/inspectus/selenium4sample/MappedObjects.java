@@ -0,0 +1,94 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads object files of a store through read-only memory mappings, so
+ * that a screenshot of tens of MB reaches the Inflater or the
+ * MessageDigest from the page cache instead of being copied into buffers
+ * on the heap first. Objects are never modified in place, as their name is
+ * the SHA1 of their content, so a mapping cannot see a torn write.
+ *
+ * Files smaller than MAP_THRESHOLD are read into a heap buffer, as mapping
+ * costs more than copying them. A mapping is released when its buffer is
+ * collected; until then Windows refuses to delete the file.
+ */
+final class MappedObjects {
+
+    static final long MAP_THRESHOLD = 256 * 1024;
+
+    private MappedObjects() {}
+
+    /**
+     * @return the content of the file, positioned at 0; a direct buffer if it was mapped
+     */
+    static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map: " + size + " bytes");
+            }
+            if (size < MAP_THRESHOLD) {
+                return ByteBuffer.wrap(Files.readAllBytes(file));
+            }
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    static InputStream newInputStream(Path file) throws IOException {
+        return new ByteBufferInputStream(map(file));
+    }
+
+    /**
+     * An InputStream over a ByteBuffer; reading advances the position of the buffer.
+     */
+    static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int k = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + k);
+            return k;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,748 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A secondary index over the metadata of the materials of a JobName, so that
+ * a question like "the latest material with step=03 and environment=Production"
+ * is answered without reading the index file of every JobTimestamp.
+ *
+ * The index is a set of sorted segment files in the StoreSidecar. Every
+ * segment holds one line per (metadata key, value, JobTimestamp, entry),
+ * sorted by key and value, then newest JobTimestamp first. Beside each
+ * segment a sparse ".idx" file records the first record and the byte offset
+ * of every BLOCK_SIZE-th line; a lookup binary-searches it in memory and
+ * reads from the one block where the key/value starts. A query walks the
+ * posting lists of its key/values newest first and stops at the first
+ * material they all have in common.
+ *
+ * refresh() brings the index up to date with the store: it indexes the
+ * JobTimestamps whose index file is new or has changed since and writes
+ * them as one new segment. Records of a JobTimestamp that was indexed
+ * again are recognized by their generation and skipped; compact() merges
+ * the segments and drops them for good. Both refresh() and
+ * refresh(String) forget the JobTimestamps which are gone from the store,
+ * e.g. deleted by RetentionEngine, and compact the segments right away,
+ * so that no query returns a material which no longer exists.
+ */
+final class MetadataIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataIndex.class);
+
+    static final int BLOCK_SIZE = 64;
+    static final int MAX_SEGMENTS = 8;
+
+    private static final String STATE_FILE_NAME = "indexed.tsv";
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String SPARSE_SUFFIX = ".idx";
+
+    /**
+     * A material found by a query: an entry of the index file of a JobTimestamp.
+     */
+    static final class Posting {
+        private final String jobTimestamp;
+        private final int line;
+        private final String id;
+        private final String extension;
+
+        Posting(String jobTimestamp, int line, String id, String extension) {
+            this.jobTimestamp = jobTimestamp;
+            this.line = line;
+            this.id = id;
+            this.extension = extension;
+        }
+
+        String getJobTimestamp() {
+            return jobTimestamp;
+        }
+
+        /**
+         * @return the position of the entry in the index file, from 0; an object
+         * may be listed more than once in a JobTimestamp, with other metadata
+         */
+        int getLine() {
+            return line;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        String getExtension() {
+            return extension;
+        }
+
+        /**
+         * @return the object file, given the directory of the JobName
+         */
+        Path objectPath(Path jobNameDir) {
+            return jobNameDir.resolve(jobTimestamp)
+                    .resolve(IndexEntry.OBJECTS_DIR_NAME).resolve(id + "." + extension);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Posting)) {
+                return false;
+            }
+            Posting other = (Posting) o;
+            return line == other.line && jobTimestamp.equals(other.jobTimestamp);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(jobTimestamp, line);
+        }
+
+        @Override
+        public String toString() {
+            return jobTimestamp + "/" + id + "." + extension;
+        }
+    }
+
+    /**
+     * Newest JobTimestamp first, then in the order of the index file. The
+     * JobTimestamps "yyyyMMdd_HHmmss" sort by time as strings.
+     */
+    private static final Comparator<Posting> NEWEST_FIRST =
+            Comparator.comparing(Posting::getJobTimestamp, Comparator.reverseOrder())
+                    .thenComparingInt(Posting::getLine);
+
+    /**
+     * A line of a segment.
+     */
+    private static final class Record {
+        final String key;
+        final String value;
+        final int generation;
+        final Posting posting;
+
+        Record(String key, String value, int generation, Posting posting) {
+            this.key = key;
+            this.value = value;
+            this.generation = generation;
+            this.posting = posting;
+        }
+
+        static Record parse(String line) {
+            String[] f = line.split("\t", -1);
+            if (f.length != 7) {
+                throw new IllegalArgumentException("not a segment line: " + line);
+            }
+            return new Record(unescape(f[0]), unescape(f[1]), Integer.parseInt(f[3]),
+                    new Posting(f[2], Integer.parseInt(f[4]), f[5], f[6]));
+        }
+
+        String format() {
+            return escape(key) + "\t" + escape(value) + "\t" + posting.jobTimestamp + "\t"
+                    + generation + "\t" + posting.line + "\t" + posting.id + "\t" + posting.extension;
+        }
+
+        int compareKeyValue(String k, String v) {
+            int c = key.compareTo(k);
+            return c != 0 ? c : value.compareTo(v);
+        }
+    }
+
+    private static final Comparator<Record> RECORD_ORDER =
+            Comparator.<Record, String>comparing(r -> r.key)
+                    .thenComparing(r -> r.value)
+                    .thenComparing(r -> r.posting, NEWEST_FIRST)
+                    .thenComparingInt(r -> r.generation);
+
+    /**
+     * A segment file and its sparse index, held in memory.
+     */
+    private static final class Segment {
+        final Path file;
+        final List<Record> blockFirst = new ArrayList<>();
+        final List<Long> blockOffset = new ArrayList<>();
+
+        Segment(Path file) throws IOException {
+            this.file = file;
+            for (String line : Files.readAllLines(sparseFileOf(file), StandardCharsets.UTF_8)) {
+                int tab = line.indexOf('\t');
+                blockOffset.add(Long.parseLong(line.substring(0, tab)));
+                blockFirst.add(Record.parse(line.substring(tab + 1)));
+            }
+        }
+
+        /**
+         * @return the offset of the block from which the records of key=value
+         * are to be read, or -1 if the segment has none
+         */
+        long seek(String key, String value) {
+            // the last block that starts before key=value
+            int lo = 0;
+            int hi = blockFirst.size() - 1;
+            int found = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (blockFirst.get(mid).compareKeyValue(key, value) < 0) {
+                    found = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            if (found < 0) {
+                return blockFirst.isEmpty() || blockFirst.get(0).compareKeyValue(key, value) > 0
+                        ? -1 : blockOffset.get(0);
+            }
+            return blockOffset.get(found);
+        }
+
+        Cursor lookup(String key, String value) throws IOException {
+            long offset = seek(key, value);
+            return offset < 0 ? Cursor.EMPTY : new Cursor(file, offset, key, value);
+        }
+
+        Cursor scan() throws IOException {
+            return new Cursor(file, 0, null, null);
+        }
+    }
+
+    /**
+     * Reads the records of a segment from an offset on, those of one
+     * key=value only unless both are null.
+     */
+    private static class Cursor implements Iterator<Record>, Closeable {
+        static final Cursor EMPTY = new Cursor();
+
+        private final BufferedReader reader;
+        private final String key;
+        private final String value;
+        private Record next;
+
+        private Cursor() {
+            this.reader = null;
+            this.key = null;
+            this.value = null;
+        }
+
+        Cursor(Path file, long offset, String key, String value) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            channel.position(offset);
+            this.reader = new BufferedReader(
+                    new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            this.key = key;
+            this.value = value;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Record r = Record.parse(line);
+                    if (key == null) {
+                        next = r;
+                        return;
+                    }
+                    int c = r.compareKeyValue(key, value);
+                    if (c == 0) {
+                        next = r;
+                        return;
+                    } else if (c > 0) {
+                        close();
+                        return;
+                    }
+                }
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Record next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Record r = next;
+            advance();
+            return r;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * The size and modification time of the index file of a JobTimestamp as
+     * it was indexed, and the generation its records carry.
+     */
+    private static final class Indexed {
+        final long size;
+        final long lastModified;
+        final int generation;
+
+        Indexed(long size, long lastModified, int generation) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.generation = generation;
+        }
+    }
+
+    private final Path jobNameDir;
+    private final Path indexDir;
+    private final TreeMap<String, Indexed> indexed = new TreeMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private int nextSegment = 1;
+
+    private MetadataIndex(Path storeRoot, String jobName) {
+        this.jobNameDir = storeRoot.resolve(jobName);
+        this.indexDir = StoreSidecar.resolve(storeRoot, "metadata-index", jobName);
+    }
+
+    /**
+     * Loads the index of a JobName as far as it was built; call refresh()
+     * to bring it up to date.
+     */
+    static MetadataIndex open(Path storeRoot, String jobName) throws IOException {
+        MetadataIndex index = new MetadataIndex(storeRoot, jobName);
+        index.load();
+        return index;
+    }
+
+    Path getIndexDir() {
+        return indexDir;
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    private void load() throws IOException {
+        if (!Files.isDirectory(indexDir)) {
+            return;
+        }
+        Path state = indexDir.resolve(STATE_FILE_NAME);
+        if (Files.exists(state)) {
+            for (String line : Files.readAllLines(state, StandardCharsets.UTF_8)) {
+                String[] f = line.split("\t");
+                indexed.put(f[0], new Indexed(Long.parseLong(f[1]), Long.parseLong(f[2]),
+                        Integer.parseInt(f[3])));
+            }
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(indexDir,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            ds.forEach(files::add);
+        }
+        Collections.sort(files);
+        for (Path file : files) {
+            if (!Files.exists(sparseFileOf(file))) {
+                // left over by a refresh which did not finish
+                Files.delete(file);
+                continue;
+            }
+            segments.add(new Segment(file));
+            nextSegment = Math.max(nextSegment, segmentNumber(file) + 1);
+        }
+    }
+
+    /**
+     * Indexes the JobTimestamps which are new or changed since the last
+     * refresh and forgets those which were deleted.
+     *
+     * @return the number of JobTimestamps indexed
+     */
+    synchronized int refresh() throws IOException {
+        List<String> present = presentJobTimestamps();
+        boolean deleted = indexed.keySet().retainAll(present);
+        int count = update(present);
+        if (deleted) {
+            purge(count);
+        }
+        return count;
+    }
+
+    /**
+     * Indexes a JobTimestamp again after materials were written into it,
+     * e.g. by AsyncMaterialWriter.flush(), and forgets those which were
+     * deleted.
+     */
+    synchronized void refresh(String jobTimestamp) throws IOException {
+        boolean deleted = indexed.keySet().retainAll(presentJobTimestamps());
+        int count = update(Collections.singletonList(jobTimestamp));
+        if (deleted) {
+            purge(count);
+        }
+    }
+
+    private List<String> presentJobTimestamps() throws IOException {
+        List<String> present = new ArrayList<>();
+        if (Files.isDirectory(jobNameDir)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(jobNameDir, Files::isDirectory)) {
+                ds.forEach(p -> present.add(p.getFileName().toString()));
+            }
+        }
+        return present;
+    }
+
+    /*
+     * drops the records of the JobTimestamps forgotten from the segments
+     */
+    private void purge(int indexedCount) throws IOException {
+        if (indexedCount == 0) {
+            writeState();
+        }
+        compact();
+    }
+
+    private int update(List<String> jobTimestamps) throws IOException {
+        TreeSet<Record> batch = new TreeSet<>(RECORD_ORDER);
+        Map<String, Indexed> updated = new HashMap<>();
+        for (String ts : jobTimestamps) {
+            Path indexFile = jobNameDir.resolve(ts).resolve(IndexEntry.INDEX_FILE_NAME);
+            if (!Files.exists(indexFile)) {
+                continue;
+            }
+            long size = Files.size(indexFile);
+            long lastModified = Files.getLastModifiedTime(indexFile).toMillis();
+            Indexed before = indexed.get(ts);
+            if (before != null && before.size == size && before.lastModified == lastModified) {
+                continue;
+            }
+            int generation = before == null ? 1 : before.generation + 1;
+            List<IndexEntry> entries = IndexEntry.readIndex(jobNameDir.resolve(ts));
+            for (int i = 0; i < entries.size(); i++) {
+                IndexEntry e = entries.get(i);
+                Posting posting = new Posting(ts, i, e.getId(), e.getExtension());
+                for (Map.Entry<String, String> kv : e.getMetadata().entrySet()) {
+                    batch.add(new Record(kv.getKey(), kv.getValue(), generation, posting));
+                }
+            }
+            updated.put(ts, new Indexed(size, lastModified, generation));
+        }
+        if (updated.isEmpty()) {
+            return 0;
+        }
+        Files.createDirectories(indexDir);
+        segments.add(writeSegment(batch.iterator()));
+        indexed.putAll(updated);
+        writeState();
+        logger.debug(String.format("indexed %d JobTimestamps, %d records, into %s",
+                updated.size(), batch.size(), segments.get(segments.size() - 1).file));
+        if (segments.size() > MAX_SEGMENTS) {
+            compact();
+        }
+        return updated.size();
+    }
+
+    /**
+     * Merges all segments into one, leaving out the records which are no
+     * longer current.
+     */
+    synchronized void compact() throws IOException {
+        if (segments.isEmpty()) {
+            return;
+        }
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (Segment s : segments) {
+                cursors.add(s.scan());
+            }
+            Iterator<Record> merged = current(merge(cursors, RECORD_ORDER));
+            Segment compacted = writeSegment(merged);
+            for (Segment s : segments) {
+                Files.deleteIfExists(sparseFileOf(s.file));
+                Files.deleteIfExists(s.file);
+            }
+            segments.clear();
+            segments.add(compacted);
+        } finally {
+            closeAll(cursors);
+        }
+    }
+
+    /**
+     * @return the newest material whose metadata has all the key/values
+     * given, or null if there is none
+     */
+    Posting latest(Map<String, String> query) throws IOException {
+        List<Posting> found = find(query, null, 1);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * @param olderThan if not null, only materials of JobTimestamps before
+     *                  this one are returned, e.g. to find the previous run
+     * @param limit     the maximum number of materials to return
+     * @return the materials whose metadata has all the key/values given,
+     * newest first
+     */
+    synchronized List<Posting> find(Map<String, String> query, String olderThan, int limit)
+            throws IOException {
+        if (query.isEmpty()) {
+            throw new IllegalArgumentException("query must have at least one key/value");
+        }
+        List<Posting> result = new ArrayList<>();
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            List<Iterator<Posting>> lists = new ArrayList<>();
+            for (Map.Entry<String, String> kv : query.entrySet()) {
+                List<Cursor> perSegment = new ArrayList<>();
+                for (Segment s : segments) {
+                    perSegment.add(s.lookup(kv.getKey(), kv.getValue()));
+                }
+                cursors.addAll(perSegment);
+                lists.add(postings(current(merge(perSegment, RECORD_ORDER))));
+            }
+            intersect(lists, olderThan, limit, result);
+        } finally {
+            closeAll(cursors);
+        }
+        return result;
+    }
+
+    /**
+     * Walks the posting lists, which are all sorted NEWEST_FIRST, in step:
+     * the lists behind the furthest head are advanced up to it until all
+     * heads are the same posting.
+     */
+    private static void intersect(List<Iterator<Posting>> lists, String olderThan, int limit,
+                                  List<Posting> result) {
+        Posting[] heads = new Posting[lists.size()];
+        for (int i = 0; i < heads.length; i++) {
+            if (!lists.get(i).hasNext()) {
+                return;
+            }
+            heads[i] = lists.get(i).next();
+        }
+        while (result.size() < limit) {
+            Posting furthest = heads[0];
+            for (Posting p : heads) {
+                if (NEWEST_FIRST.compare(p, furthest) > 0) {
+                    furthest = p;
+                }
+            }
+            boolean same = true;
+            for (int i = 0; i < heads.length; i++) {
+                while (NEWEST_FIRST.compare(heads[i], furthest) < 0) {
+                    if (!lists.get(i).hasNext()) {
+                        return;
+                    }
+                    heads[i] = lists.get(i).next();
+                }
+                same &= heads[i].equals(furthest);
+            }
+            if (!same) {
+                continue;
+            }
+            if (olderThan == null || furthest.jobTimestamp.compareTo(olderThan) < 0) {
+                result.add(furthest);
+            }
+            for (int i = 0; i < heads.length; i++) {
+                if (!lists.get(i).hasNext()) {
+                    return;
+                }
+                heads[i] = lists.get(i).next();
+            }
+        }
+    }
+
+    /**
+     * Merges sorted iterators into one, sorted the same way.
+     */
+    private static <T> Iterator<T> merge(List<? extends Iterator<T>> sources, Comparator<T> order) {
+        PriorityQueue<Map.Entry<T, Iterator<T>>> heap =
+                new PriorityQueue<>(Math.max(1, sources.size()), Map.Entry.comparingByKey(order));
+        for (Iterator<T> it : sources) {
+            if (it.hasNext()) {
+                heap.add(new AbstractMap.SimpleEntry<>(it.next(), it));
+            }
+        }
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return !heap.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                Map.Entry<T, Iterator<T>> head = heap.poll();
+                if (head == null) {
+                    throw new NoSuchElementException();
+                }
+                Iterator<T> it = head.getValue();
+                if (it.hasNext()) {
+                    heap.add(new AbstractMap.SimpleEntry<>(it.next(), it));
+                }
+                return head.getKey();
+            }
+        };
+    }
+
+    /**
+     * Leaves out the records of JobTimestamps which were deleted or indexed
+     * again since, and duplicates.
+     */
+    private Iterator<Record> current(Iterator<Record> records) {
+        return new Iterator<Record>() {
+            private Record next = advance(null);
+
+            private Record advance(Record previous) {
+                while (records.hasNext()) {
+                    Record r = records.next();
+                    Indexed i = indexed.get(r.posting.jobTimestamp);
+                    if (i == null || i.generation != r.generation) {
+                        continue;
+                    }
+                    if (previous != null && RECORD_ORDER.compare(previous, r) == 0) {
+                        continue;
+                    }
+                    return r;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Record next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Record r = next;
+                next = advance(r);
+                return r;
+            }
+        };
+    }
+
+    private static Iterator<Posting> postings(Iterator<Record> records) {
+        return new Iterator<Posting>() {
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public Posting next() {
+                return records.next().posting;
+            }
+        };
+    }
+
+    /**
+     * Writes the records, which must be sorted, as a new segment. The sparse
+     * index is moved in place last, so a segment without one is incomplete.
+     */
+    private Segment writeSegment(Iterator<Record> records) throws IOException {
+        Path file = indexDir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+        Path sparseTmp = indexDir.resolve(file.getFileName() + SPARSE_SUFFIX + ".tmp");
+        try (BufferedWriter data = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             BufferedWriter sparse = Files.newBufferedWriter(sparseTmp, StandardCharsets.UTF_8)) {
+            long offset = 0;
+            int n = 0;
+            while (records.hasNext()) {
+                String line = records.next().format();
+                if (n++ % BLOCK_SIZE == 0) {
+                    sparse.write(offset + "\t" + line);
+                    sparse.newLine();
+                }
+                data.write(line);
+                data.write('\n');
+                offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+        }
+        Files.move(sparseTmp, sparseFileOf(file), StandardCopyOption.ATOMIC_MOVE);
+        return new Segment(file);
+    }
+
+    private void writeState() throws IOException {
+        Files.createDirectories(indexDir);
+        Path tmp = indexDir.resolve(STATE_FILE_NAME + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Indexed> e : indexed.entrySet()) {
+                Indexed i = e.getValue();
+                w.write(e.getKey() + "\t" + i.size + "\t" + i.lastModified + "\t" + i.generation);
+                w.newLine();
+            }
+        }
+        Files.move(tmp, indexDir.resolve(STATE_FILE_NAME),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path sparseFileOf(Path segmentFile) {
+        return segmentFile.resolveSibling(segmentFile.getFileName() + SPARSE_SUFFIX);
+    }
+
+    private static int segmentNumber(Path segmentFile) {
+        String name = segmentFile.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void closeAll(List<Cursor> cursors) throws IOException {
+        for (Cursor c : cursors) {
+            c.close();
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,150 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Query the index files of the demo store, then those of a made-up JobName
+ * with thousands of JobTimestamps which come and go between refreshes.
+ */
+public class MetadataIndexTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(MetadataIndexTest.class);
+    private static final DateTimeFormatter JOB_TIMESTAMP =
+            DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+    private static Path classOutputDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    void test_demo_store() throws IOException {
+        Path store = classOutputDir.resolve("demo");
+        Path demo = too.getProjectDirectory().resolve("docs/demo/store/myApple");
+        for (String ts : Arrays.asList("20231210_213713", "20231210_213721", "20231210_213728")) {
+            Path dir = Files.createDirectories(store.resolve("myApple").resolve(ts));
+            Files.copy(demo.resolve(ts).resolve(IndexEntry.INDEX_FILE_NAME),
+                    dir.resolve(IndexEntry.INDEX_FILE_NAME));
+        }
+        MetadataIndex index = MetadataIndex.open(store, "myApple");
+        assertEquals(3, index.refresh());
+        MetadataIndex.Posting p = index.latest(query("step", "03", "environment", "Production"));
+        assertEquals("20231210_213713/5cd8ae1b89721741bf00a6ef29b421a3c06e310e.png", p.toString());
+        // c33b3076... is listed twice in 20231210_213721, as step 01 and as step 02
+        p = index.latest(query("step", "02"));
+        assertEquals("20231210_213721", p.getJobTimestamp());
+        assertEquals("c33b3076315c1b288bb186627e4365c36c64e0f1", p.getId());
+        assertEquals(2, p.getLine());
+        assertNull(index.latest(query("step", "02", "description", "original")));
+        assertEquals(4, index.find(query("category", "diff"), null, 10).size());
+        List<MetadataIndex.Posting> previous =
+                index.find(query("step", "01"), "20231210_213721", 10);
+        assertEquals(1, previous.size());
+        assertEquals("20231210_213713", previous.get(0).getJobTimestamp());
+        // nothing changed
+        assertEquals(0, index.refresh());
+    }
+
+    @Test
+    void test_thousands_of_jobTimestamps() throws IOException {
+        Path store = classOutputDir.resolve("many");
+        Path jobNameDir = store.resolve("myJob");
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+        int count = 3000;
+        MetadataIndex index = MetadataIndex.open(store, "myJob");
+        // in batches, so that there are more segments than MAX_SEGMENTS
+        for (int batch = 0; batch < 10; batch++) {
+            for (int i = batch * count / 10; i < (batch + 1) * count / 10; i++) {
+                writeIndex(jobNameDir.resolve(start.plusMinutes(i).format(JOB_TIMESTAMP)),
+                        i % 7 == 0 ? "Production" : "Development", i);
+            }
+            index.refresh();
+        }
+        assertTrue(index.getSegmentCount() <= MetadataIndex.MAX_SEGMENTS);
+        String newestProduction = start.plusMinutes(2996).format(JOB_TIMESTAMP);
+        MetadataIndex.Posting p = index.latest(query("step", "03", "environment", "Production"));
+        assertEquals(newestProduction, p.getJobTimestamp());
+        assertEquals("id-2996-03", p.getId());
+        assertEquals(3, index.find(query("environment", "Production", "step", "01"),
+                newestProduction, 3).size());
+
+        // deleted JobTimestamps are forgotten, rewritten ones are indexed again
+        deleteRecursively(jobNameDir.resolve(newestProduction));
+        writeIndex(jobNameDir.resolve(start.plusMinutes(2999).format(JOB_TIMESTAMP)), "Production", 2999);
+        assertEquals(1, index.refresh());
+        p = index.latest(query("step", "03", "environment", "Production"));
+        assertEquals("id-2999-03", p.getId());
+        assertEquals(1, index.find(query("step", "03"), null, count).stream()
+                .filter(q -> q.getJobTimestamp().equals(start.plusMinutes(2999).format(JOB_TIMESTAMP)))
+                .count());
+
+        // persisted, and the same after compaction
+        index.compact();
+        MetadataIndex reopened = MetadataIndex.open(store, "myJob");
+        assertEquals(1, reopened.getSegmentCount());
+        assertEquals(0, reopened.refresh());
+        assertEquals("id-2999-03",
+                reopened.latest(query("step", "03", "environment", "Production")).getId());
+        assertEquals(count - 1, reopened.find(query("step", "04"), null, count).size());
+
+        // refreshing one JobTimestamp forgets those deleted meanwhile, segments and all
+        String deleted = start.plusMinutes(2999).format(JOB_TIMESTAMP);
+        deleteRecursively(jobNameDir.resolve(deleted));
+        String written = start.plusMinutes(3000).format(JOB_TIMESTAMP);
+        writeIndex(jobNameDir.resolve(written), "Development", 3000);
+        reopened.refresh(written);
+        assertEquals(1, reopened.getSegmentCount());
+        assertEquals("id-2989-03",
+                reopened.latest(query("step", "03", "environment", "Production")).getId());
+        assertEquals(0, reopened.find(query("step", "03"), null, count).stream()
+                .filter(q -> q.getJobTimestamp().equals(deleted)).count());
+        assertEquals(written, reopened.latest(query("step", "04")).getJobTimestamp());
+    }
+
+    private static Map<String, String> query(String... keyValues) {
+        Map<String, String> query = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            query.put(keyValues[i], keyValues[i + 1]);
+        }
+        return query;
+    }
+
+    private static void writeIndex(Path jobTimestampDir, String environment, int n) throws IOException {
+        Files.createDirectories(jobTimestampDir);
+        try (BufferedWriter w = Files.newBufferedWriter(
+                jobTimestampDir.resolve(IndexEntry.INDEX_FILE_NAME), StandardCharsets.UTF_8)) {
+            for (int step = 1; step <= 4; step++) {
+                w.write(String.format("id-%d-%02d\tpng\t{\"environment\":\"%s\", \"step\":\"%02d\"}",
+                        n, step, environment, step));
+                w.newLine();
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        for (Path p : Files.list(dir).toArray(Path[]::new)) {
+            Files.delete(p);
+        }
+        Files.delete(dir);
+    }
+}
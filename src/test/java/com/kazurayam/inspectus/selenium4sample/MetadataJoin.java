@@ -0,0 +1,173 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Pairs the left and the right materials of a TwinsDiff by their metadata,
+ * with the IgnoreMetadataKeys left out, as a hash join: the right side is
+ * put in a HashMap by a canonical key of its metadata, then every left
+ * material looks its partner up there. That is linear in the number of
+ * materials, where comparing every left material with every right one is
+ * quadratic.
+ *
+ * The canonical key is the sorted non-ignored key/values, each string
+ * prefixed with its length so that no value can be mistaken for a
+ * separator. A material pairs with at most one on the other side; of
+ * several right materials under the same key the first unpaired one is
+ * taken. The materials left without a partner on either side are
+ * reported, as they are what a TwinsDiff would silently leave out of the
+ * report.
+ */
+final class MetadataJoin {
+
+    /**
+     * The ignored keys of the AppleTwinsDiffTest, for the demo store.
+     */
+    static final Set<String> DEMO_IGNORED = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "environment", "URL.host", "URL.path", "URL.protocol", "URL.port",
+            "image-width", "image-height")));
+
+    /**
+     * A material of the left and its partner on the right.
+     */
+    static final class Pair<T> {
+        private final T left;
+        private final T right;
+
+        Pair(T left, T right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        T getLeft() {
+            return left;
+        }
+
+        T getRight() {
+            return right;
+        }
+    }
+
+    /**
+     * The pairs in the order of the left side, and what was left over.
+     */
+    static final class Result<T> {
+        private final List<Pair<T>> pairs;
+        private final List<T> leftOnly;
+        private final List<T> rightOnly;
+
+        Result(List<Pair<T>> pairs, List<T> leftOnly, List<T> rightOnly) {
+            this.pairs = pairs;
+            this.leftOnly = leftOnly;
+            this.rightOnly = rightOnly;
+        }
+
+        List<Pair<T>> getPairs() {
+            return pairs;
+        }
+
+        List<T> getLeftOnly() {
+            return leftOnly;
+        }
+
+        List<T> getRightOnly() {
+            return rightOnly;
+        }
+
+        boolean isComplete() {
+            return leftOnly.isEmpty() && rightOnly.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d pairs, %d left only, %d right only",
+                    pairs.size(), leftOnly.size(), rightOnly.size());
+        }
+    }
+
+    private final Set<String> ignoredKeys;
+
+    MetadataJoin(Collection<String> ignoredKeys) {
+        this.ignoredKeys = new HashSet<>(ignoredKeys);
+    }
+
+    /**
+     * Joins the entries of the index files of two JobTimestamp directories.
+     * The file extension is a part of the key, as a PNG is never paired
+     * with an HTML.
+     */
+    Result<IndexEntry> join(Path leftJobTimestampDir, Path rightJobTimestampDir) throws IOException {
+        return join(IndexEntry.readIndex(leftJobTimestampDir),
+                IndexEntry.readIndex(rightJobTimestampDir),
+                e -> e.getExtension() + "\t" + canonicalKey(e.getMetadata()));
+    }
+
+    /**
+     * @param keyOf the canonical key of a material, e.g. canonicalKey() of its metadata
+     */
+    <T> Result<T> join(List<T> left, List<T> right, Function<T, String> keyOf) {
+        Map<String, Deque<T>> buckets = new HashMap<>(right.size() * 4 / 3 + 1);
+        for (T r : right) {
+            buckets.computeIfAbsent(keyOf.apply(r), k -> new ArrayDeque<>(1)).add(r);
+        }
+        List<Pair<T>> pairs = new ArrayList<>(Math.min(left.size(), right.size()));
+        List<T> leftOnly = new ArrayList<>();
+        for (T l : left) {
+            Deque<T> bucket = buckets.get(keyOf.apply(l));
+            T r = (bucket == null) ? null : bucket.poll();
+            if (r == null) {
+                leftOnly.add(l);
+            } else {
+                pairs.add(new Pair<>(l, r));
+            }
+        }
+        List<T> rightOnly = new ArrayList<>();
+        if (pairs.size() < right.size()) {
+            // in the order of the right side
+            Set<T> paired = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Pair<T> p : pairs) {
+                paired.add(p.getRight());
+            }
+            for (T r : right) {
+                if (!paired.contains(r)) {
+                    rightOnly.add(r);
+                }
+            }
+        }
+        return new Result<>(pairs, leftOnly, rightOnly);
+    }
+
+    /**
+     * e.g. "11:description8:original4:step2:01" of page1.html in the demo
+     * store
+     */
+    String canonicalKey(Map<String, String> metadata) {
+        Map<String, String> sorted = new TreeMap<>();
+        for (Map.Entry<String, String> e : metadata.entrySet()) {
+            if (!ignoredKeys.contains(e.getKey())) {
+                sorted.put(e.getKey(), e.getValue());
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : sorted.entrySet()) {
+            sb.append(e.getKey().length()).append(':').append(e.getKey());
+            sb.append(e.getValue().length()).append(':').append(e.getValue());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,107 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Pair the Production and the Development materials of the demo store, and
+ * synthetic ones with materials missing on either side.
+ */
+public class MetadataJoinTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(MetadataJoinTest.class);
+    private static Path myApple;
+
+    @BeforeAll
+    static void setupClass() {
+        myApple = too.getProjectDirectory().resolve("docs/demo/store/myApple");
+    }
+
+    @Test
+    void test_demo_store() throws IOException {
+        MetadataJoin.Result<IndexEntry> result = new MetadataJoin(MetadataJoin.DEMO_IGNORED)
+                .join(myApple.resolve("20231210_213713"), myApple.resolve("20231210_213721"));
+        assertTrue(result.isComplete(), result.toString());
+        assertEquals(4, result.getPairs().size());
+        for (MetadataJoin.Pair<IndexEntry> p : result.getPairs()) {
+            assertEquals(p.getLeft().getMetadata().get("step"), p.getRight().getMetadata().get("step"));
+            assertEquals("Production", p.getLeft().getMetadata().get("environment"));
+            assertEquals("Development", p.getRight().getMetadata().get("environment"));
+        }
+    }
+
+    @Test
+    void test_unmatched() {
+        List<Map<String, String>> left = new ArrayList<>();
+        List<Map<String, String>> right = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            if (i != 10) {
+                left.add(entry("Production", i));
+            }
+            if (i != 20 && i != 30) {
+                right.add(entry("Development", i));
+            }
+        }
+        Collections.shuffle(right, new Random(1));
+        MetadataJoin join = new MetadataJoin(Arrays.asList("environment", "URL.host"));
+        MetadataJoin.Result<Map<String, String>> result = join.join(left, right, join::canonicalKey);
+        assertEquals(997, result.getPairs().size());
+        assertEquals("020", result.getLeftOnly().get(0).get("step"));
+        assertEquals("030", result.getLeftOnly().get(1).get("step"));
+        assertEquals(1, result.getRightOnly().size());
+        assertEquals("010", result.getRightOnly().get(0).get("step"));
+        // in the order of the left side
+        assertEquals("000", result.getPairs().get(0).getLeft().get("step"));
+        assertEquals("000", result.getPairs().get(0).getRight().get("step"));
+    }
+
+    @Test
+    void test_duplicates_pair_once() {
+        List<Map<String, String>> left = Arrays.asList(entry("Production", 1), entry("Production", 1));
+        List<Map<String, String>> right = Arrays.asList(entry("Development", 1));
+        MetadataJoin join = new MetadataJoin(Arrays.asList("environment", "URL.host"));
+        MetadataJoin.Result<Map<String, String>> result = join.join(left, right, join::canonicalKey);
+        assertEquals(1, result.getPairs().size());
+        assertEquals(1, result.getLeftOnly().size());
+        assertTrue(result.getRightOnly().isEmpty());
+    }
+
+    @Test
+    void test_canonicalKey() {
+        MetadataJoin join = new MetadataJoin(Collections.singletonList("environment"));
+        Map<String, String> a = new HashMap<>();
+        a.put("a", "b:c");
+        Map<String, String> b = new HashMap<>();
+        b.put("a", "b");
+        b.put("c", "");
+        // a value that looks like a separator does not collide
+        assertNotEquals(join.canonicalKey(a), join.canonicalKey(b));
+        a.put("environment", "Production");
+        assertEquals("1:a3:b:c", join.canonicalKey(a));
+    }
+
+    private static Map<String, String> entry(String environment, int i) {
+        Map<String, String> m = new HashMap<>();
+        m.put("environment", environment);
+        m.put("URL.host", environment.toLowerCase() + ".example.com");
+        m.put("URL.path", "/page" + i + ".html");
+        m.put("step", String.format("%03d", i));
+        return m;
+    }
+}
@@ -0,0 +1,172 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A content-addressed pool of objects shared by all JobTimestamps of a JobName.
+ *
+ * materialstore writes every object into objects/ of its own JobTimestamp
+ * directory, so an unchanged page is stored again on every run. dedupe()
+ * replaces such a copy with a hard link to the single pooled file, which
+ * keeps the layout materialstore reads while the bytes are on disk once.
+ * Where hard links are not supported the copies are left alone.
+ *
+ * The pool lives in the StoreSidecar. collectGarbage() counts how many index
+ * entries of the remaining JobTimestamps refer to each pooled object and
+ * deletes the objects nobody refers to any longer.
+ */
+class ObjectPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(ObjectPool.class);
+
+    private final Path jobNameDir;
+    private final Path poolDir;
+
+    ObjectPool(Path storeRoot, String jobName) {
+        this.jobNameDir = storeRoot.resolve(jobName);
+        this.poolDir = StoreSidecar.resolve(storeRoot, "objects", jobName);
+    }
+
+    Path getPoolDir() {
+        return poolDir;
+    }
+
+    /**
+     * Moves the objects of a JobTimestamp into the pool, replacing each file
+     * by a hard link to the pooled one.
+     *
+     * @return the number of bytes that no longer take a copy of their own
+     */
+    long dedupe(String jobTimestamp) throws IOException {
+        Path objectsDir = jobNameDir.resolve(jobTimestamp).resolve(IndexEntry.OBJECTS_DIR_NAME);
+        if (!Files.isDirectory(objectsDir)) {
+            return 0;
+        }
+        Files.createDirectories(poolDir);
+        long saved = 0;
+        for (Path object : list(objectsDir)) {
+            Path pooled = poolDir.resolve(object.getFileName());
+            HardLinks.Outcome outcome;
+            if (!Files.exists(pooled)) {
+                // the first copy becomes the pooled one, nothing is written
+                outcome = HardLinks.link(pooled, object);
+            } else if (!Files.isSameFile(pooled, object)) {
+                if (Files.size(pooled) != Files.size(object)) {
+                    logger.warn("size mismatch, not deduplicated: " + object);
+                    continue;
+                }
+                long size = Files.size(object);
+                Path tmp = objectsDir.resolve(object.getFileName() + ".link");
+                Files.deleteIfExists(tmp);
+                outcome = HardLinks.link(tmp, pooled);
+                if (outcome == HardLinks.Outcome.LINKED) {
+                    Files.move(tmp, object, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    saved += size;
+                }
+            } else {
+                continue;
+            }
+            if (outcome == HardLinks.Outcome.COPY_THIS) {
+                logger.warn("too many links, not deduplicated: " + object);
+            } else if (outcome == HardLinks.Outcome.COPY_ALL) {
+                logger.warn("hard links are not available, objects are left as they are: " + objectsDir);
+                return saved;
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Deduplicates every JobTimestamp of the JobName.
+     *
+     * @return the number of bytes that no longer take a copy of their own
+     */
+    long dedupeAll() throws IOException {
+        long saved = 0;
+        if (Files.isDirectory(jobNameDir)) {
+            for (Path jobTimestampDir : list(jobNameDir)) {
+                saved += dedupe(jobTimestampDir.getFileName().toString());
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * @return the number of index entries referring to each object, over all
+     * the JobTimestamps of the JobName
+     */
+    Map<String, Integer> countReferences() throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        if (!Files.isDirectory(jobNameDir)) {
+            return counts;
+        }
+        for (Path jobTimestampDir : list(jobNameDir)) {
+            if (Files.isDirectory(jobTimestampDir)) {
+                for (IndexEntry entry : IndexEntry.readIndex(jobTimestampDir)) {
+                    counts.merge(entry.getObjectFileName(), 1, Integer::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Deletes the pooled objects which no index entry refers to.
+     *
+     * @return the number of bytes freed
+     */
+    long collectGarbage() throws IOException {
+        if (!Files.isDirectory(poolDir)) {
+            return 0;
+        }
+        Map<String, Integer> counts = countReferences();
+        long freed = 0;
+        for (Path pooled : list(poolDir)) {
+            if (!counts.containsKey(pooled.getFileName().toString())) {
+                freed += Files.size(pooled);
+                Files.delete(pooled);
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Deletes a JobTimestamp directory, then the objects only it referred to.
+     *
+     * @return the number of bytes freed in the pool
+     */
+    long prune(String jobTimestamp) throws IOException {
+        Path dir = jobNameDir.resolve(jobTimestamp);
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                List<Path> all = new ArrayList<>();
+                paths.sorted(Comparator.reverseOrder()).forEach(all::add);
+                for (Path p : all) {
+                    Files.delete(p);
+                }
+            }
+        }
+        return collectGarbage();
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            List<Path> list = new ArrayList<>();
+            paths.sorted().forEach(list::add);
+            return list;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Deduplicate the objects of the checked-in demo store, in which
+ * 5cd8ae1b... and c33b3076... are copied into all 3 JobTimestamps.
+ */
+public class ObjectPoolTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(ObjectPoolTest.class);
+    private static final String[] TIMESTAMPS =
+            {"20231210_213713", "20231210_213721", "20231210_213728"};
+    private static Path classOutputDir;
+    private static Path demoStore;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+        demoStore = too.getProjectDirectory().resolve("docs/demo/store");
+    }
+
+    @Test
+    void test_dedupe_and_prune() throws IOException {
+        Path store = classOutputDir.resolve("store");
+        copyDirectory(demoStore.resolve("myApple"), store.resolve("myApple"));
+        ObjectPool pool = new ObjectPool(store, "myApple");
+        long saved = 0;
+        for (String ts : TIMESTAMPS) {
+            saved += pool.dedupe(ts);
+        }
+        assertEquals(2 * 57037 + 2 * 57035, saved);
+        assertEquals(7, count(pool.getPoolDir()));
+        Path objects = Path.of("objects", "5cd8ae1b89721741bf00a6ef29b421a3c06e310e.png");
+        assertTrue(Files.isSameFile(
+                store.resolve("myApple").resolve(TIMESTAMPS[0]).resolve(objects),
+                store.resolve("myApple").resolve(TIMESTAMPS[2]).resolve(objects)));
+        // nothing is garbage while all the JobTimestamps are there
+        assertEquals(0, pool.collectGarbage());
+        // 615e7267... and 7481bdec... are referred to by the first JobTimestamp only
+        long freed = pool.prune(TIMESTAMPS[0]);
+        assertEquals(57018 + 15587, freed);
+        assertEquals(5, count(pool.getPoolDir()));
+        assertFalse(Files.exists(pool.getPoolDir().resolve("615e7267146e307a390756a2bb0f8fbbf767a682.png")));
+        assertTrue(Files.exists(pool.getPoolDir().resolve("5cd8ae1b89721741bf00a6ef29b421a3c06e310e.png")));
+    }
+
+    @Test
+    void test_HardLinks_throws_what_a_copy_would_not_mend() throws IOException {
+        Path dir = Files.createDirectories(classOutputDir.resolve("links"));
+        Path existing = Files.write(dir.resolve("a.png"), new byte[]{1, 2, 3});
+        assertEquals(HardLinks.Outcome.LINKED, HardLinks.link(dir.resolve("b.png"), existing));
+        assertTrue(Files.isSameFile(existing, dir.resolve("b.png")));
+        assertThrows(FileAlreadyExistsException.class, () -> HardLinks.link(dir.resolve("b.png"), existing));
+        assertThrows(NoSuchFileException.class, () -> HardLinks.link(dir.resolve("none/c.png"), existing));
+    }
+
+    private static long count(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.count();
+        }
+    }
+
+    private static void copyDirectory(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                Path dest = target.resolve(source.relativize(p).toString());
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(dest);
+                } else {
+                    Files.copy(p, dest);
+                }
+            }
+        }
+    }
+}
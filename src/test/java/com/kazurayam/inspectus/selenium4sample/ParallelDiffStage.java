@@ -0,0 +1,173 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The image diff stage on its own: diffs a list of image pairs on an
+ * Executor, typically a ForkJoinPool sized to the cores.
+ *
+ * The results are returned in the order of the pairs, so a list sorted by
+ * SortKeys stays sorted. At most maxConcurrentDecodes pairs are decoded at
+ * the same time; the caller's thread waits for a permit before handing the
+ * next pair over, so the worker threads never block and the memory in use
+ * is capped regardless of the size of the Executor.
+ *
+ * With a prefilter, a pair whose PerceptualHash signatures have the same
+ * pixel digest, i.e. the same image encoded in other bytes, is taken as
+ * unchanged without being decoded. Pairs whose dHashes are merely close
+ * are diffed in full, as the dHash of a whole page does not see a change
+ * of a few hundred pixels; so is a pair either of whose objects was not
+ * hashed.
+ *
+ * Nothing in the Inspectus pipelines calls it: FnTwinsDiff and
+ * FnChronosDiff diff the materials with the differ of materialstore. It
+ * serves the benchmarks, and a job which diffs a store of its own.
+ */
+class ParallelDiffStage {
+
+    /**
+     * Two image objects to compare, and where to put the diff image.
+     */
+    static final class DiffPair {
+        final Path left;
+        final Path right;
+        final Path diffImage;
+
+        DiffPair(Path left, Path right, Path diffImage) {
+            this.left = left;
+            this.right = right;
+            this.diffImage = diffImage;
+        }
+
+        /**
+         * @return the pairs of PNG images recorded in the index of a diff
+         * JobTimestamp, whose entries carry "left" and "right" metadata like
+         * "20231210_213713/615e7267146e307a390756a2bb0f8fbbf767a682". The diffs
+         * of the HTML sources and other texts are left out.
+         */
+        static List<DiffPair> fromDiffIndex(Path jobNameDir, String diffJobTimestamp)
+                throws IOException {
+            List<DiffPair> pairs = new ArrayList<>();
+            for (IndexEntry entry : IndexEntry.readIndex(jobNameDir.resolve(diffJobTimestamp))) {
+                Map<String, String> m = entry.getMetadata();
+                if ("png".equals(entry.getExtension()) && "diff".equals(m.get("category"))
+                        && m.containsKey("left") && m.containsKey("right")) {
+                    pairs.add(new DiffPair(
+                            objectPath(jobNameDir, m.get("left"), entry.getExtension()),
+                            objectPath(jobNameDir, m.get("right"), entry.getExtension()),
+                            null));
+                }
+            }
+            return pairs;
+        }
+
+        private static Path objectPath(Path jobNameDir, String ref, String extension) {
+            String[] parts = ref.split("/", 2);
+            return jobNameDir.resolve(parts[0]).resolve(IndexEntry.OBJECTS_DIR_NAME)
+                    .resolve(parts[1] + "." + extension);
+        }
+    }
+
+    private final Executor executor;
+    private final int maxConcurrentDecodes;
+    private final StripImageDiffer differ;
+    private final PerceptualHash prefilter;
+
+    ParallelDiffStage(Executor executor, int maxConcurrentDecodes, StripImageDiffer differ) {
+        this(executor, maxConcurrentDecodes, differ, null);
+    }
+
+    /**
+     * @param prefilter the signatures of the objects, or null to diff every pair in full
+     */
+    ParallelDiffStage(Executor executor, int maxConcurrentDecodes, StripImageDiffer differ,
+                      PerceptualHash prefilter) {
+        if (maxConcurrentDecodes < 1) {
+            throw new IllegalArgumentException(
+                    "maxConcurrentDecodes must be >= 1 but was " + maxConcurrentDecodes);
+        }
+        this.executor = executor;
+        this.maxConcurrentDecodes = maxConcurrentDecodes;
+        this.differ = differ;
+        this.prefilter = prefilter;
+    }
+
+    /**
+     * @return the results, in the order of the pairs
+     */
+    List<StripImageDiffer.ImageDiffResult> diff(List<DiffPair> pairs) throws IOException {
+        Semaphore permits = new Semaphore(maxConcurrentDecodes);
+        List<CompletableFuture<StripImageDiffer.ImageDiffResult>> futures = new ArrayList<>();
+        try {
+            for (DiffPair pair : pairs) {
+                StripImageDiffer.ImageDiffResult same = prefilter(pair);
+                if (same != null) {
+                    futures.add(CompletableFuture.completedFuture(same));
+                    continue;
+                }
+                permits.acquire();
+                try {
+                    futures.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return differ.diff(pair.left, pair.right, pair.diffImage);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        } finally {
+                            permits.release();
+                        }
+                    }, executor));
+                } catch (RejectedExecutionException e) {
+                    // the task will never run, so neither will its finally
+                    permits.release();
+                    throw e;
+                }
+            }
+            List<StripImageDiffer.ImageDiffResult> results = new ArrayList<>(pairs.size());
+            for (CompletableFuture<StripImageDiffer.ImageDiffResult> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        } finally {
+            futures.forEach(f -> f.cancel(false));
+        }
+    }
+
+    /**
+     * @return a result if the pair need not be diffed, otherwise null
+     */
+    private StripImageDiffer.ImageDiffResult prefilter(DiffPair pair) throws IOException {
+        if (prefilter == null) {
+            return null;
+        }
+        PerceptualHash.Signature left = prefilter.get(idOf(pair.left));
+        PerceptualHash.Signature right = prefilter.get(idOf(pair.right));
+        if (left == null || right == null || !left.samePixels(right)) {
+            return null;
+        }
+        return differ.samePixels(pair.left, left.getWidth(), left.getHeight(), pair.diffImage);
+    }
+
+    private static String idOf(Path objectFile) {
+        String name = objectFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
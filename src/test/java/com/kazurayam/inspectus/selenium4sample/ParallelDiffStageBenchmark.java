@@ -0,0 +1,78 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures the speedup of ParallelDiffStage over a serial diff, using the
+ * PNG files checked in under docs/. The pairs are repeated to make a
+ * workload of a few hundred diffs.
+ *
+ * Excluded from the "test" task; run it by `gradle benchmark`.
+ */
+public class ParallelDiffStageBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelDiffStageBenchmark.class);
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(ParallelDiffStageBenchmark.class);
+    private static final int REPEAT = 50;
+    private static Path projectDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        too.cleanClassOutputDirectory();
+        projectDir = too.getProjectDirectory();
+    }
+
+    @Test
+    void benchmark_parallelism() throws IOException {
+        List<ParallelDiffStage.DiffPair> base = new ArrayList<>(ParallelDiffStage.DiffPair.fromDiffIndex(
+                projectDir.resolve("docs/demo/store/myApple"), "20231210_213728"));
+        Path images = projectDir.resolve("docs/images");
+        base.add(new ParallelDiffStage.DiffPair(
+                images.resolve("AppleTwinsDiff_left.png"), images.resolve("AppleTwinsDiff_right.png"), null));
+        base.add(new ParallelDiffStage.DiffPair(
+                images.resolve("AppleTwinsDiff_top.png"), images.resolve("AppleTwinsDiff_diff.png"), null));
+        List<ParallelDiffStage.DiffPair> pairs = new ArrayList<>();
+        for (int i = 0; i < REPEAT; i++) {
+            pairs.addAll(base);
+        }
+        StripImageDiffer differ = new StripImageDiffer();
+        List<String> serial = null;
+        double serialSeconds = 0;
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int parallelism : new int[]{1, 2, 4, cores}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                // warm up the JIT before measuring
+                new ParallelDiffStage(pool, parallelism, differ).diff(base);
+                long started = System.nanoTime();
+                List<String> ratios = new ParallelDiffStage(pool, parallelism, differ).diff(pairs)
+                        .stream().map(StripImageDiffer.ImageDiffResult::formatRatio)
+                        .collect(Collectors.toList());
+                double seconds = (System.nanoTime() - started) / 1_000_000_000.0;
+                if (serial == null) {
+                    serial = ratios;
+                    serialSeconds = seconds;
+                }
+                assertEquals(serial, ratios, "results must come in the order of the pairs");
+                logger.info(String.format("parallelism=%d pairs=%d elapsed=%.2fs speedup=%.2fx",
+                        parallelism, pairs.size(), seconds, serialSeconds / seconds));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Diff the image pairs of the demo store, each several times over, 2 at a
+ * time, and see that the caller waits for a free permit.
+ */
+public class ParallelDiffStageTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(ParallelDiffStageTest.class);
+    private static List<ParallelDiffStage.DiffPair> pairs;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        Path myApple = too.getProjectDirectory().resolve("docs/demo/store/myApple");
+        List<ParallelDiffStage.DiffPair> images =
+                ParallelDiffStage.DiffPair.fromDiffIndex(myApple, "20231210_213728");
+        assertEquals(4, images.size());
+        pairs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            pairs.addAll(images);
+        }
+    }
+
+    @Test
+    void test_diff_in_order_of_the_pairs()
+            throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        StripImageDiffer differ = new StripImageDiffer();
+        List<String> expected = new ArrayList<>();
+        for (ParallelDiffStage.DiffPair pair : pairs) {
+            expected.add(differ.diff(pair.left, pair.right, null).formatRatio());
+        }
+        // the tasks wait in a queue until the test runs them
+        BlockingQueue<Runnable> queued = new LinkedBlockingQueue<>();
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<StripImageDiffer.ImageDiffResult>> results =
+                    caller.submit(() -> new ParallelDiffStage(queued::add, 2, differ).diff(pairs));
+            int ran = 0;
+            while (ran < pairs.size()) {
+                Runnable task = queued.poll(10, TimeUnit.SECONDS);
+                assertNotNull(task, "the caller hands over no more pairs");
+                // this one holds a permit, so the caller can have handed over one more at most
+                assertTrue(queued.size() <= 1, queued.size() + " pairs are queued");
+                task.run();
+                ran++;
+            }
+            List<String> actual = results.get(10, TimeUnit.SECONDS).stream()
+                    .map(StripImageDiffer.ImageDiffResult::formatRatio)
+                    .collect(Collectors.toList());
+            assertEquals(expected, actual);
+        } finally {
+            caller.shutdownNow();
+        }
+    }
+
+    @Test
+    void test_fromDiffIndex_of_pngs_only() throws IOException {
+        Path jobNameDir = too.cleanClassOutputDirectory().resolve("myJob");
+        Path diffDir = Files.createDirectories(jobNameDir.resolve("20240103_000000"));
+        Files.write(diffDir.resolve("index"), Arrays.asList(
+                "aaaa\tpng\t{\"category\":\"diff\", \"left\":\"20240101_000000/1111\", \"right\":\"20240102_000000/2222\"}",
+                "bbbb\thtml\t{\"category\":\"diff\", \"left\":\"20240101_000000/3333\", \"right\":\"20240102_000000/4444\"}",
+                "cccc\tpng\t{\"category\":\"diff\", \"left\":\"20240101_000000/5555\", \"right\":\"20240102_000000/6666\"}"));
+        List<ParallelDiffStage.DiffPair> images =
+                ParallelDiffStage.DiffPair.fromDiffIndex(jobNameDir, "20240103_000000");
+        assertEquals(2, images.size());
+        assertEquals(jobNameDir.resolve("20240101_000000/objects/1111.png"), images.get(0).left);
+        assertEquals(jobNameDir.resolve("20240102_000000/objects/6666.png"), images.get(1).right);
+    }
+
+    @Test
+    void test_rejected_task() {
+        Executor rejecting = task -> {
+            throw new RejectedExecutionException("shut down");
+        };
+        assertThrows(RejectedExecutionException.class,
+                () -> new ParallelDiffStage(rejecting, 1, new StripImageDiffer()).diff(pairs));
+    }
+}
@@ -0,0 +1,152 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.inspectus.core.InspectusException;
+import com.kazurayam.inspectus.materialize.discovery.Handle;
+import com.kazurayam.inspectus.materialize.discovery.Target;
+import com.kazurayam.inspectus.materialize.selenium.WebPageMaterializingFunctions;
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Material;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Measures how the throughput of ParallelTargetMaterializer scales with the
+ * size of the WebDriverPool. Runs against a LocalStaticSite so that the
+ * numbers do not depend on the public network.
+ *
+ * Excluded from the "test" task; run it by `gradle benchmark`.
+ */
+public class ParallelMaterializationBenchmark extends AbstractMaterializingTest {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(ParallelMaterializationBenchmark.class);
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(ParallelMaterializationBenchmark.class);
+    private static final int PAGE_COUNT = 24;
+    private static final long LATENCY_MILLIS = 300;
+    private static Path classOutputDir;
+    private static LocalStaticSite site;
+    private static AdaptiveWait waits;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+        BrowserSessions.setupDriverBinary();
+        site = new LocalStaticSite(PAGE_COUNT, LATENCY_MILLIS);
+        waits = AdaptiveWait.forProject(too.getProjectDirectory());
+    }
+
+    @AfterAll
+    static void tearDownClass() throws IOException {
+        site.close();
+        waits.save();
+    }
+
+    @Test
+    void benchmark_poolSize() throws InspectusException {
+        List<Target> targetList = new ArrayList<>();
+        for (int i = 1; i <= PAGE_COUNT; i++) {
+            targetList.add(Target.builder(site.urlOf(i))
+                    .handle(new Handle(By.xpath("//footer")))
+                    .build());
+        }
+        for (int poolSize : new int[]{1, 2, 4, 8}) {
+            Store store = Stores.newInstance(classOutputDir.resolve("store-" + poolSize));
+            JobName jobName = new JobName("benchmark");
+            WebPageMaterializingFunctions functions =
+                    new WebPageMaterializingFunctions(store, jobName, JobTimestamp.now());
+            List<Material> materials;
+            long started;
+            try (WebDriverPool pool = new WebDriverPool(poolSize)) {
+                // launch all the browsers before we start the clock
+                List<WebDriver> warm = new ArrayList<>();
+                for (int i = 0; i < poolSize; i++) {
+                    warm.add(pool.borrow());
+                }
+                warm.forEach(pool::release);
+                //
+                started = System.nanoTime();
+                materials = new ParallelTargetMaterializer(pool).materialize(targetList,
+                        Collections.singletonMap("environment", "local"),
+                        (driver, target, attributes) -> {
+                            waits.navigateTo(driver, target.getUrl(), target.getHandle().getBy());
+                            synchronized (store) {
+                                return storeEntirePageScreenshot(functions, driver, target, attributes);
+                            }
+                        });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InspectusException(e);
+            }
+            double seconds = (System.nanoTime() - started) / 1_000_000_000.0;
+            logger.info(String.format("poolSize=%d targets=%d elapsed=%.2fs throughput=%.2f targets/s",
+                    poolSize, PAGE_COUNT, seconds, PAGE_COUNT / seconds));
+            assertEquals(PAGE_COUNT, materials.size());
+            for (Material mt : materials) {
+                assertNotNull(mt);
+            }
+        }
+    }
+
+    /**
+     * One browser, the same targets: writing in line with the capture
+     * against handing the writes over to an AsyncMaterialWriter.
+     */
+    @Test
+    void benchmark_asyncWriter() throws InspectusException, MaterialstoreException {
+        WebDriver driver = BrowserSessions.acquire();
+        try {
+            for (boolean async : new boolean[]{false, true}) {
+                Store store = Stores.newInstance(classOutputDir.resolve(async ? "store-async" : "store-sync"));
+                JobName jobName = new JobName("benchmark");
+                JobTimestamp jobTimestamp = JobTimestamp.now();
+                long started = System.nanoTime();
+                try (AsyncMaterialWriter writer = new AsyncMaterialWriter(store, jobName, jobTimestamp)) {
+                    for (int i = 1; i <= PAGE_COUNT; i++) {
+                        Target target = Target.builder(site.urlOf(i))
+                                .handle(new Handle(By.xpath("//footer")))
+                                .build();
+                        waits.navigateTo(driver, target.getUrl(), target.getHandle().getBy());
+                        Metadata metadata = Metadata.builder(target.getUrl())
+                                .put("step", String.format("%02d", i)).build();
+                        byte[] png = EntirePageCapture.capture(driver);
+                        if (async) {
+                            writer.submit(FileType.PNG, metadata, png);
+                        } else {
+                            synchronized (store) {
+                                store.write(jobName, jobTimestamp, FileType.PNG, metadata, png);
+                            }
+                        }
+                    }
+                    writer.flush();
+                    double millis = (System.nanoTime() - started) / 1_000_000.0;
+                    logger.info(String.format("async=%b targets=%d per-target=%.1fms blocked=%dms",
+                            async, PAGE_COUNT, millis / PAGE_COUNT, writer.getBlockedMillis()));
+                }
+            }
+        } finally {
+            BrowserSessions.release(driver);
+        }
+    }
+}
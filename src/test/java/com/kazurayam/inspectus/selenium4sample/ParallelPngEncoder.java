@@ -0,0 +1,169 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes an 8-bit RGB PNG on several cores, the way pigz compresses a
+ * file: the filtered rows are cut into bands of BAND_ROWS, each band is
+ * deflated by a task of its own, primed with the last 32KB of the band
+ * before it, and the outputs, ended with a sync flush, are concatenated
+ * into one zlib stream. The Adler-32 of the stream is summed on the
+ * calling thread while the rows are filtered.
+ *
+ * recompress() takes the PNG a browser encoded for speed rather than size,
+ * e.g. by CdpCapture, and encodes it again at the compression level of
+ * the CaptureSettings; decoding stays on the calling thread, as PNG rows
+ * depend on one another. At most IN_FLIGHT bands are held at a time.
+ */
+final class ParallelPngEncoder {
+
+    static final int BAND_ROWS = 128;
+    static final int IN_FLIGHT = 16;
+
+    private static final int WINDOW = 32 * 1024;
+
+    private interface RowSource {
+        void read(int y, int[] argb) throws IOException;
+    }
+
+    private final Executor executor;
+    private final int compressionLevel;
+
+    /**
+     * @param compressionLevel 0 to 9, as of Deflater
+     */
+    ParallelPngEncoder(Executor executor, int compressionLevel) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException(
+                    "compressionLevel must be within 0 and 9 but was " + compressionLevel);
+        }
+        this.executor = executor;
+        this.compressionLevel = compressionLevel;
+    }
+
+    byte[] recompress(byte[] png) throws IOException {
+        try (PngRowReader reader = new PngRowReader(new ByteArrayInputStream(png))) {
+            return encode(reader.getWidth(), reader.getHeight(), (y, argb) -> {
+                if (!reader.readRow(argb)) {
+                    throw new IOException("truncated PNG at row " + y);
+                }
+            });
+        }
+    }
+
+    byte[] encode(BufferedImage image) throws IOException {
+        int width = image.getWidth();
+        return encode(width, image.getHeight(), (y, argb) -> image.getRGB(0, y, width, 1, argb, 0, width));
+    }
+
+    private byte[] encode(int width, int height, RowSource rows) throws IOException {
+        int stride = 1 + width * 3;
+        int[] argb = new int[width];
+        Adler32 adler = new Adler32();
+        Semaphore permits = new Semaphore(IN_FLIGHT);
+        List<CompletableFuture<byte[]>> bands = new ArrayList<>();
+        byte[] dictionary = null;
+        try {
+            for (int y = 0; y < height; y += BAND_ROWS) {
+                int h = Math.min(BAND_ROWS, height - y);
+                byte[] raw = new byte[h * stride];
+                for (int i = 0; i < h; i++) {
+                    rows.read(y + i, argb);
+                    PngRowWriter.filterSub(argb, width, raw, i * stride);
+                }
+                adler.update(raw);
+                boolean last = y + h >= height;
+                byte[] dict = dictionary;
+                permits.acquire();
+                bands.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return deflate(raw, dict, last);
+                    } finally {
+                        permits.release();
+                    }
+                }, executor));
+                dictionary = Arrays.copyOfRange(raw, Math.max(0, raw.length - WINDOW), raw.length);
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(baos);
+            PngRowWriter.writeHeader(out, width, height);
+            for (int i = 0; i < bands.size(); i++) {
+                byte[] data = bands.get(i).join();
+                if (i == 0) {
+                    data = concat(zlibHeader(), data);
+                }
+                if (i == bands.size() - 1) {
+                    long a = adler.getValue();
+                    data = concat(data, new byte[]{(byte) (a >>> 24), (byte) (a >>> 16),
+                            (byte) (a >>> 8), (byte) a});
+                }
+                PngRowWriter.writeChunk(out, "IDAT", data, 0, data.length);
+            }
+            PngRowWriter.writeChunk(out, "IEND", new byte[0], 0, 0);
+            out.flush();
+            return baos.toByteArray();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } finally {
+            bands.forEach(f -> f.cancel(false));
+        }
+    }
+
+    /*
+     * a raw deflate of the band, ending on a byte boundary unless it is the last
+     */
+    private byte[] deflate(byte[] raw, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(raw);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] zlibHeader() {
+        // CMF: deflate with a 32KB window; FLG: the level, with a check that makes it divisible by 31
+        int flevel = compressionLevel <= 1 ? 0 : compressionLevel <= 5 ? 1 : compressionLevel == 6 ? 2 : 3;
+        int cmf = 0x78;
+        int flg = flevel << 6;
+        flg += (31 - ((cmf << 8) + flg) % 31) % 31;
+        return new byte[]{(byte) cmf, (byte) flg};
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+}
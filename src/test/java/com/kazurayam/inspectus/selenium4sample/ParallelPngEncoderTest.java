@@ -0,0 +1,143 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Encode screenshot-like images in bands on several threads and decode
+ * them with ImageIO and PngRowReader.
+ */
+public class ParallelPngEncoderTest {
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void setupClass() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void tearDownClass() {
+        pool.shutdown();
+    }
+
+    @Test
+    void test_encode_decodes_the_same() throws IOException {
+        // not a multiple of BAND_ROWS high, and wider than the 32KB window of a row
+        BufferedImage image = page(1500, ParallelPngEncoder.BAND_ROWS * 7 + 33);
+        for (int level : new int[]{0, 1, 6, 9}) {
+            byte[] png = new ParallelPngEncoder(pool, level).encode(image);
+            assertPixels(image, ImageIO.read(new ByteArrayInputStream(png)));
+            try (PngRowReader reader = new PngRowReader(new ByteArrayInputStream(png))) {
+                int[] row = new int[image.getWidth()];
+                int y = 0;
+                while (reader.readRow(row)) {
+                    assertEquals(image.getRGB(7, y) & 0xFFFFFF, row[7] & 0xFFFFFF);
+                    y++;
+                }
+                assertEquals(image.getHeight(), y);
+            }
+        }
+    }
+
+    @Test
+    void test_recompress() throws IOException {
+        BufferedImage image = page(1024, 3000);
+        // as a browser encodes it when asked to optimize for speed
+        ByteArrayOutputStream fast = new ByteArrayOutputStream();
+        try (PngRowWriter writer = new PngRowWriter(fast, image.getWidth(), image.getHeight(),
+                Deflater.NO_COMPRESSION)) {
+            int[] row = new int[image.getWidth()];
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.getRGB(0, y, row.length, 1, row, 0, row.length);
+                writer.writeRow(row);
+            }
+        }
+        byte[] png = new ParallelPngEncoder(pool, 6).recompress(fast.toByteArray());
+        assertTrue(png.length * 10 < fast.size(), png.length + " vs " + fast.size());
+        assertPixels(image, ImageIO.read(new ByteArrayInputStream(png)));
+        // the bands are primed with the one before, so they compress about as well as one stream
+        ByteArrayOutputStream serial = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", serial);
+        assertTrue(png.length < serial.size() * 1.2, png.length + " vs " + serial.size());
+    }
+
+    @Test
+    void test_close_after_failed_row() throws IOException {
+        PngRowWriter writer = new PngRowWriter(new ByteArrayOutputStream(), 100, 10, Deflater.BEST_SPEED);
+        // a row too short for the width
+        assertThrows(ArrayIndexOutOfBoundsException.class, () -> writer.writeRow(new int[10]));
+        // the image is given up, so close() has nothing to complain about
+        writer.close();
+    }
+
+    @Test
+    void test_settings() {
+        CaptureSettings settings = CaptureSettings.parse("backend=cdp, compression=6");
+        assertEquals(CaptureSettings.Backend.CDP, settings.getBackend());
+        assertEquals(6, settings.getCompressionLevel());
+        assertEquals("backend=cdp,compression=6", settings.toString());
+        assertEquals(CaptureSettings.Backend.WEBDRIVER, CaptureSettings.parse("").getBackend());
+        assertEquals(null, CaptureSettings.DEFAULT.newEncoder());
+        assertThrows(IllegalArgumentException.class, () -> CaptureSettings.parse("backend=firefox"));
+        assertThrows(IllegalArgumentException.class, () -> CaptureSettings.parse("compression=10"));
+        assertThrows(IllegalArgumentException.class, () -> CaptureSettings.parse("level=1"));
+    }
+
+    private static void assertPixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        int w = expected.getWidth();
+        int[] e = new int[w];
+        int[] a = new int[w];
+        for (int y = 0; y < expected.getHeight(); y++) {
+            expected.getRGB(0, y, w, 1, e, 0, w);
+            actual.getRGB(0, y, w, 1, a, 0, w);
+            assertArrayEquals(e, a, "row " + y);
+        }
+    }
+
+    /*
+     * flat areas, text-like noise and a gradient, as in a screenshot
+     */
+    private static BufferedImage page(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.setColor(Color.DARK_GRAY);
+            Random random = new Random(1);
+            for (int y = 20; y < height; y += 24) {
+                for (int x = 10; x < width - 10; x += 8) {
+                    if (random.nextInt(5) > 0) {
+                        g.fillRect(x, y, 1 + random.nextInt(6), 10);
+                    }
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        for (int x = 0; x < width; x++) {
+            image.setRGB(x, 0, (x & 0xFF) << 16 | 0x00FF00);
+        }
+        return image;
+    }
+}
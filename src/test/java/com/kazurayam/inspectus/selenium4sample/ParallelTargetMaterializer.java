@@ -0,0 +1,149 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.inspectus.core.InspectusException;
+import com.kazurayam.inspectus.materialize.discovery.Target;
+import com.kazurayam.materialstore.core.MaterialstoreException;
+import org.openqa.selenium.WebDriver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Spreads a list of Targets over the browsers of a WebDriverPool.
+ *
+ * The "step" attribute of each Target is derived from its position in the
+ * list before any work is dispatched, so the materials carry the same
+ * metadata as a serial run and SortKeys("step") gives a deterministic order
+ * regardless of which worker finished first.
+ */
+class ParallelTargetMaterializer {
+
+    /**
+     * Processes a single Target with the driver pinned to the current worker.
+     * Called concurrently by several workers; implementations must serialize
+     * their writes into the Store themselves.
+     *
+     * @param <T> what is returned per Target, usually a Material, or a
+     *           future of it when the writes are left to an AsyncMaterialWriter
+     */
+    @FunctionalInterface
+    interface TargetProcessor<T> {
+        T process(WebDriver driver, Target target, Map<String, String> attributes)
+                throws MaterialstoreException, InspectusException;
+    }
+
+    private final WebDriverPool pool;
+
+    ParallelTargetMaterializer(WebDriverPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param targetList the Targets to visit
+     * @param commonAttributes attributes shared by all the Targets, e.g. "environment"
+     * @param processor navigates to the Target and stores the materials
+     * @return the values returned by the processor, in the order of targetList
+     */
+    <T> List<T> materialize(List<Target> targetList,
+                            Map<String, String> commonAttributes,
+                            TargetProcessor<T> processor) throws InspectusException {
+        Map<Integer, T> results = new ConcurrentHashMap<>();
+        int count = materialize(targetList.iterator(), Math.max(1, targetList.size()),
+                commonAttributes, processor, results::put);
+        List<T> ordered = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ordered.add(results.get(i));
+        }
+        return ordered;
+    }
+
+    /**
+     * Visits the Targets as the iterator yields them, e.g. while a
+     * StreamingSitemapLoader is still reading the sitemap. The workers take
+     * the next Target from the iterator one at a time, and the "step" is
+     * the position at which it was taken.
+     *
+     * The values which the processor returns are handed to the sink as they
+     * come, by the workers, concurrently; none is kept here, so a sitemap of
+     * any length is visited in memory bounded by the number of browsers.
+     *
+     * @return the number of Targets visited
+     */
+    <T> int materialize(Iterator<Target> targets,
+                        Map<String, String> commonAttributes,
+                        TargetProcessor<T> processor,
+                        Consumer<? super T> sink) throws InspectusException {
+        return materialize(targets, pool.size(), commonAttributes, processor,
+                (i, result) -> sink.accept(result));
+    }
+
+    private <T> int materialize(Iterator<Target> targets,
+                                int maxWorkers,
+                                Map<String, String> commonAttributes,
+                                TargetProcessor<T> processor,
+                                BiConsumer<Integer, ? super T> sink) throws InspectusException {
+        int workers = Math.min(pool.size(), maxWorkers);
+        AtomicInteger next = new AtomicInteger(0);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                futures.add(executor.submit(() -> {
+                    WebDriver driver = pool.borrow();
+                    try {
+                        while (!failed.get()) {
+                            int i;
+                            Target target;
+                            synchronized (targets) {
+                                if (!targets.hasNext()) {
+                                    break;
+                                }
+                                target = targets.next();
+                                i = next.getAndIncrement();
+                            }
+                            Map<String, String> attributes = new HashMap<>(commonAttributes);
+                            attributes.put("step", String.format("%02d", i + 1));
+                            T result = processor.process(driver, target,
+                                    Collections.unmodifiableMap(attributes));
+                            if (result != null) {
+                                sink.accept(i, result);
+                            }
+                        }
+                    } catch (Exception e) {
+                        // let the other workers drain quickly
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        pool.release(driver);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new InspectusException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InspectusException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return next.get();
+    }
+}
@@ -0,0 +1,300 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The signature of each PNG object of a JobName, kept in the StoreSidecar:
+ * its size, its dHash and the SHA1 of its decoded pixels.
+ *
+ * A dHash is 64 bits: the image is reduced to 9x8 cells of grey, and each
+ * bit tells whether a cell is brighter than its neighbour on the right.
+ * Two screenshots which look the same have hashes a few bits apart, or
+ * none, even when their bytes differ. A cell of a full page is hundreds of
+ * pixels on a side, so a box of 200x30 pixels painted red moves the hash by
+ * a bit or none: the dHash tells how alike two pages look overall, never
+ * that they are the same.
+ *
+ * That is what the pixel digest is for: the SHA1 of "WxH" and the ARGB
+ * rows, as of ViewportSlices. Two objects with the same pixel digest are
+ * the same image, however the browser encoded them, so ParallelDiffStage
+ * can skip decoding them without missing a change. The signature is
+ * computed in one pass over the rows, when the object is written.
+ *
+ * The signatures are keyed by object ID, as they are a function of the
+ * bytes only, and appended to "hashes.tsv", one
+ * "&lt;sha1&gt;\t&lt;dHash&gt;\t&lt;W&gt;x&lt;H&gt;\t&lt;pixel sha1&gt;" line each.
+ * Lines of an older layout have the dHash only; such objects are always
+ * diffed in full.
+ */
+final class PerceptualHash {
+
+    static final String FILE_NAME = "hashes.tsv";
+
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+
+    /**
+     * What is known of an object.
+     */
+    static final class Signature {
+        private final long dHash;
+        private final int width;
+        private final int height;
+        private final String pixels;
+
+        Signature(long dHash, int width, int height, String pixels) {
+            this.dHash = dHash;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+
+        long getDHash() {
+            return dHash;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return the SHA1 of the size and the pixels, or null if not known
+         */
+        String getPixels() {
+            return pixels;
+        }
+
+        /**
+         * @return true only if both are known to be the same image
+         */
+        boolean samePixels(Signature other) {
+            return pixels != null && pixels.equals(other.pixels);
+        }
+
+        String toLine() {
+            return pixels == null ? toHex(dHash) : toHex(dHash) + "\t" + width + "x" + height + "\t" + pixels;
+        }
+
+        static Signature parse(String line) {
+            String[] f = line.split("\t");
+            long dHash = Long.parseUnsignedLong(f[0], 16);
+            if (f.length < 3) {
+                return new Signature(dHash, 0, 0, null);
+            }
+            String[] size = f[1].split("x");
+            return new Signature(dHash, Integer.parseInt(size[0]), Integer.parseInt(size[1]), f[2]);
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Signature> signatures = new ConcurrentHashMap<>();
+
+    private PerceptualHash(Path file) {
+        this.file = file;
+    }
+
+    static PerceptualHash open(Path storeRoot, String jobName) throws IOException {
+        PerceptualHash table = new PerceptualHash(
+                StoreSidecar.resolve(storeRoot, "phash", jobName, FILE_NAME));
+        if (Files.exists(table.file)) {
+            List<String> lines = Files.readAllLines(table.file, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    table.signatures.put(line.substring(0, tab), Signature.parse(line.substring(tab + 1)));
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @param id the SHA1 of the object
+     * @return null if the object was not hashed
+     */
+    Signature get(String id) {
+        return signatures.get(id);
+    }
+
+    int size() {
+        return signatures.size();
+    }
+
+    /**
+     * Hashes the object unless it was hashed already.
+     */
+    Signature computeIfAbsent(String id, byte[] png) throws IOException {
+        Signature known = signatures.get(id);
+        if (known != null) {
+            return known;
+        }
+        Signature signature = of(png);
+        put(id, signature);
+        return signature;
+    }
+
+    synchronized void put(String id, Signature signature) throws IOException {
+        if (signatures.putIfAbsent(id, signature) != null) {
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            w.write(id + "\t" + signature.toLine() + "\n");
+        }
+    }
+
+    /**
+     * Forgets the objects which are gone, e.g. after the RetentionEngine
+     * dropped JobTimestamps, and writes the file again without them.
+     *
+     * @param liveIds the SHA1 of the objects of the JobTimestamps left
+     * @return the number of signatures dropped
+     */
+    synchronized int retain(Set<String> liveIds) throws IOException {
+        int before = signatures.size();
+        if (!signatures.keySet().retainAll(liveIds)) {
+            return 0;
+        }
+        Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Signature> e : signatures.entrySet()) {
+                w.write(e.getKey() + "\t" + e.getValue().toLine() + "\n");
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return before - signatures.size();
+    }
+
+    static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    static String toHex(long hash) {
+        return String.format("%016x", hash);
+    }
+
+    static long dHash(byte[] png) throws IOException {
+        return of(png).getDHash();
+    }
+
+    static long dHash(Path png) throws IOException {
+        return of(png).getDHash();
+    }
+
+    static Signature of(byte[] png) throws IOException {
+        try (InputStream in = new ByteArrayInputStream(png)) {
+            return of(in, () -> ImageIO.read(new ByteArrayInputStream(png)));
+        }
+    }
+
+    static Signature of(Path png) throws IOException {
+        try (InputStream in = MappedObjects.newInputStream(png)) {
+            return of(in, () -> ImageIO.read(png.toFile()));
+        }
+    }
+
+    @FunctionalInterface
+    private interface Fallback {
+        BufferedImage read() throws IOException;
+    }
+
+    private static Signature of(InputStream in, Fallback fallback) throws IOException {
+        try (PngRowReader reader = new PngRowReader(in)) {
+            Accumulator acc = new Accumulator(reader.getWidth(), reader.getHeight());
+            int[] row = new int[reader.getWidth()];
+            for (int y = 0; y < reader.getHeight() && reader.readRow(row); y++) {
+                acc.add(row, y);
+            }
+            return acc.toSignature();
+        } catch (PngRowReader.UnsupportedPngException e) {
+            BufferedImage image = fallback.read();
+            if (image == null) {
+                throw new IOException("not an image");
+            }
+            return of(image);
+        }
+    }
+
+    static Signature of(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Accumulator acc = new Accumulator(width, height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            acc.add(row, y);
+        }
+        return acc.toSignature();
+    }
+
+    /*
+     * the grey of the cells and the digest of the rows, as they come
+     */
+    private static final class Accumulator {
+        private final int width;
+        private final int height;
+        private final long[] sums = new long[COLUMNS * ROWS];
+        private final int[] counts = new int[COLUMNS * ROWS];
+        private final MessageDigest md = Digests.newSha1();
+        private final byte[] bytes;
+
+        Accumulator(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.bytes = new byte[width * 4];
+            md.update((width + "x" + height).getBytes(StandardCharsets.US_ASCII));
+        }
+
+        void add(int[] row, int y) {
+            int base = (int) ((long) y * ROWS / height) * COLUMNS;
+            for (int x = 0; x < width; x++) {
+                int p = row[x];
+                // ITU-R BT.601 luma, in integers
+                int grey = (((p >> 16) & 0xFF) * 299 + ((p >> 8) & 0xFF) * 587 + (p & 0xFF) * 114) / 1000;
+                int i = base + (int) ((long) x * COLUMNS / width);
+                sums[i] += grey;
+                counts[i]++;
+                bytes[4 * x] = (byte) (p >>> 24);
+                bytes[4 * x + 1] = (byte) (p >>> 16);
+                bytes[4 * x + 2] = (byte) (p >>> 8);
+                bytes[4 * x + 3] = (byte) p;
+            }
+            md.update(bytes);
+        }
+
+        Signature toSignature() {
+            long hash = 0;
+            for (int r = 0; r < ROWS; r++) {
+                for (int c = 0; c < COLUMNS - 1; c++) {
+                    int i = r * COLUMNS + c;
+                    // compare the means without dividing: a/n > b/m  <=>  a*m > b*n
+                    hash <<= 1;
+                    if (sums[i] * Math.max(1, counts[i + 1]) > sums[i + 1] * Math.max(1, counts[i])) {
+                        hash |= 1;
+                    }
+                }
+            }
+            return new Signature(hash, width, height, Digests.toHex(md.digest()));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hash the PNG objects of the demo store, and let ParallelDiffStage skip
+ * the pairs of the same pixels, but not those whose dHashes are merely close.
+ */
+public class PerceptualHashTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(PerceptualHashTest.class);
+    private static Path classOutputDir;
+    private static Path left;
+    private static Path right;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+        Path myApple = too.getProjectDirectory().resolve("docs/demo/store/myApple");
+        left = myApple.resolve("20231210_213713/objects");
+        right = myApple.resolve("20231210_213721/objects");
+    }
+
+    @Test
+    void test_dHash_ignores_encoding() throws IOException {
+        Path original = left.resolve("615e7267146e307a390756a2bb0f8fbbf767a682.png");
+        byte[] bytes = Files.readAllBytes(original);
+        byte[] reencoded = reencode(ImageIO.read(original.toFile()));
+        assertFalse(Arrays.equals(bytes, reencoded));
+        assertEquals(0, PerceptualHash.distance(PerceptualHash.dHash(bytes), PerceptualHash.dHash(reencoded)));
+        assertEquals(PerceptualHash.dHash(bytes), PerceptualHash.dHash(original));
+    }
+
+    @Test
+    void test_dHash_of_rotated() throws IOException {
+        long original = PerceptualHash.dHash(left.resolve("615e7267146e307a390756a2bb0f8fbbf767a682.png"));
+        long rotated = PerceptualHash.dHash(right.resolve("191586b67024f1620995238bb1fc5382647cd793.png"));
+        assertTrue(PerceptualHash.distance(original, rotated) > 10,
+                "distance=" + PerceptualHash.distance(original, rotated));
+    }
+
+    @Test
+    void test_table() throws IOException {
+        Path store = classOutputDir.resolve("store");
+        PerceptualHash table = PerceptualHash.open(store, "myApple");
+        assertNull(table.get("615e7267146e307a390756a2bb0f8fbbf767a682"));
+        PerceptualHash.Signature signature = table.computeIfAbsent("615e7267146e307a390756a2bb0f8fbbf767a682",
+                Files.readAllBytes(left.resolve("615e7267146e307a390756a2bb0f8fbbf767a682.png")));
+        assertEquals(200, signature.getWidth());
+        assertEquals(199, signature.getHeight());
+        // not hashed again
+        assertEquals(signature, table.computeIfAbsent("615e7267146e307a390756a2bb0f8fbbf767a682", new byte[0]));
+        table.put("ffffffffffffffffffffffffffffffffffffffff", new PerceptualHash.Signature(-1L, 1, 1, "0123"));
+        // a line of the older layout, without the pixel digest
+        Files.write(StoreSidecar.resolve(store, "phash", "myApple", PerceptualHash.FILE_NAME),
+                "eeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeee\t00000000000000ff\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        PerceptualHash reopened = PerceptualHash.open(store, "myApple");
+        assertEquals(3, reopened.size());
+        PerceptualHash.Signature read = reopened.get("615e7267146e307a390756a2bb0f8fbbf767a682");
+        assertEquals(signature.getDHash(), read.getDHash());
+        assertTrue(signature.samePixels(read));
+        assertEquals(-1L, reopened.get("ffffffffffffffffffffffffffffffffffffffff").getDHash());
+        PerceptualHash.Signature older = reopened.get("eeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeeee");
+        assertEquals(0xFFL, older.getDHash());
+        assertNull(older.getPixels());
+        assertFalse(older.samePixels(older));
+        assertEquals("ffffffffffffffff", PerceptualHash.toHex(-1L));
+    }
+
+    @Test
+    void test_prefilter() throws IOException {
+        Path objects = Files.createDirectories(classOutputDir.resolve("prefilter"));
+        Path original = left.resolve("615e7267146e307a390756a2bb0f8fbbf767a682.png");
+        BufferedImage image = ImageIO.read(original.toFile());
+        byte[] bytes = reencode(image);
+        Path reencoded = Files.write(objects.resolve(Digests.sha1Hex(bytes) + ".png"), bytes);
+        // a local regression the dHash of the whole image hardly sees
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(150, 185, 40, 10);
+        g.dispose();
+        byte[] boxBytes = reencode(image);
+        Path boxed = Files.write(objects.resolve(Digests.sha1Hex(boxBytes) + ".png"), boxBytes);
+        Path rotated = right.resolve("191586b67024f1620995238bb1fc5382647cd793.png");
+        PerceptualHash table = PerceptualHash.open(classOutputDir.resolve("prefilter-store"), "myApple");
+        for (Path p : Arrays.asList(original, reencoded, boxed, rotated)) {
+            String name = p.getFileName().toString();
+            table.computeIfAbsent(name.substring(0, name.length() - ".png".length()), Files.readAllBytes(p));
+        }
+        assertTrue(PerceptualHash.distance(PerceptualHash.dHash(original), PerceptualHash.dHash(boxed)) <= 2);
+        Path diffImage = objects.resolve("diff.png");
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            List<StripImageDiffer.ImageDiffResult> results =
+                    new ParallelDiffStage(pool, 2, new StripImageDiffer(), table).diff(Arrays.asList(
+                            new ParallelDiffStage.DiffPair(original, reencoded, diffImage),
+                            new ParallelDiffStage.DiffPair(original, boxed, null),
+                            new ParallelDiffStage.DiffPair(original, rotated, null),
+                            new ParallelDiffStage.DiffPair(original,
+                                    left.resolve("7481bdecd834029ed4f220c01e1e8d9bc904f0b9.png"), null)));
+            // the same pixels in other bytes: not decoded, yet the diff image is written
+            assertTrue(results.get(0).isPrefiltered());
+            assertEquals("0.00%", results.get(0).formatRatio());
+            assertTrue(Files.exists(diffImage));
+            // close dHashes are diffed in full
+            assertFalse(results.get(1).isPrefiltered());
+            assertEquals(400, results.get(1).getDiffPixels());
+            assertFalse(results.get(2).isPrefiltered());
+            assertEquals("45.73%", results.get(2).formatRatio());
+            // not hashed, so diffed in full
+            assertFalse(results.get(3).isPrefiltered());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /*
+     * the same pixels, other bytes
+     */
+    private static byte[] reencode(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(1.0f);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(baos)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,345 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decodes a PNG image one row at a time.
+ *
+ * Only the current and the previous scanline are held in memory, so the
+ * footprint does not depend on the height of the image. Supports the
+ * non-interlaced images Chrome and ImageIO produce: greyscale, RGB,
+ * greyscale+alpha and RGBA at 8 or 16 bits per sample, and indexed colour
+ * at 8 bits. Anything else raises UnsupportedPngException, so the caller can
+ * fall back to ImageIO.
+ *
+ * A file is read through MappedObjects, and the payloads of its IDAT
+ * chunks are handed to the Inflater as slices of the mapping, so the
+ * compressed image is not copied onto the heap at all; only the two
+ * scanlines are.
+ */
+final class PngRowReader implements Closeable {
+
+    static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    static final class UnsupportedPngException extends IOException {
+        UnsupportedPngException(String message) {
+            super(message);
+        }
+    }
+
+    private final DataInputStream chunks;
+    private final int width;
+    private final int height;
+    private final int bitDepth;
+    private final int colorType;
+    private final int bytesPerPixel;
+    private final int[] palette = new int[256];
+    private final Inflater inflater = new Inflater();
+    private final ByteBuffer source;  // the whole file, or null when reading a stream
+    private byte[] input;
+    private final byte[] filter = new byte[1];
+    private boolean idatEnded = false;
+    private boolean inChunk = false;
+    private byte[] current;
+    private byte[] previous;
+    private int rowsRead = 0;
+    private int idatRemaining = 0;
+
+    PngRowReader(Path png) throws IOException {
+        this(MappedObjects.newInputStream(png));
+    }
+
+    PngRowReader(InputStream in) throws IOException {
+        if (in instanceof MappedObjects.ByteBufferInputStream) {
+            this.source = ((MappedObjects.ByteBufferInputStream) in).getBuffer();
+            this.chunks = new DataInputStream(in);
+        } else {
+            this.source = null;
+            this.chunks = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        }
+        byte[] signature = new byte[8];
+        chunks.readFully(signature);
+        if (!Arrays.equals(signature, SIGNATURE)) {
+            throw new IOException("not a PNG");
+        }
+        int length = chunks.readInt();
+        if (!"IHDR".equals(readType())) {
+            throw new IOException("IHDR expected");
+        }
+        width = chunks.readInt();
+        height = chunks.readInt();
+        bitDepth = chunks.readUnsignedByte();
+        colorType = chunks.readUnsignedByte();
+        int compression = chunks.readUnsignedByte();
+        int filter = chunks.readUnsignedByte();
+        int interlace = chunks.readUnsignedByte();
+        skipFully(length - 13 + 4);  // rest of IHDR and its CRC
+        if (compression != 0 || filter != 0 || interlace != 0) {
+            close();
+            throw new UnsupportedPngException("interlaced or non-standard PNG");
+        }
+        int samples;
+        switch (colorType) {
+            case 0: samples = 1; break;
+            case 2: samples = 3; break;
+            case 3: samples = 1; break;
+            case 4: samples = 2; break;
+            case 6: samples = 4; break;
+            default:
+                close();
+                throw new UnsupportedPngException("color type " + colorType);
+        }
+        if (!(bitDepth == 8 || (bitDepth == 16 && colorType != 3))) {
+            close();
+            throw new UnsupportedPngException("bit depth " + bitDepth + " of color type " + colorType);
+        }
+        bytesPerPixel = samples * bitDepth / 8;
+        current = new byte[width * bytesPerPixel];
+        previous = new byte[width * bytesPerPixel];
+        Arrays.fill(palette, 0xFF000000);
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Decodes the next row into ARGB pixels.
+     *
+     * @param argb an array of at least getWidth() elements
+     * @return false if all the rows have been read
+     */
+    boolean readRow(int[] argb) throws IOException {
+        if (rowsRead >= height) {
+            return false;
+        }
+        inflateFully(filter);
+        int filterType = filter[0] & 0xFF;
+        byte[] swap = previous;
+        previous = current;
+        current = swap;
+        inflateFully(current);
+        unfilter(filterType);
+        toArgb(argb);
+        rowsRead++;
+        return true;
+    }
+
+    private void unfilter(int filterType) throws IOException {
+        int bpp = bytesPerPixel;
+        byte[] cur = current;
+        byte[] prev = previous;
+        switch (filterType) {
+            case 0:
+                break;
+            case 1:
+                for (int i = bpp; i < cur.length; i++) {
+                    cur[i] += cur[i - bpp];
+                }
+                break;
+            case 2:
+                for (int i = 0; i < cur.length; i++) {
+                    cur[i] += prev[i];
+                }
+                break;
+            case 3:
+                for (int i = 0; i < cur.length; i++) {
+                    int left = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+                    cur[i] += (byte) ((left + (prev[i] & 0xFF)) >>> 1);
+                }
+                break;
+            case 4:
+                for (int i = 0; i < cur.length; i++) {
+                    int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+                    int b = prev[i] & 0xFF;
+                    int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+                    cur[i] += (byte) paeth(a, b, c);
+                }
+                break;
+            default:
+                throw new IOException("unknown filter type " + filterType + " at row " + rowsRead);
+        }
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private void toArgb(int[] argb) {
+        byte[] cur = current;
+        int step = bitDepth / 8;  // 16 bit samples are reduced to their high byte
+        for (int x = 0, i = 0; x < width; x++) {
+            int r, g, b, a = 0xFF;
+            switch (colorType) {
+                case 0:
+                    r = g = b = cur[i] & 0xFF;
+                    break;
+                case 2:
+                    r = cur[i] & 0xFF;
+                    g = cur[i + step] & 0xFF;
+                    b = cur[i + 2 * step] & 0xFF;
+                    break;
+                case 3:
+                    argb[x] = palette[cur[i] & 0xFF];
+                    i += bytesPerPixel;
+                    continue;
+                case 4:
+                    r = g = b = cur[i] & 0xFF;
+                    a = cur[i + step] & 0xFF;
+                    break;
+                default:
+                    r = cur[i] & 0xFF;
+                    g = cur[i + step] & 0xFF;
+                    b = cur[i + 2 * step] & 0xFF;
+                    a = cur[i + 3 * step] & 0xFF;
+                    break;
+            }
+            argb[x] = (a << 24) | (r << 16) | (g << 8) | b;
+            i += bytesPerPixel;
+        }
+    }
+
+    private String readType() throws IOException {
+        byte[] type = new byte[4];
+        chunks.readFully(type);
+        return new String(type, StandardCharsets.US_ASCII);
+    }
+
+    private void skipFully(long n) throws IOException {
+        while (n > 0) {
+            long skipped = chunks.skip(n);
+            if (skipped <= 0) {
+                if (chunks.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private void inflateFully(byte[] buffer) throws IOException {
+        int off = 0;
+        try {
+            while (off < buffer.length) {
+                int n = inflater.inflate(buffer, off, buffer.length - off);
+                off += n;
+                if (n == 0 && (inflater.finished() || inflater.needsDictionary()
+                        || (inflater.needsInput() && !feed()))) {
+                    throw new EOFException("image data ended at row " + rowsRead);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("corrupt image data at row " + rowsRead + ": " + e.getMessage());
+        }
+    }
+
+    /*
+     * Gives the Inflater the rest of the current IDAT chunk, or of the next one.
+     * @return false when there are no more
+     */
+    private boolean feed() throws IOException {
+        while (idatRemaining == 0) {
+            if (idatEnded) {
+                return false;
+            }
+            if (inChunk) {
+                skipFully(4);  // CRC of the IDAT just consumed
+                inChunk = false;
+            }
+            if (!nextIdat()) {
+                idatEnded = true;
+                return false;
+            }
+            inChunk = true;
+        }
+        if (source != null) {
+            if (source.remaining() < idatRemaining) {
+                throw new EOFException();
+            }
+            ByteBuffer payload = source.duplicate();
+            payload.limit(source.position() + idatRemaining);
+            source.position(source.position() + idatRemaining);
+            inflater.setInput(payload);
+            idatRemaining = 0;
+        } else {
+            if (input == null) {
+                input = new byte[64 * 1024];
+            }
+            int n = chunks.read(input, 0, Math.min(input.length, idatRemaining));
+            if (n < 0) {
+                throw new EOFException();
+            }
+            inflater.setInput(input, 0, n);
+            idatRemaining -= n;
+        }
+        return true;
+    }
+
+    /*
+     * Reads the chunks up to the first IDAT, picking up the palette on the way.
+     * @return false when IEND is reached
+     */
+    private boolean nextIdat() throws IOException {
+        while (true) {
+            int length = chunks.readInt();
+            String type = readType();
+            switch (type) {
+                case "IDAT":
+                    idatRemaining = length;
+                    return true;
+                case "IEND":
+                    return false;
+                case "PLTE":
+                    for (int i = 0; i < length / 3; i++) {
+                        palette[i] = 0xFF000000 | (chunks.readUnsignedByte() << 16)
+                                | (chunks.readUnsignedByte() << 8) | chunks.readUnsignedByte();
+                    }
+                    skipFully(length % 3 + 4);
+                    break;
+                case "tRNS":
+                    if (colorType == 3) {
+                        for (int i = 0; i < length; i++) {
+                            palette[i] = (chunks.readUnsignedByte() << 24) | (palette[i] & 0xFFFFFF);
+                        }
+                        skipFully(4);
+                    } else {
+                        skipFully(length + 4);
+                    }
+                    break;
+                default:
+                    skipFully(length + 4);
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        chunks.close();
+    }
+}
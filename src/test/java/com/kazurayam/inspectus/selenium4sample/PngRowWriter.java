@@ -0,0 +1,194 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes an 8-bit RGB PNG image one row at a time, the counterpart of
+ * PngRowReader. The compressed data is cut into IDAT chunks as it is
+ * produced, so the footprint does not depend on the height of the image.
+ *
+ * Once writeRow has thrown, close() writes nothing more and throws nothing
+ * of its own, so it does not hide the exception of writeRow.
+ */
+final class PngRowWriter implements Closeable {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final DeflaterOutputStream pixels;
+    private final Deflater deflater;
+    private final byte[] row;
+    private int rowsWritten = 0;
+    private boolean failed = false;
+
+    PngRowWriter(Path png, int width, int height) throws IOException {
+        this(Files.newOutputStream(png), width, height, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    PngRowWriter(OutputStream os, int width, int height, int compressionLevel) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(os, CHUNK_SIZE));
+        this.width = width;
+        this.height = height;
+        this.row = new byte[1 + width * 3];
+        writeHeader(out, width, height);
+        this.deflater = new Deflater(compressionLevel);
+        this.pixels = new DeflaterOutputStream(new IdatOutputStream(), deflater, CHUNK_SIZE);
+    }
+
+    /**
+     * @param argb getWidth() pixels; the alpha channel is dropped
+     */
+    void writeRow(int[] argb) throws IOException {
+        if (rowsWritten >= height) {
+            throw new IllegalStateException("all " + height + " rows have been written");
+        }
+        try {
+            filterSub(argb, width, row, 0);
+            pixels.write(row);
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+        rowsWritten++;
+    }
+
+    /**
+     * Writes the filter type byte and width RGB pixels, 1 + width * 3 bytes,
+     * filtered with Sub, which is cheap and good on screenshots and needs no
+     * previous row.
+     */
+    static void filterSub(int[] argb, int width, byte[] out, int off) {
+        out[off] = 1;
+        int prevR = 0, prevG = 0, prevB = 0;
+        for (int x = 0, i = off + 1; x < width; x++) {
+            int r = (argb[x] >> 16) & 0xFF;
+            int g = (argb[x] >> 8) & 0xFF;
+            int b = argb[x] & 0xFF;
+            out[i++] = (byte) (r - prevR);
+            out[i++] = (byte) (g - prevG);
+            out[i++] = (byte) (b - prevB);
+            prevR = r;
+            prevG = g;
+            prevB = b;
+        }
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Throwable primary = null;
+        try {
+            if (!failed) {
+                if (rowsWritten != height) {
+                    throw new IOException(String.format("%d rows written, %d expected", rowsWritten, height));
+                }
+                pixels.close();  // flushes the last IDAT
+                writeChunk(out, "IEND", new byte[0], 0, 0);
+            }
+        } catch (IOException | RuntimeException e) {
+            primary = e;
+            throw e;
+        } finally {
+            deflater.end();
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (primary == null && !failed) {
+                    throw e;
+                }
+                if (primary != null) {
+                    primary.addSuppressed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the signature and the IHDR of an 8-bit RGB image.
+     */
+    static void writeHeader(DataOutputStream out, int width, int height) throws IOException {
+        out.write(PngRowReader.SIGNATURE);
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, width);
+        putInt(ihdr, 4, height);
+        ihdr[8] = 8;   // bit depth
+        ihdr[9] = 2;   // color type RGB
+        writeChunk(out, "IHDR", ihdr, 0, ihdr.length);
+    }
+
+    static void writeChunk(DataOutputStream out, String type, byte[] data, int off, int len)
+            throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, off, len);
+        out.writeInt(len);
+        out.write(typeBytes);
+        out.write(data, off, len);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    /*
+     * Buffers the zlib stream and emits it as IDAT chunks.
+     */
+    private final class IdatOutputStream extends OutputStream {
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(out, "IDAT", buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+    }
+}
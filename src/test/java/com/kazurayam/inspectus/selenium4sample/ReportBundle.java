@@ -0,0 +1,181 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Publishes a report with the files it refers to, e.g. to a directory a
+ * web server or a CI job serves as an artifact.
+ *
+ * The files are found by following the relative src and href attributes
+ * of the report, and of the HTML files it refers to, such as the pages of
+ * a LightweightReport; thumbnails in the StoreSidecar are found this way
+ * too. They are laid out under the target directory as they are under
+ * their deepest common directory, so the relative links keep working
+ * without the report being rewritten.
+ *
+ * An object, whose name is the SHA1 of its content, becomes a hard link to
+ * the source where both are on the same filesystem. Every other file,
+ * such as the reports which StepMetrics and Inspectus rewrite in place, is
+ * copied with FileChannel.transferTo, so that neither the store nor the
+ * bundle can be changed through the other; either way none of it passes
+ * through the heap. A file which is already a link to its source, or a
+ * copy of the same size and SHA1, is skipped, so publishing a report again
+ * costs little.
+ */
+final class ReportBundle {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReportBundle.class);
+
+    private static final Pattern REFERENCE = Pattern.compile("\\s(?:src|href)=\"([^\"]+)\"");
+    private static final Pattern SCHEME = Pattern.compile("[A-Za-z][A-Za-z0-9+.-]*:");
+
+    /**
+     * What publish() did.
+     */
+    static final class Result {
+        private Path report;
+        private int linked = 0;
+        private int copied = 0;
+        private int skipped = 0;
+        private long bytesCopied = 0;
+
+        Path getReport() {
+            return report;
+        }
+
+        int getLinked() {
+            return linked;
+        }
+
+        int getCopied() {
+            return copied;
+        }
+
+        int getSkipped() {
+            return skipped;
+        }
+
+        long getBytesCopied() {
+            return bytesCopied;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: linked=%d copied=%d skipped=%d bytesCopied=%d",
+                    report, linked, copied, skipped, bytesCopied);
+        }
+    }
+
+    private final Path targetDir;
+    private boolean linksAvailable = true;
+
+    ReportBundle(Path targetDir) {
+        this.targetDir = targetDir.toAbsolutePath().normalize();
+    }
+
+    /**
+     * @param reportHtml e.g. store/myApple-20231210_213728.html
+     */
+    Result publish(Path reportHtml) throws IOException {
+        Path report = reportHtml.toAbsolutePath().normalize();
+        Set<Path> files = collect(report);
+        Path base = report.getParent();
+        for (Path file : files) {
+            while (!file.startsWith(base)) {
+                base = base.getParent();
+            }
+        }
+        Result result = new Result();
+        for (Path file : files) {
+            Path target = targetDir.resolve(base.relativize(file).toString());
+            Files.createDirectories(target.getParent());
+            transfer(file, target, result);
+        }
+        result.report = targetDir.resolve(base.relativize(report).toString());
+        logger.debug(result.toString());
+        return result;
+    }
+
+    /*
+     * the report and every file it refers to, transitively through HTML files
+     */
+    private static Set<Path> collect(Path report) throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        Deque<Path> pending = new ArrayDeque<>();
+        files.add(report);
+        pending.add(report);
+        while (!pending.isEmpty()) {
+            Path html = pending.poll();
+            String text = new String(Files.readAllBytes(html), StandardCharsets.UTF_8);
+            Matcher m = REFERENCE.matcher(text);
+            while (m.find()) {
+                Path file = resolve(html.getParent(), m.group(1));
+                if (file != null && Files.isRegularFile(file) && files.add(file)
+                        && file.getFileName().toString().endsWith(".html")) {
+                    pending.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /*
+     * @return null unless the reference is a relative path
+     */
+    private static Path resolve(Path dir, String reference) {
+        String path = reference.replaceFirst("[?#].*", "");
+        if (path.isEmpty() || path.startsWith("/") || SCHEME.matcher(path).lookingAt()) {
+            return null;
+        }
+        return dir.resolve(path).normalize();
+    }
+
+    private void transfer(Path source, Path target, Result result) throws IOException {
+        boolean link = linksAvailable && isObject(source);
+        if (Files.exists(target)) {
+            boolean sameFile = Files.isSameFile(source, target);
+            if (link ? sameFile : !sameFile && sameContent(source, target)) {
+                result.skipped++;
+                return;
+            }
+            Files.delete(target);
+        }
+        if (link) {
+            HardLinks.Outcome outcome = HardLinks.link(target, source);
+            if (outcome == HardLinks.Outcome.LINKED) {
+                result.linked++;
+                return;
+            }
+            if (outcome == HardLinks.Outcome.COPY_ALL) {
+                logger.debug("hard links are not available, files will be copied: " + target.getParent());
+                linksAvailable = false;
+            }
+        }
+        result.bytesCopied += StoreSync.transferFile(source, target);
+        result.copied++;
+    }
+
+    /*
+     * objects are never modified in place, their name being the SHA1 of their content
+     */
+    private static boolean isObject(Path file) {
+        Path dir = file.getParent();
+        return dir != null && dir.getFileName().toString().equals(IndexEntry.OBJECTS_DIR_NAME);
+    }
+
+    private static boolean sameContent(Path a, Path b) throws IOException {
+        return Files.size(a) == Files.size(b) && Digests.sha1Hex(a).equals(Digests.sha1Hex(b));
+    }
+}
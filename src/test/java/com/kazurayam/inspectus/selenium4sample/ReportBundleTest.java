@@ -0,0 +1,92 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Publish the demo report, made lightweight so that it refers to the
+ * StoreSidecar too, and publish it again.
+ */
+public class ReportBundleTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(ReportBundleTest.class);
+    private static final String REPORT = "myApple-20231210_213728.html";
+    private static Path classOutputDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    void test_publish() throws IOException {
+        Path store = classOutputDir.resolve("store");
+        copyDirectory(too.getProjectDirectory().resolve("docs/demo/store"), store);
+        new LightweightReport(store).rewrite(store.resolve(REPORT));
+
+        Path bundle = classOutputDir.resolve("bundle");
+        ReportBundle.Result result = new ReportBundle(bundle).publish(store.resolve(REPORT));
+        // laid out under the parent of the store, as the thumbnails are in ../store-sidecar
+        assertEquals(bundle.resolve("store").resolve(REPORT).toAbsolutePath().normalize(), result.getReport());
+        // the report, 11 distinct objects and 7 thumbnails
+        List<Path> published = files(bundle);
+        assertEquals(19, published.size());
+        assertEquals(19, result.getLinked() + result.getCopied());
+        assertTrue(published.contains(bundle.resolve(
+                "store-sidecar/thumbnails/myApple/615e7267146e307a390756a2bb0f8fbbf767a682.png")));
+        for (Path p : published) {
+            Path source = classOutputDir.resolve(bundle.relativize(p).toString());
+            assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(p), p.toString());
+        }
+        // only the 11 objects may be linked
+        assertTrue(result.getLinked() == 0 || result.getLinked() == 11);
+
+        // every file is there already
+        ReportBundle.Result again = new ReportBundle(bundle).publish(store.resolve(REPORT));
+        assertEquals(19, again.getSkipped());
+        assertEquals(19, files(bundle).size());
+
+        // the report is rewritten in place after it was published
+        byte[] before = Files.readAllBytes(result.getReport());
+        Files.write(store.resolve(REPORT), "<html></html>".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.TRUNCATE_EXISTING);
+        assertArrayEquals(before, Files.readAllBytes(result.getReport()));
+        ReportBundle.Result changed = new ReportBundle(bundle).publish(store.resolve(REPORT));
+        assertEquals(1, changed.getCopied());
+        assertArrayEquals(Files.readAllBytes(store.resolve(REPORT)), Files.readAllBytes(changed.getReport()));
+    }
+
+    private static List<Path> files(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    private static void copyDirectory(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                Path dest = target.resolve(source.relativize(p).toString());
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(dest);
+                } else {
+                    Files.copy(p, dest);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.materialstore.core.JobName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Deletes the JobTimestamps which a RetentionPolicy does not keep, a few
+ * at a time, so that it can run in the background between jobs.
+ *
+ * Each runOnce() deletes at most maxDeletions JobTimestamps, oldest first,
+ * together with their reports "&lt;JobName&gt;-&lt;JobTimestamp&gt;.html" and what the
+ * StoreSidecar holds for them, and compacts the index files of those left:
+ * duplicate lines and entries whose object is gone are dropped, and objects
+ * no entry refers to are deleted. A JobTimestamp with a file written to
+ * within the last QUIET_MILLIS is neither deleted nor compacted, as a job
+ * may still be writing into it. The baseline recorded in the JobCatalog is
+ * always kept. When anything was deleted the thumbnails, pages, perceptual
+ * hashes, slices and metadata index of the JobName are pruned to the
+ * objects left, and store/index.html is written again for the reports
+ * that are left.
+ */
+class RetentionEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetentionEngine.class);
+
+    private static final String JOB_TIMESTAMP = "\\d{8}_\\d{6}";
+
+    static final long QUIET_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * The JobTimestamps of a JobName to keep and to delete.
+     */
+    static final class Plan {
+        private final Set<String> keep;
+        private final List<String> delete;
+
+        Plan(Set<String> keep, List<String> delete) {
+            this.keep = Collections.unmodifiableSet(new TreeSet<>(keep));
+            this.delete = Collections.unmodifiableList(delete);
+        }
+
+        Set<String> getKeep() {
+            return keep;
+        }
+
+        /**
+         * @return oldest first
+         */
+        List<String> getDelete() {
+            return delete;
+        }
+    }
+
+    private final Path storeRoot;
+    private final RetentionPolicy policy;
+    private final long quietMillis;
+    private final Map<String, Long> compacted = new HashMap<>();
+
+    RetentionEngine(Path storeRoot, RetentionPolicy policy) {
+        this(storeRoot, policy, QUIET_MILLIS);
+    }
+
+    RetentionEngine(Path storeRoot, RetentionPolicy policy, long quietMillis) {
+        this.storeRoot = storeRoot;
+        this.policy = policy;
+        this.quietMillis = quietMillis;
+    }
+
+    Plan plan(String jobName) throws IOException {
+        Path jobNameDir = storeRoot.resolve(jobName);
+        List<String> all = directoryNames(jobNameDir);
+        Set<String> keep = policy.select(all);
+        JobCatalog.Run baseline = JobCatalog.open(storeRoot).latestCompleted(new JobName(jobName));
+        if (baseline != null) {
+            keep.add(baseline.getJobTimestamp());
+        }
+        long now = System.currentTimeMillis();
+        for (String ts : all) {
+            if (!keep.contains(ts) && now - lastModified(jobNameDir.resolve(ts)) < quietMillis) {
+                keep.add(ts);
+            }
+        }
+        if (policy.isKeepReferenced()) {
+            Set<String> present = new HashSet<>(all);
+            keep.addAll(shownByReports(jobName, keep, present));
+            followReferences(jobNameDir, keep, present);
+        }
+        List<String> delete = new ArrayList<>();
+        for (String ts : new TreeSet<>(all)) {
+            if (!keep.contains(ts)) {
+                delete.add(ts);
+            }
+        }
+        return new Plan(keep, delete);
+    }
+
+    /**
+     * @return the JobTimestamps whose objects the reports of the kept
+     * JobTimestamps show; the report of a JobTimestamp to delete goes with it
+     */
+    private Set<String> shownByReports(String jobName, Set<String> keep, Set<String> present)
+            throws IOException {
+        Pattern reportName = Pattern.compile(Pattern.quote(jobName) + "-(" + JOB_TIMESTAMP + ")\\.html");
+        Pattern link = Pattern.compile("(?:src|href)=\"(?:\\./)?" + Pattern.quote(jobName)
+                + "/(" + JOB_TIMESTAMP + ")/");
+        Set<String> shown = new HashSet<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(storeRoot, jobName + "-*.html")) {
+            for (Path report : ds) {
+                Matcher name = reportName.matcher(report.getFileName().toString());
+                if (!name.matches() || !keep.contains(name.group(1))) {
+                    continue;
+                }
+                Matcher m = link.matcher(new String(Files.readAllBytes(report), StandardCharsets.UTF_8));
+                while (m.find()) {
+                    shown.add(m.group(1));
+                }
+            }
+        }
+        shown.retainAll(present);
+        return shown;
+    }
+
+    /*
+     * the newest modification time of the directory and the files under it
+     */
+    private static long lastModified(Path dir) throws IOException {
+        long newest = 0;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                newest = Math.max(newest, Files.getLastModifiedTime(p).toMillis());
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Adds the JobTimestamps which the "left" and "right" metadata of the
+     * kept diffs refer to, and those which they refer to in turn.
+     */
+    private static void followReferences(Path jobNameDir, Set<String> keep, Set<String> present)
+            throws IOException {
+        Deque<String> queue = new ArrayDeque<>(keep);
+        while (!queue.isEmpty()) {
+            for (IndexEntry e : IndexEntry.readIndex(jobNameDir.resolve(queue.poll()))) {
+                for (String side : new String[]{"left", "right"}) {
+                    String ref = e.getMetadata().get(side);
+                    if (ref == null || ref.indexOf('/') < 0) {
+                        continue;
+                    }
+                    String ts = ref.substring(0, ref.indexOf('/'));
+                    if (present.contains(ts) && keep.add(ts)) {
+                        queue.add(ts);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Does a bounded amount of work on every JobName of the store.
+     *
+     * @return true if there is more to delete
+     */
+    boolean runOnce(int maxDeletions) throws IOException {
+        int budget = maxDeletions;
+        boolean more = false;
+        boolean deleted = false;
+        for (String jobName : directoryNames(storeRoot)) {
+            Plan plan = plan(jobName);
+            List<String> delete = plan.getDelete();
+            int n = Math.min(budget, delete.size());
+            for (String ts : delete.subList(0, n)) {
+                delete(jobName, ts);
+                deleted = true;
+            }
+            budget -= n;
+            more |= n < delete.size();
+            for (String ts : plan.getKeep()) {
+                compact(jobName, ts);
+            }
+            if (n > 0) {
+                pruneSidecar(jobName);
+            }
+        }
+        if (deleted) {
+            new StoreIndexPage(storeRoot).write();
+        }
+        return more;
+    }
+
+    /**
+     * Runs runOnce() on the scheduler every period until cancelled.
+     */
+    ScheduledFuture<?> start(ScheduledExecutorService scheduler, long period, TimeUnit unit,
+                             int maxDeletionsPerRun) {
+        logger.info(String.format("retention of %s every %d %s: %s",
+                storeRoot, period, unit, policy));
+        return scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce(maxDeletionsPerRun);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("retention run failed: " + e);
+            }
+        }, 0, period, unit);
+    }
+
+    private void delete(String jobName, String jobTimestamp) throws IOException {
+        deleteRecursively(storeRoot.resolve(jobName).resolve(jobTimestamp));
+        Files.deleteIfExists(storeRoot.resolve(jobName + "-" + jobTimestamp + ".html"));
+        Files.deleteIfExists(StoreSidecar.resolve(storeRoot, "fingerprints", jobName, jobTimestamp + ".tsv"));
+        Files.deleteIfExists(StoreSidecar.resolve(storeRoot, "metrics", jobName, jobTimestamp + ".json"));
+        deleteRecursively(StoreSidecar.resolve(storeRoot, "shards", jobName, jobTimestamp));
+        compacted.remove(jobName + "/" + jobTimestamp);
+        logger.debug(String.format("deleted %s/%s", jobName, jobTimestamp));
+    }
+
+    /**
+     * Drops what the StoreSidecar holds for the objects and JobTimestamps
+     * of a JobName which are gone.
+     */
+    private void pruneSidecar(String jobName) throws IOException {
+        Path jobNameDir = storeRoot.resolve(jobName);
+        Set<String> jobTimestamps = new HashSet<>(directoryNames(jobNameDir));
+        Set<String> objectFileNames = new HashSet<>();
+        Set<String> ids = new HashSet<>();
+        for (String ts : jobTimestamps) {
+            Path objects = jobNameDir.resolve(ts).resolve(IndexEntry.OBJECTS_DIR_NAME);
+            if (!Files.isDirectory(objects)) {
+                continue;
+            }
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(objects)) {
+                for (Path object : ds) {
+                    String name = object.getFileName().toString();
+                    objectFileNames.add(name);
+                    ids.add(name.contains(".") ? name.substring(0, name.indexOf('.')) : name);
+                }
+            }
+        }
+        if (Files.isDirectory(StoreSidecar.resolve(storeRoot, "objects", jobName))) {
+            new ObjectPool(storeRoot, jobName).collectGarbage();
+        }
+        int pruned = new ThumbnailMaker(storeRoot, jobName).collectGarbage(objectFileNames);
+        pruned += new LightweightReport(storeRoot).collectGarbage(jobName, objectFileNames);
+        if (Files.exists(StoreSidecar.resolve(storeRoot, "phash", jobName, PerceptualHash.FILE_NAME))) {
+            pruned += PerceptualHash.open(storeRoot, jobName).retain(ids);
+        }
+        if (Files.isDirectory(StoreSidecar.resolve(storeRoot, "slices", jobName))) {
+            pruned += new ViewportSlices(storeRoot, jobName).collectGarbage(jobTimestamps);
+        }
+        if (Files.isDirectory(StoreSidecar.resolve(storeRoot, "metadata-index", jobName))) {
+            MetadataIndex.open(storeRoot, jobName).refresh();
+        }
+        logger.debug(String.format("pruned %d files and entries of %s from the sidecar", pruned, jobName));
+    }
+
+    /**
+     * Compacts the index file of a JobTimestamp unless it is unchanged since
+     * it was compacted or a file of it was modified within the quiet period.
+     *
+     * @return the number of index lines and objects removed
+     */
+    int compact(String jobName, String jobTimestamp) throws IOException {
+        Path dir = storeRoot.resolve(jobName).resolve(jobTimestamp);
+        Path index = dir.resolve(IndexEntry.INDEX_FILE_NAME);
+        if (!Files.exists(index)) {
+            return 0;
+        }
+        long modified = Files.getLastModifiedTime(index).toMillis();
+        String key = jobName + "/" + jobTimestamp;
+        if (Long.valueOf(modified).equals(compacted.get(key))
+                || System.currentTimeMillis() - lastModified(dir) < quietMillis) {
+            return 0;
+        }
+        List<IndexEntry> entries = IndexEntry.readIndex(dir);
+        Set<String> lines = new LinkedHashSet<>();
+        Set<String> referred = new HashSet<>();
+        for (IndexEntry e : entries) {
+            if (Files.exists(e.objectPath(dir))) {
+                lines.add(e.getLine());
+                referred.add(e.getObjectFileName());
+            }
+        }
+        int removed = entries.size() - lines.size();
+        if (removed > 0) {
+            Path tmp = dir.resolve(IndexEntry.INDEX_FILE_NAME + ".tmp");
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (String line : lines) {
+                    w.write(line);
+                    w.write('\n');
+                }
+            }
+            Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Path objects = dir.resolve(IndexEntry.OBJECTS_DIR_NAME);
+        if (Files.isDirectory(objects)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(objects)) {
+                for (Path object : ds) {
+                    if (!referred.contains(object.getFileName().toString())) {
+                        Files.delete(object);
+                        removed++;
+                    }
+                }
+            }
+        }
+        compacted.put(key, Files.getLastModifiedTime(index).toMillis());
+        return removed;
+    }
+
+    private static List<String> directoryNames(Path dir) throws IOException {
+        List<String> names = new ArrayList<>();
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, Files::isDirectory)) {
+                ds.forEach(p -> names.add(p.getFileName().toString()));
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            List<Path> all = new ArrayList<>();
+            paths.sorted(Collections.reverseOrder()).forEach(all::add);
+            for (Path p : all) {
+                Files.delete(p);
+            }
+        }
+    }
+}
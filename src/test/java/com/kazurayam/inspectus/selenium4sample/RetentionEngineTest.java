@@ -0,0 +1,197 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Prune a made-up JobName with 3 runs a day through January 2024 and a
+ * diff at the end of the month which refers to 2 runs at the beginning.
+ */
+public class RetentionEngineTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(RetentionEngineTest.class);
+    private static final String DIFF = "20240130_190000";
+    private static Path classOutputDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    void test_runOnce() throws IOException {
+        Path store = classOutputDir.resolve("store");
+        Path jobNameDir = store.resolve("myJob");
+        LocalDateTime day = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int d = 0; d < 30; d++) {
+            for (int hour : new int[]{9, 12, 18}) {
+                String ts = day.plusDays(d).withHour(hour).format(RetentionPolicy.JOB_TIMESTAMP);
+                writeMaterial(jobNameDir.resolve(ts), "aaaa" + ts, "{\"step\":\"01\"}");
+            }
+        }
+        writeMaterial(jobNameDir.resolve(DIFF), "dddd",
+                "{\"category\":\"diff\", \"left\":\"20240102_090000/aaaa20240102_090000\", "
+                        + "\"right\":\"20240103_090000/aaaa20240103_090000\"}");
+        Files.write(store.resolve("myJob-" + DIFF + ".html"),
+                "<html><img src=\"./myJob/20240104_120000/objects/aaaa20240104_120000.png\"></html>"
+                        .getBytes(StandardCharsets.UTF_8));
+        // the report of a run to delete shows a run which nothing else keeps
+        Files.write(store.resolve("myJob-20240105_180000.html"),
+                "<html><img src=\"./myJob/20240106_120000/objects/aaaa20240106_120000.png\"></html>"
+                        .getBytes(StandardCharsets.UTF_8));
+        // a duplicate line, a line without its object and an object without a line
+        Path messy = jobNameDir.resolve("20240130_180000");
+        Files.write(messy.resolve("index"), Arrays.asList(
+                "aaaa20240130_180000\tpng\t{\"step\":\"01\"}",
+                "aaaa20240130_180000\tpng\t{\"step\":\"01\"}",
+                "bbbb\tpng\t{\"step\":\"02\"}"), StandardCharsets.UTF_8);
+        Files.write(messy.resolve("objects").resolve("cccc.png"), new byte[]{1});
+        JobCatalog.open(store).complete(new JobName("myJob"), JobTimestamp.create("20240110_090000"));
+        // what the sidecar holds for a JobTimestamp to delete and for one to keep
+        for (String ts : new String[]{"20240101_090000", "20240110_090000"}) {
+            writeSidecar(store, "thumbnails/myJob/aaaa" + ts + ".png");
+            writeSidecar(store, "pages/myJob/aaaa" + ts + "-1.html");
+            writeSidecar(store, "fingerprints/myJob/" + ts + ".tsv");
+            writeSidecar(store, "metrics/myJob/" + ts + ".json");
+            writeSidecar(store, "shards/myJob/" + ts + "/shard-0");
+        }
+        Path hashes = StoreSidecar.resolve(store, "phash", "myJob", PerceptualHash.FILE_NAME);
+        Files.createDirectories(hashes.getParent());
+        Files.write(hashes, Arrays.asList(
+                "aaaa20240101_090000\t0000000000000000",
+                "aaaa20240110_090000\t0000000000000001"), StandardCharsets.UTF_8);
+
+        RetentionPolicy policy = new RetentionPolicy.Builder()
+                .keepLast(3).keepDaily(7).keepWeekly(4).keepReferenced(true).build();
+        RetentionEngine engine = new RetentionEngine(store, policy, 0);
+        List<String> expected = Arrays.asList(
+                // the 3 latest, the latest of the 7 latest days and of the 4 latest weeks
+                "20240114_180000", "20240121_180000", "20240124_180000", "20240125_180000",
+                "20240126_180000", "20240127_180000", "20240128_180000", "20240129_180000",
+                "20240130_120000", "20240130_180000", DIFF,
+                // referred to by the diff, the baseline, and what the report of the diff shows
+                "20240102_090000", "20240103_090000", "20240110_090000", "20240104_120000");
+        RetentionEngine.Plan plan = engine.plan("myJob");
+        assertEquals(expected.stream().sorted().collect(Collectors.toList()),
+                plan.getKeep().stream().collect(Collectors.toList()));
+        assertEquals(91 - 15, plan.getDelete().size());
+
+        assertTrue(engine.runOnce(50));
+        assertEquals(91 - 50, count(jobNameDir));
+        assertFalse(engine.runOnce(50));
+        assertEquals(15, count(jobNameDir));
+
+        assertFalse(Files.exists(store.resolve("myJob-20240105_180000.html")));
+        String index = new String(Files.readAllBytes(store.resolve("index.html")), StandardCharsets.UTF_8);
+        assertTrue(index.contains("<a href=\"./myJob-" + DIFF + ".html\">"));
+        assertFalse(index.contains("myJob-20240105_180000.html"));
+
+        for (String ts : new String[]{"20240101_090000", "20240110_090000"}) {
+            boolean kept = ts.equals("20240110_090000");
+            assertEquals(kept, Files.exists(StoreSidecar.resolve(store, "thumbnails", "myJob", "aaaa" + ts + ".png")));
+            assertEquals(kept, Files.exists(StoreSidecar.resolve(store, "pages", "myJob", "aaaa" + ts + "-1.html")));
+            assertEquals(kept, Files.exists(StoreSidecar.resolve(store, "fingerprints", "myJob", ts + ".tsv")));
+            assertEquals(kept, Files.exists(StoreSidecar.resolve(store, "metrics", "myJob", ts + ".json")));
+            assertEquals(kept, Files.exists(StoreSidecar.resolve(store, "shards", "myJob", ts)));
+        }
+        List<String> signatures = Files.readAllLines(hashes, StandardCharsets.UTF_8);
+        assertEquals(1, signatures.size());
+        assertTrue(signatures.get(0).startsWith("aaaa20240110_090000\t"));
+
+        assertEquals(1, Files.readAllLines(messy.resolve("index")).size());
+        assertFalse(Files.exists(messy.resolve("objects").resolve("cccc.png")));
+    }
+
+    /*
+     * every run writes a report which shows the run before, as FnChronosDiff does
+     */
+    @Test
+    void test_report_every_run() throws IOException {
+        Path store = classOutputDir.resolve("reports");
+        Path jobNameDir = store.resolve("myJob");
+        List<String> runs = new ArrayList<>();
+        for (int d = 1; d <= 6; d++) {
+            String ts = String.format("202401%02d_090000", d);
+            writeMaterial(jobNameDir.resolve(ts), "aaaa" + ts, "{\"step\":\"01\"}");
+            String shown = runs.isEmpty() ? ts : runs.get(runs.size() - 1);
+            Files.write(store.resolve("myJob-" + ts + ".html"),
+                    ("<html><img src=\"./myJob/" + shown + "/objects/aaaa" + shown + ".png\"></html>")
+                            .getBytes(StandardCharsets.UTF_8));
+            runs.add(ts);
+        }
+        RetentionPolicy policy = new RetentionPolicy.Builder().keepLast(2).keepReferenced(true).build();
+        RetentionEngine engine = new RetentionEngine(store, policy, 0);
+        // the 2 latest, and the one the report of the older of them shows
+        assertEquals(runs.subList(3, 6), new ArrayList<>(engine.plan("myJob").getKeep()));
+        assertFalse(engine.runOnce(10));
+        assertEquals(3, count(jobNameDir));
+        for (String ts : runs) {
+            assertEquals(runs.indexOf(ts) >= 3, Files.exists(store.resolve("myJob-" + ts + ".html")), ts);
+        }
+    }
+
+    @Test
+    void test_quiet_period() throws IOException {
+        Path store = classOutputDir.resolve("quiet");
+        Path jobNameDir = store.resolve("myJob");
+        for (int d = 1; d <= 4; d++) {
+            String ts = String.format("202401%02d_090000", d);
+            writeMaterial(jobNameDir.resolve(ts), "aaaa" + ts, "{\"step\":\"01\"}");
+        }
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        try (Stream<Path> paths = Files.walk(jobNameDir)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                Files.setLastModifiedTime(p, old);
+            }
+        }
+        // a job is still writing into an old run
+        Files.write(jobNameDir.resolve("20240102_090000").resolve("objects").resolve("bbbb.png"), new byte[]{0});
+
+        RetentionPolicy policy = new RetentionPolicy.Builder().keepLast(1).build();
+        RetentionEngine engine = new RetentionEngine(store, policy, TimeUnit.MINUTES.toMillis(10));
+        assertEquals(Arrays.asList("20240101_090000", "20240103_090000"), engine.plan("myJob").getDelete());
+        assertFalse(engine.runOnce(10));
+        assertEquals(2, count(jobNameDir));
+        assertTrue(Files.exists(jobNameDir.resolve("20240102_090000").resolve("objects").resolve("bbbb.png")));
+    }
+
+    private static void writeSidecar(Path store, String path) throws IOException {
+        Path file = StoreSidecar.resolve(store, path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[]{0});
+    }
+
+    private static void writeMaterial(Path jobTimestampDir, String id, String metadata) throws IOException {
+        Files.createDirectories(jobTimestampDir.resolve("objects"));
+        Files.write(jobTimestampDir.resolve("objects").resolve(id + ".png"), new byte[]{0});
+        Files.write(jobTimestampDir.resolve("index"),
+                (id + "\tpng\t" + metadata + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long count(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.count();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Which JobTimestamps of a JobName to keep:
+ * <ul>
+ *     <li>keepLast(n): the n newest</li>
+ *     <li>keepDaily(n): the newest of each of the n latest days with a run</li>
+ *     <li>keepWeekly(n): the newest of each of the n latest weeks with a run,
+ *     weeks starting on Monday</li>
+ *     <li>keepReferenced(true): also those whose objects the report of a
+ *     JobTimestamp kept by the rules above shows, and those which a kept
+ *     JobTimestamp refers to, i.e. the left and right of its diffs</li>
+ * </ul>
+ * A report goes with its JobTimestamp; the reports are subject to the
+ * same rules as the runs, so a job which writes a report every run is
+ * pruned like one which does not.
+ * A JobTimestamp is kept if any rule keeps it. Directories whose name is
+ * not a JobTimestamp are never selected for deletion.
+ */
+final class RetentionPolicy {
+
+    static final DateTimeFormatter JOB_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+
+    private final int keepLast;
+    private final int keepDaily;
+    private final int keepWeekly;
+    private final boolean keepReferenced;
+
+    private RetentionPolicy(Builder builder) {
+        this.keepLast = builder.keepLast;
+        this.keepDaily = builder.keepDaily;
+        this.keepWeekly = builder.keepWeekly;
+        this.keepReferenced = builder.keepReferenced;
+    }
+
+    int getKeepLast() {
+        return keepLast;
+    }
+
+    int getKeepDaily() {
+        return keepDaily;
+    }
+
+    int getKeepWeekly() {
+        return keepWeekly;
+    }
+
+    boolean isKeepReferenced() {
+        return keepReferenced;
+    }
+
+    /**
+     * Applies the time based rules.
+     *
+     * @param jobTimestamps the JobTimestamps of a JobName, in any order
+     * @return those to keep, before the references are followed
+     */
+    Set<String> select(List<String> jobTimestamps) {
+        List<String> newestFirst = new ArrayList<>(new TreeSet<>(jobTimestamps).descendingSet());
+        Set<String> keep = new HashSet<>();
+        Set<LocalDate> days = new HashSet<>();
+        Set<LocalDate> weeks = new HashSet<>();
+        for (int i = 0; i < newestFirst.size(); i++) {
+            String ts = newestFirst.get(i);
+            LocalDateTime t = parse(ts);
+            if (t == null) {
+                keep.add(ts);
+                continue;
+            }
+            if (i < keepLast) {
+                keep.add(ts);
+            }
+            LocalDate day = t.toLocalDate();
+            if (!days.contains(day) && days.size() < keepDaily) {
+                days.add(day);
+                keep.add(ts);
+            }
+            LocalDate week = day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            if (!weeks.contains(week) && weeks.size() < keepWeekly) {
+                weeks.add(week);
+                keep.add(ts);
+            }
+        }
+        return keep;
+    }
+
+    /**
+     * @return the time of a JobTimestamp, or null if the name is not one
+     */
+    static LocalDateTime parse(String jobTimestamp) {
+        try {
+            return LocalDateTime.parse(jobTimestamp, JOB_TIMESTAMP);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("keepLast=%d, keepDaily=%d, keepWeekly=%d, keepReferenced=%s",
+                keepLast, keepDaily, keepWeekly, keepReferenced);
+    }
+
+    static class Builder {
+        private int keepLast = 1;
+        private int keepDaily = 0;
+        private int keepWeekly = 0;
+        private boolean keepReferenced = true;
+
+        /**
+         * @param n at least 1, so that the latest run is never deleted
+         */
+        Builder keepLast(int n) {
+            if (n < 1) {
+                throw new IllegalArgumentException("keepLast must be >= 1 but was " + n);
+            }
+            this.keepLast = n;
+            return this;
+        }
+
+        Builder keepDaily(int n) {
+            this.keepDaily = Math.max(0, n);
+            return this;
+        }
+
+        Builder keepWeekly(int n) {
+            this.keepWeekly = Math.max(0, n);
+            return this;
+        }
+
+        Builder keepReferenced(boolean keepReferenced) {
+            this.keepReferenced = keepReferenced;
+            return this;
+        }
+
+        RetentionPolicy build() {
+            return new RetentionPolicy(this);
+        }
+    }
+}
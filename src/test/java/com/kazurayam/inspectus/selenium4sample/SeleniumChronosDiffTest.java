@@ -6,9 +6,9 @@ import com.kazurayam.inspectus.core.Intermediates;
 import com.kazurayam.inspectus.core.Parameters;
 import com.kazurayam.inspectus.core.UncheckedInspectusException;
 import com.kazurayam.inspectus.fn.FnChronosDiff;
+import com.kazurayam.inspectus.fn.FnShootings;
 import com.kazurayam.inspectus.materialize.discovery.Handle;
 import com.kazurayam.inspectus.materialize.discovery.Target;
-import com.kazurayam.inspectus.materialize.selenium.WebDriverFormulas;
 import com.kazurayam.inspectus.materialize.selenium.WebPageMaterializingFunctions;
 import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.JobTimestamp;
@@ -16,35 +16,32 @@ import com.kazurayam.materialstore.core.SortKeys;
 import com.kazurayam.materialstore.core.Store;
 import com.kazurayam.materialstore.core.Stores;
 import com.kazurayam.unittest.TestOutputOrganizer;
-import io.github.bonigarcia.wdm.WebDriverManager;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.openqa.selenium.By;
-import org.openqa.selenium.Dimension;
 import org.openqa.selenium.Keys;
 import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.support.ui.Select;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.BiFunction;
 
 /**
  * Using Selenium open a browser to visit a web site,
  * visit multiple URLs of the site and take screenshot.
- * You are supposed to execute this "FunChronosDiffTest"
- * at least twice (2 times). This test will automatically
- * find the products(screenshot images) of the previous run. This test will
+ * This test will automatically find the products(screenshot images) of
+ * the previous run in the JobCatalog of the backup store; if there is none
+ * yet, it takes them first. This test will
  * compare the products of the previous run and the current run,
  * generates a diff information, and compile a HTML report.
  */
@@ -55,60 +52,93 @@ public class SeleniumChronosDiffTest extends AbstractMaterializingTest {
     private final static TestOutputOrganizer too =
             TestOutputOrganizerFactory.create(SeleniumChronosDiffTest.class);
     private static Path classOutputDir;
+    private static AdaptiveWait waits;
     private WebDriver driver;
-    private WebDriverFormulas wdf;
 
     @BeforeAll
     static void beforeAll() throws IOException {
         classOutputDir = too.cleanClassOutputDirectory();
-        WebDriverManager.chromedriver().clearDriverCache().setup();
+        waits = AdaptiveWait.forProject(too.getProjectDirectory());
+        BrowserSessions.setupDriverBinary();
     }
 
-    @BeforeEach
-    public void setup() {
-        ChromeOptions opt = new ChromeOptions();
-        opt.addArguments("headless");
-        opt.addArguments("--remote-allow-origins=*");
-        driver = new ChromeDriver(opt);
-        driver.manage().window().setSize(new Dimension(1024, 1000));
-        // we will implicitly wait 5 seconds for the new page to load
-        driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(5));
-        //
-        wdf = new WebDriverFormulas();
+    @AfterAll
+    static void tearDownClass() throws IOException {
+        waits.save();
     }
 
     @AfterEach
-    public void tearDown() { driver.quit(); }
+    public void tearDown() { BrowserSessions.release(driver); }
 
     @Test
-    public void test_performChronosDiff() throws InspectusException {
+    public void test_performChronosDiff() throws InspectusException, IOException {
+        Store store = Stores.newInstance(classOutputDir.resolve("store"));
+        Store backup = Stores.newInstance(classOutputDir.resolve("store-backup"));
+        JobName jobName = new JobName("performChronosDiff");
+        // FnChronosDiff compares with the previous run kept in the backup store
+        JobCatalog catalog = JobCatalog.open(backup.getRoot());
+        if (catalog.latestCompleted(jobName) == null) {
+            logger.warn("no previous run in the backup-store. Will take a baseline first.");
+            takeBaseline(store, backup, jobName, catalog);
+        }
+        JobCatalog.Run baseline = catalog.requireBaseline(jobName);
+        // the browser is launched only once there is a baseline to compare with
+        if (driver == null) {
+            driver = BrowserSessions.acquire();
+        }
+        JobTimestamp jobTimestamp = JobTimestamp.laterThan(JobTimestamp.create(baseline.getJobTimestamp()));
+        Parameters parameters = new Parameters.Builder()
+                .store(store)
+                .backup(backup)
+                .jobName(jobName)
+                .jobTimestamp(jobTimestamp)
+                .sortKeys(new SortKeys("step"))
+                .threshold(1.0)
+                .build();
+        catalog.begin(jobName, jobTimestamp);
         try {
-            Parameters parameters = new Parameters.Builder()
-                    .store(Stores.newInstance(classOutputDir.resolve("store")))
-                    .backup(Stores.newInstance(classOutputDir.resolve("store-backup")))
-                    .jobName(new JobName("performChronosDiff"))
-                    .jobTimestamp(JobTimestamp.now())
-                    .sortKeys(new SortKeys("step"))
-                    .threshold(1.0)
-                    .build();
             Inspectus chronosDiff = new FnChronosDiff(fn);
             chronosDiff.execute(parameters);
-        } catch (InspectusException e) {
-            if (e.getMessage().contains("previousMaterialList of size == 0")) {
-                logger.warn("chronosDiff.execute() failed because the backup-store was empty. Will try again.");
-                // do it once more with new JobTimestamp
-                Parameters parameters = new Parameters.Builder()
-                        .store(Stores.newInstance(classOutputDir.resolve("store")))
-                        .backup(Stores.newInstance(classOutputDir.resolve("store-backup")))
-                        .jobName(new JobName("performChronosDiff"))
-                        .jobTimestamp(JobTimestamp.now())
-                        .sortKeys(new SortKeys("step"))
-                        .threshold(1.0)
-                        .build();
-                Inspectus chronosDiff = new FnChronosDiff(fn);
-                chronosDiff.execute(parameters);
+        } catch (InspectusException | RuntimeException e) {
+            // e.g. an UncheckedInspectusException out of the fn
+            catalog.fail(jobName, jobTimestamp);
+            throw e;
+        }
+        // the run was copied into the backup store; it is the baseline of the next one
+        catalog.complete(jobName, jobTimestamp);
+    }
+
+    /*
+     * materialize the pages once, without a diff, and sync them into the
+     * backup store so that the first ChronosDiff has something to compare with.
+     */
+    private void takeBaseline(Store store, Store backup, JobName jobName, JobCatalog catalog)
+            throws InspectusException, IOException {
+        JobTimestamp jobTimestamp = JobTimestamp.now();
+        Parameters parameters = new Parameters.Builder()
+                .store(store)
+                .jobName(jobName)
+                .jobTimestamp(jobTimestamp)
+                .sortKeys(new SortKeys("step"))
+                .build();
+        catalog.begin(jobName, jobTimestamp);
+        try {
+            driver = BrowserSessions.acquire();
+            Inspectus shootings = new FnShootings(fn);
+            shootings.execute(parameters);
+            ExecutorService copiers = Executors.newFixedThreadPool(4);
+            try {
+                StoreSync.Result result = new StoreSync(copiers)
+                        .sync(store.getRoot(), backup.getRoot(), jobName.toString());
+                logger.info("baseline synced into the backup-store: " + result);
+            } finally {
+                copiers.shutdown();
             }
+        } catch (InspectusException | IOException | RuntimeException e) {
+            catalog.fail(jobName, jobTimestamp);
+            throw e;
         }
+        catalog.complete(jobName, jobTimestamp);
     }
 
     /*
@@ -131,13 +161,13 @@ public class SeleniumChronosDiffTest extends AbstractMaterializingTest {
                     Target.builder("http://demoaut-mimic.kazurayam.com")
                             .handle(anchorMakeAppointment)
                             .build();
-            wdf.navigateTo(driver, topPage.getUrl(), topPage.getHandle().getBy(), 10);
+            waits.navigateTo(driver, topPage.getUrl(), topPage.getHandle().getBy());
             // take a screenshot, save the HTML source
             storeEntirePageScreenshot(functions, driver, topPage, Collections.singletonMap("step", "01"));
             storeHTMLSource(functions, driver, topPage, Collections.singletonMap("step", "01"));
             // we navigate to the next page (login) with wait for the next page to load
-            wdf.navigateByClick(driver, anchorMakeAppointment.getBy(),
-                    By.xpath("//input[@id='txt-username']"), 10);
+            waits.navigateByClick(driver, anchorMakeAppointment.getBy(),
+                    By.xpath("//input[@id='txt-username']"));
 
             // step2: Login page
             By inputUsername = By.xpath("//input[@id='txt-username']");
@@ -153,8 +183,8 @@ public class SeleniumChronosDiffTest extends AbstractMaterializingTest {
             storeEntirePageScreenshot(functions, driver, loginPage, Collections.singletonMap("step", "02"));
             storeHTMLSource(functions, driver, loginPage, Collections.singletonMap("step", "02"));
             // we will navigate to the appointment page by
-            wdf.navigateByClick(driver, buttonLogin,
-                    By.xpath("//select[@id='combo_facility']"), 10);
+            waits.navigateByClick(driver, buttonLogin,
+                    By.xpath("//select[@id='combo_facility']"));
 
             // step3: Appointment page
             By comboFacility = By.xpath("//select[@id='combo_facility']");
@@ -179,8 +209,8 @@ public class SeleniumChronosDiffTest extends AbstractMaterializingTest {
             storeEntirePageScreenshot(functions, driver, appointmentPage, Collections.singletonMap("step", "03"));
             storeHTMLSource(functions, driver, appointmentPage, Collections.singletonMap("step", "03"));
             // we navigate to the summary page by
-            wdf.navigateByClick(driver, buttonBookAppointment,
-                    By.xpath("//a[text()='Go to Homepage']"), 10);
+            waits.navigateByClick(driver, buttonBookAppointment,
+                    By.xpath("//a[text()='Go to Homepage']"));
 
             // Step4: Summary page
             Handle anchorGoHome = new Handle(By.xpath("//a[text()='Go to Homepage']"));
@@ -189,8 +219,8 @@ public class SeleniumChronosDiffTest extends AbstractMaterializingTest {
             storeEntirePageScreenshot(functions, driver, summaryPage, Collections.singletonMap("step", "04"));
             storeHTMLSource(functions, driver, summaryPage, Collections.singletonMap("step", "04"));
             // we navigate to the Home
-            wdf.navigateByClick(driver, anchorGoHome.getBy(),
-                    By.xpath("//a[@id='btn-make-appointment']"), 10);
+            waits.navigateByClick(driver, anchorGoHome.getBy(),
+                    By.xpath("//a[@id='btn-make-appointment']"));
 
         } catch (Exception e) {
             throw new UncheckedInspectusException(e);
@@ -8,7 +8,6 @@ import com.kazurayam.inspectus.core.UncheckedInspectusException;
 import com.kazurayam.inspectus.fn.FnShootings;
 import com.kazurayam.inspectus.materialize.discovery.Handle;
 import com.kazurayam.inspectus.materialize.discovery.Target;
-import com.kazurayam.inspectus.materialize.selenium.WebDriverFormulas;
 import com.kazurayam.inspectus.materialize.selenium.WebPageMaterializingFunctions;
 import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.JobTimestamp;
@@ -17,23 +16,19 @@ import com.kazurayam.materialstore.core.SortKeys;
 import com.kazurayam.materialstore.core.Store;
 import com.kazurayam.materialstore.core.Stores;
 import com.kazurayam.unittest.TestOutputOrganizer;
-import io.github.bonigarcia.wdm.WebDriverManager;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.openqa.selenium.By;
-import org.openqa.selenium.Dimension;
 import org.openqa.selenium.Keys;
 import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Path;
-import java.time.Duration;
 import java.util.Collections;
 import java.util.function.BiFunction;
 
@@ -50,30 +45,29 @@ public class SeleniumShootingsTest extends AbstractMaterializingTest {
     private static TestOutputOrganizer too =
             TestOutputOrganizerFactory.create(SeleniumShootingsTest.class);
     private static Path classOutputDirectory;
+    private static AdaptiveWait waits;
     private WebDriver driver;
-    private WebDriverFormulas wdf;
 
     @BeforeAll
     static void setupClass() throws IOException {
         classOutputDirectory = too.cleanClassOutputDirectory();
-        WebDriverManager.chromedriver().clearDriverCache().setup();
+        waits = AdaptiveWait.forProject(too.getProjectDirectory());
+        BrowserSessions.setupDriverBinary();
+    }
+
+    @AfterAll
+    static void tearDownClass() throws IOException {
+        waits.save();
     }
 
     @BeforeEach
     public void setup() {
-        ChromeOptions opt = new ChromeOptions();
-        opt.addArguments("headless");
-        opt.addArguments("--remote-allow-origins=*");
-        driver = new ChromeDriver(opt);
-        driver.manage().window().setSize(new Dimension(1024, 1000));
-        driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(5));
-
-        wdf = new WebDriverFormulas();
+        driver = BrowserSessions.acquire();
     }
 
     @AfterEach
     public void tearDown() {
-        driver.quit();
+        BrowserSessions.release(driver);
     }
 
 
@@ -112,7 +106,7 @@ public class SeleniumShootingsTest extends AbstractMaterializingTest {
                     Target.builder("https://duckduckgo.com/")
                             .handle(inputq)
                             .build();
-            wdf.navigateTo(driver, topPage.getUrl(), topPage.getHandle().getBy(), 10);
+            waits.navigateTo(driver, topPage.getUrl(), topPage.getHandle().getBy());
             // take the 1st screenshot of the blank search page
             Material mt1 = storeEntirePageScreenshot(functions, driver, topPage,
                     Collections.singletonMap("step", "01"));
@@ -133,7 +127,7 @@ public class SeleniumShootingsTest extends AbstractMaterializingTest {
             // send ENTER, wait for the search result page to be loaded,
             driver.findElement(inputq.getBy()).sendKeys(Keys.RETURN);
             By inputQSelenium = By.xpath("//input[@name='q' and @value='selenium']");
-            wdf.waitForElementPresent(driver, inputQSelenium, 3);
+            waits.waitFor(driver, "search " + topPage.getUrl(), inputQSelenium);
 
             // take the 3rd screenshot
             Target resultPage =
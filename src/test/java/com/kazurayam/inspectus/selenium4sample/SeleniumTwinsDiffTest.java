@@ -7,39 +7,32 @@ import com.kazurayam.inspectus.core.Intermediates;
 import com.kazurayam.inspectus.core.Parameters;
 import com.kazurayam.inspectus.core.UncheckedInspectusException;
 import com.kazurayam.inspectus.fn.FnTwinsDiff;
-import com.kazurayam.inspectus.materialize.discovery.SitemapLoader;
-import com.kazurayam.inspectus.materialize.discovery.Target;
-import com.kazurayam.inspectus.materialize.selenium.WebDriverFormulas;
-import com.kazurayam.inspectus.materialize.selenium.WebPageMaterializingFunctions;
+import com.kazurayam.materialstore.core.FileType;
 import com.kazurayam.materialstore.core.JobName;
 import com.kazurayam.materialstore.core.JobTimestamp;
-import com.kazurayam.materialstore.core.Material;
 import com.kazurayam.materialstore.core.MaterialstoreException;
+import com.kazurayam.materialstore.core.Metadata;
 import com.kazurayam.materialstore.core.SortKeys;
 import com.kazurayam.materialstore.core.Store;
 import com.kazurayam.materialstore.core.Stores;
 import com.kazurayam.materialstore.core.metadata.IgnoreMetadataKeys;
 import com.kazurayam.unittest.TestOutputOrganizer;
-import io.github.bonigarcia.wdm.WebDriverManager;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.openqa.selenium.Dimension;
-import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.time.Duration;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.function.BiFunction;
 
-import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 /**
@@ -54,36 +47,37 @@ public class SeleniumTwinsDiffTest extends AbstractMaterializingTest {
     private static TestOutputOrganizer too =
             TestOutputOrganizerFactory.create(SeleniumTwinsDiffTest.class);
     private static Path classOutputDir;
+    private static AdaptiveWait waits;
+    private static StepMetrics metrics;
     private static Path fixturesDir;
-    private WebDriver driver;
-    private WebDriverFormulas wdf;
+    private WebDriverPool pool;
 
     @BeforeAll
     static void setupClass() throws IOException {
         classOutputDir = too.cleanClassOutputDirectory();
+        metrics = new StepMetrics();
+        waits = AdaptiveWait.forProject(too.getProjectDirectory(), metrics);
         fixturesDir = too.getProjectDirectory().resolve("src/test/fixtures");
-        WebDriverManager.chromedriver().clearDriverCache().setup();
+        BrowserSessions.setupDriverBinary();
+    }
+
+    @AfterAll
+    static void tearDownClass() throws IOException {
+        waits.save();
     }
 
     @BeforeEach
     public void setup() {
-        ChromeOptions opt = new ChromeOptions();
-        opt.addArguments("headless");
-        opt.addArguments("--remote-allow-origins=*");
-        driver = new ChromeDriver(opt);
-        driver.manage().window().setSize(new Dimension(1024, 1000));
-        driver.manage().timeouts().implicitlyWait(Duration.ofSeconds(5));
-        //
-        wdf = new WebDriverFormulas();
+        pool = new WebDriverPool(3);
     }
 
     @AfterEach
     public void tearDown() {
-        driver.quit();
+        pool.close();
     }
 
     @Test
-    public void test_performTwinsDiff() throws InspectusException {
+    public void test_performTwinsDiff() throws InspectusException, IOException, JMException {
         Parameters parameters = new Parameters.Builder()
                 .store(Stores.newInstance(classOutputDir.resolve("store")))
                 .jobName(new JobName("MyAdmin"))
@@ -99,7 +93,26 @@ public class SeleniumTwinsDiffTest extends AbstractMaterializingTest {
                 new FnTwinsDiff(fn,
                         new Environment("ProductionEnv"),
                         new Environment("DevelopmentEnv"));
-        twinsDiff.execute(parameters);
+        ObjectName mbean = metrics.registerMBean("MyAdmin");
+        try {
+            metrics.time(StepMetrics.Phase.EXECUTE, StepMetrics.JOB, () -> {
+                twinsDiff.execute(parameters);
+                return null;
+            });
+        } finally {
+            StepMetrics.unregisterMBean(mbean);
+        }
+        // the diff and the report are what execute spent outside of the fn
+        metrics.record(StepMetrics.Phase.DIFF_AND_REPORT, StepMetrics.JOB,
+                metrics.getHistogram(StepMetrics.Phase.EXECUTE).getTotalNanos()
+                        - metrics.getHistogram(StepMetrics.Phase.MATERIALIZE).getTotalNanos());
+        Path storeRoot = parameters.getStore().getRoot();
+        metrics.exportJson(storeRoot, parameters.getJobName(), parameters.getJobTimestamp());
+        Path report = StepMetrics.latestReport(storeRoot, parameters.getJobName());
+        assertNotNull(report);
+        metrics.injectSummary(report);
+        // thumbnails in place of the full-size images
+        new LightweightReport(storeRoot).rewrite(report);
     }
 
 
@@ -108,52 +121,70 @@ public class SeleniumTwinsDiffTest extends AbstractMaterializingTest {
      */
     private final BiFunction<Parameters, Intermediates, Intermediates> fn =
             (parameters, intermediates) -> {
+        long started = System.nanoTime();
         try {
             Store store = parameters.getStore();
             JobName jobName = parameters.getJobName();
             JobTimestamp jobTimestamp = parameters.getJobTimestamp();
-            WebPageMaterializingFunctions functions =
-                    new WebPageMaterializingFunctions(store, jobName, jobTimestamp);
 
             assert parameters.getEnvironment() != Environment.NULL_OBJECT :
                     "parameters.getEnvironment() must not return null";
             Environment env = parameters.getEnvironment();
 
             Path dataDir = fixturesDir.resolve("FnTwinsDiffTest");
-            List<Target> targetList;
+            Path sitemap = dataDir.resolve("sitemap.json");
             Map<String, String> bindings;
             switch (env.toString()) {
                 case "ProductionEnv":
                     bindings = Collections.singletonMap("URL_PREFIX", "http://myadmin.kazurayam.com");
-                    targetList =
-                            SitemapLoader.loadSitemapJson(dataDir.resolve("sitemap.json"), bindings)
-                                    .getTargetList();
-                    assert !targetList.isEmpty() : "targetList is empty";
                     break;
                 case "DevelopmentEnv":
                     bindings = Collections.singletonMap("URL_PREFIX", "http://devadmin.kazurayam.com");
-                    targetList =
-                            SitemapLoader.loadSitemapJson(dataDir.resolve("sitemap.json"), bindings)
-                                    .getTargetList();
-                    assert !targetList.isEmpty() : "targetList is empty";
                     break;
                 default:
                     throw new UncheckedInspectusException(
                             String.format("unknown Environment env=%s", env));
             }
-            // process the targets
-            for (int i = 0; i < targetList.size(); i++) {
-                Target target = targetList.get(i);
-                wdf.navigateTo(driver, target.getUrl(), target.getHandle().getBy(), 10);
-                Map<String, String> attributes = new HashMap<>();
-                attributes.put("environment", env.toString());
-                attributes.put("step", String.format("%02d", i + 1));
-                Material mt = storeEntirePageScreenshot(functions, driver, target, attributes);
-                storeHTMLSource(functions, driver, target, attributes);
-                assertNotNull(mt);
+            Map<String, CaptureMask> masks = CaptureMask.loadSitemap(sitemap, bindings);
+            CaptureSettings capture = CaptureSettings.of(parameters);
+            ParallelPngEncoder encoder = capture.newEncoder();
+            // process the targets, spread over the browsers in the pool, as they are read;
+            // the browsers go on to the next target while the writer stores the materials
+            try (StreamingSitemapLoader targets = StreamingSitemapLoader.open(sitemap, bindings);
+                 AsyncMaterialWriter writer =
+                         new AsyncMaterialWriter(store, jobName, jobTimestamp, 2, 8, metrics)) {
+                assert targets.hasNext() : "targetList is empty";
+                writer.updateOnFlush(MetadataIndex.open(store.getRoot(), jobName.toString()));
+                writer.thumbnailOnWrite(new ThumbnailMaker(store.getRoot(), jobName.toString()));
+                writer.hashOnWrite(PerceptualHash.open(store.getRoot(), jobName.toString()));
+                // the slices of a page unchanged since the last run are shared with it
+                writer.sliceOnWrite(new ViewportSlices(store.getRoot(), jobName.toString()));
+                ParallelTargetMaterializer materializer = new ParallelTargetMaterializer(pool);
+                int visited = materializer.materialize(targets,
+                        Collections.singletonMap("environment", env.toString()),
+                        (driver, target, attributes) -> {
+                            waits.navigateTo(driver, target.getUrl(), target.getHandle().getBy());
+                            Metadata metadata = metadataOf(target, attributes);
+                            CaptureMask mask = masks.getOrDefault(target.getUrl().toString(), CaptureMask.NONE);
+                            CaptureMask.Shot shot = metrics.time(StepMetrics.Phase.CAPTURE,
+                                    StepMetrics.targetOf(target.getUrl()),
+                                    () -> mask.capture(driver, capture));
+                            writer.submitText(FileType.HTML, metadata, driver.getPageSource());
+                            // the masks are painted, and the PNG compressed, by the worker
+                            return writer.submit(FileType.PNG, metadata, encoder == null ? shot::encode
+                                    : () -> encoder.recompress(shot.encode()));
+                        },
+                        // the writer reports a failed write on flush
+                        screenshot -> {});
+                // the report must not be compiled before all the materials are in the store
+                writer.flush();
+                // the HTML source and the screenshot of every target
+                assertEquals(2 * visited, writer.getWrittenCount());
             }
-        } catch (MaterialstoreException | InspectusException e) {
+        } catch (InspectusException | MaterialstoreException | IOException e) {
             throw new UncheckedInspectusException(e);
+        } finally {
+            metrics.record(StepMetrics.Phase.MATERIALIZE, StepMetrics.JOB, System.nanoTime() - started);
         }
         return new Intermediates.Builder(intermediates).build();
     };
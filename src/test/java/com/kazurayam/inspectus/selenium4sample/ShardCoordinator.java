@@ -0,0 +1,228 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.google.gson.stream.JsonWriter;
+import com.kazurayam.inspectus.core.InspectusException;
+import com.kazurayam.inspectus.materialize.discovery.Target;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Store;
+import org.openqa.selenium.By;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Materializes a job with several worker processes, each with a browser
+ * of its own, instead of one JVM.
+ *
+ * The Targets are dealt round-robin into shard files, one per worker, in
+ * the StoreSidecar under "shards/&lt;JobName&gt;/&lt;JobTimestamp&gt;". Each
+ * Target is given the "step" of its position in the whole list, as
+ * ParallelTargetMaterializer does, and goes with its attributes and its
+ * CaptureMask, so the materials carry the metadata and the pixels of a
+ * serial run. The CaptureSettings are handed to the workers as the
+ * system property "inspectus.capture". Then a ShardWorker is started per shard file on the
+ * classpath of this JVM, and materialize() returns once all of them have
+ * merged their materials into the Store under the same JobName and
+ * JobTimestamp. The diff and the report are left to the caller, e.g.
+ * FnTwinsDiff, which runs them once on the merged store.
+ *
+ * The Targets are read one at a time while the shard files are written,
+ * so a StreamingSitemapLoader can feed it in constant memory.
+ */
+class ShardCoordinator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    static final long DEFAULT_TIMEOUT_MINUTES = 60;
+
+    private final int shards;
+    private final long timeoutMillis;
+
+    ShardCoordinator(int shards) {
+        this(shards, DEFAULT_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+    }
+
+    ShardCoordinator(int shards, long timeout, TimeUnit unit) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be >= 1 but was " + shards);
+        }
+        this.shards = shards;
+        this.timeoutMillis = unit.toMillis(timeout);
+    }
+
+    static Path shardDir(Path storeRoot, JobName jobName, JobTimestamp jobTimestamp) {
+        return StoreSidecar.resolve(storeRoot, "shards", jobName.toString(), jobTimestamp.toString());
+    }
+
+    /**
+     * @return the number of Targets materialized
+     */
+    int materialize(Store store, JobName jobName, JobTimestamp jobTimestamp,
+                    List<Target> targetList, Map<String, String> commonAttributes)
+            throws InspectusException {
+        return materialize(store, jobName, jobTimestamp, targetList.iterator(), commonAttributes);
+    }
+
+    int materialize(Store store, JobName jobName, JobTimestamp jobTimestamp,
+                    Iterator<Target> targets, Map<String, String> commonAttributes)
+            throws InspectusException {
+        return materialize(store, jobName, jobTimestamp, targets, commonAttributes,
+                Collections.emptyMap(), CaptureSettings.DEFAULT);
+    }
+
+    /**
+     * @param masks the CaptureMasks keyed by the URL of their Target, as
+     *              CaptureMask.loadSitemap reads them
+     * @param settings how the workers take and encode the screenshots
+     */
+    int materialize(Store store, JobName jobName, JobTimestamp jobTimestamp,
+                    Iterator<Target> targets, Map<String, String> commonAttributes,
+                    Map<String, CaptureMask> masks, CaptureSettings settings)
+            throws InspectusException {
+        Path storeRoot = store.getRoot();
+        Path dir = shardDir(storeRoot, jobName, jobTimestamp);
+        List<Path> shardFiles;
+        int count;
+        try {
+            Files.createDirectories(dir);
+            shardFiles = new ArrayList<>();
+            for (int i = 1; i <= shards; i++) {
+                shardFiles.add(dir.resolve("shard-" + i + ".tsv"));
+            }
+            count = deal(targets, masks, shardFiles);
+        } catch (IOException e) {
+            throw new InspectusException(e);
+        }
+        // fewer Targets than shards leaves some empty
+        List<Path> used = shardFiles.subList(0, Math.min(shards, count));
+        List<Process> workers = new ArrayList<>();
+        try {
+            for (Path shardFile : used) {
+                workers.add(start(storeRoot, jobName, jobTimestamp, shardFile, commonAttributes, settings));
+            }
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            List<String> failures = new ArrayList<>();
+            for (int i = 0; i < workers.size(); i++) {
+                Process p = workers.get(i);
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                if (!p.waitFor(remaining, TimeUnit.MILLISECONDS)) {
+                    failures.add(String.format("%s timed out", used.get(i).getFileName()));
+                } else if (p.exitValue() != 0) {
+                    failures.add(String.format("%s exited with %d, see %s", used.get(i).getFileName(),
+                            p.exitValue(), logOf(used.get(i))));
+                }
+            }
+            if (!failures.isEmpty()) {
+                throw new InspectusException(String.join("; ", failures));
+            }
+        } catch (IOException e) {
+            throw new InspectusException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InspectusException(e);
+        } finally {
+            workers.forEach(Process::destroyForcibly);
+        }
+        logger.info(String.format("%s/%s: %d targets materialized by %d workers",
+                jobName, jobTimestamp, count, used.size()));
+        return count;
+    }
+
+    static int deal(Iterator<Target> targets, List<Path> shardFiles) throws IOException {
+        return deal(targets, Collections.emptyMap(), shardFiles);
+    }
+
+    /**
+     * Writes "step\turl\thandle\tjson" lines into the shard files in turn,
+     * where json holds the "attributes" of the Target and the "masks" and
+     * "region" of its CaptureMask, as the sitemap.json gives them.
+     *
+     * @return the number of Targets
+     */
+    static int deal(Iterator<Target> targets, Map<String, CaptureMask> masks, List<Path> shardFiles)
+            throws IOException {
+        List<BufferedWriter> writers = new ArrayList<>();
+        try {
+            for (Path f : shardFiles) {
+                writers.add(Files.newBufferedWriter(f, StandardCharsets.UTF_8));
+            }
+            int i = 0;
+            while (targets.hasNext()) {
+                Target t = targets.next();
+                BufferedWriter w = writers.get(i % writers.size());
+                CaptureMask mask = masks.getOrDefault(t.getUrl().toString(), CaptureMask.NONE);
+                w.write(String.format("%02d\t%s\t%s\t%s\n", i + 1, t.getUrl(), t.getHandle().getBy(),
+                        toJson(t.getAttributes(), mask)));
+                i++;
+            }
+            return i;
+        } finally {
+            for (BufferedWriter w : writers) {
+                w.close();
+            }
+        }
+    }
+
+    private static String toJson(Map<String, String> attributes, CaptureMask mask) throws IOException {
+        StringWriter sw = new StringWriter();
+        try (JsonWriter w = new JsonWriter(sw)) {
+            w.beginObject();
+            w.name("attributes").beginObject();
+            for (Map.Entry<String, String> e : attributes.entrySet()) {
+                w.name(e.getKey()).value(e.getValue());
+            }
+            w.endObject();
+            w.name("masks").beginArray();
+            for (By by : mask.getMasks()) {
+                w.value(by.toString());
+            }
+            w.endArray();
+            if (mask.getRegion() != null) {
+                w.name("region").value(mask.getRegion().toString());
+            }
+            w.endObject();
+        }
+        return sw.toString();
+    }
+
+    private static Process start(Path storeRoot, JobName jobName, JobTimestamp jobTimestamp,
+                                 Path shardFile, Map<String, String> commonAttributes,
+                                 CaptureSettings settings) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-D" + CaptureSettings.PROPERTY + "=" + settings);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardWorker.class.getName());
+        command.add(storeRoot.toString());
+        command.add(jobName.toString());
+        command.add(jobTimestamp.toString());
+        command.add(shardFile.toString());
+        for (Map.Entry<String, String> e : commonAttributes.entrySet()) {
+            command.add(e.getKey() + "=" + e.getValue());
+        }
+        Path log = logOf(shardFile);
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+    }
+
+    private static Path logOf(Path shardFile) {
+        return shardFile.resolveSibling(shardFile.getFileName() + ".log");
+    }
+}
@@ -0,0 +1,230 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.inspectus.core.Environment;
+import com.kazurayam.inspectus.core.Inspectus;
+import com.kazurayam.inspectus.core.InspectusException;
+import com.kazurayam.inspectus.core.Intermediates;
+import com.kazurayam.inspectus.core.Parameters;
+import com.kazurayam.inspectus.core.UncheckedInspectusException;
+import com.kazurayam.inspectus.fn.FnTwinsDiff;
+import com.kazurayam.inspectus.materialize.discovery.Handle;
+import com.kazurayam.inspectus.materialize.discovery.Target;
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.SortKeys;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import com.kazurayam.materialstore.core.metadata.IgnoreMetadataKeys;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.By;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Deal Targets into shards, merge shard stores from concurrent processes,
+ * and materialize a LocalStaticSite with worker processes; the sharded
+ * store must list the same materials as a serial run by a
+ * ParallelTargetMaterializer with one browser.
+ */
+public class ShardCoordinatorTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(ShardCoordinatorTest.class);
+    private static final int PAGE_COUNT = 6;
+    private static final String TS = "20240101_000000";
+    private static Path classOutputDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    void test_deal() throws IOException {
+        List<Target> targets = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            targets.add(Target.builder("http://127.0.0.1/page" + i + ".html")
+                    .handle(new Handle(By.xpath("//footer"))).put("page", String.valueOf(i)).build());
+        }
+        Map<String, CaptureMask> masks = Collections.singletonMap("http://127.0.0.1/page3.html",
+                new CaptureMask(Collections.singletonList(By.cssSelector(".ad")), By.id("main")));
+        Path dir = Files.createDirectories(classOutputDir.resolve("deal"));
+        List<Path> shardFiles = Arrays.asList(dir.resolve("shard-1.tsv"), dir.resolve("shard-2.tsv"));
+        assertEquals(5, ShardCoordinator.deal(targets.iterator(), masks, shardFiles));
+        assertEquals(Arrays.asList(
+                "01\thttp://127.0.0.1/page1.html\tBy.xpath: //footer\t{\"attributes\":{\"page\":\"1\"},\"masks\":[]}",
+                "03\thttp://127.0.0.1/page3.html\tBy.xpath: //footer\t{\"attributes\":{\"page\":\"3\"},"
+                        + "\"masks\":[\"By.cssSelector: .ad\"],\"region\":\"By.id: main\"}",
+                "05\thttp://127.0.0.1/page5.html\tBy.xpath: //footer\t{\"attributes\":{\"page\":\"5\"},\"masks\":[]}"),
+                Files.readAllLines(shardFiles.get(0), StandardCharsets.UTF_8));
+        assertEquals(2, Files.readAllLines(shardFiles.get(1), StandardCharsets.UTF_8).size());
+        assertEquals(Paths.get("shard-1-store"), ShardWorker.storeOf(Paths.get("shard-1.tsv")));
+    }
+
+    /*
+     * 4 processes merge shard stores, which share some objects, into one
+     * JobTimestamp at the same time
+     */
+    @Test
+    void test_concurrent_merge() throws Exception {
+        Path dir = classOutputDir.resolve("merge");
+        Path store = dir.resolve("store");
+        int workers = 4;
+        int entries = 50;
+        List<Process> processes = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            Path shardStore = dir.resolve("shard-" + w + "-store");
+            Path tsDir = Files.createDirectories(shardStore.resolve("myJob").resolve(TS).resolve("objects"))
+                    .getParent();
+            try (BufferedWriter index = Files.newBufferedWriter(tsDir.resolve("index"), StandardCharsets.UTF_8)) {
+                for (int i = 0; i < entries; i++) {
+                    // the odd ones are the same in every shard
+                    String content = (i % 2 == 1) ? "shared " + i : "worker " + w + " entry " + i;
+                    String id = Digests.sha1Hex(content);
+                    Files.write(tsDir.resolve("objects").resolve(id + ".txt"),
+                            content.getBytes(StandardCharsets.UTF_8));
+                    index.write(String.format("%s\ttxt\t{\"step\":\"%02d\",\"worker\":\"%d\"}\n",
+                            id, i, (i % 2 == 1) ? -1 : w));
+                }
+            }
+            processes.add(new ProcessBuilder(
+                    Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), ShardWorker.class.getName(),
+                    "--merge", shardStore.toString(), store.toString(), "myJob", TS)
+                    .redirectErrorStream(true)
+                    .redirectOutput(dir.resolve("merge-" + w + ".log").toFile())
+                    .start());
+        }
+        for (Process p : processes) {
+            assertTrue(p.waitFor(60, TimeUnit.SECONDS));
+            assertEquals(0, p.exitValue());
+        }
+        Path tsDir = store.resolve("myJob").resolve(TS);
+        List<IndexEntry> merged = IndexEntry.readIndex(tsDir);
+        Set<String> lines = new HashSet<>();
+        for (IndexEntry e : merged) {
+            assertTrue(lines.add(e.getLine()), "duplicate " + e.getLine());
+            assertTrue(Files.exists(e.objectPath(tsDir)));
+        }
+        // the even entries of each worker, and the odd ones once
+        assertEquals(workers * entries / 2 + entries / 2, lines.size());
+        assertEquals(lines.size(), Files.readAllLines(tsDir.resolve("index")).size());
+    }
+
+    @Test
+    void test_sharded_equals_serial() throws Exception {
+        BrowserSessions.setupDriverBinary();
+        try (LocalStaticSite site = new LocalStaticSite(PAGE_COUNT, 0)) {
+            List<Target> targets = targetsOf(site);
+            // the footer of page 2 is painted over
+            Map<String, CaptureMask> masks = Collections.singletonMap(site.urlOf(2),
+                    new CaptureMask(Collections.singletonList(By.xpath("//footer")), null));
+            // serial: one browser in this JVM, writing straight into the store
+            Path serialStore = classOutputDir.resolve("serial").resolve("store");
+            materializeSerially(Stores.newInstance(serialStore), targets, masks);
+            // sharded over 3 worker processes
+            Store shardedStore = Stores.newInstance(classOutputDir.resolve("sharded").resolve("store"));
+            int count = new ShardCoordinator(3, 5, TimeUnit.MINUTES).materialize(shardedStore,
+                    new JobName("myJob"), JobTimestamp.create(TS), targets.iterator(),
+                    Collections.singletonMap("environment", "local"), masks, CaptureSettings.DEFAULT);
+            assertEquals(PAGE_COUNT, count);
+            assertEquals(indexLines(serialStore), indexLines(shardedStore.getRoot()));
+            assertEquals(PAGE_COUNT * 2, indexLines(shardedStore.getRoot()).size());
+        }
+    }
+
+    @Test
+    void test_twinsDiff() throws Exception {
+        try (LocalStaticSite production = new LocalStaticSite(PAGE_COUNT, 0);
+             LocalStaticSite development = new LocalStaticSite(PAGE_COUNT, 0)) {
+            Parameters parameters = new Parameters.Builder()
+                    .store(Stores.newInstance(classOutputDir.resolve("twins").resolve("store")))
+                    .jobName(new JobName("LocalSite"))
+                    .jobTimestamp(JobTimestamp.now())
+                    .ignoreMetadataKeys(new IgnoreMetadataKeys.Builder()
+                            .ignoreKey("URL.host").ignoreKey("URL.port").build())
+                    .sortKeys(new SortKeys("step"))
+                    .build();
+            ShardCoordinator coordinator = new ShardCoordinator(2, 5, TimeUnit.MINUTES);
+            BiFunction<Parameters, Intermediates, Intermediates> fn = (p, intermediates) -> {
+                LocalStaticSite site = "production".equals(p.getEnvironment().toString())
+                        ? production : development;
+                try {
+                    coordinator.materialize(p.getStore(), p.getJobName(), p.getJobTimestamp(),
+                            targetsOf(site), Collections.singletonMap("environment", p.getEnvironment().toString()));
+                } catch (InspectusException e) {
+                    throw new UncheckedInspectusException(e);
+                }
+                return new Intermediates.Builder(intermediates).build();
+            };
+            Inspectus twinsDiff = new FnTwinsDiff(fn,
+                    new Environment("production"), new Environment("development"));
+            // the diff and the report run once, in this JVM, on the merged store
+            twinsDiff.execute(parameters);
+            assertNotNull(StepMetrics.latestReport(parameters.getStore().getRoot(), parameters.getJobName()));
+        }
+    }
+
+    /*
+     * what a job does without a ShardCoordinator
+     */
+    private static void materializeSerially(Store store, List<Target> targets,
+                                            Map<String, CaptureMask> masks) throws Exception {
+        AdaptiveWait waits = new AdaptiveWait(classOutputDir.resolve("serial").resolve("wait-history.tsv"));
+        try (WebDriverPool pool = new WebDriverPool(1);
+             AsyncMaterialWriter writer = new AsyncMaterialWriter(store, new JobName("myJob"),
+                     JobTimestamp.create(TS))) {
+            new ParallelTargetMaterializer(pool).materialize(targets,
+                    Collections.singletonMap("environment", "local"),
+                    (driver, target, attributes) -> {
+                        waits.navigateTo(driver, target.getUrl(), target.getHandle().getBy());
+                        Metadata metadata = AbstractMaterializingTest.metadataOf(target, attributes);
+                        CaptureMask.Shot shot = masks.getOrDefault(target.getUrl().toString(), CaptureMask.NONE)
+                                .capture(driver, CaptureSettings.DEFAULT);
+                        writer.submitText(FileType.HTML, metadata, driver.getPageSource());
+                        return writer.submit(FileType.PNG, metadata, shot::encode);
+                    });
+            writer.flush();
+        }
+    }
+
+    private static List<Target> targetsOf(LocalStaticSite site) {
+        List<Target> targets = new ArrayList<>();
+        for (int i = 1; i <= site.getPageCount(); i++) {
+            targets.add(Target.builder(site.urlOf(i)).handle(new Handle(By.xpath("//footer")))
+                    .put("page", String.valueOf(i)).build());
+        }
+        return targets;
+    }
+
+    private static Set<String> indexLines(Path storeRoot) throws IOException {
+        Set<String> lines = new TreeSet<>();
+        for (IndexEntry e : IndexEntry.readIndex(storeRoot.resolve("myJob").resolve(TS))) {
+            lines.add(e.getLine());
+        }
+        return lines;
+    }
+}
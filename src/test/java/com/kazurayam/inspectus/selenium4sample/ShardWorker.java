@@ -0,0 +1,168 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.kazurayam.inspectus.materialize.discovery.Handle;
+import com.kazurayam.inspectus.materialize.discovery.Target;
+import com.kazurayam.materialstore.core.FileType;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Metadata;
+import com.kazurayam.materialstore.core.Store;
+import com.kazurayam.materialstore.core.Stores;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The worker process of a job sharded by a ShardCoordinator.
+ * <pre>
+ * java -cp &lt;classpath&gt; com.kazurayam.inspectus.selenium4sample.ShardWorker \
+ *     &lt;storeRoot&gt; &lt;jobName&gt; &lt;jobTimestamp&gt; &lt;shardFile&gt; [key=value ...]
+ * java -cp &lt;classpath&gt; com.kazurayam.inspectus.selenium4sample.ShardWorker \
+ *     --merge &lt;shardStoreRoot&gt; &lt;storeRoot&gt; &lt;jobName&gt; &lt;jobTimestamp&gt;
+ * </pre>
+ * Visits the Targets of its shard file with one browser and writes the
+ * screenshots and the HTML sources into a store of its own, next to the
+ * shard file, with the "step" the coordinator assigned, the attributes of
+ * the Target and the key=value attributes. The screenshots are taken with
+ * the CaptureMask of the Target and the CaptureSettings of the system
+ * property "inspectus.capture", as the serial job takes them. Then it merges that store into the shared one: the objects
+ * are copied and the index lines appended by StoreSync while the worker
+ * holds the StoreLock of the JobTimestamp, so workers finishing at the
+ * same time do not interleave their appends. "--merge" does the last part
+ * alone, e.g. for a shard whose worker died after materializing.
+ *
+ * Exits with 0 on success, 1 on failure.
+ */
+final class ShardWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardWorker.class);
+
+    private ShardWorker() {}
+
+    public static void main(String[] args) {
+        try {
+            if (args.length >= 5 && "--merge".equals(args[0])) {
+                merge(Paths.get(args[1]), Paths.get(args[2]), args[3], args[4]);
+            } else if (args.length >= 4) {
+                Map<String, String> attributes = new HashMap<>();
+                for (int i = 4; i < args.length; i++) {
+                    int eq = args[i].indexOf('=');
+                    if (eq <= 0) {
+                        throw new IllegalArgumentException("expected key=value but was " + args[i]);
+                    }
+                    attributes.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+                }
+                Path storeRoot = Paths.get(args[0]);
+                Path shardStore = materialize(args[1], args[2], Paths.get(args[3]), attributes);
+                merge(shardStore, storeRoot, args[1], args[2]);
+            } else {
+                throw new IllegalArgumentException(
+                        "usage: ShardWorker <storeRoot> <jobName> <jobTimestamp> <shardFile> [key=value ...]"
+                                + " | --merge <shardStoreRoot> <storeRoot> <jobName> <jobTimestamp>");
+            }
+        } catch (Exception e) {
+            logger.error("shard failed", e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @return the root of the store the shard was written into
+     */
+    static Path materialize(String jobName, String jobTimestamp, Path shardFile,
+                            Map<String, String> attributes) throws Exception {
+        List<String> lines = Files.readAllLines(shardFile, StandardCharsets.UTF_8);
+        String spec = System.getProperty(CaptureSettings.PROPERTY);
+        CaptureSettings settings = (spec == null) ? CaptureSettings.DEFAULT : CaptureSettings.parse(spec);
+        ParallelPngEncoder encoder = settings.newEncoder();
+        Path shardStore = storeOf(shardFile);
+        Store store = Stores.newInstance(shardStore);
+        BrowserSessions.setupDriverBinary();
+        AdaptiveWait waits = new AdaptiveWait(
+                shardFile.resolveSibling(shardFile.getFileName() + ".wait-history.tsv"));
+        WebDriver driver = BrowserSessions.acquire();
+        try (AsyncMaterialWriter writer = new AsyncMaterialWriter(store,
+                new JobName(jobName), JobTimestamp.create(jobTimestamp))) {
+            for (String line : lines) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 3) {
+                    continue;
+                }
+                Target.Builder builder = Target.builder(new URL(fields[1]))
+                        .handle(new Handle(CaptureMask.parseHandle(fields[2])));
+                CaptureMask mask = CaptureMask.NONE;
+                if (fields.length == 4) {
+                    JsonObject json = JsonParser.parseString(fields[3]).getAsJsonObject();
+                    for (Map.Entry<String, JsonElement> e : json.getAsJsonObject("attributes").entrySet()) {
+                        builder.put(e.getKey(), e.getValue().getAsString());
+                    }
+                    mask = maskOf(json);
+                }
+                Target target = builder.build();
+                waits.navigateTo(driver, target.getUrl(), target.getHandle().getBy());
+                Map<String, String> a = new HashMap<>(attributes);
+                a.put("step", fields[0]);
+                Metadata metadata = AbstractMaterializingTest.metadataOf(target, a);
+                CaptureMask.Shot shot = mask.capture(driver, settings);
+                writer.submitText(FileType.HTML, metadata, driver.getPageSource());
+                writer.submit(FileType.PNG, metadata, encoder == null ? shot::encode
+                        : () -> encoder.recompress(shot.encode()));
+            }
+        } finally {
+            BrowserSessions.release(driver);
+            waits.save();
+        }
+        logger.info(String.format("%s: %d targets materialized", shardFile.getFileName(), lines.size()));
+        return shardStore;
+    }
+
+    private static CaptureMask maskOf(JsonObject json) {
+        List<By> masks = new ArrayList<>();
+        if (json.has("masks")) {
+            for (JsonElement e : json.getAsJsonArray("masks")) {
+                masks.add(CaptureMask.parseHandle(e.getAsString()));
+            }
+        }
+        By region = json.has("region") ? CaptureMask.parseHandle(json.get("region").getAsString()) : null;
+        return (masks.isEmpty() && region == null) ? CaptureMask.NONE : new CaptureMask(masks, region);
+    }
+
+    /**
+     * Appends what the shard store has of the JobTimestamp to the shared store.
+     */
+    static StoreSync.Result merge(Path shardStore, Path storeRoot, String jobName, String jobTimestamp)
+            throws IOException {
+        try (StoreLock lock = StoreLock.acquire(storeRoot, jobName, jobTimestamp)) {
+            // on the worker's own thread; the lock is held only while it copies.
+            // The shard store is scratch, so its objects may be linked
+            StoreSync.Result result = new StoreSync(Runnable::run, true).sync(shardStore, storeRoot, jobName);
+            logger.info(String.format("%s merged into %s: %s", shardStore, storeRoot, result));
+            return result;
+        }
+    }
+
+    /**
+     * shard-1.tsv is written into shard-1-store
+     */
+    static Path storeOf(Path shardFile) {
+        String name = shardFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return shardFile.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + "-store");
+    }
+}
@@ -0,0 +1,435 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.google.gson.stream.JsonWriter;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.materialstore.core.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Records how long each step of a job takes, per phase and per target.
+ *
+ * The steps are timed where we have our hands on them: AdaptiveWait times
+ * the navigation and the wait for the Handle, AsyncMaterialWriter the
+ * encoding, the store write and the derivation of the thumbnail, the
+ * PerceptualHash and the slices of a PNG, and the tests the capture, the
+ * fn of FnTwinsDiff and the whole of Inspectus.execute. The diff and the report
+ * happen inside execute with no hook of ours, so they are recorded
+ * together as what execute spent outside of the fn.
+ *
+ * The histograms are exported as JSON into the StoreSidecar, exposed in JMX
+ * while the job runs, and summarized at the bottom of the HTML report.
+ */
+final class StepMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(StepMetrics.class);
+
+    enum Phase {
+        NAVIGATE, WAIT, CAPTURE, ENCODE, WRITE, DERIVE, MATERIALIZE, DIFF_AND_REPORT, EXECUTE
+    }
+
+    @FunctionalInterface
+    interface Step<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /** the target of the steps which concern the job as a whole */
+    static final String JOB = "(job)";
+
+    private static final String MARK_BEGIN = "<!-- StepMetrics -->";
+    private static final String MARK_END = "<!-- /StepMetrics -->";
+    private static final StepMetrics DISABLED = new StepMetrics(false);
+
+    private final boolean enabled;
+    private final Map<Phase, Histogram> byPhase = new EnumMap<>(Phase.class);
+    private final ConcurrentMap<String, Map<Phase, Histogram>> byTarget = new ConcurrentHashMap<>();
+
+    StepMetrics() {
+        this(true);
+    }
+
+    private StepMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (Phase phase : Phase.values()) {
+            byPhase.put(phase, new Histogram());
+        }
+    }
+
+    /**
+     * @return an instance which records nothing, for the callers that do not care
+     */
+    static StepMetrics disabled() {
+        return DISABLED;
+    }
+
+    <T, E extends Exception> T time(Phase phase, String target, Step<T, E> step) throws E {
+        if (!enabled) {
+            return step.run();
+        }
+        long started = System.nanoTime();
+        try {
+            return step.run();
+        } finally {
+            record(phase, target, System.nanoTime() - started);
+        }
+    }
+
+    void record(Phase phase, String target, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        byPhase.get(phase).record(nanos);
+        byTarget.computeIfAbsent(target, t -> {
+            Map<Phase, Histogram> m = new EnumMap<>(Phase.class);
+            for (Phase p : Phase.values()) {
+                m.put(p, new Histogram());
+            }
+            return m;
+        }).get(phase).record(nanos);
+    }
+
+    Histogram getHistogram(Phase phase) {
+        return byPhase.get(phase);
+    }
+
+    /**
+     * @return the name of the target: the host and the path of the URL
+     */
+    static String targetOf(URL url) {
+        return url.getHost() + url.getPath();
+    }
+
+    /**
+     * @return the same name as targetOf(URL), out of the URL in the metadata,
+     * as AsyncMaterialWriter knows no more than the metadata of what it writes
+     */
+    static String targetOf(Metadata metadata) {
+        String host = metadata.get("URL.host");
+        String path = metadata.get("URL.path");
+        if (host == null && path == null) {
+            return String.valueOf(metadata);
+        }
+        return (host != null ? host : "") + (path != null ? path : "");
+    }
+
+    /**
+     * @return the total time of each target, excluding JOB, slowest first
+     */
+    Map<String, Long> targetTotalMillis() {
+        List<Map.Entry<String, Long>> totals = new ArrayList<>();
+        for (Map.Entry<String, Map<Phase, Histogram>> e : byTarget.entrySet()) {
+            if (!JOB.equals(e.getKey())) {
+                long nanos = 0;
+                for (Histogram h : e.getValue().values()) {
+                    nanos += h.totalNanos.sum();
+                }
+                totals.add(new AbstractMap.SimpleEntry<>(e.getKey(),
+                        TimeUnit.NANOSECONDS.toMillis(nanos)));
+            }
+        }
+        totals.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        Map<String, Long> result = new LinkedHashMap<>();
+        totals.forEach(e -> result.put(e.getKey(), e.getValue()));
+        return result;
+    }
+
+    /**
+     * Writes the histograms into &lt;store&gt;-sidecar/metrics/&lt;JobName&gt;/&lt;JobTimestamp&gt;.json
+     */
+    Path exportJson(Path storeRoot, JobName jobName, JobTimestamp jobTimestamp) throws IOException {
+        Path file = StoreSidecar.resolve(storeRoot, "metrics", jobName.toString(),
+                jobTimestamp.toString() + ".json");
+        Files.createDirectories(file.getParent());
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writeJson(w, jobName.toString(), jobTimestamp.toString());
+        }
+        return file;
+    }
+
+    String toJson() {
+        StringWriter sw = new StringWriter();
+        try {
+            writeJson(sw, null, null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sw.toString();
+    }
+
+    private void writeJson(Writer writer, String jobName, String jobTimestamp) throws IOException {
+        JsonWriter w = new JsonWriter(writer);
+        w.setIndent("  ");
+        w.beginObject();
+        if (jobName != null) {
+            w.name("jobName").value(jobName);
+            w.name("jobTimestamp").value(jobTimestamp);
+        }
+        w.name("phases");
+        writePhases(w, byPhase);
+        w.name("targets").beginObject();
+        for (Map.Entry<String, Map<Phase, Histogram>> e : new TreeMap<>(byTarget).entrySet()) {
+            w.name(e.getKey());
+            writePhases(w, e.getValue());
+        }
+        w.endObject();
+        w.endObject();
+        w.flush();
+    }
+
+    private static void writePhases(JsonWriter w, Map<Phase, Histogram> phases) throws IOException {
+        w.beginObject();
+        for (Map.Entry<Phase, Histogram> e : phases.entrySet()) {
+            Histogram h = e.getValue();
+            if (h.getCount() == 0) {
+                continue;
+            }
+            w.name(e.getKey().name()).beginObject();
+            w.name("count").value(h.getCount());
+            w.name("totalMillis").value(TimeUnit.NANOSECONDS.toMillis(h.totalNanos.sum()));
+            w.name("meanMillis").value(round(h.getMeanMillis()));
+            w.name("p50Millis").value(h.percentileMillis(0.50));
+            w.name("p90Millis").value(h.percentileMillis(0.90));
+            w.name("p99Millis").value(h.percentileMillis(0.99));
+            w.name("maxMillis").value(h.getMaxMillis());
+            w.name("buckets").beginObject();
+            for (int i = 0; i < Histogram.BOUNDS_MILLIS.length; i++) {
+                long n = h.buckets[i].sum();
+                if (n > 0) {
+                    w.name("le" + Histogram.BOUNDS_MILLIS[i]).value(n);
+                }
+            }
+            long overflow = h.buckets[Histogram.BOUNDS_MILLIS.length].sum();
+            if (overflow > 0) {
+                w.name("inf").value(overflow);
+            }
+            w.endObject();
+            w.endObject();
+        }
+        w.endObject();
+    }
+
+    /**
+     * Registers this as an MXBean in the platform MBeanServer, named
+     * com.kazurayam.inspectus:type=StepMetrics,name=&lt;name&gt;
+     */
+    ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName(
+                "com.kazurayam.inspectus:type=StepMetrics,name=" + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        server.registerMBean(new MXBean(), objectName);
+        return objectName;
+    }
+
+    static void unregisterMBean(ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.debug("ignored failure to unregister " + objectName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Inserts a table of the phases and of the slowest targets at the bottom
+     * of an HTML report, replacing the one inserted before if any.
+     * Targets which took more than twice the median are highlighted.
+     */
+    void injectSummary(Path reportHtml) throws IOException {
+        String html = new String(Files.readAllBytes(reportHtml), StandardCharsets.UTF_8);
+        int begin = html.indexOf(MARK_BEGIN);
+        int end = html.indexOf(MARK_END);
+        if (begin >= 0 && end > begin) {
+            html = html.substring(0, begin) + html.substring(end + MARK_END.length());
+        }
+        int body = html.lastIndexOf("</body>");
+        if (body < 0) {
+            throw new IOException("no </body> in " + reportHtml);
+        }
+        html = html.substring(0, body) + summaryHtml() + html.substring(body);
+        Files.write(reportHtml, html.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the latest report of the JobName, e.g. store/myApple-20231210_213728.html, or null
+     */
+    static Path latestReport(Path storeRoot, JobName jobName) throws IOException {
+        String prefix = jobName.toString() + "-";
+        try (Stream<Path> files = Files.list(storeRoot)) {
+            return files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(prefix) && name.endsWith(".html");
+            }).max(Comparator.comparing(p -> p.getFileName().toString())).orElse(null);
+        }
+    }
+
+    String summaryHtml() {
+        StringBuilder sb = new StringBuilder(MARK_BEGIN).append('\n');
+        sb.append("<div class=\"container\" id=\"step-metrics\">\n<h4>Timing</h4>\n");
+        sb.append("<table class=\"table table-sm\">\n<thead><tr><th>phase</th><th>count</th>"
+                + "<th>total ms</th><th>mean ms</th><th>p90 ms</th><th>max ms</th></tr></thead>\n<tbody>\n");
+        for (Map.Entry<Phase, Histogram> e : byPhase.entrySet()) {
+            Histogram h = e.getValue();
+            if (h.getCount() > 0) {
+                sb.append(String.format("<tr><td>%s</td><td>%d</td><td>%d</td><td>%.1f</td><td>%d</td><td>%d</td></tr>%n",
+                        e.getKey(), h.getCount(), TimeUnit.NANOSECONDS.toMillis(h.totalNanos.sum()),
+                        h.getMeanMillis(), h.percentileMillis(0.90), h.getMaxMillis()));
+            }
+        }
+        sb.append("</tbody>\n</table>\n");
+        Map<String, Long> totals = targetTotalMillis();
+        if (!totals.isEmpty()) {
+            List<Long> sorted = new ArrayList<>(totals.values());
+            Collections.sort(sorted);
+            long median = sorted.get(sorted.size() / 2);
+            sb.append("<table class=\"table table-sm\">\n<thead><tr><th>target</th><th>total ms</th></tr></thead>\n<tbody>\n");
+            for (Map.Entry<String, Long> e : totals.entrySet()) {
+                boolean slow = e.getValue() > 2 * median;
+                sb.append(String.format("<tr%s><td>%s</td><td>%d</td></tr>%n",
+                        slow ? " class=\"table-warning\"" : "", escape(e.getKey()), e.getValue()));
+            }
+            sb.append("</tbody>\n</table>\n");
+        }
+        return sb.append("</div>\n").append(MARK_END).append('\n').toString();
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static double round(double d) {
+        return Math.round(d * 10) / 10.0;
+    }
+
+    /**
+     * Counts of durations in buckets of fixed bounds, in milliseconds.
+     * Percentiles are approximated by the upper bound of their bucket.
+     */
+    static final class Histogram {
+        static final long[] BOUNDS_MILLIS =
+                {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 60000};
+
+        private final LongAdder[] buckets = new LongAdder[BOUNDS_MILLIS.length + 1];
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong(0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int i = 0;
+            while (i < BOUNDS_MILLIS.length && millis > BOUNDS_MILLIS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        long getCount() {
+            long n = 0;
+            for (LongAdder b : buckets) {
+                n += b.sum();
+            }
+            return n;
+        }
+
+        double getMeanMillis() {
+            long count = getCount();
+            return count == 0 ? 0.0 : totalNanos.sum() / 1_000_000.0 / count;
+        }
+
+        long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
+
+        long percentileMillis(double q) {
+            long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) {
+                    return Math.min(BOUNDS_MILLIS[i], getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+    }
+
+    private final class MXBean implements StepMetricsMXBean {
+
+        @Override
+        public Map<String, Long> getCounts() {
+            Map<String, Long> m = new LinkedHashMap<>();
+            byPhase.forEach((phase, h) -> m.put(phase.name(), h.getCount()));
+            return m;
+        }
+
+        @Override
+        public Map<String, Double> getMeanMillis() {
+            Map<String, Double> m = new LinkedHashMap<>();
+            byPhase.forEach((phase, h) -> m.put(phase.name(), round(h.getMeanMillis())));
+            return m;
+        }
+
+        @Override
+        public Map<String, Double> getP90Millis() {
+            Map<String, Double> m = new LinkedHashMap<>();
+            byPhase.forEach((phase, h) -> m.put(phase.name(), (double) h.percentileMillis(0.90)));
+            return m;
+        }
+
+        @Override
+        public List<String> getSlowestTargets() {
+            List<String> list = new ArrayList<>();
+            for (Map.Entry<String, Long> e : targetTotalMillis().entrySet()) {
+                if (list.size() == 10) {
+                    break;
+                }
+                list.add(e.getValue() + " " + e.getKey());
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The view of a StepMetrics in JMX, e.g. in JConsole while a job runs.
+ * Keyed by the name of the phase.
+ */
+public interface StepMetricsMXBean {
+
+    Map<String, Long> getCounts();
+
+    Map<String, Double> getMeanMillis();
+
+    Map<String, Double> getP90Millis();
+
+    /**
+     * @return "&lt;millis&gt; &lt;target&gt;" of the slowest targets, slowest first
+     */
+    List<String> getSlowestTargets();
+}
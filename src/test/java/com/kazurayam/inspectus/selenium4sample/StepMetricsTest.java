@@ -0,0 +1,99 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.kazurayam.materialstore.core.JobName;
+import com.kazurayam.materialstore.core.JobTimestamp;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Record made-up durations and check the histograms, the JSON, the MXBean
+ * and the summary injected into a copy of the demo report.
+ */
+public class StepMetricsTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(StepMetricsTest.class);
+    private static Path classOutputDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    private static StepMetrics sample() {
+        StepMetrics metrics = new StepMetrics();
+        for (int i = 1; i <= 10; i++) {
+            metrics.record(StepMetrics.Phase.NAVIGATE, "example.com/p" + i,
+                    TimeUnit.MILLISECONDS.toNanos(i * 30));
+        }
+        metrics.record(StepMetrics.Phase.WAIT, "example.com/p10", TimeUnit.MILLISECONDS.toNanos(900));
+        metrics.record(StepMetrics.Phase.EXECUTE, StepMetrics.JOB, TimeUnit.SECONDS.toNanos(5));
+        return metrics;
+    }
+
+    @Test
+    void test_histogram() {
+        StepMetrics.Histogram h = sample().getHistogram(StepMetrics.Phase.NAVIGATE);
+        assertEquals(10, h.getCount());
+        assertEquals(165.0, h.getMeanMillis(), 0.5);
+        assertEquals(200, h.percentileMillis(0.5));
+        assertEquals(300, h.percentileMillis(0.9));
+        assertEquals(300, h.getMaxMillis());
+    }
+
+    @Test
+    void test_exportJson() throws IOException {
+        Path json = sample().exportJson(classOutputDir.resolve("store"),
+                new JobName("myJob"), JobTimestamp.now());
+        assertTrue(json.startsWith(classOutputDir.resolve("store-sidecar/metrics/myJob")));
+        JsonObject root = JsonParser.parseString(
+                new String(Files.readAllBytes(json), StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals(10, root.getAsJsonObject("phases").getAsJsonObject("NAVIGATE").get("count").getAsInt());
+        assertEquals(900, root.getAsJsonObject("targets").getAsJsonObject("example.com/p10")
+                .getAsJsonObject("WAIT").get("maxMillis").getAsInt());
+    }
+
+    @Test
+    void test_MXBean() throws JMException {
+        ObjectName name = sample().registerMBean("test_MXBean");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            String[] slowest = (String[]) server.getAttribute(name, "SlowestTargets");
+            assertEquals("1200 example.com/p10", slowest[0]);
+            assertEquals("270 example.com/p9", slowest[1]);
+        } finally {
+            StepMetrics.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    void test_injectSummary() throws IOException {
+        Path report = classOutputDir.resolve("myApple-20231210_213728.html");
+        Files.copy(too.getProjectDirectory().resolve("docs/demo/store/myApple-20231210_213728.html"), report);
+        StepMetrics metrics = sample();
+        metrics.injectSummary(report);
+        metrics.injectSummary(report);
+        String html = new String(Files.readAllBytes(report), StandardCharsets.UTF_8);
+        // injected once only, before </body>
+        assertEquals(html.indexOf("id=\"step-metrics\""), html.lastIndexOf("id=\"step-metrics\""));
+        assertTrue(html.indexOf("id=\"step-metrics\"") < html.lastIndexOf("</body>"));
+        assertTrue(html.contains("<tr class=\"table-warning\"><td>example.com/p10</td>"));
+        assertEquals(report, StepMetrics.latestReport(classOutputDir, new JobName("myApple")));
+    }
+}
@@ -0,0 +1,277 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes store/index.html, the list of the reports in the store, in the
+ * layout which Inspectus gives it: a table of the "&lt;JobName&gt;-&lt;JobTimestamp&gt;.html"
+ * files with the time each was created, plus a summary of the materials of
+ * the JobTimestamp. The &lt;head&gt; of an existing index.html, with its
+ * stylesheets, is kept; only the &lt;body&gt; is written anew.
+ *
+ * The cells of each row are rendered once and cached as a fragment in the
+ * StoreSidecar, keyed by the SHA1 of the index file of the JobTimestamp and
+ * the time of the report. The size and the time of the index file are
+ * recorded too, so an unchanged JobTimestamp is recognized without hashing
+ * it. write() renders the rows of new or changed reports only, then
+ * streams the page together from the cached fragments.
+ */
+final class StoreIndexPage {
+
+    private static final Logger logger = LoggerFactory.getLogger(StoreIndexPage.class);
+
+    static final String FILE_NAME = "index.html";
+
+    static final DateTimeFormatter CREATED_AT = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+
+    private static final String MANIFEST_FILE_NAME = "fragments.tsv";
+    private static final String FRAGMENT_SUFFIX = ".frag";
+
+    private static final String DEFAULT_HEAD = "<!doctype html>\n<html lang=\"en\">\n  <head>\n"
+            + "    <meta charset=\"utf-8\">\n"
+            + "    <meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">\n"
+            + "    <link href=\"https://cdn.jsdelivr.net/npm/bootstrap@5.1.0/dist/css/bootstrap.min.css\""
+            + " rel=\"stylesheet\">\n"
+            + "    <title>store/index.html</title>\n  </head>\n";
+
+    /**
+     * What a cached fragment was rendered from.
+     */
+    private static final class Key {
+        final String indexSha1;
+        final long indexSize;
+        final long indexModified;
+        final long reportModified;
+
+        Key(String indexSha1, long indexSize, long indexModified, long reportModified) {
+            this.indexSha1 = indexSha1;
+            this.indexSize = indexSize;
+            this.indexModified = indexModified;
+            this.reportModified = reportModified;
+        }
+
+        static Key parse(String[] f) {
+            return new Key(f[1], Long.parseLong(f[2]), Long.parseLong(f[3]), Long.parseLong(f[4]));
+        }
+
+        String format() {
+            return indexSha1 + "\t" + indexSize + "\t" + indexModified + "\t" + reportModified;
+        }
+    }
+
+    private final Path storeRoot;
+    private final Path cacheDir;
+    private int renderedCount;
+
+    StoreIndexPage(Path storeRoot) {
+        this.storeRoot = storeRoot;
+        this.cacheDir = StoreSidecar.resolve(storeRoot, "index-page");
+    }
+
+    /**
+     * @return the report files of the store, sorted by name
+     */
+    static List<Path> reports(Path storeRoot) throws IOException {
+        List<Path> reports = new ArrayList<>();
+        if (Files.isDirectory(storeRoot)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(storeRoot, "*-*.html")) {
+                ds.forEach(reports::add);
+            }
+        }
+        reports.sort(null);
+        return reports;
+    }
+
+    /**
+     * @return how many rows the last write() rendered, rather than took from the cache
+     */
+    int getRenderedCount() {
+        return renderedCount;
+    }
+
+    /**
+     * @return the index.html written
+     */
+    Path write() throws IOException {
+        Path fragments = Files.createDirectories(cacheDir.resolve("fragments"));
+        Map<String, Key> cached = readManifest();
+        Map<String, Key> current = new LinkedHashMap<>();
+        List<Path> reports = reports(storeRoot);
+        renderedCount = 0;
+        for (Path report : reports) {
+            String name = report.getFileName().toString();
+            Path index = jobTimestampDirOf(name).resolve(IndexEntry.INDEX_FILE_NAME);
+            boolean hasIndex = Files.exists(index);
+            long size = hasIndex ? Files.size(index) : -1;
+            long modified = hasIndex ? Files.getLastModifiedTime(index).toMillis() : -1;
+            long reportModified = Files.getLastModifiedTime(report).toMillis();
+            Key before = cached.get(name);
+            Path fragment = fragments.resolve(name + FRAGMENT_SUFFIX);
+            boolean reusable = before != null && before.reportModified == reportModified
+                    && Files.exists(fragment);
+            Key key;
+            if (reusable && before.indexSize == size && before.indexModified == modified) {
+                key = before;
+            } else {
+                String sha1 = hasIndex ? Digests.sha1Hex(index) : "-";
+                key = new Key(sha1, size, modified, reportModified);
+                if (!reusable || !before.indexSha1.equals(sha1)) {
+                    Files.write(fragment, render(report).getBytes(StandardCharsets.UTF_8));
+                    renderedCount++;
+                }
+            }
+            current.put(name, key);
+        }
+        for (String gone : cached.keySet()) {
+            if (!current.containsKey(gone)) {
+                Files.deleteIfExists(fragments.resolve(gone + FRAGMENT_SUFFIX));
+            }
+        }
+        writeManifest(current);
+        Path file = assemble(reports, fragments);
+        logger.debug(String.format("%s: %d of %d rows rendered", file, renderedCount, reports.size()));
+        return file;
+    }
+
+    private Path assemble(List<Path> reports, Path fragments) throws IOException {
+        Path file = storeRoot.resolve(FILE_NAME);
+        String head = existingHead(file);
+        Path tmp = storeRoot.resolve(FILE_NAME + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp);
+             Writer w = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8))) {
+            w.write(head);
+            w.write("  <body>\n    <div class=\"container\">\n");
+            w.write("      <h4 class=\"title\">store/index.html</h4>\n");
+            w.write("      <p>Path: " + escape(storeRoot.toAbsolutePath().toString()) + "</p>\n");
+            w.write("      <table class=\"table table-sm table-striped\">\n        <thead>\n          <tr>\n");
+            w.write("            <th scope=\"col\" style=\"width:10%\">#</th>\n");
+            w.write("            <th scope=\"col\" style=\"width:50%\">file name</th>\n");
+            w.write("            <th scope=\"col\" style=\"width:20%\">materials</th>\n");
+            w.write("            <th scope=\"col\" style=\"width:20%\">created at</th>\n");
+            w.write("          </tr>\n        </thead>\n        <tbody>\n");
+            int n = 0;
+            for (Path report : reports) {
+                w.write("          <tr>\n            <th scope=\"row\">" + (++n) + "</th>\n");
+                w.flush();
+                Files.copy(fragments.resolve(report.getFileName() + FRAGMENT_SUFFIX), os);
+                w.write("          </tr>\n");
+            }
+            w.write("        </tbody>\n      </table>\n    </div>\n  </body>\n</html>\n");
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    /**
+     * @return the cells of the row of a report, without the row number
+     */
+    String render(Path report) throws IOException {
+        String name = escape(report.getFileName().toString());
+        String createdAt = LocalDateTime.ofInstant(Files.getLastModifiedTime(report).toInstant(),
+                ZoneId.systemDefault()).format(CREATED_AT);
+        return "            <td><a href=\"./" + name + "\">" + name + "</a></td>\n"
+                + "            <td>" + escape(summary(jobTimestampDirOf(report.getFileName().toString())))
+                + "</td>\n"
+                + "            <td>" + createdAt + "</td>\n";
+    }
+
+    /**
+     * @return e.g. "4 diffs, max 92.91%" or "8 materials"
+     */
+    static String summary(Path jobTimestampDir) throws IOException {
+        List<IndexEntry> entries = IndexEntry.readIndex(jobTimestampDir);
+        int diffs = 0;
+        double max = 0;
+        for (IndexEntry e : entries) {
+            if ("diff".equals(e.getMetadata().get("category"))) {
+                diffs++;
+                String ratio = e.getMetadata().getOrDefault("ratio", "0%").replace("%", "");
+                try {
+                    max = Math.max(max, Double.parseDouble(ratio));
+                } catch (NumberFormatException ignored) {
+                    // not a ratio we know how to read
+                }
+            }
+        }
+        return diffs > 0
+                ? String.format("%d diffs, max %.2f%%", diffs, max)
+                : String.format("%d materials", entries.size());
+    }
+
+    /**
+     * "myApple-20231210_213728.html" is the report of store/myApple/20231210_213728
+     */
+    private Path jobTimestampDirOf(String reportName) {
+        String base = reportName.substring(0, reportName.length() - ".html".length());
+        int dash = base.lastIndexOf('-');
+        return storeRoot.resolve(base.substring(0, dash)).resolve(base.substring(dash + 1));
+    }
+
+    private Map<String, Key> readManifest() throws IOException {
+        Map<String, Key> manifest = new HashMap<>();
+        Path file = cacheDir.resolve(MANIFEST_FILE_NAME);
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] f = line.split("\t");
+                if (f.length == 5) {
+                    manifest.put(f[0], Key.parse(f));
+                }
+            }
+        }
+        return manifest;
+    }
+
+    private void writeManifest(Map<String, Key> manifest) throws IOException {
+        Path tmp = cacheDir.resolve(MANIFEST_FILE_NAME + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Key> e : manifest.entrySet()) {
+                w.write(e.getKey() + "\t" + e.getValue().format());
+                w.newLine();
+            }
+        }
+        Files.move(tmp, cacheDir.resolve(MANIFEST_FILE_NAME),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String existingHead(Path file) throws IOException {
+        if (Files.exists(file)) {
+            StringBuilder head = new StringBuilder();
+            try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    int body = line.indexOf("<body");
+                    if (body >= 0) {
+                        return head.append(line, 0, body).toString();
+                    }
+                    head.append(line).append('\n');
+                }
+            }
+        }
+        return DEFAULT_HEAD;
+    }
+
+    static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,79 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Write the index.html of a copy of the demo store again and again, and
+ * expect only the rows of new or changed reports to be rendered.
+ */
+public class StoreIndexPageTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(StoreIndexPageTest.class);
+    private static Path classOutputDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    void test_write() throws IOException {
+        Path store = classOutputDir.resolve("store");
+        Path demo = too.getProjectDirectory().resolve("docs/demo/store");
+        for (String ts : Arrays.asList("20231210_213713", "20231210_213721", "20231210_213728")) {
+            Path dir = Files.createDirectories(store.resolve("myApple").resolve(ts));
+            Files.copy(demo.resolve("myApple").resolve(ts).resolve("index"), dir.resolve("index"));
+        }
+        Files.copy(demo.resolve("index.html"), store.resolve("index.html"));
+        Files.copy(demo.resolve("myApple-20231210_213728.html"), store.resolve("myApple-20231210_213728.html"));
+
+        StoreIndexPage page = new StoreIndexPage(store);
+        Path index = page.write();
+        assertEquals(1, page.getRenderedCount());
+        String html = read(index);
+        // the head with the stylesheets of Inspectus is kept
+        assertTrue(html.contains(".container dl dd {"));
+        assertTrue(html.contains("<a href=\"./myApple-20231210_213728.html\">"));
+        assertTrue(html.contains("<td>4 diffs, max 92.91%</td>"));
+
+        page.write();
+        assertEquals(0, page.getRenderedCount());
+
+        Files.write(store.resolve("myApple-20231210_213721.html"), "<html></html>".getBytes(StandardCharsets.UTF_8));
+        page.write();
+        assertEquals(1, page.getRenderedCount());
+        html = read(index);
+        assertTrue(html.contains("<th scope=\"row\">2</th>\n            <td><a href=\"./myApple-20231210_213728.html\">"));
+        assertTrue(html.contains("<td>4 materials</td>"));
+
+        Files.write(store.resolve("myApple").resolve("20231210_213721").resolve("index"),
+                "5cd8ae1b89721741bf00a6ef29b421a3c06e310e\tpng\t{\"step\":\"05\"}\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        page.write();
+        assertEquals(1, page.getRenderedCount());
+        assertTrue(read(index).contains("<td>5 materials</td>"));
+
+        Files.delete(store.resolve("myApple-20231210_213721.html"));
+        page.write();
+        assertEquals(0, page.getRenderedCount());
+        assertFalse(read(index).contains("myApple-20231210_213721.html"));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
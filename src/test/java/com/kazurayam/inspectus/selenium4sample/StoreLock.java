@@ -0,0 +1,67 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An exclusive lock on a JobTimestamp of a store, held across processes.
+ *
+ * Whoever appends to the index file of a JobTimestamp which another
+ * process may be appending to at the same time, e.g. the ShardWorkers of
+ * a job merging their shards, takes this lock first. It is a FileLock on a
+ * file in the StoreSidecar, so it is released by the OS if the process
+ * dies. Threads of one JVM are serialized by a ReentrantLock in front of
+ * it, as a JVM cannot hold two FileLocks on the same file.
+ */
+final class StoreLock implements AutoCloseable {
+
+    private static final Map<Path, ReentrantLock> inProcess = new ConcurrentHashMap<>();
+
+    private final ReentrantLock local;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private StoreLock(ReentrantLock local, FileChannel channel, FileLock lock) {
+        this.local = local;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Blocks until the lock is free.
+     */
+    static StoreLock acquire(Path storeRoot, String jobName, String jobTimestamp) throws IOException {
+        Path file = StoreSidecar.resolve(storeRoot, "locks", jobName, jobTimestamp + ".lock");
+        Files.createDirectories(file.getParent());
+        ReentrantLock local = inProcess.computeIfAbsent(file, p -> new ReentrantLock());
+        local.lock();
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return new StoreLock(local, channel, channel.lock());
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            local.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.release();
+            channel.close();
+        } finally {
+            local.unlock();
+        }
+    }
+}
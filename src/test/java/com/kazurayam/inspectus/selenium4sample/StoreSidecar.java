@@ -0,0 +1,28 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import java.nio.file.Path;
+
+/**
+ * Locates the files we keep beside a store, such as fingerprints and caches.
+ *
+ * They live in a sibling directory "&lt;store&gt;-sidecar" rather than inside
+ * the store, because materialstore treats every directory under the store
+ * root as a JobName and every directory under a JobName as a JobTimestamp.
+ */
+final class StoreSidecar {
+
+    private StoreSidecar() {}
+
+    static Path of(Path storeRoot) {
+        Path abs = storeRoot.toAbsolutePath().normalize();
+        return abs.resolveSibling(abs.getFileName() + "-sidecar");
+    }
+
+    static Path resolve(Path storeRoot, String first, String... more) {
+        Path p = of(storeRoot).resolve(first);
+        for (String name : more) {
+            p = p.resolve(name);
+        }
+        return p;
+    }
+}
@@ -0,0 +1,283 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Brings a target store, e.g. the backup, up to date with a source store
+ * by copying only what the target is missing.
+ *
+ * A JobTimestamp whose index file in the target has the size and the SHA1
+ * of the one in the source is skipped without parsing it; a rewrite which
+ * keeps the size of the index is not missed, as a comparison of the size
+ * and the modification time would. Otherwise the index lines missing from
+ * the target are found, and the objects they refer to are copied unless
+ * the target already has a file of that SHA1. The copies run on the
+ * Executor, with FileChannel.transferTo. Where asked to, and where both
+ * stores are on the same filesystem, an object becomes a hard link to the
+ * source file instead, e.g. to merge a scratch store that is deleted
+ * afterwards; a backup must not share its files with the store. The index
+ * lines are appended only after their objects are in place, so the target
+ * never lists an object it does not have.
+ */
+class StoreSync {
+
+    private static final Logger logger = LoggerFactory.getLogger(StoreSync.class);
+
+    /**
+     * What a sync did.
+     */
+    static final class Result {
+        final AtomicInteger jobTimestampsScanned = new AtomicInteger();
+        final AtomicInteger jobTimestampsChanged = new AtomicInteger();
+        final AtomicInteger entriesAppended = new AtomicInteger();
+        final AtomicInteger objectsLinked = new AtomicInteger();
+        final AtomicInteger objectsCopied = new AtomicInteger();
+        final AtomicInteger objectsSkipped = new AtomicInteger();
+        final AtomicLong bytesCopied = new AtomicLong();
+
+        int getJobTimestampsScanned() {
+            return jobTimestampsScanned.get();
+        }
+
+        int getJobTimestampsChanged() {
+            return jobTimestampsChanged.get();
+        }
+
+        int getEntriesAppended() {
+            return entriesAppended.get();
+        }
+
+        int getObjectsLinked() {
+            return objectsLinked.get();
+        }
+
+        int getObjectsCopied() {
+            return objectsCopied.get();
+        }
+
+        /**
+         * @return the objects the target had already
+         */
+        int getObjectsSkipped() {
+            return objectsSkipped.get();
+        }
+
+        long getBytesCopied() {
+            return bytesCopied.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d JobTimestamps changed, %d entries appended, "
+                            + "%d objects linked, %d copied (%d bytes), %d skipped",
+                    getJobTimestampsChanged(), getJobTimestampsScanned(), getEntriesAppended(),
+                    getObjectsLinked(), getObjectsCopied(), getBytesCopied(), getObjectsSkipped());
+        }
+    }
+
+    private final Executor executor;
+    private final AtomicBoolean linksAvailable;
+
+    /**
+     * Copies the objects.
+     */
+    StoreSync(Executor executor) {
+        this(executor, false);
+    }
+
+    /**
+     * @param hardLinks true to link the objects where they can be, rather
+     *                  than copy them; never for a backup
+     */
+    StoreSync(Executor executor, boolean hardLinks) {
+        this.executor = executor;
+        this.linksAvailable = new AtomicBoolean(hardLinks);
+    }
+
+    /**
+     * Syncs every JobName of the source store.
+     */
+    Result syncAll(Path sourceRoot, Path targetRoot) throws IOException {
+        Result result = new Result();
+        for (Path jobNameDir : directories(sourceRoot)) {
+            sync(sourceRoot, targetRoot, jobNameDir.getFileName().toString(), result);
+        }
+        logger.info(String.format("%s -> %s: %s", sourceRoot, targetRoot, result));
+        return result;
+    }
+
+    Result sync(Path sourceRoot, Path targetRoot, String jobName) throws IOException {
+        Result result = new Result();
+        sync(sourceRoot, targetRoot, jobName, result);
+        return result;
+    }
+
+    private void sync(Path sourceRoot, Path targetRoot, String jobName, Result result)
+            throws IOException {
+        Path sourceJob = sourceRoot.resolve(jobName);
+        Path targetJob = targetRoot.resolve(jobName);
+        for (Path sourceDir : directories(sourceJob)) {
+            result.jobTimestampsScanned.incrementAndGet();
+            syncJobTimestamp(sourceDir, targetJob.resolve(sourceDir.getFileName().toString()), result);
+        }
+    }
+
+    private void syncJobTimestamp(Path sourceDir, Path targetDir, Result result) throws IOException {
+        Path sourceIndex = sourceDir.resolve(IndexEntry.INDEX_FILE_NAME);
+        Path targetIndex = targetDir.resolve(IndexEntry.INDEX_FILE_NAME);
+        if (!Files.exists(sourceIndex)) {
+            return;
+        }
+        if (Files.exists(targetIndex)
+                && Files.size(targetIndex) == Files.size(sourceIndex)
+                && Digests.sha1Hex(targetIndex).equals(Digests.sha1Hex(sourceIndex))) {
+            return;
+        }
+        Set<String> targetLines = new LinkedHashSet<>();
+        for (IndexEntry e : IndexEntry.readIndex(targetDir)) {
+            targetLines.add(e.getLine());
+        }
+        List<IndexEntry> sourceEntries = IndexEntry.readIndex(sourceDir);
+        List<IndexEntry> missing = new ArrayList<>();
+        for (IndexEntry e : sourceEntries) {
+            if (!targetLines.contains(e.getLine())) {
+                missing.add(e);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        result.jobTimestampsChanged.incrementAndGet();
+        Path targetObjects = Files.createDirectories(targetDir.resolve(IndexEntry.OBJECTS_DIR_NAME));
+        Set<String> known = fileNames(targetObjects);
+        List<CompletableFuture<Void>> copies = new ArrayList<>();
+        for (IndexEntry e : missing) {
+            if (!known.add(e.getObjectFileName())) {
+                result.objectsSkipped.incrementAndGet();
+                continue;
+            }
+            Path source = e.objectPath(sourceDir);
+            Path target = e.objectPath(targetDir);
+            copies.add(CompletableFuture.runAsync(() -> {
+                try {
+                    transfer(source, target, result);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(copies.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        appendLines(targetIndex, missing);
+        result.entriesAppended.addAndGet(missing.size());
+    }
+
+    private void transfer(Path source, Path target, Result result) throws IOException {
+        if (linksAvailable.get()) {
+            HardLinks.Outcome outcome = HardLinks.link(target, source);
+            if (outcome == HardLinks.Outcome.LINKED) {
+                result.objectsLinked.incrementAndGet();
+                return;
+            }
+            if (outcome == HardLinks.Outcome.COPY_ALL) {
+                logger.debug("hard links are not available, objects will be copied: " + target.getParent());
+                linksAvailable.set(false);
+            }
+        }
+        result.bytesCopied.addAndGet(transferFile(source, target));
+        result.objectsCopied.incrementAndGet();
+    }
+
+    /**
+     * Copies a file with FileChannel.transferTo, which lets the kernel move
+     * the bytes without passing them through the heap, into a temporary
+     * file that is then renamed to the target.
+     *
+     * @return the number of bytes copied
+     */
+    static long transferFile(Path source, Path target) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        long size;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    private static void appendLines(Path index, List<IndexEntry> entries) throws IOException {
+        boolean newlineMissing = false;
+        if (Files.exists(index) && Files.size(index) > 0) {
+            try (FileChannel ch = FileChannel.open(index, StandardOpenOption.READ)) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                ch.read(last, ch.size() - 1);
+                newlineMissing = last.get(0) != '\n';
+            }
+        }
+        try (BufferedWriter w = Files.newBufferedWriter(index, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (newlineMissing) {
+                w.write('\n');
+            }
+            for (IndexEntry e : entries) {
+                w.write(e.getLine());
+                w.write('\n');
+            }
+        }
+    }
+
+    private static List<Path> directories(Path dir) throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, Files::isDirectory)) {
+                ds.forEach(dirs::add);
+            }
+        }
+        dirs.sort(null);
+        return dirs;
+    }
+
+    private static Set<String> fileNames(Path dir) throws IOException {
+        Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            ds.forEach(p -> names.add(p.getFileName().toString()));
+        }
+        return names;
+    }
+}
@@ -0,0 +1,109 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Sync a copy of the demo store into an empty backup, then again after
+ * a material was added to the source.
+ */
+public class StoreSyncTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(StoreSyncTest.class);
+    private static final String TS = "20231210_213721";
+    private static Path classOutputDir;
+    private static ExecutorService copiers;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+        copiers = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterAll
+    static void tearDownClass() {
+        copiers.shutdown();
+    }
+
+    @Test
+    void test_copy() throws IOException {
+        test_sync("test_copy", false);
+    }
+
+    @Test
+    void test_link() throws IOException {
+        test_sync("test_link", true);
+    }
+
+    private void test_sync(String name, boolean hardLinks) throws IOException {
+        Path source = classOutputDir.resolve(name).resolve("store");
+        Path target = classOutputDir.resolve(name).resolve("store-backup");
+        copyDirectory(too.getProjectDirectory().resolve("docs/demo/store/myApple"), source.resolve("myApple"));
+        StoreSync sync = new StoreSync(copiers, hardLinks);
+
+        StoreSync.Result first = sync.syncAll(source, target);
+        assertEquals(3, first.getJobTimestampsChanged());
+        assertEquals(12, first.getEntriesAppended());
+        // c33b3076... is listed twice in 20231210_213721
+        assertEquals(11, first.getObjectsLinked() + first.getObjectsCopied());
+        assertEquals(1, first.getObjectsSkipped());
+        Path object = Path.of("myApple", TS, "objects", "191586b67024f1620995238bb1fc5382647cd793.png");
+        assertArrayEquals(Files.readAllBytes(source.resolve(object)), Files.readAllBytes(target.resolve(object)));
+        assertArrayEquals(Files.readAllBytes(source.resolve("myApple").resolve(TS).resolve("index")),
+                Files.readAllBytes(target.resolve("myApple").resolve(TS).resolve("index")));
+
+        // nothing changed
+        StoreSync.Result second = sync.syncAll(source, target);
+        assertEquals(0, second.getJobTimestampsChanged());
+
+        // a rewrite of the same size and time
+        Path sourceIndex = source.resolve("myApple").resolve(TS).resolve("index");
+        Path targetIndex = target.resolve("myApple").resolve(TS).resolve("index");
+        String text = new String(Files.readAllBytes(sourceIndex), StandardCharsets.UTF_8);
+        Files.write(sourceIndex, text.replace("lorem ipsum", "lorem IPSUM").getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(sourceIndex, Files.getLastModifiedTime(targetIndex));
+        assertEquals(Files.size(targetIndex), Files.size(sourceIndex));
+        StoreSync.Result rewritten = sync.sync(source, target, "myApple");
+        assertEquals(1, rewritten.getJobTimestampsChanged());
+        assertEquals(1, rewritten.getEntriesAppended());
+        Files.write(sourceIndex, text.getBytes(StandardCharsets.UTF_8));
+
+        // an entry for an object which the target has already
+        String line = "5cd8ae1b89721741bf00a6ef29b421a3c06e310e\tpng\t{\"step\":\"05\"}\n";
+        Files.write(source.resolve("myApple").resolve(TS).resolve("index"),
+                line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        StoreSync.Result third = sync.sync(source, target, "myApple");
+        assertEquals(1, third.getJobTimestampsChanged());
+        assertEquals(1, third.getEntriesAppended());
+        assertEquals(0, third.getObjectsLinked() + third.getObjectsCopied());
+        assertEquals(6, IndexEntry.readIndex(target.resolve("myApple").resolve(TS)).size());
+    }
+
+    private static void copyDirectory(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                Path dest = target.resolve(source.relativize(p).toString());
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(dest);
+                } else {
+                    Files.copy(p, dest);
+                }
+            }
+        }
+    }
+}
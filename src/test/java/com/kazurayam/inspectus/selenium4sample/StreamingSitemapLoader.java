@@ -0,0 +1,263 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.kazurayam.inspectus.materialize.discovery.Handle;
+import com.kazurayam.inspectus.materialize.discovery.Target;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the Targets of a sitemap one at a time, as they are asked for,
+ * instead of parsing the whole file into a List first as SitemapLoader
+ * does. A sitemap of tens of thousands of Targets is then materialized in
+ * constant memory, and the first Target is visited as soon as it is read.
+ *
+ * Two forms are read:
+ * <ul>
+ * <li>sitemap.json, {"targetList": [{"url": ..., "handle": ..., "attributes": {...}}, ...]},
+ * the form of SitemapLoader; other keys of a Target, e.g. the "masks" of a
+ * CaptureMask, are skipped</li>
+ * <li>a CSV file of "url,handle" lines, like FnTwinsDiffTest/targetList.csv;
+ * a field may be enclosed in double quotes, and a URL which starts with "/"
+ * is prefixed with the URL_PREFIX binding</li>
+ * </ul>
+ * ${NAME} in a URL is replaced with the binding of NAME as the Target is read.
+ *
+ * Not thread-safe; ParallelTargetMaterializer hands the Targets out to its
+ * workers one at a time. An error in the file is thrown from next() as an
+ * UncheckedIOException.
+ */
+final class StreamingSitemapLoader implements Iterator<Target>, AutoCloseable {
+
+    static final String URL_PREFIX = "URL_PREFIX";
+
+    private static final Pattern BINDING = Pattern.compile("\\$\\{(\\w+)}");
+
+    @FunctionalInterface
+    private interface Source {
+        /**
+         * @return the next Target, or null at the end
+         */
+        Target read() throws IOException;
+    }
+
+    private final Closeable resource;
+    private final Source source;
+    private Target next;
+    private boolean done;
+    private int count;
+
+    private StreamingSitemapLoader(Closeable resource, Source source) {
+        this.resource = resource;
+        this.source = source;
+    }
+
+    /**
+     * Reads a ".csv" file as CSV, anything else as sitemap.json.
+     */
+    static StreamingSitemapLoader open(Path sitemap, Map<String, String> bindings) throws IOException {
+        return sitemap.getFileName().toString().toLowerCase().endsWith(".csv")
+                ? csv(sitemap, bindings)
+                : json(sitemap, bindings);
+    }
+
+    static StreamingSitemapLoader json(Path sitemapJson, Map<String, String> bindings) throws IOException {
+        JsonReader reader = new JsonReader(Files.newBufferedReader(sitemapJson, StandardCharsets.UTF_8));
+        boolean[] inList = {false};
+        return new StreamingSitemapLoader(reader, () -> {
+            if (!inList[0]) {
+                if (!seekTargetList(reader)) {
+                    return null;
+                }
+                inList[0] = true;
+            }
+            if (!reader.hasNext()) {
+                reader.endArray();
+                return null;
+            }
+            return readTarget(reader, bindings);
+        });
+    }
+
+    static StreamingSitemapLoader csv(Path targetListCsv, Map<String, String> bindings) throws IOException {
+        BufferedReader reader = Files.newBufferedReader(targetListCsv, StandardCharsets.UTF_8);
+        int[] lineNumber = {0};
+        return new StreamingSitemapLoader(reader, () -> {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber[0]++;
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                List<String> fields = splitCsv(line);
+                if (fields.size() < 2) {
+                    throw new IOException(String.format("%s:%d: expected url,handle but was %s",
+                            targetListCsv, lineNumber[0], line));
+                }
+                String url = bind(fields.get(0).trim(), bindings);
+                if (url.startsWith("/") && bindings.containsKey(URL_PREFIX)) {
+                    url = bindings.get(URL_PREFIX) + url;
+                }
+                return Target.builder(url)
+                        .handle(new Handle(CaptureMask.parseHandle(fields.get(1))))
+                        .build();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Moves the reader into the array of "targetList".
+     *
+     * @return false if there is none
+     */
+    static boolean seekTargetList(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("targetList".equals(reader.nextName())) {
+                reader.beginArray();
+                return true;
+            }
+            reader.skipValue();
+        }
+        reader.endObject();
+        return false;
+    }
+
+    private static Target readTarget(JsonReader reader, Map<String, String> bindings) throws IOException {
+        String url = null;
+        String handle = null;
+        List<String[]> attributes = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "url":
+                    url = bind(reader.nextString(), bindings);
+                    break;
+                case "handle":
+                    handle = reader.nextString();
+                    break;
+                case "attributes":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String key = reader.nextName();
+                        if (reader.peek() == JsonToken.NULL) {
+                            reader.nextNull();
+                        } else {
+                            attributes.add(new String[]{key, reader.nextString()});
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (url == null || handle == null) {
+            throw new IOException("a Target without url or handle at " + reader.getPath());
+        }
+        Target.Builder builder = Target.builder(url).handle(new Handle(CaptureMask.parseHandle(handle)));
+        for (String[] kv : attributes) {
+            builder.put(kv[0], kv[1]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Splits a line of CSV; a field in double quotes may contain commas and "" for a quote.
+     */
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    sb.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    sb.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        fields.add(sb.toString());
+        return fields;
+    }
+
+    /**
+     * Replaces ${NAME} with the binding of NAME; one without a binding is left as it is.
+     */
+    static String bind(String url, Map<String, String> bindings) {
+        Matcher m = BINDING.matcher(url);
+        StringBuffer sb = new StringBuffer();
+        while (m.find()) {
+            String value = bindings.get(m.group(1));
+            m.appendReplacement(sb, Matcher.quoteReplacement(value != null ? value : m.group()));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            try {
+                next = source.read();
+            } catch (IOException | IllegalStateException e) {
+                // JsonReader throws IllegalStateException on an unexpected token
+                throw new UncheckedIOException(e instanceof IOException
+                        ? (IOException) e : new IOException(e.getMessage(), e));
+            }
+            done = (next == null);
+        }
+        return next != null;
+    }
+
+    @Override
+    public Target next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Target t = next;
+        next = null;
+        count++;
+        return t;
+    }
+
+    /**
+     * @return how many Targets were handed out so far
+     */
+    int getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        resource.close();
+    }
+}
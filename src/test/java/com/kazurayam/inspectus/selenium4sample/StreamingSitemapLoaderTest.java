@@ -0,0 +1,121 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.inspectus.materialize.discovery.Target;
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Read the sitemaps under src/test/fixtures and a generated one of 50000
+ * Targets a Target at a time.
+ */
+public class StreamingSitemapLoaderTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(StreamingSitemapLoaderTest.class);
+    private static final Map<String, String> BINDINGS =
+            Collections.singletonMap("URL_PREFIX", "http://myadmin.kazurayam.com");
+    private static Path classOutputDir;
+    private static Path fixturesDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+        fixturesDir = too.getProjectDirectory().resolve("src/test/fixtures");
+    }
+
+    @Test
+    void test_json() throws IOException {
+        try (StreamingSitemapLoader loader = StreamingSitemapLoader.open(
+                fixturesDir.resolve("FnTwinsDiffTest/sitemap.json"), BINDINGS)) {
+            Target first = loader.next();
+            assertEquals("http://myadmin.kazurayam.com/index.html", first.getUrl().toString());
+            assertEquals("By.xpath: //img[@alt='umineko']", first.getHandle().getBy().toString());
+            assertEquals("http://myadmin.kazurayam.com/repositories.html", loader.next().getUrl().toString());
+            assertEquals("http://myadmin.kazurayam.com/proverbs.html", loader.next().getUrl().toString());
+            assertFalse(loader.hasNext());
+            assertEquals(3, loader.getCount());
+        }
+    }
+
+    @Test
+    void test_json_attributes() throws IOException {
+        try (StreamingSitemapLoader loader = StreamingSitemapLoader.json(
+                fixturesDir.resolve("AppleTwinsDiffTest/sitemap.json"),
+                Collections.singletonMap("URL_PREFIX", "https://kazurayam.github.io/myApple"))) {
+            Target first = loader.next();
+            assertEquals("https://kazurayam.github.io/myApple/page1.html", first.getUrl().toString());
+            assertEquals("original", first.getAttributes().get("description"));
+        }
+    }
+
+    @Test
+    void test_csv() throws IOException {
+        try (StreamingSitemapLoader loader = StreamingSitemapLoader.open(
+                fixturesDir.resolve("FnTwinsDiffTest/targetList.csv"), BINDINGS)) {
+            Target first = loader.next();
+            assertEquals("http://myadmin.kazurayam.com/index.html", first.getUrl().toString());
+            assertEquals("By.xpath: //img[@alt='umineko']", first.getHandle().getBy().toString());
+            loader.forEachRemaining(t -> assertTrue(t.getUrl().toString().startsWith("http://myadmin")));
+            assertEquals(3, loader.getCount());
+        }
+    }
+
+    @Test
+    void test_splitCsv() {
+        assertEquals(Arrays.asList("/a.html", "By.xpath: //a[contains(@href, \"x\")]", ""),
+                StreamingSitemapLoader.splitCsv("/a.html,\"By.xpath: //a[contains(@href, \"\"x\"\")]\","));
+    }
+
+    @Test
+    void test_large_sitemap() throws IOException {
+        Path sitemap = classOutputDir.resolve("large.json");
+        try (BufferedWriter w = Files.newBufferedWriter(sitemap, StandardCharsets.UTF_8)) {
+            w.write("{\"comment\": {\"generated\": true}, \"targetList\": [\n");
+            for (int i = 0; i < 50000; i++) {
+                w.write(String.format("%s{\"url\": \"${URL_PREFIX}/page%d.html\", \"handle\": \"By.id: main\","
+                        + " \"masks\": [\"By.cssSelector: .ad\"], \"attributes\": {\"n\": \"%d\", \"x\": null}}\n",
+                        i == 0 ? "" : ",", i, i));
+            }
+            w.write("]}\n");
+        }
+        int n = 0;
+        try (StreamingSitemapLoader loader = StreamingSitemapLoader.open(sitemap, BINDINGS)) {
+            while (loader.hasNext()) {
+                Target t = loader.next();
+                assertEquals("http://myadmin.kazurayam.com/page" + n + ".html", t.getUrl().toString());
+                assertEquals(String.valueOf(n), t.getAttributes().get("n"));
+                assertFalse(t.getAttributes().containsKey("x"));
+                n++;
+            }
+        }
+        assertEquals(50000, n);
+    }
+
+    @Test
+    void test_broken() throws IOException {
+        Path sitemap = classOutputDir.resolve("broken.json");
+        Files.write(sitemap, ("{\"targetList\": [{\"url\": \"http://example.com/\", \"handle\": \"By.id: a\"},"
+                + " {\"url\": \"http://example.com/b\"}]}").getBytes(StandardCharsets.UTF_8));
+        try (StreamingSitemapLoader loader = StreamingSitemapLoader.open(sitemap, BINDINGS)) {
+            // the first Target is yielded before the error is met
+            assertEquals("http://example.com/", loader.next().getUrl().toString());
+            assertThrows(UncheckedIOException.class, loader::hasNext);
+        }
+    }
+}
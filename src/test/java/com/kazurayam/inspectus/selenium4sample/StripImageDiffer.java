@@ -0,0 +1,258 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Compares two PNG images row by row with a memory footprint that does not
+ * depend on their height, so that full-page screenshots of 1024x30000 pixels
+ * can be diffed side by side in parallel.
+ *
+ * Both images are decoded by PngRowReader in lockstep and the diff image, if
+ * asked for, is encoded by PngRowWriter as the rows go. The geometry follows
+ * the diff images of materialstore: the canvas is as large as the larger of
+ * the two, a pixel outside one of the images counts as different, and
+ * different pixels are painted in the diff color on top of the left image.
+ * Two pixels are the same when no channel differs by more than the color
+ * distortion; with the default of 15 the ratios agree with those recorded
+ * in docs/demo/store.
+ *
+ * When the two objects have the same SHA1 ID nothing is decoded at all.
+ */
+final class StripImageDiffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(StripImageDiffer.class);
+
+    static final int DEFAULT_COLOR_DISTORTION = 15;
+
+    private final Color diffColor;
+    private final int colorDistortion;
+
+    StripImageDiffer() {
+        this(Color.RED);
+    }
+
+    StripImageDiffer(Color diffColor) {
+        this(diffColor, DEFAULT_COLOR_DISTORTION);
+    }
+
+    StripImageDiffer(Color diffColor, int colorDistortion) {
+        this.diffColor = diffColor;
+        this.colorDistortion = colorDistortion;
+    }
+
+    /**
+     * @param left an object file, named &lt;sha1&gt;.png as in the store
+     * @param right an object file, named &lt;sha1&gt;.png as in the store
+     * @param diffImage where to write the diff image, or null if not needed
+     */
+    ImageDiffResult diff(Path left, Path right, Path diffImage) throws IOException {
+        return diff(idOf(left), left, idOf(right), right, diffImage);
+    }
+
+    ImageDiffResult diff(String leftId, Path left, String rightId, Path right, Path diffImage)
+            throws IOException {
+        if (leftId != null && leftId.equals(rightId)) {
+            if (diffImage != null) {
+                // materialstore records the left image as the diff of an identical pair
+                Files.copy(left, diffImage, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return ImageDiffResult.identical();
+        }
+        try (PngRowReader l = new PngRowReader(left);
+             PngRowReader r = new PngRowReader(right)) {
+            return diffRows(l, r, diffImage);
+        } catch (PngRowReader.UnsupportedPngException e) {
+            logger.warn(String.format("%s, decoding %s and %s as a whole",
+                    e.getMessage(), left.getFileName(), right.getFileName()));
+            return diffWhole(left, right, diffImage);
+        }
+    }
+
+    /**
+     * The result of a pair known to have the same pixels, e.g. by their
+     * PerceptualHash signatures, which is not decoded; the diff image, if
+     * asked for, is the left image, as of the same object.
+     */
+    ImageDiffResult samePixels(Path left, int width, int height, Path diffImage) throws IOException {
+        if (diffImage != null) {
+            Files.copy(left, diffImage, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return ImageDiffResult.samePixels(width, height);
+    }
+
+    private ImageDiffResult diffRows(PngRowReader l, PngRowReader r, Path diffImage)
+            throws IOException {
+        int width = Math.max(l.getWidth(), r.getWidth());
+        int height = Math.max(l.getHeight(), r.getHeight());
+        int[] leftRow = new int[l.getWidth()];
+        int[] rightRow = new int[r.getWidth()];
+        int[] diffRow = new int[width];
+        int paint = diffColor.getRGB();
+        long diffPixels = 0;
+        PngRowWriter writer = (diffImage != null) ? new PngRowWriter(diffImage, width, height) : null;
+        try {
+            for (int y = 0; y < height; y++) {
+                boolean hasLeft = y < l.getHeight() && l.readRow(leftRow);
+                boolean hasRight = y < r.getHeight() && r.readRow(rightRow);
+                if (hasLeft && hasRight && Arrays.equals(leftRow, rightRow) && leftRow.length == width) {
+                    // e.g. rows painted over by a CaptureMask on both sides
+                    if (writer != null) {
+                        writer.writeRow(leftRow);
+                    }
+                    continue;
+                }
+                for (int x = 0; x < width; x++) {
+                    boolean inLeft = hasLeft && x < leftRow.length;
+                    boolean inRight = hasRight && x < rightRow.length;
+                    if (inLeft && inRight && same(leftRow[x], rightRow[x])) {
+                        diffRow[x] = leftRow[x];
+                    } else {
+                        diffRow[x] = paint;
+                        diffPixels++;
+                    }
+                }
+                if (writer != null) {
+                    writer.writeRow(diffRow);
+                }
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return new ImageDiffResult(width, height, diffPixels);
+    }
+
+    /*
+     * for the rare PNGs PngRowReader does not handle
+     */
+    private ImageDiffResult diffWhole(Path left, Path right, Path diffImage) throws IOException {
+        BufferedImage l = ImageIO.read(left.toFile());
+        BufferedImage r = ImageIO.read(right.toFile());
+        if (l == null || r == null) {
+            throw new IOException("not an image: " + (l == null ? left : right));
+        }
+        int width = Math.max(l.getWidth(), r.getWidth());
+        int height = Math.max(l.getHeight(), r.getHeight());
+        int[] diffRow = new int[width];
+        int paint = diffColor.getRGB();
+        long diffPixels = 0;
+        PngRowWriter writer = (diffImage != null) ? new PngRowWriter(diffImage, width, height) : null;
+        try {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    boolean inLeft = x < l.getWidth() && y < l.getHeight();
+                    boolean inRight = x < r.getWidth() && y < r.getHeight();
+                    int lp = inLeft ? l.getRGB(x, y) : 0;
+                    if (inLeft && inRight && same(lp, r.getRGB(x, y))) {
+                        diffRow[x] = lp;
+                    } else {
+                        diffRow[x] = paint;
+                        diffPixels++;
+                    }
+                }
+                if (writer != null) {
+                    writer.writeRow(diffRow);
+                }
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return new ImageDiffResult(width, height, diffPixels);
+    }
+
+    private boolean same(int p, int q) {
+        return Math.abs(((p >> 16) & 0xFF) - ((q >> 16) & 0xFF)) <= colorDistortion
+                && Math.abs(((p >> 8) & 0xFF) - ((q >> 8) & 0xFF)) <= colorDistortion
+                && Math.abs((p & 0xFF) - (q & 0xFF)) <= colorDistortion;
+    }
+
+    private static String idOf(Path objectFile) {
+        String name = objectFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * The outcome of comparing two images.
+     */
+    static final class ImageDiffResult {
+        private final int width;
+        private final int height;
+        private final long diffPixels;
+        private final boolean sameObject;
+        private final boolean prefiltered;
+
+        ImageDiffResult(int width, int height, long diffPixels) {
+            this(width, height, diffPixels, false, false);
+        }
+
+        private ImageDiffResult(int width, int height, long diffPixels, boolean sameObject,
+                                boolean prefiltered) {
+            this.width = width;
+            this.height = height;
+            this.diffPixels = diffPixels;
+            this.sameObject = sameObject;
+            this.prefiltered = prefiltered;
+        }
+
+        static ImageDiffResult identical() {
+            return new ImageDiffResult(0, 0, 0, true, false);
+        }
+
+        static ImageDiffResult samePixels(int width, int height) {
+            return new ImageDiffResult(width, height, 0, false, true);
+        }
+
+        /**
+         * @return the percentage of different pixels, 0.0 to 100.0
+         */
+        double getDiffRatio() {
+            long total = (long) width * height;
+            return total == 0 ? 0.0 : diffPixels * 100.0 / total;
+        }
+
+        long getDiffPixels() {
+            return diffPixels;
+        }
+
+        /**
+         * @return true if short-circuited because both sides were the same object
+         */
+        boolean isSameObject() {
+            return sameObject;
+        }
+
+        /**
+         * @return true if not decoded because the pixel digests of the PerceptualHash were equal
+         */
+        boolean isPrefiltered() {
+            return prefiltered;
+        }
+
+        /**
+         * @return the ratio formatted as in the "ratio" metadata of the store, e.g. "45.73%"
+         */
+        String formatRatio() {
+            return String.format(Locale.ROOT, "%.2f%%", getDiffRatio());
+        }
+
+        @Override
+        public String toString() {
+            return formatRatio();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Diff the PNG objects of the checked-in demo store and expect the same
+ * ratios as those which materialstore recorded in its diff index.
+ */
+public class StripImageDifferTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(StripImageDifferTest.class);
+    private static Path classOutputDir;
+    private static Path left;
+    private static Path right;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+        Path myApple = too.getProjectDirectory().resolve("docs/demo/store/myApple");
+        left = myApple.resolve("20231210_213713/objects");
+        right = myApple.resolve("20231210_213721/objects");
+    }
+
+    @Test
+    void test_diff_rotated() throws IOException {
+        Path diffImage = classOutputDir.resolve("rotated.png");
+        StripImageDiffer.ImageDiffResult result = new StripImageDiffer(Color.GRAY).diff(
+                left.resolve("615e7267146e307a390756a2bb0f8fbbf767a682.png"),
+                right.resolve("191586b67024f1620995238bb1fc5382647cd793.png"),
+                diffImage);
+        assertEquals("45.73%", result.formatRatio());
+        assertFalse(result.isSameObject());
+        BufferedImage bi = ImageIO.read(diffImage.toFile());
+        assertEquals(200, bi.getWidth());
+        assertEquals(199, bi.getHeight());
+    }
+
+    @Test
+    void test_diff_resized() throws IOException {
+        StripImageDiffer.ImageDiffResult result = new StripImageDiffer(Color.GRAY).diff(
+                left.resolve("7481bdecd834029ed4f220c01e1e8d9bc904f0b9.png"),
+                right.resolve("c33b3076315c1b288bb186627e4365c36c64e0f1.png"),
+                null);
+        assertEquals("92.91%", result.formatRatio());
+    }
+
+    @Test
+    void test_diff_sameObject_is_not_decoded() throws IOException {
+        StripImageDiffer.ImageDiffResult result = new StripImageDiffer().diff(
+                left.resolve("5cd8ae1b89721741bf00a6ef29b421a3c06e310e.png"),
+                right.resolve("5cd8ae1b89721741bf00a6ef29b421a3c06e310e.png"),
+                null);
+        assertTrue(result.isSameObject());
+        assertEquals("0.00%", result.formatRatio());
+    }
+
+    @Test
+    void test_PngRowReader_agrees_with_ImageIO() throws IOException {
+        Path png = too.getProjectDirectory().resolve("docs/images/AppleTwinsDiff_top.png");
+        BufferedImage expected = ImageIO.read(png.toFile());
+        try (PngRowReader reader = new PngRowReader(png)) {
+            int[] row = new int[reader.getWidth()];
+            for (int y = 0; y < reader.getHeight(); y++) {
+                assertTrue(reader.readRow(row));
+                for (int x = 0; x < row.length; x++) {
+                    assertEquals(expected.getRGB(x, y), row[x]);
+                }
+            }
+            assertFalse(reader.readRow(row));
+        }
+    }
+
+    @Test
+    void test_mapped_read_agrees_with_stream() throws IOException {
+        Path png = too.getProjectDirectory().resolve("docs/images/AppleTwinsDiff_top.png");
+        assertTrue(Files.size(png) >= MappedObjects.MAP_THRESHOLD);
+        assertTrue(MappedObjects.map(png).isDirect());
+        try (PngRowReader mapped = new PngRowReader(png);
+             PngRowReader stream = new PngRowReader(Files.newInputStream(png))) {
+            int[] m = new int[mapped.getWidth()];
+            int[] s = new int[stream.getWidth()];
+            while (stream.readRow(s)) {
+                assertTrue(mapped.readRow(m));
+                assertArrayEquals(s, m);
+            }
+            assertFalse(mapped.readRow(m));
+        }
+        assertEquals(Digests.sha1Hex(Files.readAllBytes(png)), Digests.sha1Hex(png));
+    }
+
+    @Test
+    void test_diff_tall_image() throws IOException {
+        int width = 1024;
+        int height = 30000;
+        Path white = classOutputDir.resolve("white.png");
+        Path header = classOutputDir.resolve("header.png");
+        int[] row = new int[width];
+        try (PngRowWriter w = new PngRowWriter(white, width, height);
+             PngRowWriter h = new PngRowWriter(header, width, height)) {
+            for (int y = 0; y < height; y++) {
+                Arrays.fill(row, 0xFFFFFFFF);
+                w.writeRow(row);
+                if (y < 300) {
+                    Arrays.fill(row, 0xFF000000);
+                }
+                h.writeRow(row);
+            }
+        }
+        assertTrue(Files.size(white) < 1024 * 1024);
+        StripImageDiffer.ImageDiffResult result =
+                new StripImageDiffer().diff(white, header, classOutputDir.resolve("tall-diff.png"));
+        assertEquals(300L * width, result.getDiffPixels());
+        assertEquals("1.00%", result.formatRatio());
+    }
+}
@@ -0,0 +1,235 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Makes the small PNG previews which a LightweightReport shows in place of
+ * the full-size images.
+ *
+ * A thumbnail is WIDTH pixels wide and at most MAX_HEIGHT pixels high. It
+ * shows the whole page: a page too long to fit is squeezed vertically,
+ * every MAX_HEIGHT-th part of it into a row, so a change at the bottom of
+ * a long full-page screenshot shows in the preview too. The report links
+ * the thumbnail to the full-size image. The rows are decoded with
+ * PngRowReader and averaged into the thumbnail as they come, so the memory
+ * does not depend on the height of the screenshot.
+ *
+ * Thumbnails are kept in the StoreSidecar under the name of the object,
+ * i.e. its SHA1, so an object which several JobTimestamps share has one.
+ */
+final class ThumbnailMaker {
+
+    static final int WIDTH = 240;
+    static final int MAX_HEIGHT = 480;
+
+    private final Path dir;
+
+    ThumbnailMaker(Path storeRoot, String jobName) {
+        this.dir = StoreSidecar.resolve(storeRoot, "thumbnails", jobName);
+    }
+
+    Path getDir() {
+        return dir;
+    }
+
+    /**
+     * @param objectFileName e.g. "5cd8ae1b89721741bf00a6ef29b421a3c06e310e.png"
+     */
+    Path thumbnailOf(String objectFileName) {
+        return dir.resolve(objectFileName);
+    }
+
+    /**
+     * Makes the thumbnail of an object file unless it exists already.
+     */
+    Path make(Path png) throws IOException {
+        Path thumbnail = thumbnailOf(png.getFileName().toString());
+        if (!Files.exists(thumbnail)) {
+            try (InputStream in = MappedObjects.newInputStream(png)) {
+                write(thumbnail, in, () -> ImageIO.read(png.toFile()));
+            }
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Makes the thumbnail of an object from its bytes, e.g. as soon as it was written.
+     */
+    Path make(String objectFileName, byte[] png) throws IOException {
+        Path thumbnail = thumbnailOf(objectFileName);
+        if (!Files.exists(thumbnail)) {
+            write(thumbnail, new ByteArrayInputStream(png),
+                    () -> ImageIO.read(new ByteArrayInputStream(png)));
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Deletes the thumbnails of the objects which are gone, e.g. after the
+     * RetentionEngine dropped JobTimestamps. Thumbnails being written, still
+     * under a ".tmp" name, are left alone.
+     *
+     * @param liveObjectFileNames the object files of the JobTimestamps left
+     * @return the number of thumbnails deleted
+     */
+    int collectGarbage(Set<String> liveObjectFileNames) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path thumbnail : ds) {
+                String name = thumbnail.getFileName().toString();
+                if (!name.endsWith(".tmp") && !liveObjectFileNames.contains(name)) {
+                    Files.delete(thumbnail);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    @FunctionalInterface
+    private interface Fallback {
+        BufferedImage read() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Content {
+        void writeTo(OutputStream os) throws IOException;
+    }
+
+    private void write(Path thumbnail, InputStream in, Fallback fallback) throws IOException {
+        write(thumbnail, os -> {
+            try (PngRowReader reader = new PngRowReader(in)) {
+                scale(new RowSource() {
+                    @Override
+                    public int width() {
+                        return reader.getWidth();
+                    }
+
+                    @Override
+                    public int height() {
+                        return reader.getHeight();
+                    }
+
+                    @Override
+                    public boolean readRow(int y, int[] argb) throws IOException {
+                        return reader.readRow(argb);
+                    }
+                }, os);
+            } catch (PngRowReader.UnsupportedPngException e) {
+                BufferedImage image = fallback.read();
+                if (image == null) {
+                    throw new IOException("not an image: " + thumbnail.getFileName());
+                }
+                scale(rowsOf(image), os);
+            }
+        });
+    }
+
+    private void write(Path thumbnail, Content content) throws IOException {
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, thumbnail.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp)) {
+                content.writeTo(os);
+            }
+            Files.move(tmp, thumbnail, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static RowSource rowsOf(BufferedImage image) {
+        return new RowSource() {
+            @Override
+            public int width() {
+                return image.getWidth();
+            }
+
+            @Override
+            public int height() {
+                return image.getHeight();
+            }
+
+            @Override
+            public boolean readRow(int y, int[] argb) {
+                image.getRGB(0, y, image.getWidth(), 1, argb, 0, image.getWidth());
+                return true;
+            }
+        };
+    }
+
+    private interface RowSource {
+        int width();
+
+        int height();
+
+        boolean readRow(int y, int[] argb) throws IOException;
+    }
+
+    /**
+     * Box filter: every pixel of the thumbnail is the average of the pixels
+     * of the source which fall into it. Images narrower than WIDTH keep their
+     * width; images taller than MAX_HEIGHT, once scaled, are squeezed into it.
+     */
+    private static void scale(RowSource source, OutputStream os) throws IOException {
+        int width = source.width();
+        int height = source.height();
+        int outWidth = Math.min(WIDTH, width);
+        int scaledHeight = Math.max(1, (int) ((long) height * outWidth / width));
+        int outHeight = Math.min(MAX_HEIGHT, scaledHeight);
+        int[] row = new int[width];
+        int[] out = new int[outWidth];
+        long[] r = new long[outWidth];
+        long[] g = new long[outWidth];
+        long[] b = new long[outWidth];
+        int[] n = new int[outWidth];
+        int[] column = new int[width];
+        for (int x = 0; x < width; x++) {
+            column[x] = (int) ((long) x * outWidth / width);
+        }
+        try (PngRowWriter writer = new PngRowWriter(os, outWidth, outHeight, Deflater.BEST_SPEED)) {
+            int outY = 0;
+            for (int y = 0; y < height; y++) {
+                if (!source.readRow(y, row)) {
+                    break;
+                }
+                for (int x = 0; x < width; x++) {
+                    int c = column[x];
+                    int p = row[x];
+                    r[c] += (p >> 16) & 0xFF;
+                    g[c] += (p >> 8) & 0xFF;
+                    b[c] += p & 0xFF;
+                    n[c]++;
+                }
+                int nextOutY = (int) ((long) (y + 1) * outHeight / height);
+                if (nextOutY > outY || y == height - 1) {
+                    for (int c = 0; c < outWidth; c++) {
+                        int k = Math.max(1, n[c]);
+                        out[c] = 0xFF000000 | (int) (r[c] / k) << 16 | (int) (g[c] / k) << 8 | (int) (b[c] / k);
+                        r[c] = g[c] = b[c] = 0;
+                        n[c] = 0;
+                    }
+                    // a source row may cover more than one row of the thumbnail
+                    int until = Math.min(Math.max(nextOutY, outY + 1), outHeight);
+                    for (; outY < until; outY++) {
+                        writer.writeRow(out);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.materialstore.core.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Stores an entire-page screenshot as a stack of horizontal slices, one
+ * viewport high, each a content-addressed object, plus a manifest that
+ * lists them top to bottom.
+ * <pre>
+ * &lt;store&gt;-sidecar/slices/&lt;JobName&gt;/objects/&lt;sha1&gt;.png
+ * &lt;store&gt;-sidecar/slices/&lt;JobName&gt;/&lt;JobTimestamp&gt;/&lt;environment&gt;-&lt;step&gt;.tsv
+ * </pre>
+ * The manifest is named after the environment and the step of the
+ * screenshot, see nameOf(), as FnTwinsDiff writes the same steps of both
+ * environments into one JobTimestamp.
+ * The ID of a slice is the SHA1 of its width, height and pixels, taken
+ * while the screenshot is decoded row by row. A slice whose ID is found
+ * among the objects already, e.g. the footer of a long page captured by
+ * the previous JobTimestamp, is not encoded nor written again; only the
+ * changed slices cost an encode and disk space. diff() compares two
+ * manifests slice by slice and decodes only the pairs whose IDs differ.
+ *
+ * The slices are cut from one stretched screenshot by EntirePageCapture
+ * rather than shot while scrolling, as scrolling repeats a sticky header
+ * in every slice and would shift the slices under it. So the browser
+ * still sends the whole page; what is saved is the encoding, the storage
+ * and the diff of the slices that did not change.
+ */
+final class ViewportSlices {
+
+    private static final Logger logger = LoggerFactory.getLogger(ViewportSlices.class);
+
+    /* the window of the tests is 1024x1000 */
+    static final int DEFAULT_SLICE_HEIGHT = 1000;
+
+    private static final String MANIFEST_SUFFIX = ".tsv";
+
+    /**
+     * A slice as listed in a manifest.
+     */
+    static final class Slice {
+        private final String id;
+        private final int y;
+        private final int width;
+        private final int height;
+
+        Slice(String id, int y, int width, int height) {
+            this.id = id;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        int getY() {
+            return y;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s\t%d\t%d\t%d", id, y, width, height);
+        }
+    }
+
+    /**
+     * The slices of a screenshot, and how many of them were written anew.
+     */
+    static final class Manifest {
+        private final List<Slice> slices;
+        private final int written;
+
+        Manifest(List<Slice> slices, int written) {
+            this.slices = Collections.unmodifiableList(slices);
+            this.written = written;
+        }
+
+        List<Slice> getSlices() {
+            return slices;
+        }
+
+        int getWritten() {
+            return written;
+        }
+
+        int getReused() {
+            return slices.size() - written;
+        }
+    }
+
+    /**
+     * The outcome of comparing two manifests.
+     */
+    static final class SliceDiff {
+        private final List<Integer> changed;
+        private final long diffPixels;
+        private final long totalPixels;
+
+        SliceDiff(List<Integer> changed, long diffPixels, long totalPixels) {
+            this.changed = Collections.unmodifiableList(changed);
+            this.diffPixels = diffPixels;
+            this.totalPixels = totalPixels;
+        }
+
+        /**
+         * @return the indexes of the slices that differ, top first
+         */
+        List<Integer> getChanged() {
+            return changed;
+        }
+
+        long getDiffPixels() {
+            return diffPixels;
+        }
+
+        /**
+         * @return the percentage of different pixels over the whole page, 0.0 to 100.0
+         */
+        double getDiffRatio() {
+            return totalPixels == 0 ? 0.0 : diffPixels * 100.0 / totalPixels;
+        }
+    }
+
+    private final Path dir;
+    private final int sliceHeight;
+
+    ViewportSlices(Path storeRoot, String jobName) {
+        this(storeRoot, jobName, DEFAULT_SLICE_HEIGHT);
+    }
+
+    ViewportSlices(Path storeRoot, String jobName, int sliceHeight) {
+        if (sliceHeight < 1) {
+            throw new IllegalArgumentException("sliceHeight must be >= 1 but was " + sliceHeight);
+        }
+        this.dir = StoreSidecar.resolve(storeRoot, "slices", jobName);
+        this.sliceHeight = sliceHeight;
+    }
+
+    Path objectPath(String id) {
+        return dir.resolve(IndexEntry.OBJECTS_DIR_NAME).resolve(id + ".png");
+    }
+
+    /**
+     * @param name the step, prefixed by the environment if there is one, as nameOf() makes it
+     */
+    Path manifestPath(String jobTimestamp, String name) {
+        return dir.resolve(jobTimestamp).resolve(name + MANIFEST_SUFFIX);
+    }
+
+    /**
+     * @param id of the screenshot, which names the manifest if the metadata has no "step"
+     * @return e.g. "Production-01", or "01" if the metadata has no "environment"
+     */
+    static String nameOf(Metadata metadata, String id) {
+        String environment = metadata.get("environment");
+        String step = metadata.get("step");
+        return (environment != null ? environment + "-" : "") + (step != null ? step : id);
+    }
+
+    @FunctionalInterface
+    private interface RowSource {
+        boolean readRow(int[] argb) throws IOException;
+    }
+
+    /**
+     * Slices a screenshot and records its manifest under the name. A PNG
+     * which PngRowReader does not read is decoded by ImageIO instead.
+     */
+    Manifest write(String jobTimestamp, String name, byte[] png) throws IOException {
+        try (PngRowReader reader = new PngRowReader(new ByteArrayInputStream(png))) {
+            return write(jobTimestamp, name, reader.getWidth(), reader.getHeight(), reader::readRow);
+        } catch (PngRowReader.UnsupportedPngException e) {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+            if (image == null) {
+                throw new IOException("not an image: " + name);
+            }
+            return write(jobTimestamp, name, image);
+        }
+    }
+
+    /**
+     * Slices a screenshot already decoded, e.g. for other purposes as well.
+     */
+    Manifest write(String jobTimestamp, String name, BufferedImage image) throws IOException {
+        int width = image.getWidth();
+        int[] y = {0};
+        return write(jobTimestamp, name, width, image.getHeight(), argb -> {
+            image.getRGB(0, y[0]++, width, 1, argb, 0, width);
+            return true;
+        });
+    }
+
+    private Manifest write(String jobTimestamp, String name, int width, int height, RowSource reader)
+            throws IOException {
+        Files.createDirectories(dir.resolve(IndexEntry.OBJECTS_DIR_NAME));
+        List<Slice> slices = new ArrayList<>();
+        int written = 0;
+        int[][] band = new int[Math.min(sliceHeight, height)][width];
+        byte[] row = new byte[width * 4];
+        for (int y = 0; y < height; y += sliceHeight) {
+            int h = Math.min(sliceHeight, height - y);
+            MessageDigest md = Digests.newSha1();
+            md.update(String.format("%dx%d", width, h).getBytes(StandardCharsets.US_ASCII));
+            for (int i = 0; i < h; i++) {
+                if (!reader.readRow(band[i])) {
+                    throw new IOException("truncated PNG at row " + (y + i));
+                }
+                toBytes(band[i], row);
+                md.update(row);
+            }
+            String id = Digests.toHex(md.digest());
+            Path object = objectPath(id);
+            if (!Files.exists(object)) {
+                encode(band, h, width, object);
+                written++;
+            }
+            slices.add(new Slice(id, y, width, h));
+        }
+        Path manifest = manifestPath(jobTimestamp, name);
+        Files.createDirectories(manifest.getParent());
+        try (BufferedWriter w = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8)) {
+            for (Slice s : slices) {
+                w.write(s.toString());
+                w.write('\n');
+            }
+        }
+        logger.debug(String.format("%s/%s: %d slices, %d written", jobTimestamp, name, slices.size(), written));
+        return new Manifest(slices, written);
+    }
+
+    /**
+     * @return the manifest of the name, or null if there is none
+     */
+    Manifest read(String jobTimestamp, String name) throws IOException {
+        Path manifest = manifestPath(jobTimestamp, name);
+        if (!Files.exists(manifest)) {
+            return null;
+        }
+        List<Slice> slices = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            String[] f = line.split("\t");
+            if (f.length == 4) {
+                slices.add(new Slice(f[0], Integer.parseInt(f[1]),
+                        Integer.parseInt(f[2]), Integer.parseInt(f[3])));
+            }
+        }
+        return new Manifest(slices, 0);
+    }
+
+    /**
+     * Compares the slices at the same index; a slice which one side lacks
+     * counts as different all over.
+     */
+    SliceDiff diff(Manifest left, Manifest right, StripImageDiffer differ) throws IOException {
+        List<Integer> changed = new ArrayList<>();
+        long diffPixels = 0;
+        long totalPixels = 0;
+        int n = Math.max(left.getSlices().size(), right.getSlices().size());
+        for (int i = 0; i < n; i++) {
+            Slice l = i < left.getSlices().size() ? left.getSlices().get(i) : null;
+            Slice r = i < right.getSlices().size() ? right.getSlices().get(i) : null;
+            if (l != null && r != null && l.getId().equals(r.getId())) {
+                totalPixels += (long) l.getWidth() * l.getHeight();
+                continue;
+            }
+            changed.add(i);
+            if (l == null || r == null) {
+                Slice s = (l != null) ? l : r;
+                long pixels = (long) s.getWidth() * s.getHeight();
+                diffPixels += pixels;
+                totalPixels += pixels;
+            } else {
+                StripImageDiffer.ImageDiffResult result =
+                        differ.diff(objectPath(l.getId()), objectPath(r.getId()), null);
+                diffPixels += result.getDiffPixels();
+                totalPixels += (long) Math.max(l.getWidth(), r.getWidth()) * Math.max(l.getHeight(), r.getHeight());
+            }
+        }
+        return new SliceDiff(changed, diffPixels, totalPixels);
+    }
+
+    /**
+     * Deletes the slice objects which no manifest lists any longer, e.g.
+     * after the RetentionEngine dropped JobTimestamps.
+     *
+     * @param liveJobTimestamps the JobTimestamps whose manifests are kept;
+     *                          the manifests of the others are deleted too
+     * @return the number of objects deleted
+     */
+    int collectGarbage(Set<String> liveJobTimestamps) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        Set<String> referenced = new HashSet<>();
+        try (DirectoryStream<Path> jobTimestamps = Files.newDirectoryStream(dir)) {
+            for (Path tsDir : jobTimestamps) {
+                String name = tsDir.getFileName().toString();
+                if (name.equals(IndexEntry.OBJECTS_DIR_NAME)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> manifests = Files.newDirectoryStream(tsDir, "*" + MANIFEST_SUFFIX)) {
+                    for (Path manifest : manifests) {
+                        if (liveJobTimestamps.contains(name)) {
+                            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                                referenced.add(line.split("\t", 2)[0]);
+                            }
+                        } else {
+                            Files.delete(manifest);
+                        }
+                    }
+                }
+                if (!liveJobTimestamps.contains(name)) {
+                    Files.deleteIfExists(tsDir);
+                }
+            }
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> objects = Files.newDirectoryStream(dir.resolve(IndexEntry.OBJECTS_DIR_NAME))) {
+            for (Path object : objects) {
+                String name = object.getFileName().toString();
+                // a slice being written is under a ".tmp" name until it is complete
+                if (name.endsWith(".png") && !referenced.contains(name.substring(0, name.length() - ".png".length()))) {
+                    Files.delete(object);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /*
+     * written beside, then moved in place, so that a concurrent writer of
+     * the same slice never sees it half written
+     */
+    private static void encode(int[][] band, int height, int width, Path object) throws IOException {
+        Path tmp = Files.createTempFile(object.getParent(), object.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tmp);
+                 PngRowWriter writer = new PngRowWriter(os, width, height, Deflater.BEST_SPEED)) {
+                for (int i = 0; i < height; i++) {
+                    writer.writeRow(band[i]);
+                }
+            }
+            try {
+                Files.move(tmp, object);
+            } catch (FileAlreadyExistsException e) {
+                // the same pixels, written by someone else meanwhile
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void toBytes(int[] argb, byte[] out) {
+        for (int x = 0, i = 0; x < argb.length; x++) {
+            int p = argb[x];
+            out[i++] = (byte) (p >>> 24);
+            out[i++] = (byte) (p >>> 16);
+            out[i++] = (byte) (p >>> 8);
+            out[i++] = (byte) p;
+        }
+    }
+}
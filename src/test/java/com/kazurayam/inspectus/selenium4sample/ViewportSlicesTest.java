@@ -0,0 +1,134 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import com.kazurayam.unittest.TestOutputOrganizer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Slice a long page, then the same page with a new header and with a row
+ * more at the bottom, and see that only the slices that changed are
+ * written and diffed.
+ */
+public class ViewportSlicesTest {
+
+    private static final TestOutputOrganizer too =
+            TestOutputOrganizerFactory.create(ViewportSlicesTest.class);
+    private static Path classOutputDir;
+
+    @BeforeAll
+    static void setupClass() throws IOException {
+        classOutputDir = too.cleanClassOutputDirectory();
+    }
+
+    @Test
+    void test_reuse_unchanged_slices() throws IOException {
+        Path store = classOutputDir.resolve("reuse").resolve("store");
+        ViewportSlices slices = new ViewportSlices(store, "myJob");
+        ViewportSlices.Manifest first = slices.write("20240101_000000", "01", page(5200, "v1", Color.BLUE));
+        assertEquals(6, first.getSlices().size());
+        // the slices 2, 3 and 4 have the same stripes, and are stored once
+        assertEquals(4, first.getWritten());
+        assertEquals(first.getSlices().get(2).getId(), first.getSlices().get(4).getId());
+        assertEquals(200, first.getSlices().get(5).getHeight());
+        assertEquals(5000, first.getSlices().get(5).getY());
+        // only the header changed
+        ViewportSlices.Manifest second = slices.write("20240102_000000", "01", page(5200, "v2", Color.BLUE));
+        assertEquals(1, second.getWritten());
+        assertEquals(5, second.getReused());
+        assertEquals(Arrays.asList(first.getSlices().get(1).getId(), first.getSlices().get(5).getId()),
+                Arrays.asList(second.getSlices().get(1).getId(), second.getSlices().get(5).getId()));
+        // read back from the manifest
+        ViewportSlices.Manifest read = slices.read("20240102_000000", "01");
+        assertEquals(second.getSlices().toString(), read.getSlices().toString());
+        assertNull(slices.read("20240102_000000", "99"));
+
+        ViewportSlices.SliceDiff diff = slices.diff(first, second, new StripImageDiffer());
+        assertEquals(Collections.singletonList(0), diff.getChanged());
+        assertTrue(diff.getDiffPixels() > 0);
+        assertTrue(diff.getDiffRatio() < 1.0, String.valueOf(diff.getDiffRatio()));
+    }
+
+    @Test
+    void test_longer_page() throws IOException {
+        Path store = classOutputDir.resolve("longer").resolve("store");
+        ViewportSlices slices = new ViewportSlices(store, "myJob");
+        ViewportSlices.Manifest first = slices.write("20240101_000000", "01", page(3000, "v1", Color.BLUE));
+        ViewportSlices.Manifest second = slices.write("20240102_000000", "01", page(3500, "v1", Color.BLUE));
+        assertEquals(3, first.getSlices().size());
+        assertEquals(4, second.getSlices().size());
+        assertEquals(1, second.getWritten());
+        ViewportSlices.SliceDiff diff = slices.diff(first, second, new StripImageDiffer());
+        // the slice the shorter page lacks counts in full
+        assertEquals(Collections.singletonList(3), diff.getChanged());
+        assertEquals(1024L * 500, diff.getDiffPixels());
+    }
+
+    @Test
+    void test_collectGarbage() throws IOException {
+        Path store = classOutputDir.resolve("gc").resolve("store");
+        ViewportSlices slices = new ViewportSlices(store, "myJob");
+        slices.write("20240101_000000", "01", page(2000, "v1", Color.BLUE));
+        ViewportSlices.Manifest kept = slices.write("20240102_000000", "01", page(2000, "v2", Color.RED));
+        assertEquals(2, kept.getWritten());
+        // a slice being written by another job
+        Path inFlight = Files.createTempFile(slices.objectPath("0000").getParent(), "0000.png", ".tmp");
+        assertEquals(2, slices.collectGarbage(Collections.singleton("20240102_000000")));
+        assertFalse(Files.exists(slices.manifestPath("20240101_000000", "01")));
+        for (ViewportSlices.Slice s : kept.getSlices()) {
+            assertTrue(Files.exists(slices.objectPath(s.getId())));
+        }
+        assertTrue(Files.exists(inFlight));
+    }
+
+    @Test
+    void test_write_decoded_image() throws IOException {
+        Path store = classOutputDir.resolve("decoded").resolve("store");
+        ViewportSlices slices = new ViewportSlices(store, "myJob");
+        byte[] png = page(2500, "v1", Color.BLUE);
+        ViewportSlices.Manifest fromBytes = slices.write("20240101_000000", "01", png);
+        ViewportSlices.Manifest fromImage = slices.write("20240102_000000", "01",
+                ImageIO.read(new ByteArrayInputStream(png)));
+        assertEquals(fromBytes.getSlices().toString(), fromImage.getSlices().toString());
+        assertEquals(0, fromImage.getWritten());
+    }
+
+    /*
+     * a header with the version in it, then stripes of the given color
+     */
+    private static byte[] page(int height, String version, Color stripes) throws IOException {
+        BufferedImage image = new BufferedImage(1024, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, 1024, height);
+            g.setColor(Color.BLACK);
+            g.drawString("header " + version, 20, 40);
+            g.setColor(stripes);
+            for (int y = 1200; y < height; y += 100) {
+                g.fillRect(0, y, 1024, 20);
+            }
+        } finally {
+            g.dispose();
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", baos);
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,78 @@
+package com.kazurayam.inspectus.selenium4sample;
+
+import org.openqa.selenium.WebDriver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of headless browsers.
+ * A worker borrows one WebDriver, keeps it for all the Targets it processes,
+ * and gives it back when done. The drivers are taken lazily from
+ * BrowserSessions and handed back to it on close(), so they stay warm for
+ * the next job.
+ */
+class WebDriverPool implements AutoCloseable {
+
+    private final int size;
+    private final Supplier<WebDriver> factory;
+    private final Consumer<WebDriver> disposer;
+    private final BlockingQueue<WebDriver> idle;
+    private final List<WebDriver> created;
+
+    WebDriverPool(int size) {
+        this(size, BrowserSessions::acquire, BrowserSessions::release);
+    }
+
+    WebDriverPool(int size, Supplier<WebDriver> factory, Consumer<WebDriver> disposer) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be >= 1 but was " + size);
+        }
+        this.size = size;
+        this.factory = factory;
+        this.disposer = disposer;
+        this.idle = new LinkedBlockingQueue<>();
+        this.created = new ArrayList<>();
+    }
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return an idle WebDriver; a new one is launched if the pool has not
+     * reached its size yet, otherwise blocks until another worker releases one
+     */
+    WebDriver borrow() throws InterruptedException {
+        WebDriver driver = idle.poll();
+        if (driver != null) {
+            return driver;
+        }
+        synchronized (created) {
+            if (created.size() < size) {
+                driver = factory.get();
+                created.add(driver);
+                return driver;
+            }
+        }
+        return idle.take();
+    }
+
+    void release(WebDriver driver) {
+        idle.offer(driver);
+    }
+
+    @Override
+    public void close() {
+        synchronized (created) {
+            for (WebDriver driver : created) {
+                disposer.accept(driver);
+            }
+            created.clear();
+            idle.clear();
+        }
+    }
+}